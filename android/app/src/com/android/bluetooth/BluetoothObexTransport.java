@@ -15,7 +15,9 @@
 
 package com.android.bluetooth;
 
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
 
 import com.android.obex.ObexTransport;
 
@@ -42,18 +44,33 @@ public class BluetoothObexTransport implements ObexTransport {
 
     private boolean mIsCoverArt = false;
 
+    private final ObexSessionStats mStats;
+
     public BluetoothObexTransport(BluetoothSocket socket) {
         this.mSocket = socket;
+        mStats = new ObexSessionStats(getStatsName(socket), SystemClock.elapsedRealtime());
     }
 
     public BluetoothObexTransport(BluetoothSocket socket, int transmitSize, int receiveSize) {
         this.mSocket = socket;
         this.mMaxTransmitPacketSize = transmitSize;
         this.mMaxReceivePacketSize = receiveSize;
+        mStats = new ObexSessionStats(getStatsName(socket), SystemClock.elapsedRealtime());
+    }
+
+    private static String getStatsName(BluetoothSocket socket) {
+        if (socket == null) {
+            return "OBEX";
+        }
+        String type = socket.getConnectionType() == BluetoothSocket.TYPE_L2CAP ? "L2CAP" : "RFCOMM";
+        BluetoothDevice device = socket.getRemoteDevice();
+        return device == null ? type : type + " " + device.getAnonymizedAddress();
     }
 
     @Override
     public void close() throws IOException {
+        mStats.onClosed(SystemClock.elapsedRealtime(), isSrmSupported(),
+                getMaxTransmitPacketSize(), getMaxReceivePacketSize());
         mSocket.close();
     }
 
@@ -69,12 +86,12 @@ public class BluetoothObexTransport implements ObexTransport {
 
     @Override
     public InputStream openInputStream() throws IOException {
-        return mSocket.getInputStream();
+        return mStats.countReceived(mSocket.getInputStream());
     }
 
     @Override
     public OutputStream openOutputStream() throws IOException {
-        return mSocket.getOutputStream();
+        return mStats.countSent(mSocket.getOutputStream());
     }
 
     @Override
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import com.android.bluetooth.btservice.ProfileService;
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Paces the operations of a profile on a group of devices, such as setting the volume of a CSIP
+ * set, to the acknowledgements of the group.
+ *
+ * <p>Only one operation per group is sent to the stack at a time. The values requested while one
+ * is in flight are not sent, but the latest one is kept and sent once the operation in flight is
+ * acknowledged, or has timed out.
+ *
+ * @param <T> the type of the value of the operation
+ */
+public class GroupOperationCoalescer<T> {
+    private static final String TAG = "GroupOperationCoalescer";
+
+    private static final String ENABLED_PROPERTY = "bluetooth.le_audio.group_coalescing.enabled";
+
+    /** Sends an operation to the stack. */
+    public interface Sender<T> {
+        /** Sends the operation setting {@code value} to the devices of the group. */
+        void send(int groupId, T value);
+    }
+
+    // An operation in flight, and the value to send once it is acknowledged, if any
+    private static class InFlight<T> {
+        T mPending;
+        boolean mHasPending;
+    }
+
+    /** Returns whether the group operations of the LE audio profiles are coalesced. */
+    public static boolean isEnabled() {
+        return SystemProperties.getBoolean(ENABLED_PROPERTY, false);
+    }
+
+    private final String mName;
+    private final Handler mHandler;
+    private final long mTimeoutMillis;
+    private final Sender<T> mSender;
+
+    @GuardedBy("mInFlight")
+    private final Map<Integer, InFlight<T>> mInFlight = new HashMap<>();
+    @GuardedBy("mInFlight")
+    private int mSentCount;
+    @GuardedBy("mInFlight")
+    private int mCoalescedCount;
+
+    /**
+     * @param name the name of the operation, in the logs and dumpsys
+     * @param looper the looper the timeouts are handled on
+     * @param timeoutMillis the time an operation is waited for before the next one is sent
+     */
+    public GroupOperationCoalescer(String name, Looper looper, long timeoutMillis,
+            Sender<T> sender) {
+        mName = name;
+        mHandler = new Handler(looper);
+        mTimeoutMillis = timeoutMillis;
+        mSender = sender;
+    }
+
+    /**
+     * Sends an operation to a group, or keeps it to be sent once the operation in flight on the
+     * group is acknowledged, replacing the one kept before.
+     */
+    public void request(int groupId, T value) {
+        synchronized (mInFlight) {
+            InFlight<T> inFlight = mInFlight.get(groupId);
+            if (inFlight != null) {
+                if (inFlight.mHasPending) {
+                    mCoalescedCount++;
+                }
+                inFlight.mPending = value;
+                inFlight.mHasPending = true;
+                return;
+            }
+            inFlight = new InFlight<>();
+            mInFlight.put(groupId, inFlight);
+            startTimeout(groupId, inFlight);
+            mSentCount++;
+        }
+        mSender.send(groupId, value);
+    }
+
+    /**
+     * Called when the operation in flight on a group is acknowledged, successfully or not.
+     *
+     * @return whether a newer operation has been sent: the acknowledged value is then out of date
+     *     and should not be reported
+     */
+    public boolean onAcknowledged(int groupId) {
+        T value;
+        synchronized (mInFlight) {
+            InFlight<T> inFlight = mInFlight.get(groupId);
+            if (inFlight == null) {
+                return false;
+            }
+            mHandler.removeCallbacksAndMessages(inFlight);
+            if (!inFlight.mHasPending) {
+                mInFlight.remove(groupId);
+                return false;
+            }
+            value = inFlight.mPending;
+            inFlight.mPending = null;
+            inFlight.mHasPending = false;
+            startTimeout(groupId, inFlight);
+            mSentCount++;
+        }
+        mSender.send(groupId, value);
+        return true;
+    }
+
+    /** Returns whether an operation is in flight on a group. */
+    public boolean isInFlight(int groupId) {
+        synchronized (mInFlight) {
+            return mInFlight.containsKey(groupId);
+        }
+    }
+
+    /** Forgets the operations in flight and the values kept, of all the groups. */
+    public void clear() {
+        synchronized (mInFlight) {
+            for (InFlight<T> inFlight : mInFlight.values()) {
+                mHandler.removeCallbacksAndMessages(inFlight);
+            }
+            mInFlight.clear();
+        }
+    }
+
+    @GuardedBy("mInFlight")
+    private void startTimeout(int groupId, InFlight<T> inFlight) {
+        mHandler.postDelayed(() -> {
+            Log.w(TAG, mName + ": no acknowledgement of group " + groupId);
+            onAcknowledged(groupId);
+        }, inFlight, mTimeoutMillis);
+    }
+
+    /** Prints the number of operations sent and coalesced. */
+    public void dump(StringBuilder sb) {
+        synchronized (mInFlight) {
+            ProfileService.println(sb, "  " + mName + ": sent " + mSentCount + ", coalesced "
+                    + mCoalescedCount + ", in flight: " + mInFlight.keySet());
+        }
+    }
+}
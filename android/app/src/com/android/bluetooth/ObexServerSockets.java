@@ -19,12 +19,22 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.Log;
 
+import com.android.bluetooth.flags.FeatureFlags;
+import com.android.bluetooth.flags.FeatureFlagsImpl;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerSession;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -34,8 +44,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  * and channel numbers have been assigned.<br>
  * Use {@link #getRfcommChannel()} and {@link #getL2capPsm()} to get the channel numbers to
  * put into the SDP record.<br>
- * Call {@link #shutdown(boolean)} to terminate the accept threads created by the call to
+ * Call {@link #shutdown(boolean)} to terminate the accept tasks started by the call to
  * {@link #create(IObexConnectionHandler)}.<br>
+ * When the sockets report their incoming connections to event listeners, the connections of
+ * all the profiles are accepted from a single shared thread. Otherwise, which is the default,
+ * each socket still blocks a thread in accept(): the accept tasks run on a shared pool of
+ * threads, which are reused when the servers are restarted but are as many as the sockets.<br>
  * A reference to an object of this type cannot be reused, and the {@link BluetoothServerSocket}
  * object references passed to this object will be closed by this object, hence cannot be reused
  * either (This is needed, as the only way to interrupt an accept call is to close the socket...)
@@ -55,12 +69,23 @@ public class ObexServerSockets {
     /* The wrapped sockets */
     private final BluetoothServerSocket mRfcommSocket;
     private final BluetoothServerSocket mL2capSocket;
-    /* Handles to the accept threads. Needed for shutdown. */
-    private SocketAcceptThread mRfcommThread;
-    private SocketAcceptThread mL2capThread;
+    /* Handles to the accept tasks. Needed for shutdown. */
+    private AcceptTask mRfcommTask;
+    private AcceptTask mL2capTask;
 
     private static volatile AtomicInteger sInstanceCounter = new AtomicInteger(0);
 
+    private static final AtomicInteger sAcceptThreadCounter = new AtomicInteger(0);
+    /* Runs the accept tasks of all the OBEX servers, one thread per listening socket, without
+     * socket event listeners. The idle threads are kept for a minute. */
+    private static final ExecutorService sAcceptExecutor = Executors.newCachedThreadPool(
+            runnable -> new Thread(runnable,
+                    "ObexAcceptThread" + sAcceptThreadCounter.getAndIncrement()));
+
+    private static final FeatureFlags sFeatureFlags = new FeatureFlagsImpl();
+    /* Accepts the connections of all the OBEX servers, with socket event listeners. */
+    private static HandlerThread sAcceptLooperThread;
+
     private ObexServerSockets(IObexConnectionHandler conHandler, BluetoothServerSocket rfcommSocket,
             BluetoothServerSocket l2capSocket) {
         mConHandler = conHandler;
@@ -202,24 +227,81 @@ public class ObexServerSockets {
     }
 
     /**
-     * Initiate the accept threads.
-     * Will create a thread for each socket type. an incoming connection will be signaled to
-     * the {@link IObexConnectionValidator#onConnect()}, at which point both threads will exit.
+     * Initiate the accept tasks.
+     * Will start a task for each socket type. an incoming connection will be signaled to
+     * the {@link IObexConnectionValidator#onConnect()}, at which point both tasks will exit.
      */
     private void startAccept() {
         if (D) {
             Log.d(mTag, "startAccept()");
         }
 
-        mRfcommThread = new SocketAcceptThread(mRfcommSocket);
-        mRfcommThread.start();
+        mRfcommTask = startAcceptTask(mRfcommSocket);
+        mL2capTask = startAcceptTask(mL2capSocket);
+    }
+
+    private AcceptTask startAcceptTask(BluetoothServerSocket serverSocket) {
+        if (sFeatureFlags.socketEventListenerApi()) {
+            SocketAcceptListener listener = new SocketAcceptListener(serverSocket);
+            listener.start(getAcceptLooper());
+            return listener;
+        }
+        SocketAcceptTask task = new SocketAcceptTask(serverSocket);
+        sAcceptExecutor.execute(task);
+        return task;
+    }
+
+    private static synchronized Looper getAcceptLooper() {
+        if (sAcceptLooperThread == null) {
+            sAcceptLooperThread = new HandlerThread("ObexAcceptLooper");
+            sAcceptLooperThread.start();
+        }
+        return sAcceptLooperThread.getLooper();
+    }
+
+    /**
+     * Called from the accept tasks with each accepted connection. Rejects the connections
+     * refused by the {@link IObexConnectionHandler}.
+     * @param connSocket the accepted socket, or null if none.
+     */
+    private void onAccepted(BluetoothSocket connSocket) {
+        if (connSocket == null) {
+            // TODO: Do we need a max error count, to avoid spinning?
+            Log.w(mTag, "connSocket is null - reattempt accept");
+            return;
+        }
+        BluetoothDevice device = connSocket.getRemoteDevice();
+
+        if (device == null) {
+            Log.i(mTag, "getRemoteDevice() = null - reattempt accept");
+            try {
+                connSocket.close();
+            } catch (IOException e) {
+                Log.w(mTag, "Error closing the socket. ignoring...", e);
+            }
+            return;
+        }
 
-        mL2capThread = new SocketAcceptThread(mL2capSocket);
-        mL2capThread.start();
+        /* Signal to the service that we have received an incoming connection.
+         */
+        boolean isValid = onConnect(device, connSocket);
+
+        if (!isValid) {
+            /* Close connection if we already have a connection with another device
+             * by responding to the OBEX connect request.
+             */
+            Log.i(mTag, "RemoteDevice is invalid - creating ObexRejectServer.");
+            BluetoothObexTransport obexTrans = new BluetoothObexTransport(connSocket);
+            // Create and detach a selfdestructing ServerSession to respond to any
+            // incoming OBEX signals.
+            new ServerSession(obexTrans,
+                    new ObexRejectServer(ResponseCodes.OBEX_HTTP_UNAVAILABLE, connSocket), null);
+        }
+        // now wait for a new connect
     }
 
     /**
-     * Called from the AcceptThreads to signal an incoming connection.
+     * Called from the accept tasks to signal an incoming connection.
      * @param device the connecting device.
      * @param conSocket the socket associated with the connection.
      * @return true if the connection is accepted, false otherwise.
@@ -244,58 +326,73 @@ public class ObexServerSockets {
     }
 
     /**
-     * Terminate any running accept threads
-     * @param block Set true to block the calling thread until the AcceptThreads
+     * Terminate any running accept tasks
+     * @param block Set true to block the calling thread until the accept tasks
      * has ended execution
      */
     public synchronized void shutdown(boolean block) {
         if (D) {
             Log.d(mTag, "shutdown(block = " + block + ")");
         }
-        if (mRfcommThread != null) {
-            mRfcommThread.shutdown();
+        if (mRfcommTask != null) {
+            mRfcommTask.shutdown();
         }
-        if (mL2capThread != null) {
-            mL2capThread.shutdown();
+        if (mL2capTask != null) {
+            mL2capTask.shutdown();
         }
         if (block) {
-            while (mRfcommThread != null || mL2capThread != null) {
+            while (mRfcommTask != null || mL2capTask != null) {
                 try {
-                    if (mRfcommThread != null) {
-                        mRfcommThread.join();
-                        mRfcommThread = null;
+                    if (mRfcommTask != null) {
+                        mRfcommTask.join();
+                        mRfcommTask = null;
                     }
-                    if (mL2capThread != null) {
-                        mL2capThread.join();
-                        mL2capThread = null;
+                    if (mL2capTask != null) {
+                        mL2capTask.join();
+                        mL2capTask = null;
                     }
                 } catch (InterruptedException e) {
                     Log.i(mTag, "shutdown() interrupted, continue waiting...", e);
                 }
             }
         } else {
-            mRfcommThread = null;
-            mL2capThread = null;
+            mRfcommTask = null;
+            mL2capTask = null;
         }
     }
 
+    /** Accepts the incoming connections of a server socket until it is shut down. */
+    private interface AcceptTask {
+        /**
+         * Stops accepting connections, and closes the ServerSocket, causing all related
+         * BluetoothSockets to disconnect.
+         */
+        void shutdown();
+
+        /** Blocks until the task has ended, whether it has started running or not. */
+        void join() throws InterruptedException;
+    }
+
     /**
-     * A thread that runs in the background waiting for remote an incoming
-     * connect. Once a remote socket connects, this thread will be
-     * shutdown. When the remote disconnect, this thread shall be restarted to
+     * A task that runs in the background waiting for remote an incoming
+     * connect. Once a remote socket connects, this task will be
+     * shutdown. When the remote disconnect, this task shall be restarted to
      * accept a new connection.
      */
-    private class SocketAcceptThread extends Thread {
+    private class SocketAcceptTask implements AcceptTask, Runnable {
 
-        private boolean mStopped = false;
+        private volatile boolean mStopped = false;
         private final BluetoothServerSocket mServerSocket;
+        private final CountDownLatch mEnded = new CountDownLatch(1);
+        /* The pooled thread running the task, null when it is not running. */
+        private Thread mThread;
 
         /**
-         * Create a SocketAcceptThread
+         * Create a SocketAcceptTask
          * @param serverSocket shall never be null.
          * @throws IllegalArgumentException if {@code serverSocket} is null
          */
-        SocketAcceptThread(BluetoothServerSocket serverSocket) {
+        SocketAcceptTask(BluetoothServerSocket serverSocket) {
             if (serverSocket == null) {
                 throw new IllegalArgumentException("serverSocket cannot be null");
             }
@@ -308,58 +405,22 @@ public class ObexServerSockets {
          */
         @Override
         public void run() {
+            synchronized (this) {
+                mThread = Thread.currentThread();
+            }
             try {
                 while (!mStopped) {
-                    BluetoothSocket connSocket;
-                    BluetoothDevice device;
-
                     try {
                         if (D) {
                             Log.d(mTag, "Accepting socket connection...");
                         }
 
-                        connSocket = mServerSocket.accept();
+                        BluetoothSocket connSocket = mServerSocket.accept();
                         if (D) {
                             Log.d(mTag, "Accepted socket connection from: " + mServerSocket);
                         }
 
-                        if (connSocket == null) {
-                            // TODO: Do we need a max error count, to avoid spinning?
-                            Log.w(mTag, "connSocket is null - reattempt accept");
-                            continue;
-                        }
-                        device = connSocket.getRemoteDevice();
-
-                        if (device == null) {
-                            Log.i(mTag, "getRemoteDevice() = null - reattempt accept");
-                            try {
-                                connSocket.close();
-                            } catch (IOException e) {
-                                Log.w(mTag, "Error closing the socket. ignoring...", e);
-                            }
-                            continue;
-                        }
-
-                        /* Signal to the service that we have received an incoming connection.
-                         */
-                        boolean isValid = ObexServerSockets.this.onConnect(device, connSocket);
-
-                        if (!isValid) {
-                            /* Close connection if we already have a connection with another device
-                             * by responding to the OBEX connect request.
-                             */
-                            Log.i(mTag, "RemoteDevice is invalid - creating ObexRejectServer.");
-                            BluetoothObexTransport obexTrans =
-                                    new BluetoothObexTransport(connSocket);
-                            // Create and detach a selfdestructing ServerSession to respond to any
-                            // incoming OBEX signals.
-                            new ServerSession(obexTrans,
-                                    new ObexRejectServer(ResponseCodes.OBEX_HTTP_UNAVAILABLE,
-                                            connSocket), null);
-                            // now wait for a new connect
-                        } else {
-                            // now wait for a new connect
-                        }
+                        ObexServerSockets.this.onAccepted(connSocket);
                     } catch (IOException ex) {
                         if (mStopped) {
                             // Expected exception because of shutdown.
@@ -371,17 +432,29 @@ public class ObexServerSockets {
                     }
                 } // End while()
             } finally {
+                synchronized (this) {
+                    mThread = null;
+                }
+                // Do not leave an interrupt from shutdown() to the next task of the thread
+                Thread.interrupted();
+                mEnded.countDown();
                 if (D) {
-                    Log.d(mTag, "AcceptThread ended for: " + mServerSocket);
+                    Log.d(mTag, "AcceptTask ended for: " + mServerSocket);
                 }
             }
         }
 
+        @Override
+        public void join() throws InterruptedException {
+            mEnded.await();
+        }
+
         /**
          * Shuts down the accept threads, and closes the ServerSockets, causing all related
          * BluetoothSockets to disconnect, hence do not call until all all accepted connections
          * are ready to be disconnected.
          */
+        @Override
         public void shutdown() {
             if (!mStopped) {
                 mStopped = true;
@@ -396,14 +469,116 @@ public class ObexServerSockets {
                     }
                 }
             }
-            // If called from another thread, interrupt the thread
-            if (!Thread.currentThread().equals(this)) {
-                // TODO: Will this interrupt the thread if it is blocked in synchronized?
-                // Else: change to use InterruptableLock
+            // If called from another thread, interrupt the thread running the task
+            synchronized (this) {
+                if (mThread != null && !Thread.currentThread().equals(mThread)) {
+                    // TODO: Will this interrupt the thread if it is blocked in synchronized?
+                    // Else: change to use InterruptableLock
+                    if (D) {
+                        Log.d(mTag, "shutdown called from another thread - interrupt().");
+                    }
+                    mThread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts the incoming connections of a server socket on the shared accept looper, when the
+     * socket reports them to its event listener, instead of blocking a thread in accept().
+     */
+    private class SocketAcceptListener
+            implements AcceptTask, MessageQueue.OnFileDescriptorEventListener {
+        private static final int EVENTS = EVENT_INPUT | EVENT_ERROR;
+
+        private volatile boolean mStopped = false;
+        private final BluetoothServerSocket mServerSocket;
+        private Handler mHandler;
+
+        /**
+         * Create a SocketAcceptListener
+         * @param serverSocket shall never be null.
+         * @throws IllegalArgumentException if {@code serverSocket} is null
+         */
+        SocketAcceptListener(BluetoothServerSocket serverSocket) {
+            if (serverSocket == null) {
+                throw new IllegalArgumentException("serverSocket cannot be null");
+            }
+            mServerSocket = serverSocket;
+        }
+
+        /** Starts listening for the incoming connections on the given looper. */
+        void start(Looper looper) {
+            mHandler = new Handler(looper);
+            try {
+                mServerSocket.setOnEventListener(looper, EVENTS, this);
+            } catch (IOException ex) {
+                // Report the failure once create() has returned, as the accept threads do
+                mHandler.post(() -> onAcceptException(ex));
+            }
+        }
+
+        @Override
+        public int onFileDescriptorEvents(FileDescriptor fd, int events) {
+            if (mStopped) {
+                return 0;
+            }
+            try {
+                if ((events & EVENT_ERROR) != 0) {
+                    throw new IOException("Error event on " + mServerSocket);
+                }
+                if (D) {
+                    Log.d(mTag, "Accepting socket connection...");
+                }
+
+                // Does not block: the socket has reported an incoming connection
+                BluetoothSocket connSocket = mServerSocket.accept();
                 if (D) {
-                    Log.d(mTag, "shutdown called from another thread - interrupt().");
+                    Log.d(mTag, "Accepted socket connection from: " + mServerSocket);
                 }
-                interrupt();
+
+                ObexServerSockets.this.onAccepted(connSocket);
+            } catch (IOException ex) {
+                onAcceptException(ex);
+                return 0;
+            }
+            return mStopped ? 0 : EVENTS;
+        }
+
+        private void onAcceptException(IOException ex) {
+            if (mStopped) {
+                // Expected exception because of shutdown.
+            } else {
+                Log.w(mTag, "Accept exception for " + mServerSocket, ex);
+                ObexServerSockets.this.onAcceptFailed();
+            }
+            mStopped = true;
+        }
+
+        @Override
+        public void shutdown() {
+            if (!mStopped) {
+                mStopped = true;
+                mServerSocket.removeOnEventListener();
+                try {
+                    mServerSocket.close();
+                } catch (IOException e) {
+                    if (D) {
+                        Log.d(mTag, "Exception while listener shutdown:", e);
+                    }
+                }
+            }
+        }
+
+        /** Blocks until the event being handled on the looper, if any, has been handled. */
+        @Override
+        public void join() throws InterruptedException {
+            if (mHandler.getLooper().isCurrentThread()) {
+                return;
+            }
+            CountDownLatch handled = new CountDownLatch(1);
+            if (mHandler.post(handled::countDown)) {
+                handled.await();
             }
         }
     }
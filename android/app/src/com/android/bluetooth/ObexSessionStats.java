@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput statistics of an OBEX session, counted on the streams of its
+ * {@link BluetoothObexTransport}.
+ *
+ * <p>The statistics of the last {@link #MAX_RECENT_SESSIONS} sessions closed, of all the
+ * profiles, are kept and printed in dumpsys.
+ */
+public class ObexSessionStats {
+    @VisibleForTesting static final int MAX_RECENT_SESSIONS = 20;
+
+    @GuardedBy("sRecentSessions")
+    private static final ArrayDeque<String> sRecentSessions = new ArrayDeque<>();
+
+    private final String mName;
+    private final long mStartMillis;
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicBoolean mClosed = new AtomicBoolean();
+
+    /**
+     * @param name the name of the session in dumpsys
+     * @param startMillis the time the session started at, in ms since boot
+     */
+    ObexSessionStats(String name, long startMillis) {
+        mName = name;
+        mStartMillis = startMillis;
+    }
+
+    /** Returns a stream counting the bytes received from {@code in}. */
+    InputStream countReceived(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    mBytesReceived.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    mBytesReceived.addAndGet(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    /** Returns a stream counting the bytes sent to {@code out}. */
+    OutputStream countSent(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                mBytesSent.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // Not byte per byte, as FilterOutputStream does
+                out.write(b, off, len);
+                mBytesSent.addAndGet(len);
+            }
+        };
+    }
+
+    long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /**
+     * Records the statistics of the session when it is closed. Only the first call is recorded.
+     *
+     * @param nowMillis the time the session is closed at, in ms since boot
+     * @param srm whether the transport supports Single Response Mode
+     * @param maxTransmitPacketSize the maximum size of the packets sent, or -1 if unspecified
+     * @param maxReceivePacketSize the maximum size of the packets received, or -1 if unspecified
+     */
+    void onClosed(long nowMillis, boolean srm, int maxTransmitPacketSize,
+            int maxReceivePacketSize) {
+        if (!mClosed.compareAndSet(false, true)) {
+            return;
+        }
+        long durationMillis = Math.max(1, nowMillis - mStartMillis);
+        long received = mBytesReceived.get();
+        long sent = mBytesSent.get();
+        String stats = String.format(Locale.US,
+                "%s: %d ms, rx %d B (%d B/s), tx %d B (%d B/s), srm=%b, max packet tx/rx=%d/%d",
+                mName, durationMillis, received, received * 1000 / durationMillis, sent,
+                sent * 1000 / durationMillis, srm, maxTransmitPacketSize, maxReceivePacketSize);
+        synchronized (sRecentSessions) {
+            if (sRecentSessions.size() == MAX_RECENT_SESSIONS) {
+                sRecentSessions.removeFirst();
+            }
+            sRecentSessions.addLast(stats);
+        }
+    }
+
+    /** Prints the statistics of the recent sessions, oldest first. */
+    public static void dump(PrintWriter writer) {
+        writer.println("\nObexSessionStats:");
+        synchronized (sRecentSessions) {
+            if (sRecentSessions.isEmpty()) {
+                writer.println("  No OBEX session closed");
+                return;
+            }
+            for (String stats : sRecentSessions) {
+                writer.println("  " + stats);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static void clearRecentSessions() {
+        synchronized (sRecentSessions) {
+            sRecentSessions.clear();
+        }
+    }
+}
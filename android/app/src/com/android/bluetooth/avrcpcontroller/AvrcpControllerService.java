@@ -42,6 +42,7 @@ import com.android.bluetooth.btservice.ProfileService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -340,7 +341,11 @@ public class AvrcpControllerService extends ProfileService {
 
         List<MediaItem> contents = requestedNode.getContents();
 
-        if (!requestedNode.isCached()) {
+        if (requestedNode.isRestored()) {
+            // The contents may have changed since they were cached, serve them while fetched again
+            if (DBG) Log.d(TAG, "getContents(" + parentMediaId + "): validating restored node");
+            refreshContents(requestedNode);
+        } else if (!requestedNode.isCached()) {
             if (DBG) Log.d(TAG, "getContents(" + parentMediaId + "): node download pending");
             refreshContents(requestedNode);
             /* Ongoing downloads can have partial results and we want to make sure they get sent
@@ -357,6 +362,27 @@ public class AvrcpControllerService extends ProfileService {
     }
 
 
+    /**
+     * Deletes the browsed contents kept for a device once it is unbonded.
+     *
+     * @param device the device whose bond state changed
+     * @param fromState the previous bond state
+     * @param toState the new bond state
+     */
+    public void handleBondStateChanged(BluetoothDevice device, int fromState, int toState) {
+        if (toState != BluetoothDevice.BOND_NONE) {
+            return;
+        }
+        AvrcpControllerStateMachine stateMachine = mDeviceStateMap.get(device);
+        if (stateMachine != null) {
+            stateMachine.onBondRemoved();
+        }
+        File directory = getFilesDir();
+        if (directory != null && BrowseTreeCache.getFile(directory, device).delete()) {
+            if (DBG) Log.d(TAG, "Deleted the browse cache of " + device);
+        }
+    }
+
     @Override
     protected IProfileServiceBinder initBinder() {
         return new AvrcpControllerServiceBinder(this);
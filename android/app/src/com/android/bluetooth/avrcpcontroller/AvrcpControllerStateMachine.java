@@ -28,6 +28,7 @@ import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -45,8 +46,14 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.State;
 import com.android.internal.util.StateMachine;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -97,6 +104,8 @@ class AvrcpControllerStateMachine extends StateMachine {
     static final int MSG_AVRCP_PASSTHRU = 302;
     static final int MSG_AVRCP_SET_SHUFFLE = 303;
     static final int MSG_AVRCP_SET_REPEAT = 304;
+    static final int MESSAGE_PREFETCH_FOLDER_ITEMS = 305;
+    static final int MESSAGE_VALIDATE_BROWSE_CACHE = 306;
 
     //400->499 Events for Cover Artwork
     static final int MESSAGE_PROCESS_IMAGE_DOWNLOADED = 400;
@@ -143,8 +152,37 @@ class AvrcpControllerStateMachine extends StateMachine {
 
     GetFolderList mGetFolderList = null;
 
+    // Adaptive page size, folder prefetch and eviction, see avrcp_controller_adaptive_browsing
+    private final boolean mAdaptiveBrowsing;
+    private int mPageSize = ITEM_PAGE_SIZE;
+    // Lowered when the remote returns less items than requested, as they don't fit in its MTU
+    private int mMaxPageSize = MAX_ITEM_PAGE_SIZE;
+    private final ArrayDeque<BrowseTree.BrowseNode> mPrefetchQueue =
+            new ArrayDeque<BrowseTree.BrowseNode>();
+
+    // Browsed contents kept across connections, see avrcp_controller_persistent_browse_cache
+    private final boolean mPersistentBrowseCache;
+    // The bond was removed, nothing may be kept for the device anymore
+    private boolean mBondRemoved = false;
+    // Read when browsing connects, restored once the players are received
+    private BrowseTreeCache mBrowseCache;
+    // Number of items in the root folder of the players, by node ID
+    private final Map<String, Integer> mPlayerRootItemCounts = new HashMap<String, Integer>();
+    // Players restored from the cache but not validated yet, by node ID
+    private final Map<String, Integer> mUnvalidatedPlayers = new LinkedHashMap<String, Integer>();
+
     //Number of items to get in a single fetch
     static final int ITEM_PAGE_SIZE = 20;
+    // Bounds of the number of items to get in a single fetch, when it adapts to the remote
+    static final int MIN_ITEM_PAGE_SIZE = 10;
+    static final int MAX_ITEM_PAGE_SIZE = 160;
+    // Pages fetched faster than this grow, pages fetched slower shrink
+    static final int FAST_PAGE_RESPONSE_MILLIS = 300;
+    static final int SLOW_PAGE_RESPONSE_MILLIS = 2000;
+    // Number of folders prefetched around a folder the user browsed to
+    static final int MAX_PREFETCHED_FOLDERS = 4;
+    // Number of folders keeping their contents before the least recently viewed are evicted
+    static final int MAX_CACHED_FOLDERS = 32;
     static final int CMD_TIMEOUT_MILLIS = 10000;
     static final int ABS_VOL_TIMEOUT_MILLIS = 1000; //1s
 
@@ -190,6 +228,10 @@ class AvrcpControllerStateMachine extends StateMachine {
         addState(mGetFolderList, mConnected);
         mAudioManager = service.getSystemService(AudioManager.class);
         mIsVolumeFixed = mAudioManager.isVolumeFixed();
+        mAdaptiveBrowsing = service.getResources()
+                .getBoolean(R.bool.avrcp_controller_adaptive_browsing);
+        mPersistentBrowseCache = service.getResources()
+                .getBoolean(R.bool.avrcp_controller_persistent_browse_cache);
 
         setInitialState(mDisconnected);
     }
@@ -308,15 +350,33 @@ class AvrcpControllerStateMachine extends StateMachine {
 
     synchronized void onBrowsingConnected() {
         mBrowsingConnected = true;
+        File cacheFile = getBrowseCacheFile();
+        if (cacheFile != null) {
+            mBrowseCache = BrowseTreeCache.read(cacheFile, mDevice);
+        }
         requestContents(mBrowseTree.mRootNode);
     }
 
+    /** Stops keeping the browsed contents of the device, as it is no longer bonded. */
+    synchronized void onBondRemoved() {
+        mBondRemoved = true;
+        mBrowseCache = null;
+    }
+
     synchronized void onBrowsingDisconnected() {
         if (!mBrowsingConnected) return;
+        File cacheFile = getBrowseCacheFile();
+        if (cacheFile != null) {
+            BrowseTreeCache.write(cacheFile, mBrowseTree, mPlayerRootItemCounts);
+        }
+        mBrowseCache = null;
+        mPlayerRootItemCounts.clear();
+        mUnvalidatedPlayers.clear();
         mAddressedPlayer.setPlayStatus(PlaybackStateCompat.STATE_ERROR);
         AvrcpItem previousTrack = mAddressedPlayer.getCurrentTrack();
         String previousTrackUuid = previousTrack != null ? previousTrack.getCoverArtUuid() : null;
         mAddressedPlayer.updateCurrentTrack(null);
+        mPrefetchQueue.clear();
         mBrowseTree.mNowPlayingNode.setCached(false);
         mBrowseTree.mRootNode.setCached(false);
         if (isActive()) {
@@ -567,6 +627,18 @@ class AvrcpControllerStateMachine extends StateMachine {
                     transitionTo(mGetFolderList);
                     return true;
 
+                case MESSAGE_PREFETCH_FOLDER_ITEMS:
+                    if (peekPrefetchFolder() != null) {
+                        transitionTo(mGetFolderList);
+                    }
+                    return true;
+
+                case MESSAGE_VALIDATE_BROWSE_CACHE:
+                    if (peekUnvalidatedPlayer() != null) {
+                        transitionTo(mGetFolderList);
+                    }
+                    return true;
+
                 case MESSAGE_PLAY_ITEM:
                     //Set Addressed Player
                     processPlayItem((BrowseTree.BrowseNode) msg.obj);
@@ -825,6 +897,142 @@ class AvrcpControllerStateMachine extends StateMachine {
         }
     }
 
+    /**
+     * Returns the number of items to get in the next fetch of a folder, growing while the remote
+     * answers quickly and shrinking when it is slow.
+     */
+    @VisibleForTesting
+    static int nextPageSize(int pageSize, long responseMillis) {
+        if (responseMillis <= FAST_PAGE_RESPONSE_MILLIS) {
+            return Math.min(MAX_ITEM_PAGE_SIZE, pageSize * 2);
+        } else if (responseMillis >= SLOW_PAGE_RESPONSE_MILLIS) {
+            return Math.max(MIN_ITEM_PAGE_SIZE, pageSize / 2);
+        }
+        return pageSize;
+    }
+
+    private void onFolderCached(BrowseTree.BrowseNode node, boolean browsedTo) {
+        if (node.getScope() != AvrcpControllerService.BROWSE_SCOPE_VFS) {
+            return;
+        }
+        if (!node.isPlayer()) {
+            mBrowseTree.trackCachedFolder(node);
+        }
+        if (browsedTo) {
+            queuePrefetchFolders(node);
+        }
+        if (mBrowseTree.evictCachedFolders(MAX_CACHED_FOLDERS) > 0) {
+            removeUnusedArtworkFromBrowseTree();
+        }
+    }
+
+    // The user is likely to browse down in the folder, or to the folders next to it
+    private void queuePrefetchFolders(BrowseTree.BrowseNode node) {
+        mPrefetchQueue.clear();
+        queuePrefetchCandidates(new ArrayList<BrowseTree.BrowseNode>(node.getChildren()));
+        BrowseTree.BrowseNode parent = node.getParent();
+        if (parent != null && !node.isPlayer()) {
+            List<BrowseTree.BrowseNode> siblings =
+                    new ArrayList<BrowseTree.BrowseNode>(parent.getChildren());
+            int index = siblings.indexOf(node);
+            queuePrefetchCandidates(siblings.subList(index + 1, siblings.size()));
+        }
+        logD("Prefetching " + mPrefetchQueue.size() + " folders after " + node);
+    }
+
+    private void queuePrefetchCandidates(List<BrowseTree.BrowseNode> candidates) {
+        for (BrowseTree.BrowseNode candidate : candidates) {
+            if (mPrefetchQueue.size() >= MAX_PREFETCHED_FOLDERS) {
+                return;
+            }
+            if (candidate.isBrowsable() && !candidate.isPlayer() && !candidate.isCached()
+                    && candidate.getScope() == AvrcpControllerService.BROWSE_SCOPE_VFS) {
+                mPrefetchQueue.add(candidate);
+            }
+        }
+    }
+
+    // Drops the queued folders that were cached or removed from the tree since
+    private BrowseTree.BrowseNode peekPrefetchFolder() {
+        BrowseTree.BrowseNode next = mPrefetchQueue.peek();
+        while (next != null && (next.isCached() || !mBrowseTree.contains(next))) {
+            mPrefetchQueue.poll();
+            next = mPrefetchQueue.peek();
+        }
+        return next;
+    }
+
+    private File getBrowseCacheFile() {
+        if (!mPersistentBrowseCache || mBondRemoved) {
+            return null;
+        }
+        File directory = mService.getFilesDir();
+        return directory == null ? null : BrowseTreeCache.getFile(directory, mDevice);
+    }
+
+    // Serves the cached contents of the players received, until validated against the remote
+    private void restoreBrowseCache() {
+        for (BrowseTree.BrowseNode player :
+                new ArrayList<BrowseTree.BrowseNode>(mBrowseTree.mRootNode.getChildren())) {
+            if (!isUidPersistent(player)) {
+                continue;
+            }
+            int rootItemCount = mBrowseCache.restorePlayer(mBrowseTree, player);
+            if (rootItemCount >= 0) {
+                mPlayerRootItemCounts.put(player.getID(), rootItemCount);
+                mUnvalidatedPlayers.put(player.getID(), rootItemCount);
+            }
+        }
+        mBrowseCache = null;
+        logD("Restored " + mUnvalidatedPlayers.size() + " players from the browse cache");
+        if (!mUnvalidatedPlayers.isEmpty()) {
+            sendMessage(MESSAGE_VALIDATE_BROWSE_CACHE);
+        }
+    }
+
+    // UIDs of other players are only valid for the connection they were received in
+    private boolean isUidPersistent(BrowseTree.BrowseNode player) {
+        AvrcpPlayer avrcpPlayer = mAvailablePlayerList.get((int) player.getBluetoothID());
+        return avrcpPlayer != null
+                && avrcpPlayer.supportsFeature(AvrcpPlayer.FEATURE_UID_PERSISTENCY);
+    }
+
+    // Drops the players that were refreshed or removed from the tree since
+    private BrowseTree.BrowseNode peekUnvalidatedPlayer() {
+        Iterator<String> ids = mUnvalidatedPlayers.keySet().iterator();
+        while (ids.hasNext()) {
+            BrowseTree.BrowseNode player = mBrowseTree.findBrowseNodeByID(ids.next());
+            if (player != null && player.isCached()) {
+                return player;
+            }
+            ids.remove();
+        }
+        return null;
+    }
+
+    /**
+     * Validates the cached contents of a player against the number of items in its root folder,
+     * as the UID counter of the remote is not reported, and drops them if it changed. This only
+     * catches the obvious changes early, the restored folders are fetched again when opened.
+     *
+     * @return whether the contents were kept
+     */
+    private boolean validateBrowseCache(BrowseTree.BrowseNode player, int rootItemCount) {
+        Integer cachedRootItemCount = mUnvalidatedPlayers.remove(player.getID());
+        if (cachedRootItemCount == null || cachedRootItemCount == rootItemCount) {
+            return true;
+        }
+        logD("Cached contents of " + player + " are outdated");
+        dropBrowseCache(player);
+        return false;
+    }
+
+    private void dropBrowseCache(BrowseTree.BrowseNode player) {
+        mBrowseTree.evictContents(player);
+        notifyChanged(player);
+        removeUnusedArtworkFromBrowseTree();
+    }
+
     // Handle the get folder listing action
     // a) Fetch the listing of folders
     // b) Once completed return the object listing
@@ -832,8 +1040,15 @@ class AvrcpControllerStateMachine extends StateMachine {
         private static final String STATE_TAG = "Avrcp.GetFolderList";
 
         boolean mAbort;
+        boolean mTimedOut;
+        // The fetch is a prefetch the user did not ask for yet
+        boolean mPrefetching;
+        // Only the cached contents of the player mBrowseNode are validated
+        boolean mValidating;
         BrowseTree.BrowseNode mBrowseNode;
         BrowseTree.BrowseNode mNextStep;
+        int mRequestedItems;
+        long mFetchStartMillis;
 
         @Override
         public void enter() {
@@ -842,10 +1057,21 @@ class AvrcpControllerStateMachine extends StateMachine {
             sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
             super.enter();
             mAbort = false;
+            mTimedOut = false;
+            mPrefetching = false;
+            mValidating = false;
             Message msg = getCurrentMessage();
             if (msg.what == MESSAGE_GET_FOLDER_ITEMS) {
                 mBrowseNode = (BrowseTree.BrowseNode) msg.obj;
                 logD(STATE_TAG + ": new fetch request, node=" + mBrowseNode);
+            } else if (msg.what == MESSAGE_PREFETCH_FOLDER_ITEMS) {
+                mBrowseNode = mPrefetchQueue.poll();
+                mPrefetching = true;
+                logD(STATE_TAG + ": new prefetch request, node=" + mBrowseNode);
+            } else if (msg.what == MESSAGE_VALIDATE_BROWSE_CACHE) {
+                mBrowseNode = peekUnvalidatedPlayer();
+                mValidating = true;
+                logD(STATE_TAG + ": new cache validation request, node=" + mBrowseNode);
             }
 
             if (mBrowseNode == null) {
@@ -853,6 +1079,10 @@ class AvrcpControllerStateMachine extends StateMachine {
             } else if (!mBrowsingConnected) {
                 Log.w(TAG, "GetFolderItems: Browsing not connected, node=" + mBrowseNode);
                 transitionTo(mConnected);
+            } else if (mValidating) {
+                mNextStep = mBrowseNode;
+                mNativeInterface.setBrowsedPlayer(
+                        mDeviceAddress, (int) mBrowseNode.getBluetoothID());
             } else {
                 int scope = mBrowseNode.getScope();
                 if (scope == AvrcpControllerService.BROWSE_SCOPE_PLAYER_LIST
@@ -890,8 +1120,14 @@ class AvrcpControllerStateMachine extends StateMachine {
                     logD("Added " + newSize + " items to the browse tree");
                     notifyChanged(mBrowseNode);
 
-                    if (mBrowseNode.getChildrenCount() >= endIndicator || folderList.size() == 0
-                            || mAbort) {
+                    boolean lastPage = mBrowseNode.getChildrenCount() >= endIndicator
+                            || folderList.size() == 0;
+                    if (mAdaptiveBrowsing
+                            && mBrowseNode.getScope() == AvrcpControllerService.BROWSE_SCOPE_VFS) {
+                        adaptPageSize(folderList.size(), lastPage);
+                    }
+
+                    if (lastPage || mAbort) {
                         // If we have fetched all the elements or if the remotes sends us 0 elements
                         // (which can lead us into a loop since mCurrInd does not proceed) we simply
                         // abort.
@@ -906,6 +1142,14 @@ class AvrcpControllerStateMachine extends StateMachine {
                     break;
                 case MESSAGE_PROCESS_SET_BROWSED_PLAYER:
                     mBrowseTree.setCurrentBrowsedPlayer(mNextStep.getID(), msg.arg1, msg.arg2);
+                    if (mPersistentBrowseCache && isUidPersistent(mNextStep)) {
+                        mPlayerRootItemCounts.put(mNextStep.getID(), msg.arg1);
+                        if (!validateBrowseCache(mNextStep, msg.arg1) || mValidating) {
+                            // Done, or the folder to fetch was dropped with the cached contents
+                            transitionTo(mConnected);
+                            break;
+                        }
+                    }
                     removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
                     sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
                     navigateToFolderOrRetrieve(mBrowseNode);
@@ -982,6 +1226,9 @@ class AvrcpControllerStateMachine extends StateMachine {
                         mBrowseTree.setCurrentBrowsedFolder(BrowseTree.ROOT);
                         rootNode.setExpectedChildren(playerList.size());
                         rootNode.setCached(true);
+                        if (mBrowseCache != null) {
+                            restoreBrowseCache();
+                        }
                         notifyChanged(rootNode);
                     }
                     transitionTo(mConnected);
@@ -991,6 +1238,7 @@ class AvrcpControllerStateMachine extends StateMachine {
                     // We have timed out to execute the request, we should simply send
                     // whatever listing we have gotten until now.
                     Log.w(TAG, "GetFolderItems: Timeout waiting for download, node=" + mBrowseNode);
+                    mTimedOut = true;
                     transitionTo(mConnected);
                     break;
 
@@ -1004,17 +1252,26 @@ class AvrcpControllerStateMachine extends StateMachine {
                 case MESSAGE_GET_FOLDER_ITEMS:
                     BrowseTree.BrowseNode requested = (BrowseTree.BrowseNode) msg.obj;
                     if (!mBrowseNode.equals(requested) || requested.isNowPlaying()) {
-                        if (shouldAbort(mBrowseNode.getScope(), requested.getScope())) {
+                        // A prefetch never delays what the user asks for
+                        if (mPrefetching
+                                || shouldAbort(mBrowseNode.getScope(), requested.getScope())) {
                             mAbort = true;
                         }
                         deferMessage(msg);
                         logD("GetFolderItems: Enqueue new request for node=" + requested
                                 + ", abort=" + mAbort);
                     } else {
+                        // The user now waits for the folder being prefetched
+                        mPrefetching = false;
                         logD("GetFolderItems: Ignore request, node=" + requested);
                     }
                     break;
 
+                case MESSAGE_PREFETCH_FOLDER_ITEMS:
+                    // The next prefetch is scheduled once this fetch completes
+                    logD("GetFolderItems: Ignore prefetch request while fetching");
+                    break;
+
                 default:
                     // All of these messages should be handled by parent state immediately.
                     logD("GetFolderItems: Passing message to parent state, type="
@@ -1041,10 +1298,27 @@ class AvrcpControllerStateMachine extends StateMachine {
             return false;
         }
 
+        private void adaptPageSize(int received, boolean lastPage) {
+            if (received < mRequestedItems) {
+                // A short page in the middle of a folder is all that fits in the remote's MTU
+                if (!lastPage && received > 0) {
+                    mMaxPageSize = Math.max(MIN_ITEM_PAGE_SIZE, received);
+                    mPageSize = Math.min(mPageSize, mMaxPageSize);
+                }
+                return;
+            }
+            long responseMillis = SystemClock.uptimeMillis() - mFetchStartMillis;
+            mPageSize = Math.min(mMaxPageSize, nextPageSize(mPageSize, responseMillis));
+            logD("GetFolderItems: response in " + responseMillis + "ms, page size=" + mPageSize);
+        }
+
         private void fetchContents(BrowseTree.BrowseNode target) {
+            int pageSize = mAdaptiveBrowsing ? mPageSize : ITEM_PAGE_SIZE;
             int start = target.getChildrenCount();
             int end = Math.min(target.getExpectedChildren(), target.getChildrenCount()
-                    + ITEM_PAGE_SIZE) - 1;
+                    + pageSize) - 1;
+            mRequestedItems = end - start + 1;
+            mFetchStartMillis = SystemClock.uptimeMillis();
             logD("fetchContents(title=" + target.getID() + ", scope=" + target.getScope()
                     + ", start=" + start + ", end=" + end + ", expected="
                     + target.getExpectedChildren() + ")");
@@ -1099,8 +1373,11 @@ class AvrcpControllerStateMachine extends StateMachine {
             } else if (mNextStep.equals(mBrowseTree.mNavigateUpNode)) {
                 logD("NAVIGATING UP " + mNextStep.toString());
                 mNextStep = mBrowseTree.getCurrentBrowsedFolder().getParent();
-                mBrowseTree.getCurrentBrowsedFolder().setCached(false);
-                removeUnusedArtworkFromBrowseTree();
+                // With adaptive browsing, contents are kept until evicted as no longer viewed
+                if (!mAdaptiveBrowsing) {
+                    mBrowseTree.getCurrentBrowsedFolder().setCached(false);
+                    removeUnusedArtworkFromBrowseTree();
+                }
                 mNativeInterface.changeFolderPath(
                         mDeviceAddress, AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_UP, 0);
 
@@ -1118,10 +1395,33 @@ class AvrcpControllerStateMachine extends StateMachine {
             logd("GetFolderItems: fetch complete, node=" + mBrowseNode);
             removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
 
-            // Whatever we have, notify on it so the UI doesn't hang
-            if (mBrowseNode != null) {
-                mBrowseNode.setCached(true);
-                notifyChanged(mBrowseNode);
+            if (mValidating) {
+                // Without an answer, the cached contents can't be trusted
+                if (mBrowseNode != null
+                        && mUnvalidatedPlayers.remove(mBrowseNode.getID()) != null) {
+                    dropBrowseCache(mBrowseNode);
+                }
+                if (!mUnvalidatedPlayers.isEmpty()) {
+                    sendMessage(MESSAGE_VALIDATE_BROWSE_CACHE);
+                }
+            } else if (mBrowseNode != null) {
+                // Whatever we have, notify on it so the UI doesn't hang
+                boolean complete = !mAbort && !mTimedOut;
+                if (mPrefetching && !complete) {
+                    // Nobody waits for the partial contents, fetch them again when browsed to
+                    mBrowseNode.setCached(false);
+                    removeUnusedArtworkFromBrowseTree();
+                } else {
+                    mBrowseNode.setCached(true);
+                    notifyChanged(mBrowseNode);
+                    if (mAdaptiveBrowsing) {
+                        onFolderCached(mBrowseNode, complete && !mPrefetching);
+                    }
+                }
+            }
+            if (!mPrefetchQueue.isEmpty()) {
+                // Queued behind any deferred request of the user
+                sendMessage(MESSAGE_PREFETCH_FOLDER_ITEMS);
             }
 
             mBrowseNode = null;
@@ -1422,6 +1722,10 @@ class AvrcpControllerStateMachine extends StateMachine {
                 return "MESSAGE_PROCESS_RECEIVED_COVER_ART_PSM";
             case MESSAGE_GET_FOLDER_ITEMS:
                 return "MESSAGE_GET_FOLDER_ITEMS";
+            case MESSAGE_PREFETCH_FOLDER_ITEMS:
+                return "MESSAGE_PREFETCH_FOLDER_ITEMS";
+            case MESSAGE_VALIDATE_BROWSE_CACHE:
+                return "MESSAGE_VALIDATE_BROWSE_CACHE";
             case MESSAGE_PLAY_ITEM:
                 return "MESSAGE_PLAY_ITEM";
             case MSG_AVRCP_PASSTHRU:
@@ -28,6 +28,7 @@ import com.google.common.annotations.VisibleForTesting;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -76,6 +77,11 @@ public class BrowseTree {
     private final HashMap<String, ArrayList<String>> mCoverArtMap =
             new HashMap<String, ArrayList<String>>();
 
+    // Folders holding their cached contents, least recently viewed first. Only the folders
+    // explicitly tracked with trackCachedFolder() are in there, and can be evicted.
+    private final LinkedHashMap<String, BrowseNode> mCachedFolders =
+            new LinkedHashMap<String, BrowseNode>(16, 0.75f, true);
+
     BrowseTree(BluetoothDevice device) {
         if (device == null) {
             mRootNode = new BrowseNode(new AvrcpItem.Builder()
@@ -108,6 +114,9 @@ public class BrowseTree {
         // Clearing the map should garbage collect everything.
         mBrowseMap.clear();
         mCoverArtMap.clear();
+        synchronized (mCachedFolders) {
+            mCachedFolders.clear();
+        }
     }
 
     void onConnected(BluetoothDevice device) {
@@ -133,6 +142,10 @@ public class BrowseTree {
         // without doing another fetch.
         boolean mCached = false;
 
+        // If the cached contents of this folder were restored from a previous connection, and
+        // were not fetched from the remote since.
+        private boolean mRestored = false;
+
         byte mBrowseScope = AvrcpControllerService.BROWSE_SCOPE_VFS;
 
         // List of children.
@@ -259,6 +272,7 @@ public class BrowseTree {
         }
 
         synchronized List<MediaItem> getContents() {
+            onFolderViewed(this);
             if (mChildren.size() > 0 || mCached) {
                 List<MediaItem> contents = new ArrayList<MediaItem>(mChildren.size());
                 for (BrowseNode child : mChildren) {
@@ -277,6 +291,14 @@ public class BrowseTree {
             return mCached;
         }
 
+        synchronized boolean isRestored() {
+            return mRestored;
+        }
+
+        synchronized void setRestored() {
+            mRestored = mCached;
+        }
+
         synchronized boolean isBrowsable() {
             return mItem.isBrowsable();
         }
@@ -284,10 +306,12 @@ public class BrowseTree {
         synchronized void setCached(boolean cached) {
             if (DBG) Log.d(TAG, "Set Cache" + cached + "Node" + toString());
             mCached = cached;
+            mRestored = false;
             if (!cached) {
                 for (BrowseNode child : mChildren) {
                     mBrowseMap.remove(child.getID());
                     indicateCoverArtUnused(child.getID(), child.getCoverArtUuid());
+                    untrackCachedFolder(child);
                 }
                 mChildren.clear();
             }
@@ -374,6 +398,10 @@ public class BrowseTree {
         return bn;
     }
 
+    synchronized boolean contains(BrowseNode node) {
+        return mBrowseMap.containsKey(node.getID());
+    }
+
     synchronized boolean setCurrentBrowsedFolder(String uid) {
         BrowseNode bn = mBrowseMap.get(uid);
         if (bn == null) {
@@ -499,11 +527,87 @@ public class BrowseTree {
         return parents;
     }
 
+    /**
+     * Track a folder whose contents were just cached, so that they can be evicted once the folder
+     * is no longer viewed.
+     */
+    void trackCachedFolder(BrowseNode node) {
+        synchronized (mCachedFolders) {
+            mCachedFolders.put(node.getID(), node);
+        }
+    }
+
+    private void untrackCachedFolder(BrowseNode node) {
+        synchronized (mCachedFolders) {
+            mCachedFolders.remove(node.getID());
+        }
+    }
+
+    private void onFolderViewed(BrowseNode node) {
+        synchronized (mCachedFolders) {
+            // Refreshes the access order
+            mCachedFolders.get(node.getID());
+        }
+    }
+
+    @VisibleForTesting
+    int getCachedFolderCount() {
+        synchronized (mCachedFolders) {
+            return mCachedFolders.size();
+        }
+    }
+
+    /**
+     * Evict the contents of the least recently viewed tracked folders, and of their descendants,
+     * until at most maxFolders remain. The current browsed folder and its ancestors are kept, as
+     * they are needed to navigate the remote.
+     *
+     * @return the number of folders evicted
+     */
+    int evictCachedFolders(int maxFolders) {
+        int evicted = 0;
+        while (true) {
+            List<BrowseNode> candidates;
+            synchronized (mCachedFolders) {
+                if (mCachedFolders.size() <= maxFolders) {
+                    return evicted;
+                }
+                candidates = new ArrayList<BrowseNode>(mCachedFolders.values());
+            }
+            BrowseNode current = getCurrentBrowsedFolder();
+            BrowseNode victim = null;
+            for (BrowseNode candidate : candidates) {
+                if (!candidate.equals(current) && !candidate.isDescendant(current)) {
+                    victim = candidate;
+                    break;
+                }
+            }
+            if (victim == null) {
+                return evicted;
+            }
+            if (DBG) Log.d(TAG, "Evicting the contents of " + victim);
+            evictContents(victim);
+            evicted++;
+        }
+    }
+
+    /** Clear the contents of a folder and of its descendants. */
+    void evictContents(BrowseNode node) {
+        for (BrowseNode child : new ArrayList<BrowseNode>(node.getChildren())) {
+            if (child.getChildrenCount() > 0) {
+                evictContents(child);
+            }
+        }
+        untrackCachedFolder(node);
+        node.setCached(false);
+    }
+
     /**
      * Dump the state of the AVRCP browse tree
      */
     public void dump(StringBuilder sb) {
         mRootNode.toTreeString(0, sb);
+        sb.append("\n  Cached folders: " + getCachedFolderCount());
         sb.append("\n  Image handles in use (" + mCoverArtMap.size() + "):");
         for (String handle : mCoverArtMap.keySet()) {
             sb.append("\n    " + handle);
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcpcontroller;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The browsed contents of the players of a remote device, kept on disk across connections.
+ *
+ * <p>Each player is stored with its ID, its name and the number of items in its root folder, as
+ * returned by SetBrowsedPlayer, followed by its cached folders, depth first. Only players that
+ * keep their UIDs across connections are restored. A restored player must be validated again
+ * against the remote before its contents are trusted, and each restored folder is fetched again
+ * when it is opened.
+ *
+ * <p>Cover art handles are not stored, as they are only valid for the BIP session they were
+ * received in.
+ */
+class BrowseTreeCache {
+    private static final String TAG = "BrowseTreeCache";
+    private static final boolean DBG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final int VERSION = 1;
+    // Folders are stored as not cached past this number of items, to bound the file size
+    @VisibleForTesting static final int MAX_ITEMS = 5000;
+    // Number of children of a folder whose contents are not cached
+    private static final int NOT_CACHED = -1;
+
+    // An item with the cached contents of its folder, or null if not cached
+    private static class CachedNode {
+        final AvrcpItem mItem;
+        final List<CachedNode> mChildren;
+
+        CachedNode(AvrcpItem item, List<CachedNode> children) {
+            mItem = item;
+            mChildren = children;
+        }
+    }
+
+    private static class CachedPlayer {
+        final int mId;
+        final String mName;
+        final int mRootItemCount;
+        final List<CachedNode> mChildren;
+
+        CachedPlayer(int id, String name, int rootItemCount, List<CachedNode> children) {
+            mId = id;
+            mName = name;
+            mRootItemCount = rootItemCount;
+            mChildren = children;
+        }
+    }
+
+    private final List<CachedPlayer> mPlayers;
+
+    private BrowseTreeCache(List<CachedPlayer> players) {
+        mPlayers = players;
+    }
+
+    /** Returns the file the cache of a device is stored in, under the given directory. */
+    static File getFile(File directory, BluetoothDevice device) {
+        return new File(directory, "avrcp_browse_" + device.getAddress().replace(":", ""));
+    }
+
+    /**
+     * Restores the cached contents of a player into the browse tree, if the player is cached
+     * under the same ID and name.
+     *
+     * @return the number of items in the root folder of the player when it was cached, or -1 if
+     *     nothing was restored
+     */
+    int restorePlayer(BrowseTree tree, BrowseTree.BrowseNode playerNode) {
+        for (CachedPlayer player : mPlayers) {
+            if (player.mChildren != null && player.mId == playerNode.getBluetoothID()
+                    && Objects.equals(player.mName, playerNode.mItem.getTitle())) {
+                restoreContents(tree, playerNode, player.mChildren);
+                if (DBG) Log.d(TAG, "Restored " + playerNode);
+                return player.mRootItemCount;
+            }
+        }
+        return -1;
+    }
+
+    private static void restoreContents(BrowseTree tree, BrowseTree.BrowseNode node,
+            List<CachedNode> children) {
+        for (CachedNode child : children) {
+            BrowseTree.BrowseNode childNode = tree.new BrowseNode(child.mItem);
+            node.addChild(childNode);
+            if (child.mChildren != null) {
+                restoreContents(tree, childNode, child.mChildren);
+            }
+        }
+        node.setExpectedChildren(children.size());
+        node.setCached(true);
+        node.setRestored();
+    }
+
+    /**
+     * Reads the cache of a device.
+     *
+     * @return the cache, or null if there is none or it cannot be read, in which case the file is
+     *     deleted
+     */
+    static BrowseTreeCache read(File file, BluetoothDevice device) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            int playerCount = readCount(in, MAX_ITEMS);
+            List<CachedPlayer> players = new ArrayList<CachedPlayer>(playerCount);
+            int[] budget = {MAX_ITEMS};
+            for (int i = 0; i < playerCount; i++) {
+                int id = in.readInt();
+                String name = readString(in);
+                int rootItemCount = in.readInt();
+                players.add(new CachedPlayer(id, name, rootItemCount,
+                        readChildren(in, device, budget)));
+            }
+            return new BrowseTreeCache(players);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file + ": " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    // The number of items read is bounded as when written, as the file may be corrupt
+    private static List<CachedNode> readChildren(DataInputStream in, BluetoothDevice device,
+            int[] budget) throws IOException {
+        int count = in.readInt();
+        if (count == NOT_CACHED) {
+            return null;
+        }
+        if (count < 0 || count > budget[0]) {
+            throw new IOException("Invalid number of children: " + count);
+        }
+        budget[0] -= count;
+        List<CachedNode> children = new ArrayList<CachedNode>(count);
+        for (int i = 0; i < count; i++) {
+            AvrcpItem item = readItem(in, device);
+            children.add(new CachedNode(item, readChildren(in, device, budget)));
+        }
+        return children;
+    }
+
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    private static AvrcpItem readItem(DataInputStream in, BluetoothDevice device)
+            throws IOException {
+        return new AvrcpItem.Builder()
+                .setDevice(device)
+                .setItemType(in.readInt())
+                .setType(in.readInt())
+                .setUid(in.readLong())
+                .setUuid(readString(in))
+                .setDisplayableName(readString(in))
+                .setTitle(readString(in))
+                .setArtistName(readString(in))
+                .setAlbumName(readString(in))
+                .setTrackNumber(in.readLong())
+                .setTotalNumberOfTracks(in.readLong())
+                .setGenre(readString(in))
+                .setPlayingTime(in.readLong())
+                .setPlayable(in.readBoolean())
+                .setBrowsable(in.readBoolean())
+                .build();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes the cached contents of the players of the browse tree, replacing the cache of the
+     * device.
+     *
+     * @param rootItemCounts the number of items in the root folder of each player, by node ID.
+     *     Players without one are not written.
+     */
+    static void write(File file, BrowseTree tree, Map<String, Integer> rootItemCounts) {
+        List<BrowseTree.BrowseNode> players = new ArrayList<BrowseTree.BrowseNode>();
+        for (BrowseTree.BrowseNode node : tree.mRootNode.getChildren()) {
+            if (node.isPlayer() && node.isCached() && rootItemCounts.containsKey(node.getID())) {
+                players.add(node);
+            }
+        }
+        if (players.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Failed to create " + directory);
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(VERSION);
+            out.writeInt(players.size());
+            int[] budget = {MAX_ITEMS};
+            for (BrowseTree.BrowseNode player : players) {
+                out.writeInt((int) player.getBluetoothID());
+                writeString(out, player.mItem.getTitle());
+                out.writeInt(rootItemCounts.get(player.getID()));
+                writeChildren(out, player, budget);
+            }
+            if (DBG) Log.d(TAG, "Wrote " + players.size() + " players to " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file + ": " + e);
+            file.delete();
+        }
+    }
+
+    private static void writeChildren(DataOutputStream out, BrowseTree.BrowseNode node,
+            int[] budget) throws IOException {
+        List<BrowseTree.BrowseNode> children =
+                new ArrayList<BrowseTree.BrowseNode>(node.getChildren());
+        if (!node.isCached() || children.size() > budget[0]) {
+            out.writeInt(NOT_CACHED);
+            return;
+        }
+        budget[0] -= children.size();
+        out.writeInt(children.size());
+        for (BrowseTree.BrowseNode child : children) {
+            writeItem(out, child.mItem);
+            writeChildren(out, child, budget);
+        }
+    }
+
+    private static void writeItem(DataOutputStream out, AvrcpItem item) throws IOException {
+        out.writeInt(item.getItemType());
+        out.writeInt(item.getType());
+        out.writeLong(item.getUid());
+        writeString(out, item.getUuid());
+        writeString(out, item.getDisplayableName());
+        writeString(out, item.getTitle());
+        writeString(out, item.getArtistName());
+        writeString(out, item.getAlbumName());
+        out.writeLong(item.getTrackNumber());
+        out.writeLong(item.getTotalNumberOfTracks());
+        writeString(out, item.getGenre());
+        out.writeLong(item.getPlayingTime());
+        out.writeBoolean(item.isPlayable());
+        out.writeBoolean(item.isBrowsable());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
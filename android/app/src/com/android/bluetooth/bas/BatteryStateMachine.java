@@ -33,6 +33,7 @@ import android.os.Message;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.ProfileService;
+import com.android.bluetooth.gatt.InProcessGattClient;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.State;
 import com.android.internal.util.StateMachine;
@@ -76,6 +77,8 @@ public class BatteryStateMachine extends StateMachine {
     WeakReference<BatteryService> mServiceRef;
 
     BluetoothGatt mBluetoothGatt;
+    // Used instead of mBluetoothGatt if InProcessGattClient is enabled
+    InProcessGattClient mInProcessGattClient;
     GattCallback mGattCallback;
     final BluetoothDevice mDevice;
 
@@ -117,9 +120,8 @@ public class BatteryStateMachine extends StateMachine {
      */
     public void cleanup() {
         log("cleanup for device " + mDevice);
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.close();
-            mBluetoothGatt = null;
+        if (hasGatt()) {
+            closeGatt();
             mGattCallback = null;
         }
     }
@@ -171,6 +173,7 @@ public class BatteryStateMachine extends StateMachine {
         ProfileService.println(sb, "mDevice: " + mDevice);
         ProfileService.println(sb, "  StateMachine: " + this);
         ProfileService.println(sb, "  BluetoothGatt: " + mBluetoothGatt);
+        ProfileService.println(sb, "  InProcessGattClient: " + mInProcessGattClient);
         // Dump the state machine logs
         StringWriter stringWriter = new StringWriter();
         PrintWriter printWriter = new PrintWriter(stringWriter);
@@ -229,9 +232,15 @@ public class BatteryStateMachine extends StateMachine {
         if (mGattCallback == null) {
             mGattCallback = new GattCallback();
         }
-        if (mBluetoothGatt != null) {
+        if (hasGatt()) {
             Log.w(TAG, "Trying connectGatt with existing BluetoothGatt instance.");
-            mBluetoothGatt.close();
+            closeGatt();
+        }
+        if (InProcessGattClient.isEnabled()) {
+            mInProcessGattClient = InProcessGattClient.connect(mDevice, /*autoConnect=*/false,
+                    TRANSPORT_LE, /*opportunistic=*/true, PHY_LE_1M_MASK | PHY_LE_2M_MASK,
+                    mGattCallback, getHandler());
+            return mInProcessGattClient != null;
         }
         mBluetoothGatt = mDevice.connectGatt(service, /*autoConnect=*/false,
                 mGattCallback, TRANSPORT_LE, /*opportunistic=*/true,
@@ -239,6 +248,30 @@ public class BatteryStateMachine extends StateMachine {
         return mBluetoothGatt != null;
     }
 
+    private boolean hasGatt() {
+        return mBluetoothGatt != null || mInProcessGattClient != null;
+    }
+
+    private void closeGatt() {
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.close();
+            mBluetoothGatt = null;
+        }
+        if (mInProcessGattClient != null) {
+            mInProcessGattClient.close();
+            mInProcessGattClient = null;
+        }
+    }
+
+    private void disconnectGatt() {
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.disconnect();
+        }
+        if (mInProcessGattClient != null) {
+            mInProcessGattClient.disconnect();
+        }
+    }
+
     @VisibleForTesting
     void updateBatteryLevel(byte[] value) {
         if (value.length == 0) {
@@ -282,9 +315,8 @@ public class BatteryStateMachine extends StateMachine {
             log(TAG, "Enter (" + mDevice + "): " + messageWhatToString(
                         getCurrentMessage().what));
 
-            if (mBluetoothGatt != null) {
-                mBluetoothGatt.close();
-                mBluetoothGatt = null;
+            if (hasGatt()) {
+                closeGatt();
             }
 
             if (mLastConnectionState != BluetoothProfile.STATE_DISCONNECTED) {
@@ -379,8 +411,8 @@ public class BatteryStateMachine extends StateMachine {
                     break;
                 case DISCONNECT:
                     log(TAG, "Connection canceled to " + mDevice);
-                    if (mBluetoothGatt != null) {
-                        mBluetoothGatt.disconnect();
+                    if (hasGatt()) {
+                        disconnectGatt();
                     }
                     // As we're not yet connected we don't need to wait for callbacks.
                     transitionTo(mDisconnected);
@@ -469,8 +501,8 @@ public class BatteryStateMachine extends StateMachine {
                     // Reject the connection and stay in Disconnecting state
                     Log.w(TAG, "Incoming Battery connected request rejected: "
                             + mDevice);
-                    if (mBluetoothGatt != null) {
-                        mBluetoothGatt.disconnect();
+                    if (hasGatt()) {
+                        disconnectGatt();
                     } else {
                         transitionTo(mDisconnected);
                     }
@@ -495,6 +527,9 @@ public class BatteryStateMachine extends StateMachine {
             if (mBluetoothGatt != null) {
                 mBluetoothGatt.discoverServices();
             }
+            if (mInProcessGattClient != null) {
+                mInProcessGattClient.discoverServices();
+            }
         }
 
         @Override
@@ -517,8 +552,8 @@ public class BatteryStateMachine extends StateMachine {
                     break;
                 case DISCONNECT:
                     log(TAG, "Disconnecting from " + mDevice);
-                    if (mBluetoothGatt != null) {
-                        mBluetoothGatt.disconnect();
+                    if (hasGatt()) {
+                        disconnectGatt();
                         transitionTo(mDisconnecting);
                     } else {
                         transitionTo(mDisconnected);
@@ -563,7 +598,10 @@ public class BatteryStateMachine extends StateMachine {
                 return;
             }
 
-            final BluetoothGattService batteryService = gatt.getService(GATT_BATTERY_SERVICE_UUID);
+            // The in-process client does not give a BluetoothGatt to its callbacks
+            final BluetoothGattService batteryService = mInProcessGattClient != null
+                    ? mInProcessGattClient.getService(GATT_BATTERY_SERVICE_UUID)
+                    : gatt.getService(GATT_BATTERY_SERVICE_UUID);
             if (batteryService == null) {
                 Log.e(TAG, "No battery service");
                 return;
@@ -578,7 +616,11 @@ public class BatteryStateMachine extends StateMachine {
 
             // This may not trigger onCharacteristicRead if CCCD is already set but then
             // onCharacteristicChanged will be triggered soon.
-            gatt.readCharacteristic(batteryLevel);
+            if (mInProcessGattClient != null) {
+                mInProcessGattClient.readCharacteristic(batteryLevel);
+            } else {
+                gatt.readCharacteristic(batteryLevel);
+            }
         }
 
         @Override
@@ -602,8 +644,16 @@ public class BatteryStateMachine extends StateMachine {
                 BluetoothGattDescriptor cccd =
                         characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID);
                 if (cccd != null) {
-                    gatt.setCharacteristicNotification(characteristic, /*enable=*/true);
-                    gatt.writeDescriptor(cccd, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                    if (mInProcessGattClient != null) {
+                        mInProcessGattClient.setCharacteristicNotification(characteristic,
+                                /*enable=*/true);
+                        mInProcessGattClient.writeDescriptor(cccd,
+                                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                    } else {
+                        gatt.setCharacteristicNotification(characteristic, /*enable=*/true);
+                        gatt.writeDescriptor(cccd,
+                                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                    }
                 } else {
                     Log.w(TAG, "No CCCD for battery level characteristic, "
                             + "it won't be notified");
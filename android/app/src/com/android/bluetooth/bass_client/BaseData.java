@@ -19,11 +19,14 @@ package com.android.bluetooth.bass_client;
 import android.util.Log;
 import android.util.Pair;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
@@ -36,6 +39,7 @@ import java.util.Set;
 class BaseData {
     private static final String TAG = "Bassclient-BaseData";
     private static final byte UNKNOWN_CODEC = (byte) 0xFE;
+    private static final int MAX_CACHED_BASES = 16;
     private static final int METADATA_LEVEL1 = 1;
     private static final int METADATA_LEVEL2 = 2;
     private static final int METADATA_LEVEL3 = 3;
@@ -198,11 +202,45 @@ class BaseData {
         mNumBISIndices = numOfBISIndices;
     }
 
+    // BASE content, parsed BASE. The BASE of a source is repeated in each of its periodic
+    // advertising reports, and BaseData is not modified once parsed.
+    private static final LinkedHashMap<ByteBuffer, BaseData> sParsedBases =
+            new LinkedHashMap<ByteBuffer, BaseData>(MAX_CACHED_BASES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, BaseData> eldest) {
+                    return size() > MAX_CACHED_BASES;
+                }
+            };
+
     static BaseData parseBaseData(byte[] serviceData) {
         if (serviceData == null) {
             Log.e(TAG, "Invalid service data for BaseData construction");
             throw new IllegalArgumentException("Basedata: serviceData is null");
         }
+        synchronized (sParsedBases) {
+            BaseData base = sParsedBases.get(ByteBuffer.wrap(serviceData));
+            if (base != null) {
+                log("BASE already parsed");
+                return base;
+            }
+        }
+        BaseData base = parseBaseDataUncached(serviceData);
+        if (base != null) {
+            synchronized (sParsedBases) {
+                sParsedBases.put(ByteBuffer.wrap(serviceData.clone()), base);
+            }
+        }
+        return base;
+    }
+
+    @VisibleForTesting
+    static void clearParsedBases() {
+        synchronized (sParsedBases) {
+            sParsedBases.clear();
+        }
+    }
+
+    private static BaseData parseBaseDataUncached(byte[] serviceData) {
         BaseInformation levelOne = new BaseInformation();
         ArrayList<BaseInformation> levelTwo = new ArrayList<BaseInformation>();
         ArrayList<BaseInformation> levelThree = new ArrayList<BaseInformation>();
@@ -83,7 +83,6 @@ public class BassClientService extends ProfileService {
 
     private final Map<BluetoothDevice, BassClientStateMachine> mStateMachines = new HashMap<>();
     private final Object mSearchScanCallbackLock = new Object();
-    private final Map<Integer, ScanResult> mCachedBroadcasts = new HashMap<>();
 
     private final Map<BluetoothDevice, List<Pair<Integer, Object>>> mPendingGroupOp =
             new ConcurrentHashMap<>();
@@ -102,19 +101,10 @@ public class BassClientService extends ProfileService {
     private DatabaseManager mDatabaseManager;
     private BluetoothAdapter mBluetoothAdapter = null;
 
-    /* Caching the PeriodicAdvertisementResult from Broadcast source */
+    /* Caching the scan results and PeriodicAdvertisementResult from Broadcast sources */
     /* This is stored at service so that each device state machine can access
-    and use it as needed. Once the periodic sync in cancelled, this data will bre
-    removed to ensure stable data won't used */
-    /* syncHandle, broadcastSrcDevice */
-    private Map<Integer, BluetoothDevice> mSyncHandleToDeviceMap;
-    /*syncHandle, parsed BaseData data*/
-    private Map<Integer, BaseData> mSyncHandleToBaseDataMap;
-    /*syncHandle, broadcast id */
-    private Map<Integer, Integer> mSyncHandleToBroadcastIdMap;
-    /*bcastSrcDevice, corresponding broadcast id and PeriodicAdvertisementResult*/
-    private Map<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>
-            mPeriodicAdvertisementResultMap;
+    and use it as needed. */
+    private final BroadcastSourceRegistry mSourceRegistry = new BroadcastSourceRegistry();
     private ScanCallback mSearchScanCallback;
     private Callbacks mCallbacks;
 
@@ -157,15 +147,14 @@ public class BassClientService extends ProfileService {
         log("updatePeriodicAdvertisementResultMap: advInterval: " + advInterval);
         log("updatePeriodicAdvertisementResultMap: broadcastId: " + bId);
         log("updatePeriodicAdvertisementResultMap: broadcastName: " + broadcastName);
-        log("mSyncHandleToDeviceMap" + mSyncHandleToDeviceMap);
-        log("mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
+        log("mSourceRegistry" + mSourceRegistry);
         // Cache the SyncHandle and source device
-        if (mSyncHandleToDeviceMap != null && syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
-            mSyncHandleToDeviceMap.put(syncHandle, device);
+        if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
+            mSourceRegistry.putDeviceForSyncHandle(syncHandle, device);
         }
-        if (mPeriodicAdvertisementResultMap != null) {
+        synchronized (mSourceRegistry) {
             HashMap<Integer, PeriodicAdvertisementResult> paResMap =
-                    mPeriodicAdvertisementResultMap.get(device);
+                    mSourceRegistry.getPeriodicAdvertisementResults(device);
             if (paResMap == null
                     || (bId != BassConstants.INVALID_BROADCAST_ID && !paResMap.containsKey(bId))) {
                 log("PAResmap: add >>>");
@@ -173,8 +162,7 @@ public class BassClientService extends ProfileService {
                         addressType, syncHandle, advSid, advInterval, bId, pbData, broadcastName);
                 if (paRes != null) {
                     paRes.print();
-                    mPeriodicAdvertisementResultMap.putIfAbsent(device, new HashMap<>());
-                    mPeriodicAdvertisementResultMap.get(device).put(bId, paRes);
+                    mSourceRegistry.putPeriodicAdvertisementResult(device, bId, paRes);
                 }
             } else {
                 log("PAResmap: update >>>");
@@ -199,10 +187,10 @@ public class BassClientService extends ProfileService {
                 }
                 if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
                     paRes.updateSyncHandle(syncHandle);
-                    if (mSyncHandleToBroadcastIdMap != null
-                            && paRes.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
+                    if (paRes.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
                         // broadcast successfully synced, update the map
-                        mSyncHandleToBroadcastIdMap.put(syncHandle, paRes.getBroadcastId());
+                        mSourceRegistry.putBroadcastIdForSyncHandle(syncHandle,
+                                paRes.getBroadcastId());
                     }
                 }
                 if (addressType != BassConstants.INVALID_ADV_ADDRESS_TYPE) {
@@ -224,54 +212,35 @@ public class BassClientService extends ProfileService {
                 paResMap.replace(bId, paRes);
             }
         }
-        log(">>mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
+        log(">>mSourceRegistry" + mSourceRegistry);
     }
 
     PeriodicAdvertisementResult getPeriodicAdvertisementResult(
             BluetoothDevice device, int broadcastId) {
-        if (mPeriodicAdvertisementResultMap == null) {
-            Log.e(TAG, "getPeriodicAdvertisementResult: mPeriodicAdvertisementResultMap is null");
-            return null;
-        }
-
         if (broadcastId == BassConstants.INVALID_BROADCAST_ID) {
             Log.e(TAG, "getPeriodicAdvertisementResult: invalid broadcast id");
             return null;
         }
 
-        if (mPeriodicAdvertisementResultMap.containsKey(device)) {
-            return mPeriodicAdvertisementResultMap.get(device).get(broadcastId);
-        }
-        return null;
+        return mSourceRegistry.getPeriodicAdvertisementResult(device, broadcastId);
     }
 
     void clearNotifiedFlags() {
         log("clearNotifiedFlags");
-        for (Map.Entry<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>> entry :
-                mPeriodicAdvertisementResultMap.entrySet()) {
-            HashMap<Integer, PeriodicAdvertisementResult> value = entry.getValue();
-            for (PeriodicAdvertisementResult result : value.values()) {
-                result.setNotified(false);
-                result.print();
-            }
+        for (PeriodicAdvertisementResult result :
+                mSourceRegistry.getAllPeriodicAdvertisementResults()) {
+            result.setNotified(false);
+            result.print();
         }
     }
 
     void updateBase(int syncHandlemap, BaseData base) {
-        if (mSyncHandleToBaseDataMap == null) {
-            Log.e(TAG, "updateBase: mSyncHandleToBaseDataMap is null");
-            return;
-        }
-        log("updateBase : mSyncHandleToBaseDataMap>>");
-        mSyncHandleToBaseDataMap.put(syncHandlemap, base);
+        log("updateBase : mSourceRegistry>>");
+        mSourceRegistry.putBase(syncHandlemap, base);
     }
 
     BaseData getBase(int syncHandlemap) {
-        if (mSyncHandleToBaseDataMap == null) {
-            Log.e(TAG, "getBase: mSyncHandleToBaseDataMap is null");
-            return null;
-        }
-        BaseData base = mSyncHandleToBaseDataMap.get(syncHandlemap);
+        BaseData base = mSourceRegistry.getBase(syncHandlemap);
         log("getBase returns" + base);
         return base;
     }
@@ -336,7 +305,7 @@ public class BassClientService extends ProfileService {
     }
 
     ScanResult getCachedBroadcast(int broadcastId) {
-        return mCachedBroadcasts.get(broadcastId);
+        return mSourceRegistry.getCachedBroadcast(broadcastId);
     }
 
     public Callbacks getCallbacks() {
@@ -373,12 +342,6 @@ public class BassClientService extends ProfileService {
         mCallbacks = new Callbacks(mCallbackHandlerThread.getLooper());
 
         setBassClientService(this);
-        // Saving PSync stuff for future addition
-        mSyncHandleToDeviceMap = new HashMap<Integer, BluetoothDevice>();
-        mPeriodicAdvertisementResultMap =
-                new HashMap<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>();
-        mSyncHandleToBaseDataMap = new HashMap<Integer, BaseData>();
-        mSyncHandleToBroadcastIdMap = new HashMap<Integer, Integer>();
         mSearchScanCallback = null;
         return true;
     }
@@ -411,30 +374,16 @@ public class BassClientService extends ProfileService {
         }
 
         setBassClientService(null);
-        if (mSyncHandleToDeviceMap != null) {
-            mSyncHandleToDeviceMap.clear();
-            mSyncHandleToDeviceMap = null;
-        }
-        if (mPeriodicAdvertisementResultMap != null) {
-            mPeriodicAdvertisementResultMap.clear();
-            mPeriodicAdvertisementResultMap = null;
-        }
+        mSourceRegistry.clear();
         if (mActiveSourceMap != null) {
             mActiveSourceMap.clear();
         }
         if (mPendingGroupOp != null) {
             mPendingGroupOp.clear();
         }
-        if (mCachedBroadcasts != null) {
-            mCachedBroadcasts.clear();
-        }
         if (mBroadcastMetadataMap != null) {
             mBroadcastMetadataMap.clear();
         }
-        if (mSyncHandleToBroadcastIdMap != null) {
-            mSyncHandleToBroadcastIdMap.clear();
-            mSyncHandleToBroadcastIdMap = null;
-        }
         return true;
     }
 
@@ -445,37 +394,15 @@ public class BassClientService extends ProfileService {
     }
 
     BluetoothDevice getDeviceForSyncHandle(int syncHandle) {
-        if (mSyncHandleToDeviceMap == null) {
-            return null;
-        }
-        return mSyncHandleToDeviceMap.get(syncHandle);
+        return mSourceRegistry.getDeviceForSyncHandle(syncHandle);
     }
 
     int getSyncHandleForBroadcastId(int broadcastId) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            return BassConstants.INVALID_SYNC_HANDLE;
-        }
-
-        int syncHandle = BassConstants.INVALID_SYNC_HANDLE;
-        for (Map.Entry<Integer, Integer> entry : mSyncHandleToBroadcastIdMap.entrySet()) {
-            Integer value = entry.getValue();
-            if (value == broadcastId) {
-                syncHandle = entry.getKey();
-                break;
-            }
-        }
-        return syncHandle;
+        return mSourceRegistry.getSyncHandleForBroadcastId(broadcastId);
     }
 
     int getBroadcastIdForSyncHandle(int syncHandle) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            return BassConstants.INVALID_BROADCAST_ID;
-        }
-
-        if (mSyncHandleToBroadcastIdMap.containsKey(syncHandle)) {
-            return mSyncHandleToBroadcastIdMap.get(syncHandle);
-        }
-        return BassConstants.INVALID_BROADCAST_ID;
+        return mSourceRegistry.getBroadcastIdForSyncHandle(syncHandle);
     }
 
     private static synchronized void setBassClientService(BassClientService instance) {
@@ -1073,9 +1000,8 @@ public class BassClientService extends ProfileService {
                             + broadcastId);
 
                     if (broadcastId != BassConstants.INVALID_BROADCAST_ID
-                            && mCachedBroadcasts.get(broadcastId) == null) {
+                            && mSourceRegistry.putCachedBroadcastIfNew(broadcastId, result)) {
                         log("selectBroadcastSource: broadcastId " + broadcastId);
-                        mCachedBroadcasts.put(broadcastId, result);
                         synchronized (mStateMachines) {
                             for (BassClientStateMachine sm : mStateMachines.values()) {
                                 if (sm.isConnected()) {
@@ -1091,12 +1017,10 @@ public class BassClientService extends ProfileService {
                 }
             };
             // when starting scan, clear the previously cached broadcast scan results
-            mCachedBroadcasts.clear();
+            mSourceRegistry.clearCachedBroadcasts();
             // clear previous sources notify flag before scanning new result
             // this is to make sure the active sources are notified even if already synced
-            if (mPeriodicAdvertisementResultMap != null) {
-                clearNotifiedFlags();
-            }
+            clearNotifiedFlags();
             ScanSettings settings = new ScanSettings.Builder().setCallbackType(
                     ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
                     .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
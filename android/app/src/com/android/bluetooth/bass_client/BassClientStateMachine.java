@@ -55,6 +55,7 @@ import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.flags.FeatureFlags;
+import com.android.bluetooth.gatt.InProcessGattClient;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.State;
 import com.android.internal.util.StateMachine;
@@ -1172,6 +1173,18 @@ public class BassClientStateMachine extends StateMachine {
             mGattCallback = new GattCallback();
         }
 
+        if (InProcessGattClient.isEnabled()) {
+            InProcessGattClient client = InProcessGattClient.connect(mDevice, autoConnect,
+                    BluetoothDevice.TRANSPORT_LE, /*opportunistic=*/false,
+                    (BluetoothDevice.PHY_LE_1M_MASK
+                            | BluetoothDevice.PHY_LE_2M_MASK
+                            | BluetoothDevice.PHY_LE_CODED_MASK), mGattCallback, null);
+            if (client != null) {
+                mBluetoothGatt = new BluetoothGattTestableWrapper(client);
+            }
+            return mBluetoothGatt != null;
+        }
+
         BluetoothGatt gatt = mDevice.connectGatt(mService, autoConnect,
                 mGattCallback, BluetoothDevice.TRANSPORT_LE,
                 (BluetoothDevice.PHY_LE_1M_MASK
@@ -2143,25 +2156,39 @@ public class BassClientStateMachine extends StateMachine {
     @VisibleForTesting
     public static class BluetoothGattTestableWrapper {
         public final BluetoothGatt mWrappedBluetoothGatt;
+        // Wrapped instead of a BluetoothGatt if InProcessGattClient is enabled
+        private final InProcessGattClient mInProcessGattClient;
 
         BluetoothGattTestableWrapper(BluetoothGatt bluetoothGatt) {
             mWrappedBluetoothGatt = bluetoothGatt;
+            mInProcessGattClient = null;
+        }
+
+        BluetoothGattTestableWrapper(InProcessGattClient inProcessGattClient) {
+            mWrappedBluetoothGatt = null;
+            mInProcessGattClient = inProcessGattClient;
         }
 
         /** See {@link BluetoothGatt#getServices()}. */
         public List<BluetoothGattService> getServices() {
-            return mWrappedBluetoothGatt.getServices();
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.getServices()
+                    : mWrappedBluetoothGatt.getServices();
         }
 
         /** See {@link BluetoothGatt#getService(UUID)}. */
         @Nullable
         public BluetoothGattService getService(UUID uuid) {
-            return mWrappedBluetoothGatt.getService(uuid);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.getService(uuid)
+                    : mWrappedBluetoothGatt.getService(uuid);
         }
 
         /** See {@link BluetoothGatt#discoverServices()}. */
         public boolean discoverServices() {
-            return mWrappedBluetoothGatt.discoverServices();
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.discoverServices()
+                    : mWrappedBluetoothGatt.discoverServices();
         }
 
         /**
@@ -2169,7 +2196,9 @@ public class BassClientStateMachine extends StateMachine {
          * BluetoothGattCharacteristic)}.
          */
         public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
-            return mWrappedBluetoothGatt.readCharacteristic(characteristic);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.readCharacteristic(characteristic)
+                    : mWrappedBluetoothGatt.readCharacteristic(characteristic);
         }
 
         /**
@@ -2177,12 +2206,16 @@ public class BassClientStateMachine extends StateMachine {
          * BluetoothGattCharacteristic, byte[], int)} .
          */
         public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
-            return mWrappedBluetoothGatt.writeCharacteristic(characteristic);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.writeCharacteristic(characteristic)
+                    : mWrappedBluetoothGatt.writeCharacteristic(characteristic);
         }
 
         /** See {@link BluetoothGatt#readDescriptor(BluetoothGattDescriptor)}. */
         public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
-            return mWrappedBluetoothGatt.readDescriptor(descriptor);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.readDescriptor(descriptor)
+                    : mWrappedBluetoothGatt.readDescriptor(descriptor);
         }
 
         /**
@@ -2190,28 +2223,42 @@ public class BassClientStateMachine extends StateMachine {
          * byte[])}.
          */
         public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
-            return mWrappedBluetoothGatt.writeDescriptor(descriptor);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.writeDescriptor(descriptor)
+                    : mWrappedBluetoothGatt.writeDescriptor(descriptor);
         }
 
         /** See {@link BluetoothGatt#requestMtu(int)}. */
         public boolean requestMtu(int mtu) {
-            return mWrappedBluetoothGatt.requestMtu(mtu);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.requestMtu(mtu)
+                    : mWrappedBluetoothGatt.requestMtu(mtu);
         }
 
         /** See {@link BluetoothGatt#setCharacteristicNotification}. */
         public boolean setCharacteristicNotification(
                 BluetoothGattCharacteristic characteristic, boolean enable) {
-            return mWrappedBluetoothGatt.setCharacteristicNotification(characteristic, enable);
+            return mInProcessGattClient != null
+                    ? mInProcessGattClient.setCharacteristicNotification(characteristic, enable)
+                    : mWrappedBluetoothGatt.setCharacteristicNotification(characteristic, enable);
         }
 
         /** See {@link BluetoothGatt#disconnect()}. */
         public void disconnect() {
-            mWrappedBluetoothGatt.disconnect();
+            if (mInProcessGattClient != null) {
+                mInProcessGattClient.disconnect();
+            } else {
+                mWrappedBluetoothGatt.disconnect();
+            }
         }
 
         /** See {@link BluetoothGatt#close()}. */
         public void close() {
-            mWrappedBluetoothGatt.close();
+            if (mInProcessGattClient != null) {
+                mInProcessGattClient.close();
+            } else {
+                mWrappedBluetoothGatt.close();
+            }
         }
     }
 
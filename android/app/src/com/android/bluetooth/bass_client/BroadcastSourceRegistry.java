@@ -0,0 +1,198 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The broadcast sources found by the broadcast assistant, indexed by broadcast ID, sync handle and
+ * advertiser.
+ *
+ * <p>The sources found by scanning, and the periodic advertisements of the advertisers not
+ * synced, are evicted least recently used first, so that the registry stays bounded with many
+ * sources around. The broadcast IDs of the sources evicted are remembered until the next search,
+ * so that a source is selected once per search even when more than MAX_SOURCES are around. The
+ * sync handles are bounded by the controller, and their entries are replaced when a handle is
+ * reused.
+ *
+ * <p>All the methods are synchronized, as the registry is used from the scan callbacks, the state
+ * machines and the binder threads.
+ */
+class BroadcastSourceRegistry {
+    @VisibleForTesting static final int MAX_SOURCES = 64;
+
+    // Broadcast ID, scan result of the source
+    private final LinkedHashMap<Integer, ScanResult> mCachedBroadcasts =
+            new LinkedHashMap<Integer, ScanResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, ScanResult> eldest) {
+                    if (size() > MAX_SOURCES) {
+                        mEvictedBroadcastIds.add(eldest.getKey());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    // Broadcast IDs of the sources evicted since the search started
+    private final Set<Integer> mEvictedBroadcastIds = new HashSet<Integer>();
+    // Advertiser, broadcast ID and periodic advertisement of the source
+    private final LinkedHashMap<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>
+            mPeriodicAdvertisementResults = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, BluetoothDevice> mSyncHandleToDevice = new HashMap<>();
+    private final Map<Integer, BaseData> mSyncHandleToBase = new HashMap<>();
+    private final Map<Integer, Integer> mSyncHandleToBroadcastId = new HashMap<>();
+    private final Map<Integer, Integer> mBroadcastIdToSyncHandle = new HashMap<>();
+
+    synchronized ScanResult getCachedBroadcast(int broadcastId) {
+        return mCachedBroadcasts.get(broadcastId);
+    }
+
+    synchronized void putCachedBroadcast(int broadcastId, ScanResult result) {
+        mCachedBroadcasts.put(broadcastId, result);
+    }
+
+    /**
+     * Caches the latest scan result of a source found by the search, so that it can be synced
+     * with, even if it was evicted since.
+     *
+     * @return whether the source is new to the search
+     */
+    synchronized boolean putCachedBroadcastIfNew(int broadcastId, ScanResult result) {
+        boolean found = mCachedBroadcasts.containsKey(broadcastId)
+                || mEvictedBroadcastIds.contains(broadcastId);
+        mCachedBroadcasts.put(broadcastId, result);
+        return !found;
+    }
+
+    /** Forgets the sources found, as a new search starts. */
+    synchronized void clearCachedBroadcasts() {
+        mCachedBroadcasts.clear();
+        mEvictedBroadcastIds.clear();
+    }
+
+    synchronized void putDeviceForSyncHandle(int syncHandle, BluetoothDevice device) {
+        mSyncHandleToDevice.put(syncHandle, device);
+    }
+
+    synchronized BluetoothDevice getDeviceForSyncHandle(int syncHandle) {
+        return mSyncHandleToDevice.get(syncHandle);
+    }
+
+    synchronized void putBase(int syncHandle, BaseData base) {
+        mSyncHandleToBase.put(syncHandle, base);
+    }
+
+    synchronized BaseData getBase(int syncHandle) {
+        return mSyncHandleToBase.get(syncHandle);
+    }
+
+    /** Records that a broadcast is synced with a sync handle, replacing their former entries. */
+    synchronized void putBroadcastIdForSyncHandle(int syncHandle, int broadcastId) {
+        Integer oldBroadcastId = mSyncHandleToBroadcastId.put(syncHandle, broadcastId);
+        if (oldBroadcastId != null && oldBroadcastId != broadcastId) {
+            mBroadcastIdToSyncHandle.remove(oldBroadcastId, syncHandle);
+        }
+        Integer oldSyncHandle = mBroadcastIdToSyncHandle.put(broadcastId, syncHandle);
+        if (oldSyncHandle != null && oldSyncHandle != syncHandle) {
+            mSyncHandleToBroadcastId.remove(oldSyncHandle, broadcastId);
+        }
+    }
+
+    synchronized int getSyncHandleForBroadcastId(int broadcastId) {
+        return mBroadcastIdToSyncHandle.getOrDefault(broadcastId,
+                BassConstants.INVALID_SYNC_HANDLE);
+    }
+
+    synchronized int getBroadcastIdForSyncHandle(int syncHandle) {
+        return mSyncHandleToBroadcastId.getOrDefault(syncHandle,
+                BassConstants.INVALID_BROADCAST_ID);
+    }
+
+    /** Returns the periodic advertisements of an advertiser, by broadcast ID, or null if none. */
+    synchronized HashMap<Integer, PeriodicAdvertisementResult> getPeriodicAdvertisementResults(
+            BluetoothDevice device) {
+        return mPeriodicAdvertisementResults.get(device);
+    }
+
+    synchronized PeriodicAdvertisementResult getPeriodicAdvertisementResult(
+            BluetoothDevice device, int broadcastId) {
+        HashMap<Integer, PeriodicAdvertisementResult> results =
+                mPeriodicAdvertisementResults.get(device);
+        return results == null ? null : results.get(broadcastId);
+    }
+
+    synchronized void putPeriodicAdvertisementResult(BluetoothDevice device, int broadcastId,
+            PeriodicAdvertisementResult result) {
+        HashMap<Integer, PeriodicAdvertisementResult> results =
+                mPeriodicAdvertisementResults.get(device);
+        if (results == null) {
+            results = new HashMap<>();
+            mPeriodicAdvertisementResults.put(device, results);
+            evictPeriodicAdvertisementResults();
+        }
+        results.put(broadcastId, result);
+    }
+
+    // Evicts the least recently used advertisers not synced, past MAX_SOURCES
+    private void evictPeriodicAdvertisementResults() {
+        Iterator<BluetoothDevice> it = mPeriodicAdvertisementResults.keySet().iterator();
+        while (mPeriodicAdvertisementResults.size() > MAX_SOURCES && it.hasNext()) {
+            if (!mSyncHandleToDevice.containsValue(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized List<PeriodicAdvertisementResult> getAllPeriodicAdvertisementResults() {
+        List<PeriodicAdvertisementResult> all = new ArrayList<>();
+        for (HashMap<Integer, PeriodicAdvertisementResult> results :
+                mPeriodicAdvertisementResults.values()) {
+            all.addAll(results.values());
+        }
+        return all;
+    }
+
+    synchronized void clear() {
+        mCachedBroadcasts.clear();
+        mEvictedBroadcastIds.clear();
+        mPeriodicAdvertisementResults.clear();
+        mSyncHandleToDevice.clear();
+        mSyncHandleToBase.clear();
+        mSyncHandleToBroadcastId.clear();
+        mBroadcastIdToSyncHandle.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BroadcastSourceRegistry{cachedBroadcasts=" + mCachedBroadcasts.keySet()
+                + ", periodicAdvertisementResults=" + mPeriodicAdvertisementResults
+                + ", syncHandleToDevice=" + mSyncHandleToDevice
+                + ", syncHandleToBroadcastId=" + mSyncHandleToBroadcastId + "}";
+    }
+}
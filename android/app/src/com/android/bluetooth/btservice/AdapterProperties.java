@@ -1191,6 +1191,9 @@ class AdapterProperties {
 
     void discoveryStateChangeCallback(int state) {
         infoLog("Callback:discoveryStateChangeCallback with state:" + state);
+        if (mRemoteDevices != null) {
+            mRemoteDevices.onDiscoveryStateChanged(state);
+        }
         synchronized (mObject) {
             Intent intent;
             if (state == AbstractionLayer.BT_DISCOVERY_STOPPED) {
@@ -109,10 +109,12 @@ import android.util.SparseArray;
 
 import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothStatsLog;
+import com.android.bluetooth.ObexSessionStats;
 import com.android.bluetooth.R;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.a2dpsink.A2dpSinkService;
+import com.android.bluetooth.avrcpcontroller.AvrcpControllerService;
 import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.bass_client.BassClientService;
 import com.android.bluetooth.btservice.InteropUtil.InteropFeature;
@@ -365,6 +367,7 @@ public class AdapterService extends Service {
     private BluetoothKeystoreService mBluetoothKeystoreService;
     private A2dpService mA2dpService;
     private A2dpSinkService mA2dpSinkService;
+    private AvrcpControllerService mAvrcpControllerService;
     private HeadsetService mHeadsetService;
     private HeadsetClientService mHeadsetClientService;
     private BluetoothMapService mMapService;
@@ -383,6 +386,7 @@ public class AdapterService extends Service {
     private BassClientService mBassClientService;
     private BatteryService mBatteryService;
     private BluetoothQualityReportNativeInterface mBluetoothQualityReportNativeInterface;
+    private final LinkQualityAnalytics mLinkQualityAnalytics = new LinkQualityAnalytics();
     private GattService mGattService;
 
     private volatile boolean mTestModeEnabled = false;
@@ -1193,6 +1197,9 @@ public class AdapterService extends Service {
      */
     public int bluetoothQualityReportReadyCallback(
             BluetoothDevice device, BluetoothQualityReport bluetoothQualityReport) {
+        mLinkQualityAnalytics.onQualityReport(
+                device, bluetoothQualityReport, SystemClock.elapsedRealtime());
+
         synchronized (mBluetoothQualityReportReadyCallbacks) {
             if (mBluetoothQualityReportReadyCallbacks != null) {
                 int n = mBluetoothQualityReportReadyCallbacks.beginBroadcast();
@@ -1788,6 +1795,7 @@ public class AdapterService extends Service {
         Log.i(TAG, "initProfileServices: Initializing all bluetooth profile services");
         mA2dpService = A2dpService.getA2dpService();
         mA2dpSinkService = A2dpSinkService.getA2dpSinkService();
+        mAvrcpControllerService = AvrcpControllerService.getAvrcpControllerService();
         mHeadsetService = HeadsetService.getHeadsetService();
         mHeadsetClientService = HeadsetClientService.getHeadsetClientService();
         mMapService = BluetoothMapService.getBluetoothMapService();
@@ -5752,6 +5760,15 @@ public class AdapterService extends Service {
         return mDatabaseManager;
     }
 
+    /**
+     * Get the rolling statistics of the Bluetooth Quality Reports of the remote devices
+     *
+     * @return {@link LinkQualityAnalytics}
+     */
+    public LinkQualityAnalytics getLinkQualityAnalytics() {
+        return mLinkQualityAnalytics;
+    }
+
     public byte[] getByteIdentityAddress(BluetoothDevice device) {
         DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
         if (deviceProp != null && deviceProp.getIdentityAddress() != null) {
@@ -5921,6 +5938,10 @@ public class AdapterService extends Service {
      * @param device remote device of interest
      */
     public void deviceUuidUpdated(BluetoothDevice device) {
+        // Service records may have changed along with the UUIDs
+        if (mSdpManager != null) {
+            mSdpManager.invalidateCache(device);
+        }
         // Notify BondStateMachine for SDP complete / UUID changed.
         Message msg = mBondStateMachine.obtainMessage(BondStateMachine.UUID_UPDATE);
         msg.obj = device;
@@ -6903,6 +6924,11 @@ public class AdapterService extends Service {
         return ((ProfileService) mGattService).getBinder();
     }
 
+    /** Returns the GATT service, or null if it is not running. */
+    public GattService getGattService() {
+        return mGattService;
+    }
+
     void unregAllGattClient(AttributionSource source) {
         if (mGattService != null) {
             mGattService.unregAll(source);
@@ -7033,12 +7059,21 @@ public class AdapterService extends Service {
         if (mPbapService != null && mPbapService.isAvailable()) {
             mPbapService.handleBondStateChanged(device, fromState, toState);
         }
+        if (mAvrcpControllerService != null && mAvrcpControllerService.isAvailable()) {
+            mAvrcpControllerService.handleBondStateChanged(device, fromState, toState);
+        }
         if (mCsipSetCoordinatorService != null && mCsipSetCoordinatorService.isAvailable()) {
             mCsipSetCoordinatorService.handleBondStateChanged(device, fromState, toState);
         }
+        if (mSdpManager != null) {
+            mSdpManager.handleBondStateChanged(device, fromState, toState);
+        }
         if (mDatabaseManager != null) {
             mDatabaseManager.handleBondStateChanged(device, fromState, toState);
         }
+        if (toState == BluetoothDevice.BOND_NONE) {
+            mLinkQualityAnalytics.removeDevice(device);
+        }
     }
 
     static int convertScanModeToHal(int mode) {
@@ -7266,6 +7301,8 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        mLinkQualityAnalytics.dump(writer, SystemClock.elapsedRealtime());
+        ObexSessionStats.dump(writer);
 
         writer.write(sb.toString());
         writer.flush();
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Filters classic inquiry results for the duration of one discovery session.
+ *
+ * <p>The controller reports the same device many times per inquiry (every EIR update). A result
+ * is only delivered to a discovering package when the device has not been delivered to that
+ * package in the current session, or when its name, class of device or RSSI changed materially
+ * since the last result delivered to it. A package that starts discovering while a session is
+ * running thus gets every device found afterwards, as it would without the aggregator.
+ */
+class DiscoveryResultAggregator {
+    private static final String TAG = "BluetoothDiscoveryAggregator";
+
+    @VisibleForTesting
+    static final String RESTRICT_DISCOVERED_DEVICE_PROPERTY =
+            "bluetooth.restrict_discovered_device.enabled";
+
+    /** Minimum RSSI change, in dBm, for an already reported device to be reported again. */
+    @VisibleForTesting static final int RSSI_DELTA_THRESHOLD_DBM = 6;
+
+    /** A single classic discovery result. */
+    static final class Result {
+        final BluetoothDevice mDevice;
+        final String mName;
+        final int mBluetoothClass;
+        final short mRssi;
+        final boolean mIsCoordinatedSetMember;
+
+        Result(BluetoothDevice device, String name, int bluetoothClass, short rssi,
+                boolean isCoordinatedSetMember) {
+            mDevice = device;
+            mName = name;
+            mBluetoothClass = bluetoothClass;
+            mRssi = rssi;
+            mIsCoordinatedSetMember = isCoordinatedSetMember;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{device=" + mDevice + ", class=" + mBluetoothClass + ", rssi=" + mRssi
+                    + "}";
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    // Package name, address of the device and last result delivered to the package
+    @GuardedBy("mLock")
+    private final HashMap<String, HashMap<String, Result>> mDelivered = new HashMap<>();
+
+    @GuardedBy("mLock")
+    private boolean mRestrictDiscoveredDevice;
+
+    @GuardedBy("mLock")
+    private boolean mRestrictionResolved;
+
+    @GuardedBy("mLock")
+    private int mSuppressedCount;
+
+    /** Starts a new discovery session, forgetting every result delivered in the previous one. */
+    void onDiscoveryStarted() {
+        synchronized (mLock) {
+            mDelivered.clear();
+            mRestrictDiscoveredDevice =
+                    SystemProperties.getBoolean(RESTRICT_DISCOVERED_DEVICE_PROPERTY, false);
+            mRestrictionResolved = true;
+            mSuppressedCount = 0;
+        }
+    }
+
+    /** Ends the discovery session. */
+    void onDiscoveryStopped() {
+        synchronized (mLock) {
+            Log.d(TAG, "onDiscoveryStopped: packages=" + mDelivered.size()
+                    + ", suppressed=" + mSuppressedCount);
+            mDelivered.clear();
+            mRestrictionResolved = false;
+        }
+    }
+
+    /**
+     * @return whether nameless devices must not be reported, as read once per session
+     */
+    boolean isRestrictDiscoveredDevice() {
+        synchronized (mLock) {
+            if (!mRestrictionResolved) {
+                // Result received outside of a tracked session (e.g. before the STARTED callback)
+                mRestrictDiscoveredDevice =
+                        SystemProperties.getBoolean(RESTRICT_DISCOVERED_DEVICE_PROPERTY, false);
+                mRestrictionResolved = true;
+            }
+            return mRestrictDiscoveredDevice;
+        }
+    }
+
+    /**
+     * Records that an inquiry result is found for a discovering package and decides whether it
+     * must be delivered to it.
+     *
+     * @return true if the device is new to the package in this session or changed materially
+     */
+    boolean onDeviceFound(String packageName, Result result) {
+        synchronized (mLock) {
+            Map<String, Result> delivered =
+                    mDelivered.computeIfAbsent(packageName, k -> new HashMap<>());
+            String address = result.mDevice.getAddress();
+            Result previous = delivered.get(address);
+            if (previous != null && !isMaterialChange(previous, result)) {
+                mSuppressedCount++;
+                return false;
+            }
+            delivered.put(address, result);
+            return true;
+        }
+    }
+
+    /** Drops the current session. */
+    void cleanup() {
+        synchronized (mLock) {
+            mDelivered.clear();
+            mRestrictionResolved = false;
+        }
+    }
+
+    @VisibleForTesting
+    static boolean isMaterialChange(Result previous, Result current) {
+        return !Objects.equals(previous.mName, current.mName)
+                || previous.mBluetoothClass != current.mBluetoothClass
+                || previous.mIsCoordinatedSetMember != current.mIsCoordinatedSetMember
+                || Math.abs(previous.mRssi - current.mRssi) >= RSSI_DELTA_THRESHOLD_DBM;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothQualityReport;
+import android.bluetooth.BluetoothQualityReport.BqrCommon;
+import android.bluetooth.BluetoothQualityReport.BqrVsA2dpChoppy;
+import android.bluetooth.BluetoothQualityReport.BqrVsScoChoppy;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Aggregates the Bluetooth Quality Reports of each remote device over a rolling window.
+ *
+ * <p>For every device, the last {@link #WINDOW_SIZE} values of each metric are kept in fixed size
+ * primitive ring buffers, so that recording a report never allocates. Percentiles are computed
+ * on demand, from a {@link Snapshot}, and are printed in dumpsys.
+ *
+ * <p>Only the most recently reported {@link #MAX_DEVICES} devices are tracked.
+ */
+public class LinkQualityAnalytics {
+    /** Number of values kept per metric and per device. */
+    @VisibleForTesting static final int WINDOW_SIZE = 128;
+
+    /** Maximum number of tracked devices. */
+    @VisibleForTesting static final int MAX_DEVICES = 32;
+
+    /** Period over which the choppy events are counted. */
+    @VisibleForTesting static final long CHOPPY_WINDOW_MS = 10 * 60 * 1000;
+
+    /** RSSI of the link, in dBm. */
+    public static final int METRIC_RSSI = 0;
+    /** SNR of the link, in dB. */
+    public static final int METRIC_SNR = 1;
+    /** Number of retransmitted packets since the previous report. */
+    public static final int METRIC_RETRANSMISSIONS = 2;
+    /** Number of packets not received since the previous report. */
+    public static final int METRIC_NO_RX = 3;
+    /** Number of negative acknowledgements since the previous report. */
+    public static final int METRIC_NAK = 4;
+    /** Number of TX bytes flushed because of a buffer overflow since the previous report. */
+    public static final int METRIC_FLUSHED_BYTES = 5;
+    /** Number of audio glitches in A2DP and SCO choppy reports. */
+    public static final int METRIC_GLITCHES = 6;
+
+    private static final int METRIC_COUNT = 7;
+
+    private static final String[] METRIC_NAMES = {
+        "rssi", "snr", "retransmissions", "noRx", "nak", "flushedBytes", "glitches"
+    };
+
+    private static final int[] DUMP_PERCENTILES = {10, 50, 90, 99};
+
+    // In the order of the last report of each device, reads don't keep a device tracked
+    @GuardedBy("mDeviceStats")
+    private final LinkedHashMap<String, DeviceStats> mDeviceStats =
+            new LinkedHashMap<String, DeviceStats>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DeviceStats> eldest) {
+                    return size() > MAX_DEVICES;
+                }
+            };
+
+    /**
+     * Records a Bluetooth Quality Report.
+     *
+     * @param device the remote device of the report
+     * @param bqr the decoded report
+     * @param timestampMs the time of the report, in the {@link
+     *     android.os.SystemClock#elapsedRealtime()} base
+     */
+    public void onQualityReport(
+            BluetoothDevice device, BluetoothQualityReport bqr, long timestampMs) {
+        BqrCommon common = bqr.getBqrCommon();
+        if (device == null || common == null) {
+            return;
+        }
+        int glitchCount = -1;
+        Object event = bqr.getBqrEvent();
+        if (event instanceof BqrVsA2dpChoppy) {
+            glitchCount = ((BqrVsA2dpChoppy) event).getGlitchCount();
+        } else if (event instanceof BqrVsScoChoppy) {
+            glitchCount = ((BqrVsScoChoppy) event).getGlitchCount();
+        }
+        addReport(
+                device.getAddress(),
+                bqr.getQualityReportId(),
+                common.getRssi(),
+                common.getSnr(),
+                common.getRetransmissionCount(),
+                common.getNoRxCount(),
+                common.getNakCount(),
+                common.getOverflowCount(),
+                glitchCount,
+                timestampMs);
+    }
+
+    @VisibleForTesting
+    void addReport(
+            String address,
+            int reportId,
+            int rssi,
+            int snr,
+            long retransmissions,
+            long noRx,
+            long nak,
+            long flushedBytes,
+            int glitchCount,
+            long timestampMs) {
+        synchronized (mDeviceStats) {
+            DeviceStats stats = mDeviceStats.remove(address);
+            if (stats == null) {
+                stats = new DeviceStats();
+            }
+            mDeviceStats.put(address, stats);
+            stats.mReportCount++;
+            stats.mMetrics[METRIC_RSSI].add(rssi);
+            stats.mMetrics[METRIC_SNR].add(snr);
+            stats.mMetrics[METRIC_RETRANSMISSIONS].add(clamp(retransmissions));
+            stats.mMetrics[METRIC_NO_RX].add(clamp(noRx));
+            stats.mMetrics[METRIC_NAK].add(clamp(nak));
+            stats.mMetrics[METRIC_FLUSHED_BYTES].add(clamp(flushedBytes));
+            if (reportId == BluetoothQualityReport.QUALITY_REPORT_ID_A2DP_CHOPPY) {
+                stats.mA2dpChoppyTimes.add(timestampMs);
+            } else if (reportId == BluetoothQualityReport.QUALITY_REPORT_ID_SCO_CHOPPY) {
+                stats.mScoChoppyTimes.add(timestampMs);
+            }
+            if (glitchCount >= 0) {
+                stats.mMetrics[METRIC_GLITCHES].add(glitchCount);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of a device.
+     *
+     * @param device the remote device
+     * @param nowMs the current time, in the {@link android.os.SystemClock#elapsedRealtime()} base
+     * @return the statistics, or null if no report was received for the device
+     */
+    public Snapshot getSnapshot(BluetoothDevice device, long nowMs) {
+        return getSnapshot(device.getAddress(), nowMs);
+    }
+
+    @VisibleForTesting
+    Snapshot getSnapshot(String address, long nowMs) {
+        synchronized (mDeviceStats) {
+            DeviceStats stats = mDeviceStats.get(address);
+            return stats == null ? null : new Snapshot(stats, nowMs);
+        }
+    }
+
+    /** Forgets the reports of a device, e.g. when it is unbonded. */
+    public void removeDevice(BluetoothDevice device) {
+        synchronized (mDeviceStats) {
+            mDeviceStats.remove(device.getAddress());
+        }
+    }
+
+    /** Forgets the reports of all devices. */
+    public void clear() {
+        synchronized (mDeviceStats) {
+            mDeviceStats.clear();
+        }
+    }
+
+    void dump(PrintWriter writer, long nowMs) {
+        writer.println("\nLinkQualityAnalytics:");
+        synchronized (mDeviceStats) {
+            if (mDeviceStats.isEmpty()) {
+                writer.println("  No quality report received");
+                return;
+            }
+            for (Map.Entry<String, DeviceStats> entry : mDeviceStats.entrySet()) {
+                Snapshot snapshot = new Snapshot(entry.getValue(), nowMs);
+                writer.println(
+                        "  "
+                                + entry.getKey()
+                                + ": reports="
+                                + snapshot.getReportCount()
+                                + ", a2dpChoppy/10min="
+                                + snapshot.getA2dpChoppyCount()
+                                + ", scoChoppy/10min="
+                                + snapshot.getScoChoppyCount());
+                StringBuilder sb = new StringBuilder();
+                for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                    if (snapshot.getSampleCount(metric) == 0) {
+                        continue;
+                    }
+                    sb.setLength(0);
+                    sb.append("    ").append(METRIC_NAMES[metric]).append(" p10/p50/p90/p99: ");
+                    for (int i = 0; i < DUMP_PERCENTILES.length; i++) {
+                        if (i > 0) {
+                            sb.append('/');
+                        }
+                        sb.append(snapshot.getPercentile(metric, DUMP_PERCENTILES[i]));
+                    }
+                    writer.println(sb);
+                }
+            }
+        }
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.min(Math.max(value, Integer.MIN_VALUE), Integer.MAX_VALUE);
+    }
+
+    /** Immutable view of the statistics of a device at a given time. */
+    public static final class Snapshot {
+        private final long mReportCount;
+        private final int[][] mSortedMetrics = new int[METRIC_COUNT][];
+        private final int mA2dpChoppyCount;
+        private final int mScoChoppyCount;
+
+        private Snapshot(DeviceStats stats, long nowMs) {
+            mReportCount = stats.mReportCount;
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                mSortedMetrics[metric] = stats.mMetrics[metric].toSortedArray();
+            }
+            mA2dpChoppyCount = stats.mA2dpChoppyTimes.countSince(nowMs - CHOPPY_WINDOW_MS);
+            mScoChoppyCount = stats.mScoChoppyTimes.countSince(nowMs - CHOPPY_WINDOW_MS);
+        }
+
+        /** @return the number of reports received since the device is tracked */
+        public long getReportCount() {
+            return mReportCount;
+        }
+
+        /** @return the number of values of a metric in the window */
+        public int getSampleCount(int metric) {
+            return mSortedMetrics[metric].length;
+        }
+
+        /**
+         * Returns a percentile of a metric over the window, using the nearest rank method.
+         *
+         * @param metric one of the {@code METRIC_*} constants
+         * @param percentile the percentile, between 0 and 100
+         * @throws IllegalStateException if the window has no value for the metric
+         */
+        public int getPercentile(int metric, int percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile " + percentile);
+            }
+            int[] values = mSortedMetrics[metric];
+            if (values.length == 0) {
+                throw new IllegalStateException("No value for " + METRIC_NAMES[metric]);
+            }
+            int rank = (int) Math.ceil(percentile * values.length / 100.0);
+            return values[Math.max(rank - 1, 0)];
+        }
+
+        /** @return the number of A2DP choppy reports in the last {@link #CHOPPY_WINDOW_MS} */
+        public int getA2dpChoppyCount() {
+            return mA2dpChoppyCount;
+        }
+
+        /** @return the number of SCO choppy reports in the last {@link #CHOPPY_WINDOW_MS} */
+        public int getScoChoppyCount() {
+            return mScoChoppyCount;
+        }
+    }
+
+    private static final class DeviceStats {
+        long mReportCount;
+        final IntRingBuffer[] mMetrics = new IntRingBuffer[METRIC_COUNT];
+        final LongRingBuffer mA2dpChoppyTimes = new LongRingBuffer();
+        final LongRingBuffer mScoChoppyTimes = new LongRingBuffer();
+
+        DeviceStats() {
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                mMetrics[metric] = new IntRingBuffer();
+            }
+        }
+    }
+
+    private static final class IntRingBuffer {
+        private final int[] mValues = new int[WINDOW_SIZE];
+        private int mNext;
+        private int mSize;
+
+        void add(int value) {
+            mValues[mNext] = value;
+            mNext = (mNext + 1) % WINDOW_SIZE;
+            mSize = Math.min(mSize + 1, WINDOW_SIZE);
+        }
+
+        int[] toSortedArray() {
+            // The order of the values does not matter once sorted
+            int[] sorted = Arrays.copyOf(mValues, mSize);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    private static final class LongRingBuffer {
+        private final long[] mValues = new long[WINDOW_SIZE];
+        private int mNext;
+        private int mSize;
+
+        void add(long value) {
+            mValues[mNext] = value;
+            mNext = (mNext + 1) % WINDOW_SIZE;
+            mSize = Math.min(mSize + 1, WINDOW_SIZE);
+        }
+
+        int countSince(long sinceMs) {
+            int count = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (mValues[i] >= sinceMs) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
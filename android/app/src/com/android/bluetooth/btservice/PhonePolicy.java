@@ -28,6 +28,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.util.Log;
 
@@ -48,6 +49,7 @@ import com.android.bluetooth.pan.PanService;
 import com.android.bluetooth.vc.VolumeControlService;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -80,6 +82,10 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
     static final String BYPASS_LE_AUDIO_ALLOWLIST_PROPERTY =
             "persist.bluetooth.leaudio.bypass_allow_list";
 
+    @VisibleForTesting
+    static final String LEARNED_RECONNECT_PLAN_PROPERTY =
+            "bluetooth.auto_connect_learned_plan.enabled";
+
     // Timeouts
     @VisibleForTesting static int sConnectOtherProfilesTimeoutMillis = 6000; // 6s
 
@@ -91,8 +97,11 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
     private final HashSet<BluetoothDevice> mHeadsetRetrySet = new HashSet<>();
     private final HashSet<BluetoothDevice> mA2dpRetrySet = new HashSet<>();
     private final HashSet<BluetoothDevice> mConnectOtherProfilesDeviceSet = new HashSet<>();
+    // Connection attempts of the profiles of each device, for its reconnect history
+    private final HashMap<BluetoothDevice, ReconnectAttempt> mReconnectAttempts = new HashMap<>();
     @VisibleForTesting boolean mAutoConnectProfilesSupported;
     @VisibleForTesting boolean mLeAudioEnabledByDefault;
+    @VisibleForTesting boolean mLearnedReconnectPlanEnabled;
 
     @Override
     public void onBluetoothStateChange(int prevState, int newState) {
@@ -182,6 +191,8 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
                 SystemProperties.getBoolean(AUTO_CONNECT_PROFILES_PROPERTY, false);
         mLeAudioEnabledByDefault =
                 SystemProperties.getBoolean(LE_AUDIO_CONNECTION_BY_DEFAULT_PROPERTY, true);
+        mLearnedReconnectPlanEnabled =
+                SystemProperties.getBoolean(LEARNED_RECONNECT_PLAN_PROPERTY, false);
     }
 
     // Policy implementation, all functions MUST be private
@@ -490,6 +501,9 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
                 || (profileId == BluetoothProfile.CSIP_SET_COORDINATOR)
                 || (profileId == BluetoothProfile.VOLUME_CONTROL)
                 || (profileId == BluetoothProfile.LE_AUDIO_BROADCAST_ASSISTANT))) {
+            if (mLearnedReconnectPlanEnabled) {
+                updateReconnectHistory(device, profileId, nextState, prevState);
+            }
             if (nextState == BluetoothProfile.STATE_CONNECTED) {
                 switch (profileId) {
                     case BluetoothProfile.A2DP:
@@ -511,6 +525,73 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
         }
     }
 
+    // State of the profile connections of a device, for its reconnect history
+    private static final class ReconnectAttempt {
+        // Time at which each profile started connecting
+        final HashMap<Integer, Long> mConnectingSinceMillis = new HashMap<>();
+        final HashSet<Integer> mConnected = new HashSet<>();
+        // Profiles that failed to connect while no other profile was connected
+        final HashSet<Integer> mUnconfirmedFailures = new HashSet<>();
+
+        boolean isEmpty() {
+            return mConnectingSinceMillis.isEmpty() && mConnected.isEmpty()
+                    && mUnconfirmedFailures.isEmpty();
+        }
+    }
+
+    /**
+     * Records in the reconnect history of the device that a profile connected, and how long it
+     * took, or that it failed to connect.
+     *
+     * <p>A failure is only recorded once another profile of the device is connected: when no
+     * profile connects, the device is most likely out of range and the connections failed on a
+     * page timeout, which says nothing about the profile.
+     */
+    private void updateReconnectHistory(BluetoothDevice device, int profileId, int nextState,
+            int prevState) {
+        ReconnectAttempt attempt =
+                mReconnectAttempts.computeIfAbsent(device, d -> new ReconnectAttempt());
+        ProfileConnectionHistory history = null;
+        if (nextState == BluetoothProfile.STATE_CONNECTING) {
+            attempt.mConnectingSinceMillis.put(profileId, SystemClock.elapsedRealtime());
+            // A new attempt of the profile
+            attempt.mUnconfirmedFailures.remove(profileId);
+        } else if (nextState == BluetoothProfile.STATE_CONNECTED) {
+            Long sinceMillis = attempt.mConnectingSinceMillis.remove(profileId);
+            attempt.mConnected.add(profileId);
+            history = ProfileConnectionHistory.parse(mDatabaseManager.getReconnectHistory(device));
+            if (sinceMillis != null) {
+                history.onConnected(profileId, SystemClock.elapsedRealtime() - sinceMillis);
+            }
+            // The device is in range, the profiles that failed before did not time out
+            for (int failedProfile : attempt.mUnconfirmedFailures) {
+                history.onConnectionFailed(failedProfile);
+            }
+            if (sinceMillis == null && attempt.mUnconfirmedFailures.isEmpty()) {
+                history = null;
+            }
+            attempt.mUnconfirmedFailures.clear();
+        } else if (nextState == BluetoothProfile.STATE_DISCONNECTED) {
+            attempt.mConnectingSinceMillis.remove(profileId);
+            attempt.mConnected.remove(profileId);
+            if (prevState == BluetoothProfile.STATE_CONNECTING) {
+                if (attempt.mConnected.isEmpty()) {
+                    attempt.mUnconfirmedFailures.add(profileId);
+                } else {
+                    history = ProfileConnectionHistory.parse(
+                            mDatabaseManager.getReconnectHistory(device));
+                    history.onConnectionFailed(profileId);
+                }
+            }
+        }
+        if (attempt.isEmpty()) {
+            mReconnectAttempts.remove(device);
+        }
+        if (history != null) {
+            mDatabaseManager.setReconnectHistory(device, history.encode());
+        }
+    }
+
     /**
      * Updates the last connection date in the connection order database for the newly active device
      * if connected to the A2DP profile. If this is a dual mode audio device (supports classic and
@@ -619,6 +700,7 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
     private void resetStates() {
         mHeadsetRetrySet.clear();
         mA2dpRetrySet.clear();
+        mReconnectAttempts.clear();
     }
 
     @VisibleForTesting
@@ -640,8 +722,11 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
                     "autoConnect: Device "
                             + mostRecentlyActiveA2dpDevice
                             + " attempting auto connection");
-            autoConnectHeadset(mostRecentlyActiveA2dpDevice);
-            autoConnectA2dp(mostRecentlyActiveA2dpDevice);
+            if (!mLearnedReconnectPlanEnabled
+                    || !autoConnectWithPlan(mostRecentlyActiveA2dpDevice)) {
+                autoConnectHeadset(mostRecentlyActiveA2dpDevice);
+                autoConnectA2dp(mostRecentlyActiveA2dpDevice);
+            }
             autoConnectHidHost(mostRecentlyActiveA2dpDevice);
             return;
         }
@@ -676,6 +761,52 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
         Log.i(TAG, "autoConnect: No device to reconnect to");
     }
 
+    /**
+     * Connects at once the profiles of the device planned from its reconnect history: the profiles
+     * that connected before, fastest first, then HFP and A2DP if they never did. The profiles that
+     * failed to connect too many times in a row are skipped, and are left to {@link
+     * #processConnectOtherProfiles} once another profile connects.
+     *
+     * @return false if the device has no history to plan from, or if both HFP and A2DP are
+     *     skipped, in which case they are connected as without a history
+     */
+    @RequiresPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
+    private boolean autoConnectWithPlan(BluetoothDevice device) {
+        ProfileConnectionHistory history =
+                ProfileConnectionHistory.parse(mDatabaseManager.getReconnectHistory(device));
+        if (history.isEmpty()) {
+            return false;
+        }
+        List<Integer> plan = history.getPlan();
+        for (int profile : new int[] {BluetoothProfile.HEADSET, BluetoothProfile.A2DP}) {
+            if (!plan.contains(profile) && !history.shouldSkip(profile)) {
+                plan.add(profile);
+            }
+        }
+        if (!plan.contains(BluetoothProfile.HEADSET) && !plan.contains(BluetoothProfile.A2DP)) {
+            debugLog("autoConnectWithPlan: no HFP nor A2DP planned for " + device);
+            return false;
+        }
+        debugLog("autoConnectWithPlan: connecting " + device + " with profiles " + plan);
+        for (int profile : plan) {
+            switch (profile) {
+                case BluetoothProfile.HEADSET:
+                    autoConnectHeadset(device);
+                    break;
+                case BluetoothProfile.A2DP:
+                    autoConnectA2dp(device);
+                    break;
+                case BluetoothProfile.LE_AUDIO:
+                    autoConnectLeAudio(device);
+                    break;
+                default:
+                    // Connected along with LE Audio
+                    break;
+            }
+        }
+        return true;
+    }
+
     private void autoConnectA2dp(BluetoothDevice device) {
         final A2dpService a2dpService = mFactory.getA2dpService();
         if (a2dpService == null) {
@@ -726,6 +857,22 @@ public class PhonePolicy implements AdapterService.BluetoothStateCallback {
         }
     }
 
+    private void autoConnectLeAudio(BluetoothDevice device) {
+        final LeAudioService leAudioService = mFactory.getLeAudioService();
+        if (leAudioService == null) {
+            warnLog("autoConnectLeAudio: service is null, failed to connect to " + device);
+            return;
+        }
+        int leAudioConnectionPolicy = leAudioService.getConnectionPolicy(device);
+        if (leAudioConnectionPolicy == BluetoothProfile.CONNECTION_POLICY_ALLOWED) {
+            debugLog("autoConnectLeAudio: Connecting LE Audio with " + device);
+            leAudioService.connect(device);
+        } else {
+            debugLog("autoConnectLeAudio: skipped auto-connect LE Audio with device " + device
+                    + " connectionPolicy " + leAudioConnectionPolicy);
+        }
+    }
+
     private void connectOtherProfile(BluetoothDevice device) {
         if (mAdapterService.isQuietModeEnabled()) {
             debugLog("connectOtherProfile: in quiet mode, skip connect other profile " + device);
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Connection history of the profiles of a device, from which {@link PhonePolicy} plans the
+ * reconnection of the device.
+ *
+ * <p>For each profile, the history keeps the time the profile takes to connect, as an exponential
+ * moving average of its successful connections weighting the last one by half, and counts its
+ * consecutive failed connections. The profiles that
+ * connected before are planned fastest first, and the ones that failed {@link
+ * #MAX_CONSECUTIVE_FAILURES} times in a row are skipped until they connect again.
+ *
+ * <p>The history is persisted with the metadata of the device, as a list of {@code
+ * profile:latencyMillis:consecutiveFailures} separated by {@code ;}.
+ */
+final class ProfileConnectionHistory {
+    private static final String TAG = "BluetoothPhonePolicy";
+
+    static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    private static final long UNKNOWN_LATENCY = -1;
+    private static final String RECORD_SEPARATOR = ";";
+    private static final String FIELD_SEPARATOR = ":";
+
+    private static final class Record {
+        // Exponential moving average of the connection latencies
+        long mLatencyMillis = UNKNOWN_LATENCY;
+        int mConsecutiveFailures;
+    }
+
+    // Ordered by profile, for a stable encoding
+    private final Map<Integer, Record> mRecords = new TreeMap<>();
+
+    /**
+     * Parses a persisted history. Malformed records are dropped.
+     *
+     * @param encoded the persisted history, or null if there is none
+     */
+    static ProfileConnectionHistory parse(String encoded) {
+        ProfileConnectionHistory history = new ProfileConnectionHistory();
+        if (encoded == null || encoded.isEmpty()) {
+            return history;
+        }
+        for (String field : encoded.split(RECORD_SEPARATOR)) {
+            String[] values = field.split(FIELD_SEPARATOR);
+            if (values.length != 3) {
+                Log.w(TAG, "ProfileConnectionHistory: malformed record " + field);
+                continue;
+            }
+            try {
+                Record record = new Record();
+                record.mLatencyMillis = Long.parseLong(values[1]);
+                record.mConsecutiveFailures = Integer.parseInt(values[2]);
+                history.mRecords.put(Integer.parseInt(values[0]), record);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "ProfileConnectionHistory: malformed record " + field);
+            }
+        }
+        return history;
+    }
+
+    /** @return the history in its persisted form, or null if it is empty */
+    String encode() {
+        if (mRecords.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Integer, Record> entry : mRecords.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(RECORD_SEPARATOR);
+            }
+            Record record = entry.getValue();
+            builder.append(entry.getKey())
+                    .append(FIELD_SEPARATOR)
+                    .append(record.mLatencyMillis)
+                    .append(FIELD_SEPARATOR)
+                    .append(record.mConsecutiveFailures);
+        }
+        return builder.toString();
+    }
+
+    boolean isEmpty() {
+        return mRecords.isEmpty();
+    }
+
+    /**
+     * Records a successful connection of a profile, moving the latency of the profile half way to
+     * the one of this connection.
+     *
+     * @param latencyMillis the time the profile took to connect
+     */
+    void onConnected(int profile, long latencyMillis) {
+        Record record = mRecords.computeIfAbsent(profile, p -> new Record());
+        record.mConsecutiveFailures = 0;
+        record.mLatencyMillis =
+                record.mLatencyMillis == UNKNOWN_LATENCY
+                        ? latencyMillis
+                        : (record.mLatencyMillis + latencyMillis) / 2;
+    }
+
+    /** Records a failed connection of a profile. */
+    void onConnectionFailed(int profile) {
+        Record record = mRecords.computeIfAbsent(profile, p -> new Record());
+        record.mConsecutiveFailures++;
+    }
+
+    /** @return whether the connection of the profile failed too many times in a row to retry it */
+    boolean shouldSkip(int profile) {
+        Record record = mRecords.get(profile);
+        return record != null && record.mConsecutiveFailures >= MAX_CONSECUTIVE_FAILURES;
+    }
+
+    /** @return the profiles that connected before and are not skipped, fastest first */
+    List<Integer> getPlan() {
+        List<Integer> plan = new ArrayList<>();
+        for (Map.Entry<Integer, Record> entry : mRecords.entrySet()) {
+            Record record = entry.getValue();
+            if (record.mLatencyMillis != UNKNOWN_LATENCY
+                    && record.mConsecutiveFailures < MAX_CONSECUTIVE_FAILURES) {
+                plan.add(entry.getKey());
+            }
+        }
+        plan.sort((p1, p2) -> Long.compare(
+                mRecords.get(p1).mLatencyMillis, mRecords.get(p2).mLatencyMillis));
+        return plan;
+    }
+}
@@ -52,10 +52,11 @@ import com.android.internal.annotations.VisibleForTesting;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 /** Remote device manager. This class is currently mostly used for HF and AG remote devices. */
@@ -69,14 +70,15 @@ public class RemoteDevices {
     private BluetoothAdapter mAdapter;
     private AdapterService mAdapterService;
     private ArrayList<BluetoothDevice> mSdpTracker;
-    private final Object mObject = new Object();
 
     private static final int UUID_INTENT_DELAY = 6000;
     private static final int MESSAGE_UUID_INTENT = 1;
     private static final String LOG_SOURCE_DIS = "DIS";
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
+    // Lookups are lock-free; structural changes (add/evict/remove) hold the mDevices monitor so
+    // that mDeviceQueue stays consistent with the map.
+    private final ConcurrentHashMap<String, DeviceProperties> mDevices;
+    private final ConcurrentHashMap<String, String> mDualDevicesMap;
     private ArrayDeque<String> mDeviceQueue;
 
     /**
@@ -99,6 +101,7 @@ public class RemoteDevices {
 
     private final Handler mHandler;
     private final Handler mMainHandler;
+    private final DiscoveryResultAggregator mDiscoveryResultAggregator;
 
     private class RemoteDevicesHandler extends Handler {
 
@@ -153,11 +156,12 @@ public class RemoteDevices {
         mAdapter = ((Context) service).getSystemService(BluetoothManager.class).getAdapter();
         mAdapterService = service;
         mSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
-        mDualDevicesMap = new HashMap<String, String>();
+        mDevices = new ConcurrentHashMap<String, DeviceProperties>();
+        mDualDevicesMap = new ConcurrentHashMap<String, String>();
         mDeviceQueue = new ArrayDeque<>();
         mHandler = new RemoteDevicesHandler(looper);
         mMainHandler = new Handler(Looper.getMainLooper());
+        mDiscoveryResultAggregator = new DiscoveryResultAggregator();
     }
 
     /** Init should be called before using this RemoteDevices object */
@@ -224,6 +228,8 @@ public class RemoteDevices {
         if (mDeviceQueue != null) {
             mDeviceQueue.clear();
         }
+
+        mDiscoveryResultAggregator.cleanup();
     }
 
     @Override
@@ -232,25 +238,23 @@ public class RemoteDevices {
     }
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
-        synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
+        String address = mDualDevicesMap.get(device.getAddress());
+        // If the device is not in the dual map, use its original address
+        DeviceProperties prop = address == null ? null : mDevices.get(address);
+        if (prop == null) {
+            prop = mDevices.get(device.getAddress());
         }
+        return prop;
     }
 
     BluetoothDevice getDevice(byte[] address) {
         String addressString = Utils.getAddressStringFromByte(address);
         String deviceAddress = mDualDevicesMap.get(addressString);
         // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
+        DeviceProperties prop = deviceAddress == null ? null : mDevices.get(deviceAddress);
+        if (prop == null) {
+            prop = mDevices.get(addressString);
         }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
         if (prop != null) {
             return prop.getDevice();
         }
@@ -283,28 +287,38 @@ public class RemoteDevices {
         }
     }
 
+    /**
+     * Properties of a single remote device.
+     *
+     * <p>Every field is volatile and only ever replaced as a whole, so getters never take a lock
+     * and binder readers are not blocked by JNI property updates. Writers serialize on the
+     * per-device {@link #mLock}. Each field is published on its own: a reader may see some of
+     * the properties of a report from the stack before the others.
+     */
     class DeviceProperties {
-        private String mName;
-        private byte[] mAddress;
-        private String mIdentityAddress;
-        private boolean mIsConsolidated = false;
-        private int mBluetoothClass = BluetoothClass.Device.Major.UNCATEGORIZED;
-        private int mBredrConnectionHandle = BluetoothDevice.ERROR;
-        private int mLeConnectionHandle = BluetoothDevice.ERROR;
-        private short mRssi;
-        private String mAlias;
-        private BluetoothDevice mDevice;
-        private boolean mIsBondingInitiatedLocally;
-        private int mBatteryLevelFromHfp = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
-        private int mBatteryLevelFromBatteryService = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
-        private boolean mIsCoordinatedSetMember;
-        private int mAshaCapability;
-        private int mAshaTruncatedHiSyncId;
-        private String mModelName;
-        @VisibleForTesting int mBondState;
-        @VisibleForTesting int mDeviceType;
-        @VisibleForTesting ParcelUuid[] mUuids;
-        private BluetoothSinkAudioPolicy mAudioPolicy;
+        private final Object mLock = new Object();
+        private volatile String mName;
+        private volatile byte[] mAddress;
+        private volatile String mIdentityAddress;
+        private volatile boolean mIsConsolidated = false;
+        private volatile int mBluetoothClass = BluetoothClass.Device.Major.UNCATEGORIZED;
+        private volatile int mBredrConnectionHandle = BluetoothDevice.ERROR;
+        private volatile int mLeConnectionHandle = BluetoothDevice.ERROR;
+        private volatile short mRssi;
+        private volatile String mAlias;
+        private volatile BluetoothDevice mDevice;
+        private volatile boolean mIsBondingInitiatedLocally;
+        private volatile int mBatteryLevelFromHfp = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
+        private volatile int mBatteryLevelFromBatteryService =
+                BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
+        private volatile boolean mIsCoordinatedSetMember;
+        private volatile int mAshaCapability;
+        private volatile int mAshaTruncatedHiSyncId;
+        private volatile String mModelName;
+        @VisibleForTesting volatile int mBondState;
+        @VisibleForTesting volatile int mDeviceType;
+        @VisibleForTesting volatile ParcelUuid[] mUuids;
+        private volatile BluetoothSinkAudioPolicy mAudioPolicy;
 
         DeviceProperties() {
             mBondState = BluetoothDevice.BOND_NONE;
@@ -314,16 +328,14 @@ public class RemoteDevices {
          * @return the mName
          */
         String getName() {
-            synchronized (mObject) {
-                return mName;
-            }
+            return mName;
         }
 
         /**
          * @param name the mName to set
          */
         void setName(String name) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mName = name;
             }
         }
@@ -332,16 +344,14 @@ public class RemoteDevices {
          * @return the mIdentityAddress
          */
         String getIdentityAddress() {
-            synchronized (mObject) {
-                return mIdentityAddress;
-            }
+            return mIdentityAddress;
         }
 
         /**
          * @param identityAddress the mIdentityAddress to set
          */
         void setIdentityAddress(String identityAddress) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mIdentityAddress = identityAddress;
             }
         }
@@ -350,16 +360,14 @@ public class RemoteDevices {
          * @return mIsConsolidated
          */
         boolean isConsolidated() {
-            synchronized (mObject) {
-                return mIsConsolidated;
-            }
+            return mIsConsolidated;
         }
 
         /**
          * @param isConsolidated the mIsConsolidated to set
          */
         void setIsConsolidated(boolean isConsolidated) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mIsConsolidated = isConsolidated;
             }
         }
@@ -368,16 +376,14 @@ public class RemoteDevices {
          * @return the mClass
          */
         int getBluetoothClass() {
-            synchronized (mObject) {
-                return mBluetoothClass;
-            }
+            return mBluetoothClass;
         }
 
         /**
          * @param bluetoothClass the mBluetoothClass to set
          */
         void setBluetoothClass(int bluetoothClass) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mBluetoothClass = bluetoothClass;
             }
         }
@@ -387,14 +393,12 @@ public class RemoteDevices {
          * @return the mConnectionHandle
          */
         int getConnectionHandle(int transport) {
-            synchronized (mObject) {
-                if (transport == BluetoothDevice.TRANSPORT_BREDR) {
-                    return mBredrConnectionHandle;
-                } else if (transport == BluetoothDevice.TRANSPORT_LE) {
-                    return mLeConnectionHandle;
-                } else {
-                    return BluetoothDevice.ERROR;
-                }
+            if (transport == BluetoothDevice.TRANSPORT_BREDR) {
+                return mBredrConnectionHandle;
+            } else if (transport == BluetoothDevice.TRANSPORT_LE) {
+                return mLeConnectionHandle;
+            } else {
+                return BluetoothDevice.ERROR;
             }
         }
 
@@ -403,7 +407,7 @@ public class RemoteDevices {
          * @param transport the transport on which to set the handle
          */
         void setConnectionHandle(int connectionHandle, int transport) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 if (transport == BluetoothDevice.TRANSPORT_BREDR) {
                     mBredrConnectionHandle = connectionHandle;
                 } else if (transport == BluetoothDevice.TRANSPORT_LE) {
@@ -418,16 +422,14 @@ public class RemoteDevices {
          * @return the mUuids
          */
         ParcelUuid[] getUuids() {
-            synchronized (mObject) {
-                return mUuids;
-            }
+            return mUuids;
         }
 
         /**
          * @param uuids the mUuids to set
          */
         void setUuids(ParcelUuid[] uuids) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mUuids = uuids;
             }
         }
@@ -436,16 +438,14 @@ public class RemoteDevices {
          * @return the mAddress
          */
         byte[] getAddress() {
-            synchronized (mObject) {
-                return mAddress;
-            }
+            return mAddress;
         }
 
         /**
          * @param address the mAddress to set
          */
         void setAddress(byte[] address) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mAddress = address;
             }
         }
@@ -454,16 +454,14 @@ public class RemoteDevices {
          * @return the mDevice
          */
         BluetoothDevice getDevice() {
-            synchronized (mObject) {
-                return mDevice;
-            }
+            return mDevice;
         }
 
         /**
          * @param device the mDevice to set
          */
         void setDevice(BluetoothDevice device) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mDevice = device;
             }
         }
@@ -472,16 +470,14 @@ public class RemoteDevices {
          * @return mRssi
          */
         short getRssi() {
-            synchronized (mObject) {
-                return mRssi;
-            }
+            return mRssi;
         }
 
         /**
          * @param rssi the mRssi to set
          */
         void setRssi(short rssi) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mRssi = rssi;
             }
         }
@@ -490,16 +486,14 @@ public class RemoteDevices {
          * @return mDeviceType
          */
         int getDeviceType() {
-            synchronized (mObject) {
-                return mDeviceType;
-            }
+            return mDeviceType;
         }
 
         /**
          * @param deviceType the mDeviceType to set
          */
         void setDeviceType(int deviceType) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mDeviceType = deviceType;
             }
         }
@@ -508,16 +502,19 @@ public class RemoteDevices {
          * @return the mAlias
          */
         String getAlias() {
-            synchronized (mObject) {
-                return mAlias;
-            }
+            return mAlias;
         }
 
         /**
          * @param mAlias the mAlias to set
          */
         void setAlias(BluetoothDevice device, String mAlias) {
-            synchronized (mObject) {
+            updateAlias(mAlias);
+            sendAliasChangedIntent(device, mAlias);
+        }
+
+        private void updateAlias(String mAlias) {
+            synchronized (mLock) {
                 this.mAlias = mAlias;
                 mAdapterService
                         .getNative()
@@ -525,19 +522,22 @@ public class RemoteDevices {
                                 mAddress,
                                 AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME,
                                 mAlias.getBytes());
-                Intent intent = new Intent(BluetoothDevice.ACTION_ALIAS_CHANGED);
-                intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
-                intent.putExtra(BluetoothDevice.EXTRA_NAME, mAlias);
-                Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
-                        Utils.getTempAllowlistBroadcastOptions());
             }
         }
 
+        private void sendAliasChangedIntent(BluetoothDevice device, String mAlias) {
+            Intent intent = new Intent(BluetoothDevice.ACTION_ALIAS_CHANGED);
+            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+            intent.putExtra(BluetoothDevice.EXTRA_NAME, mAlias);
+            Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
+                    Utils.getTempAllowlistBroadcastOptions());
+        }
+
         /**
          * @param newBondState the mBondState to set
          */
         void setBondState(int newBondState) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mBondState = newBondState;
                 if (newBondState == BluetoothDevice.BOND_NONE) {
                     /* Clearing the Uuids local copy when the device is unpaired. If not cleared,
@@ -554,9 +554,7 @@ public class RemoteDevices {
          * @return the mBondState
          */
         int getBondState() {
-            synchronized (mObject) {
-                return mBondState;
-            }
+            return mBondState;
         }
 
         boolean isBonding() {
@@ -571,7 +569,7 @@ public class RemoteDevices {
          * @param isBondingInitiatedLocally wether bonding is initiated locally
          */
         void setBondingInitiatedLocally(boolean isBondingInitiatedLocally) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mIsBondingInitiatedLocally = isBondingInitiatedLocally;
             }
         }
@@ -580,25 +578,22 @@ public class RemoteDevices {
          * @return the isBondingInitiatedLocally
          */
         boolean isBondingInitiatedLocally() {
-            synchronized (mObject) {
-                return mIsBondingInitiatedLocally;
-            }
+            return mIsBondingInitiatedLocally;
         }
 
         /**
          * @return mBatteryLevel
          */
         int getBatteryLevel() {
-            synchronized (mObject) {
-                if (mBatteryLevelFromBatteryService != BluetoothDevice.BATTERY_LEVEL_UNKNOWN) {
-                    return mBatteryLevelFromBatteryService;
-                }
-                return mBatteryLevelFromHfp;
+            final int batteryLevelFromBatteryService = mBatteryLevelFromBatteryService;
+            if (batteryLevelFromBatteryService != BluetoothDevice.BATTERY_LEVEL_UNKNOWN) {
+                return batteryLevelFromBatteryService;
             }
+            return mBatteryLevelFromHfp;
         }
 
         void setBatteryLevelFromHfp(int batteryLevel) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 if (mBatteryLevelFromHfp == batteryLevel) {
                     return;
                 }
@@ -607,7 +602,7 @@ public class RemoteDevices {
         }
 
         void setBatteryLevelFromBatteryService(int batteryLevel) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 if (mBatteryLevelFromBatteryService == batteryLevel) {
                     return;
                 }
@@ -619,9 +614,7 @@ public class RemoteDevices {
          * @return the mIsCoordinatedSetMember
         */
         boolean isCoordinatedSetMember() {
-            synchronized (mObject) {
-                return mIsCoordinatedSetMember;
-            }
+            return mIsCoordinatedSetMember;
         }
 
         /**
@@ -634,7 +627,7 @@ public class RemoteDevices {
                 debugLog("CSIP is not supported");
                 return;
             }
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mIsCoordinatedSetMember = isCoordinatedSetMember;
             }
         }
@@ -643,13 +636,11 @@ public class RemoteDevices {
          * @return the mAshaCapability
          */
         int getAshaCapability() {
-            synchronized (mObject) {
-                return mAshaCapability;
-            }
+            return mAshaCapability;
         }
 
         void setAshaCapability(int ashaCapability) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mAshaCapability = ashaCapability;
             }
         }
@@ -658,13 +649,11 @@ public class RemoteDevices {
          * @return the mAshaTruncatedHiSyncId
          */
         int getAshaTruncatedHiSyncId() {
-            synchronized (mObject) {
-                return mAshaTruncatedHiSyncId;
-            }
+            return mAshaTruncatedHiSyncId;
         }
 
         void setAshaTruncatedHiSyncId(int ashaTruncatedHiSyncId) {
-            synchronized (mObject) {
+            synchronized (mLock) {
                 this.mAshaTruncatedHiSyncId = ashaTruncatedHiSyncId;
             }
         }
@@ -693,9 +682,7 @@ public class RemoteDevices {
          * @return the mModelName
          */
         String getModelName() {
-            synchronized (mObject) {
-                return mModelName;
-            }
+            return mModelName;
         }
     }
 
@@ -868,29 +855,34 @@ public class RemoteDevices {
     }
 
     void devicePropertyChangedCallback(byte[] address, int[] types, byte[][] values) {
-        Intent intent;
         byte[] val;
         int type;
-        BluetoothDevice bdDevice = getDevice(address);
-        DeviceProperties deviceProperties;
-        if (bdDevice == null) {
+        BluetoothDevice device = getDevice(address);
+        DeviceProperties properties;
+        if (device == null) {
             debugLog("Added new device property");
-            deviceProperties = addDeviceProperties(address);
-            bdDevice = getDevice(address);
+            properties = addDeviceProperties(address);
+            device = getDevice(address);
         } else {
-            deviceProperties = getDeviceProperties(bdDevice);
+            properties = getDeviceProperties(device);
         }
+        final BluetoothDevice bdDevice = device;
+        final DeviceProperties deviceProperties = properties;
 
         if (types.length <= 0) {
             errorLog("No properties to update");
             return;
         }
 
-        for (int j = 0; j < types.length; j++) {
-            type = types[j];
-            val = values[j];
-            if (val.length > 0) {
-                synchronized (mObject) {
+        // Apply every property of this report under one acquisition of the per-device lock, so
+        // that other devices are never contended. The broadcasts and stats are sent once the lock
+        // is released.
+        final List<Runnable> notifications = new ArrayList<>();
+        synchronized (deviceProperties.mLock) {
+            for (int j = 0; j < types.length; j++) {
+                type = types[j];
+                val = values[j];
+                if (val.length > 0) {
                     debugLog("Property type: " + type);
                     switch (type) {
                         case AbstractionLayer.BT_PROPERTY_BDNAME:
@@ -900,17 +892,22 @@ public class RemoteDevices {
                                 break;
                             }
                             deviceProperties.setName(newName);
-                            intent = new Intent(BluetoothDevice.ACTION_NAME_CHANGED);
-                            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
-                            intent.putExtra(BluetoothDevice.EXTRA_NAME, deviceProperties.getName());
-                            intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
-                            Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
-                                    Utils.getTempAllowlistBroadcastOptions());
-                            debugLog("Remote device name is: " + deviceProperties.getName());
+                            notifications.add(() -> {
+                                Intent intent = new Intent(BluetoothDevice.ACTION_NAME_CHANGED);
+                                intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
+                                intent.putExtra(BluetoothDevice.EXTRA_NAME, newName);
+                                intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
+                                Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
+                                        Utils.getTempAllowlistBroadcastOptions());
+                            });
+                            debugLog("Remote device name is: " + newName);
                             break;
                         case AbstractionLayer.BT_PROPERTY_REMOTE_FRIENDLY_NAME:
-                            deviceProperties.setAlias(bdDevice, new String(val));
-                            debugLog("Remote device alias is: " + deviceProperties.getAlias());
+                            final String alias = new String(val);
+                            deviceProperties.updateAlias(alias);
+                            notifications.add(
+                                    () -> deviceProperties.sendAliasChangedIntent(bdDevice, alias));
+                            debugLog("Remote device alias is: " + alias);
                             break;
                         case AbstractionLayer.BT_PROPERTY_BDADDR:
                             deviceProperties.setAddress(val);
@@ -925,13 +922,15 @@ public class RemoteDevices {
                                 break;
                             }
                             deviceProperties.setBluetoothClass(newBluetoothClass);
-                            intent = new Intent(BluetoothDevice.ACTION_CLASS_CHANGED);
-                            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
-                            intent.putExtra(BluetoothDevice.EXTRA_CLASS,
-                                    new BluetoothClass(deviceProperties.getBluetoothClass()));
-                            intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
-                            Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
-                                    Utils.getTempAllowlistBroadcastOptions());
+                            notifications.add(() -> {
+                                Intent intent = new Intent(BluetoothDevice.ACTION_CLASS_CHANGED);
+                                intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bdDevice);
+                                intent.putExtra(BluetoothDevice.EXTRA_CLASS,
+                                        new BluetoothClass(newBluetoothClass));
+                                intent.addFlags(Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT);
+                                Utils.sendBroadcast(mAdapterService, intent, BLUETOOTH_CONNECT,
+                                        Utils.getTempAllowlistBroadcastOptions());
+                            });
                             debugLog("Remote class is:" + newBluetoothClass);
                             break;
                         case AbstractionLayer.BT_PROPERTY_UUIDS:
@@ -944,23 +943,25 @@ public class RemoteDevices {
                                 break;
                             }
                             deviceProperties.setUuids(newUuids);
-                            if (mAdapterService.getState() == BluetoothAdapter.STATE_ON) {
-                                // SDP Adding UUIDs to property cache and sending intent
-                                MetricsLogger.getInstance().cacheCount(
-                                        BluetoothProtoEnums.SDP_ADD_UUID_WITH_INTENT, 1);
-                                mAdapterService.deviceUuidUpdated(bdDevice);
-                                sendUuidIntent(bdDevice, deviceProperties);
-                            } else if (mAdapterService.getState()
-                                    == BluetoothAdapter.STATE_BLE_ON) {
-                                // SDP Adding UUIDs to property cache but with no intent
-                                MetricsLogger.getInstance().cacheCount(
-                                        BluetoothProtoEnums.SDP_ADD_UUID_WITH_NO_INTENT, 1);
-                                mAdapterService.deviceUuidUpdated(bdDevice);
-                            } else {
-                                // SDP Silently dropping UUIDs and with no intent
-                                MetricsLogger.getInstance().cacheCount(
-                                        BluetoothProtoEnums.SDP_DROP_UUID, 1);
-                            }
+                            notifications.add(() -> {
+                                if (mAdapterService.getState() == BluetoothAdapter.STATE_ON) {
+                                    // SDP Adding UUIDs to property cache and sending intent
+                                    MetricsLogger.getInstance().cacheCount(
+                                            BluetoothProtoEnums.SDP_ADD_UUID_WITH_INTENT, 1);
+                                    mAdapterService.deviceUuidUpdated(bdDevice);
+                                    sendUuidIntent(bdDevice, deviceProperties);
+                                } else if (mAdapterService.getState()
+                                        == BluetoothAdapter.STATE_BLE_ON) {
+                                    // SDP Adding UUIDs to property cache but with no intent
+                                    MetricsLogger.getInstance().cacheCount(
+                                            BluetoothProtoEnums.SDP_ADD_UUID_WITH_NO_INTENT, 1);
+                                    mAdapterService.deviceUuidUpdated(bdDevice);
+                                } else {
+                                    // SDP Silently dropping UUIDs and with no intent
+                                    MetricsLogger.getInstance().cacheCount(
+                                            BluetoothProtoEnums.SDP_DROP_UUID, 1);
+                                }
+                            });
                             break;
                         case AbstractionLayer.BT_PROPERTY_TYPE_OF_DEVICE:
                             if (deviceProperties.isConsolidated()) {
@@ -987,17 +988,20 @@ public class RemoteDevices {
                             final String modelName = new String(val);
                             debugLog("Remote device model name: " + modelName);
                             deviceProperties.setModelName(modelName);
-                            BluetoothStatsLog.write(
+                            notifications.add(() -> BluetoothStatsLog.write(
                                     BluetoothStatsLog.BLUETOOTH_DEVICE_INFO_REPORTED,
                                     mAdapterService.obfuscateAddress(bdDevice),
                                     BluetoothProtoEnums.DEVICE_INFO_INTERNAL, LOG_SOURCE_DIS, null,
                                     modelName, null, null, mAdapterService.getMetricId(bdDevice),
-                                    bdDevice.getAddressType(), 0, 0, 0);
+                                    bdDevice.getAddressType(), 0, 0, 0));
                             break;
                     }
                 }
             }
         }
+        for (Runnable notification : notifications) {
+            notification.run();
+        }
     }
 
     void deviceFoundCallback(byte[] address) {
@@ -1010,46 +1014,82 @@ public class RemoteDevices {
             errorLog("Device Properties is null for Device:" + device);
             return;
         }
-        boolean restrict_device_found =
-                SystemProperties.getBoolean("bluetooth.restrict_discovered_device.enabled", false);
-        if (restrict_device_found && (deviceProp.mName == null || deviceProp.mName.isEmpty())) {
+        final String name = deviceProp.getName();
+        if (mDiscoveryResultAggregator.isRestrictDiscoveredDevice()
+                && (name == null || name.isEmpty())) {
             debugLog("Device name is null or empty: " + device);
             return;
         }
 
-        Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
-        intent.putExtra(BluetoothDevice.EXTRA_CLASS,
-                new BluetoothClass(deviceProp.getBluetoothClass()));
-        intent.putExtra(BluetoothDevice.EXTRA_RSSI, deviceProp.getRssi());
-        intent.putExtra(BluetoothDevice.EXTRA_NAME, deviceProp.getName());
-        intent.putExtra(BluetoothDevice.EXTRA_IS_COORDINATED_SET_MEMBER,
-                deviceProp.isCoordinatedSetMember());
+        final int bluetoothClass = deviceProp.getBluetoothClass();
+        final short rssi = deviceProp.getRssi();
+        final boolean isCoordinatedSetMember = deviceProp.isCoordinatedSetMember();
+        final DiscoveryResultAggregator.Result result = new DiscoveryResultAggregator.Result(
+                device, name, bluetoothClass, rssi, isCoordinatedSetMember);
 
+        // Snapshot the packages so that broadcasts are not sent while holding their lock
         final ArrayList<DiscoveringPackage> packages = mAdapterService.getDiscoveringPackages();
+        final DiscoveringPackage[] recipients;
         synchronized (packages) {
-            for (DiscoveringPackage pkg : packages) {
-                if (pkg.hasDisavowedLocation()) {
-                    if (mLocationDenylistPredicate.test(device)) {
-                        continue;
-                    }
+            if (packages.isEmpty()) {
+                return;
+            }
+            recipients = packages.toArray(new DiscoveringPackage[0]);
+        }
+
+        Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(BluetoothDevice.EXTRA_CLASS, new BluetoothClass(bluetoothClass));
+        intent.putExtra(BluetoothDevice.EXTRA_RSSI, rssi);
+        intent.putExtra(BluetoothDevice.EXTRA_NAME, name);
+        intent.putExtra(BluetoothDevice.EXTRA_IS_COORDINATED_SET_MEMBER, isCoordinatedSetMember);
+
+        Boolean isDenylisted = null;
+        for (DiscoveringPackage pkg : recipients) {
+            if (pkg.hasDisavowedLocation()) {
+                if (isDenylisted == null) {
+                    isDenylisted = mLocationDenylistPredicate.test(device);
+                }
+                if (isDenylisted) {
+                    continue;
                 }
+            }
+            // Recorded only once it is known to be sent to the package
+            if (!mDiscoveryResultAggregator.onDeviceFound(pkg.getPackageName(), result)) {
+                debugLog("Skip unchanged discovery result for " + device + " to "
+                        + pkg.getPackageName());
+                continue;
+            }
 
-                intent.setPackage(pkg.getPackageName());
+            intent.setPackage(pkg.getPackageName());
 
-                if (pkg.getPermission() != null) {
-                    mAdapterService.sendBroadcastMultiplePermissions(intent,
-                            new String[] { BLUETOOTH_SCAN, pkg.getPermission() },
-                            Utils.getTempBroadcastOptions());
-                } else {
-                    mAdapterService.sendBroadcastMultiplePermissions(intent,
-                            new String[] { BLUETOOTH_SCAN },
-                            Utils.getTempBroadcastOptions());
-                }
+            if (pkg.getPermission() != null) {
+                mAdapterService.sendBroadcastMultiplePermissions(intent,
+                        new String[] { BLUETOOTH_SCAN, pkg.getPermission() },
+                        Utils.getTempBroadcastOptions());
+            } else {
+                mAdapterService.sendBroadcastMultiplePermissions(intent,
+                        new String[] { BLUETOOTH_SCAN },
+                        Utils.getTempBroadcastOptions());
             }
         }
     }
 
+    /**
+     * Called when the adapter starts or stops classic discovery, to scope the de-duplication of
+     * inquiry results to a single session.
+     *
+     * @param state {@link AbstractionLayer#BT_DISCOVERY_STARTED} or {@link
+     *     AbstractionLayer#BT_DISCOVERY_STOPPED}
+     */
+    void onDiscoveryStateChanged(int state) {
+        if (state == AbstractionLayer.BT_DISCOVERY_STARTED) {
+            mDiscoveryResultAggregator.onDiscoveryStarted();
+        } else if (state == AbstractionLayer.BT_DISCOVERY_STOPPED) {
+            mDiscoveryResultAggregator.onDiscoveryStopped();
+        }
+    }
+
     void addressConsolidateCallback(byte[] mainAddress, byte[] secondaryAddress) {
         BluetoothDevice device = getDevice(mainAddress);
         if (device == null) {
@@ -1150,12 +1190,14 @@ public class RemoteDevices {
                         Utils.getTempAllowlistBroadcastOptions());
             } else if (device.getBondState() == BluetoothDevice.BOND_NONE) {
                 String key = Utils.getAddressStringFromByte(address);
-                mDevices.remove(key);
-                mDeviceQueue.remove(key); // Remove from LRU cache
+                synchronized (mDevices) {
+                    mDevices.remove(key);
+                    mDeviceQueue.remove(key); // Remove from LRU cache
 
-                // Remove from dual mode device mappings
-                mDualDevicesMap.values().remove(key);
-                mDualDevicesMap.remove(key);
+                    // Remove from dual mode device mappings
+                    mDualDevicesMap.values().remove(key);
+                    mDualDevicesMap.remove(key);
+                }
             }
             if (state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_TURNING_OFF) {
                 mAdapterService.notifyAclDisconnected(device, transportLinkType);
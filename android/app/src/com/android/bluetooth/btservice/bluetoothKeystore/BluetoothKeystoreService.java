@@ -23,6 +23,7 @@ import android.security.keystore.KeyProperties;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothKeystoreProto;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.protobuf.ByteString;
@@ -43,11 +44,18 @@ import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -65,6 +73,11 @@ public class BluetoothKeystoreService {
 
     private static final boolean DBG = false;
 
+    // Decrypt the keys of the most recently used devices first, in parallel, and the others on
+    // demand, instead of decrypting all of them before the stack is initialized.
+    private static final String LAZY_DECRYPTION_PROPERTY =
+            "bluetooth.keystore.lazy_decryption.enabled";
+
     private static BluetoothKeystoreService sBluetoothKeystoreService;
     private boolean mCleaningUp;
     private boolean mIsCommonCriteriaMode;
@@ -93,6 +106,9 @@ public class BluetoothKeystoreService {
 
     private static final int BUFFER_SIZE = 400 * 10;
 
+    private static final int MAX_DECRYPT_THREADS = 4;
+    private static final long DECRYPT_THREAD_KEEP_ALIVE_MS = 1000;
+
     private static final int CONFIG_COMPARE_INIT = 0b00;
     private static final int CONFIG_FILE_COMPARE_PASS = 0b01;
     private static final int CONFIG_BACKUP_COMPARE_PASS = 0b10;
@@ -100,10 +116,23 @@ public class BluetoothKeystoreService {
 
     private final BluetoothKeystoreNativeInterface mBluetoothKeystoreNativeInterface;
 
+    private final boolean mLazyDecryption;
+    // Only used if mLazyDecryption
+    private final ThreadPoolExecutor mDecryptExecutor;
+    @GuardedBy("mDecryptTasks")
+    private final List<Future<?>> mDecryptTasks = new ArrayList<>();
+    // Only used if mLazyDecryption, the keys last written to the encryption files
+    private Map<String, String> mWrittenEncryptKey;
+    private SecretKey mSecretKey;
+
+    private final Object mEncryptLock = new Object();
+    @GuardedBy("mEncryptLock")
+    private int mEncryptingCount;
+
     private ComputeDataThread mEncryptDataThread;
     private ComputeDataThread mDecryptDataThread;
-    private Map<String, String> mNameEncryptKey = new HashMap<>();
-    private Map<String, String> mNameDecryptKey = new HashMap<>();
+    private Map<String, String> mNameEncryptKey = new ConcurrentHashMap<>();
+    private Map<String, String> mNameDecryptKey = new ConcurrentHashMap<>();
     private BlockingQueue<String> mPendingDecryptKey = new LinkedBlockingQueue<>();
     private BlockingQueue<String> mPendingEncryptKey = new LinkedBlockingQueue<>();
     private final List<String> mEncryptKeyNameList = List.of("LinkKey", "LE_KEY_PENC", "LE_KEY_PID",
@@ -114,10 +143,28 @@ public class BluetoothKeystoreService {
 
     public BluetoothKeystoreService(
             BluetoothKeystoreNativeInterface nativeInterface, boolean isCommonCriteriaMode) {
-        debugLog("new BluetoothKeystoreService isCommonCriteriaMode: " + isCommonCriteriaMode);
+        this(nativeInterface, isCommonCriteriaMode,
+                SystemProperties.getBoolean(LAZY_DECRYPTION_PROPERTY, false));
+    }
+
+    @VisibleForTesting
+    BluetoothKeystoreService(BluetoothKeystoreNativeInterface nativeInterface,
+            boolean isCommonCriteriaMode, boolean lazyDecryption) {
+        debugLog("new BluetoothKeystoreService isCommonCriteriaMode: " + isCommonCriteriaMode
+                + ", lazyDecryption: " + lazyDecryption);
         mBluetoothKeystoreNativeInterface = nativeInterface;
         mIsCommonCriteriaMode = isCommonCriteriaMode;
+        mLazyDecryption = lazyDecryption;
         mCompareResult = CONFIG_COMPARE_INIT;
+        if (mLazyDecryption) {
+            int threads = Math.min(MAX_DECRYPT_THREADS, Runtime.getRuntime().availableProcessors());
+            mDecryptExecutor = new ThreadPoolExecutor(threads, threads,
+                    DECRYPT_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            mDecryptExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            mDecryptExecutor = null;
+        }
         startThread();
     }
 
@@ -283,9 +330,11 @@ public class BluetoothKeystoreService {
      */
     public void initJni() {
         debugLog("initJni()");
-        // Need to make sure all keys are decrypted.
-        stopThread();
-        startThread();
+        // Need to make sure all keys are decrypted, unless they are decrypted on demand.
+        if (!mLazyDecryption) {
+            stopThread();
+            startThread();
+        }
         // Initialize native interface
         mBluetoothKeystoreNativeInterface.init(this);
     }
@@ -323,9 +372,9 @@ public class BluetoothKeystoreService {
                 cleanupAll();
             } else if (decryptedString.equals(CONFIG_FILE_HASH)) {
                 readHashFile(CONFIG_FILE_PATH, CONFIG_FILE_PREFIX);
-                mPendingEncryptKey.put(CONFIG_FILE_PREFIX);
+                queueEncryptKey(CONFIG_FILE_PREFIX);
                 readHashFile(CONFIG_BACKUP_PATH, CONFIG_BACKUP_PREFIX);
-                mPendingEncryptKey.put(CONFIG_BACKUP_PREFIX);
+                queueEncryptKey(CONFIG_BACKUP_PREFIX);
                 saveEncryptedKey();
             }
             return;
@@ -337,7 +386,35 @@ public class BluetoothKeystoreService {
             mNameEncryptKey.remove(prefixString);
         } else {
             mNameDecryptKey.put(prefixString, decryptedString);
-            mPendingEncryptKey.put(prefixString);
+            queueEncryptKey(prefixString);
+        }
+    }
+
+    private void queueEncryptKey(String prefixString) throws InterruptedException {
+        synchronized (mEncryptLock) {
+            mEncryptingCount++;
+        }
+        mPendingEncryptKey.put(prefixString);
+    }
+
+    private void onEncryptKeyDone() {
+        synchronized (mEncryptLock) {
+            mEncryptingCount--;
+            mEncryptLock.notifyAll();
+        }
+    }
+
+    // Waits for the keys queued to be encrypted, without stopping the encrypt thread.
+    private void waitForEncryption() {
+        synchronized (mEncryptLock) {
+            while (mEncryptingCount > 0) {
+                try {
+                    mEncryptLock.wait();
+                } catch (InterruptedException e) {
+                    reportBluetoothKeystoreException(e, "Interrupted while operating.");
+                    return;
+                }
+            }
         }
     }
 
@@ -354,6 +431,7 @@ public class BluetoothKeystoreService {
         Files.deleteIfExists(Paths.get(CONFIG_CHECKSUM_ENCRYPTION_PATH));
         Files.deleteIfExists(Paths.get(CONFIG_FILE_ENCRYPTION_PATH));
         Files.deleteIfExists(Paths.get(CONFIG_BACKUP_ENCRYPTION_PATH));
+        mWrittenEncryptKey = null;
     }
 
     /**
@@ -372,6 +450,7 @@ public class BluetoothKeystoreService {
      */
     @VisibleForTesting
     public void stopThread() {
+        waitForDecryption();
         try {
             if (mEncryptDataThread != null) {
                 mEncryptDataThread.setWaitQueueEmptyForStop();
@@ -386,6 +465,25 @@ public class BluetoothKeystoreService {
         }
     }
 
+    // Waits for the keys queued to be decrypted in parallel.
+    private void waitForDecryption() {
+        if (!mLazyDecryption) {
+            return;
+        }
+        List<Future<?>> tasks;
+        synchronized (mDecryptTasks) {
+            tasks = new ArrayList<>(mDecryptTasks);
+            mDecryptTasks.clear();
+        }
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            reportBluetoothKeystoreException(e, "Interrupted while operating.");
+        }
+    }
+
     private void startThread() {
         mEncryptDataThread = new ComputeDataThread(true);
         mDecryptDataThread = new ComputeDataThread(false);
@@ -399,36 +497,69 @@ public class BluetoothKeystoreService {
     public String getKey(String prefixString) {
         infoLog("getKey: prefix: " + prefixString);
         if (!mNameDecryptKey.containsKey(prefixString)) {
-            return null;
+            // Not decrypted yet
+            return mLazyDecryption ? decryptKey(prefixString) : null;
         }
 
         return mNameDecryptKey.get(prefixString);
     }
 
+    /**
+     * Decrypts a key of mNameEncryptKey into mNameDecryptKey, unless it was set in the meantime.
+     *
+     * @return the decrypted key, or null if it cannot be decrypted
+     */
+    private String decryptKey(String prefixString) {
+        String encryptedData = mNameEncryptKey.get(prefixString);
+        if (encryptedData == null) {
+            return null;
+        }
+        String decryptedData = tryCompute(encryptedData, false);
+        if (decryptedData == null) {
+            errorLog("decryptKey: decrypt fail, prefix: " + prefixString);
+            return null;
+        }
+        String previousData = mNameDecryptKey.putIfAbsent(prefixString, decryptedData);
+        return previousData != null ? previousData : decryptedData;
+    }
+
     /**
      * Save encryption key into the encryption file.
      */
     @VisibleForTesting
     public void saveEncryptedKey() {
-        stopThread();
+        if (mLazyDecryption) {
+            waitForEncryption();
+        } else {
+            stopThread();
+        }
         List<String> configEncryptedLines = new ArrayList<>();
         List<String> keyEncryptedLines = new ArrayList<>();
+        Map<String, String> encryptKey = new HashMap<>();
         for (String key : mNameEncryptKey.keySet()) {
             if (key.equals(CONFIG_FILE_PREFIX) || key.equals(CONFIG_BACKUP_PREFIX)) {
                 configEncryptedLines.add(getEncryptedKeyData(key));
             } else {
                 keyEncryptedLines.add(getEncryptedKeyData(key));
+                encryptKey.put(key, mNameEncryptKey.get(key));
             }
         }
-        startThread();
+        if (!mLazyDecryption) {
+            startThread();
+        }
 
         try {
             if (!configEncryptedLines.isEmpty()) {
                 Files.write(Paths.get(CONFIG_CHECKSUM_ENCRYPTION_PATH), configEncryptedLines);
             }
-            if (!keyEncryptedLines.isEmpty()) {
+            // The checksum changes on every save, the keys only when a device is bonded or
+            // removed: don't rewrite the keys if they did not change since the last save.
+            if (mLazyDecryption && encryptKey.equals(mWrittenEncryptKey)) {
+                debugLog("saveEncryptedKey: keys unchanged");
+            } else if (!keyEncryptedLines.isEmpty()) {
                 Files.write(Paths.get(CONFIG_FILE_ENCRYPTION_PATH), keyEncryptedLines);
                 Files.write(Paths.get(CONFIG_BACKUP_ENCRYPTION_PATH), keyEncryptedLines);
+                mWrittenEncryptKey = encryptKey;
             }
         } catch (IOException e) {
             throw new RuntimeException("write encryption file fail");
@@ -508,9 +639,8 @@ public class BluetoothKeystoreService {
         boolean successful = false;
         int counter = 0;
         while (!successful && counter < TRY_MAX) {
-            try {
+            try (InputStream fileStream = Files.newInputStream(Paths.get(filePathString))) {
                 MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-                InputStream fileStream = Files.newInputStream(Paths.get(filePathString));
                 while ((bytesRead = fileStream.read(dataBuffer)) != -1) {
                     messageDigest.update(dataBuffer, 0, bytesRead);
                 }
@@ -578,10 +708,51 @@ public class BluetoothKeystoreService {
             }
 
             mNameDecryptKey.put(prefixString, dataString);
-            mPendingEncryptKey.put(prefixString);
+            queueEncryptKey(prefixString);
         }
     }
 
+    /**
+     * Reads the Timestamp of the devices of a config file, set when they were last used.
+     *
+     * @return the Timestamp of each device, by section name
+     */
+    private static Map<String, Long> readDeviceTimestamps(String filePathString) {
+        Map<String, Long> timestamps = new HashMap<>();
+        try {
+            if (!Files.exists(Paths.get(filePathString))) {
+                return timestamps;
+            }
+            String name = null;
+            for (String line : Files.readAllLines(Paths.get(filePathString))) {
+                if (line.startsWith("[")) {
+                    name = line.replace("[", "").replace("]", "");
+                } else if (name != null && line.startsWith("Timestamp = ")) {
+                    timestamps.put(name, Long.parseLong(line.substring("Timestamp = ".length())));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            errorLog("readDeviceTimestamps: fail to read " + filePathString + ": " + e);
+        }
+        return timestamps;
+    }
+
+    /**
+     * Sorts the key prefixes with the keys of the most recently used devices first.
+     *
+     * @param timestamps the Timestamp of each device, by section name
+     */
+    @VisibleForTesting
+    static List<String> sortByRecency(Collection<String> prefixes, Map<String, Long> timestamps) {
+        List<String> sortedPrefixes = new ArrayList<>(prefixes);
+        sortedPrefixes.sort(Comparator.comparingLong((String prefix) -> {
+            int index = prefix.lastIndexOf("-");
+            Long timestamp = index < 0 ? null : timestamps.get(prefix.substring(0, index));
+            return timestamp == null ? Long.MIN_VALUE : timestamp;
+        }).reversed());
+        return sortedPrefixes;
+    }
+
     /**
      * Load encryption file and push into mNameEncryptKey and pendingDecryptKey.
      */
@@ -593,6 +764,7 @@ public class BluetoothKeystoreService {
                 return;
             }
             List<String> allLinesString = Files.readAllLines(Paths.get(filePathString));
+            List<String> decryptPrefixes = new ArrayList<>();
             for (String line : allLinesString) {
                 int index = line.lastIndexOf("-");
                 if (index < 0) {
@@ -602,15 +774,34 @@ public class BluetoothKeystoreService {
                 String encryptedString = line.substring(index + 1);
 
                 mNameEncryptKey.put(prefixString, encryptedString);
-                if (doDecrypt) {
+                if (doDecrypt && mLazyDecryption) {
+                    decryptPrefixes.add(prefixString);
+                } else if (doDecrypt) {
                     mPendingDecryptKey.put(prefixString);
                 }
             }
+            if (!decryptPrefixes.isEmpty()) {
+                queueDecryptKeys(sortByRecency(decryptPrefixes,
+                        readDeviceTimestamps(CONFIG_FILE_PATH)));
+            }
         } catch (IOException e) {
             throw new RuntimeException("read encryption file all line fail");
         }
     }
 
+    // Keys not decrypted yet when requested are decrypted on demand by getKey.
+    private void queueDecryptKeys(List<String> prefixes) {
+        synchronized (mDecryptTasks) {
+            for (String prefixString : prefixes) {
+                mDecryptTasks.add(mDecryptExecutor.submit(() -> {
+                    if (!mNameDecryptKey.containsKey(prefixString)) {
+                        decryptKey(prefixString);
+                    }
+                }));
+            }
+        }
+    }
+
     // will retry TRY_MAX times.
     private String tryCompute(String sourceData, boolean doEncrypt) {
         int counter = 0;
@@ -748,6 +939,10 @@ public class BluetoothKeystoreService {
 
     // The getOrGenerate semantic on keystore is not thread safe, need to synchronized it.
     private synchronized SecretKey getOrCreateSecretKey() {
+        // Don't load the keystore again for each key
+        if (mLazyDecryption && mSecretKey != null) {
+            return mSecretKey;
+        }
         SecretKey secretKey = null;
         try {
             KeyStore keyStore = getKeyStore();
@@ -789,6 +984,7 @@ public class BluetoothKeystoreService {
         } catch (ProviderException e) {
             reportKeystoreException(e, "getOrCreateSecretKey had a provider exception.");
         }
+        mSecretKey = secretKey;
         return secretKey;
     }
 
@@ -850,14 +1046,20 @@ public class BluetoothKeystoreService {
             while (!mSourceQueue.isEmpty() || !mWaitQueueEmptyForStop) {
                 try {
                     prefixString = mSourceQueue.take();
-                    if (mSourceDataMap.containsKey(prefixString)) {
-                        sourceData = mSourceDataMap.get(prefixString);
-                        targetData = tryCompute(sourceData, mDoEncrypt);
-                        if (targetData != null) {
-                            mTargetDataMap.put(prefixString, targetData);
-                        } else {
-                            errorLog("Computing of Data failed with prefixString: " + prefixString
-                                    + ", doEncrypt: " + mDoEncrypt);
+                    try {
+                        if (mSourceDataMap.containsKey(prefixString)) {
+                            sourceData = mSourceDataMap.get(prefixString);
+                            targetData = tryCompute(sourceData, mDoEncrypt);
+                            if (targetData != null) {
+                                mTargetDataMap.put(prefixString, targetData);
+                            } else {
+                                errorLog("Computing of Data failed with prefixString: "
+                                        + prefixString + ", doEncrypt: " + mDoEncrypt);
+                            }
+                        }
+                    } finally {
+                        if (mDoEncrypt) {
+                            onEncryptKeyDone();
                         }
                     }
                 } catch (InterruptedException e) {
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice.storage;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Orders the cached {@link Metadata} by last connection, most recent first, and keeps track of the
+ * active A2DP and HFP devices.
+ *
+ * <p>The index is updated with each change of {@link Metadata#last_active_time}, {@link
+ * Metadata#is_active_a2dp_device} and {@link Metadata#isActiveHfpDevice}, which must all go
+ * through it once the metadata is added. The most recently connected devices can then be listed
+ * without sorting the whole cache, and the active devices found without scanning it.
+ *
+ * <p>Not thread safe, guarded by the metadata cache of the {@link DatabaseManager}.
+ */
+class ConnectionRecencyIndex {
+    private static final String TAG = "BluetoothDatabase";
+
+    private static final class Entry {
+        final Metadata mMetadata;
+        // Null if the address is not the one of a remote device, like the local storage
+        final BluetoothDevice mDevice;
+        // Copy of the last active time, which is the ordering key of the entry
+        long mLastActiveTime;
+
+        Entry(Metadata metadata, BluetoothDevice device) {
+            mMetadata = metadata;
+            mDevice = device;
+            mLastActiveTime = metadata.last_active_time;
+        }
+    }
+
+    private static final Comparator<Entry> MOST_RECENT_FIRST =
+            Comparator.comparingLong((Entry e) -> e.mLastActiveTime)
+                    .reversed()
+                    .thenComparing(e -> e.mMetadata.getAddress());
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final TreeSet<Entry> mByRecency = new TreeSet<>(MOST_RECENT_FIRST);
+    private final TreeSet<Entry> mActiveA2dp = new TreeSet<>(MOST_RECENT_FIRST);
+    private final TreeSet<Entry> mActiveHfp = new TreeSet<>(MOST_RECENT_FIRST);
+
+    /** Adds a metadata put in the cache, replacing the one previously cached for its address. */
+    void add(Metadata metadata) {
+        remove(metadata.getAddress());
+        BluetoothDevice device = null;
+        try {
+            device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(metadata.getAddress());
+        } catch (IllegalArgumentException ex) {
+            Log.d(TAG, "ConnectionRecencyIndex: Invalid address for device "
+                    + metadata.getAnonymizedAddress());
+        }
+        Entry entry = new Entry(metadata, device);
+        mEntries.put(metadata.getAddress(), entry);
+        insert(entry);
+    }
+
+    /** Removes the metadata of an address removed from the cache. */
+    void remove(String address) {
+        Entry entry = mEntries.remove(address);
+        if (entry != null) {
+            detach(entry);
+        }
+    }
+
+    void clear() {
+        mEntries.clear();
+        mByRecency.clear();
+        mActiveA2dp.clear();
+        mActiveHfp.clear();
+    }
+
+    /**
+     * Sets the last active time of a cached metadata. A metadata that was not added yet is added.
+     */
+    void setLastActiveTime(Metadata metadata, long lastActiveTime) {
+        Entry entry = mEntries.get(metadata.getAddress());
+        if (entry == null || entry.mMetadata != metadata) {
+            metadata.last_active_time = lastActiveTime;
+            add(metadata);
+            return;
+        }
+        detach(entry);
+        metadata.last_active_time = lastActiveTime;
+        entry.mLastActiveTime = lastActiveTime;
+        insert(entry);
+    }
+
+    /**
+     * Sets whether a cached metadata is the one of an active A2DP device. A metadata that was not
+     * added yet is added.
+     */
+    void setActiveA2dp(Metadata metadata, boolean active) {
+        metadata.is_active_a2dp_device = active;
+        updateActive(mActiveA2dp, metadata, active);
+    }
+
+    /**
+     * Sets whether a cached metadata is the one of an active HFP device. A metadata that was not
+     * added yet is added.
+     */
+    void setActiveHfp(Metadata metadata, boolean active) {
+        metadata.isActiveHfpDevice = active;
+        updateActive(mActiveHfp, metadata, active);
+    }
+
+    /** @return the devices, most recently connected first */
+    List<BluetoothDevice> getDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>(mByRecency.size());
+        for (Entry entry : mByRecency) {
+            if (entry.mDevice != null) {
+                devices.add(entry.mDevice);
+            }
+        }
+        return devices;
+    }
+
+    /** @return the metadata of the active A2DP devices, most recently connected first */
+    List<Metadata> getActiveA2dpMetadata() {
+        return getMetadata(mActiveA2dp);
+    }
+
+    /** @return the metadata of the active HFP devices, most recently connected first */
+    List<Metadata> getActiveHfpMetadata() {
+        return getMetadata(mActiveHfp);
+    }
+
+    /** @return the most recently connected active A2DP device, or null if there is none */
+    BluetoothDevice getMostRecentActiveA2dpDevice() {
+        return getFirstDevice(mActiveA2dp);
+    }
+
+    /** @return the most recently connected active HFP device, or null if there is none */
+    BluetoothDevice getMostRecentActiveHfpDevice() {
+        return getFirstDevice(mActiveHfp);
+    }
+
+    /** @return the active HFP devices, most recently connected first */
+    List<BluetoothDevice> getActiveHfpDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>(mActiveHfp.size());
+        for (Entry entry : mActiveHfp) {
+            if (entry.mDevice != null) {
+                devices.add(entry.mDevice);
+            }
+        }
+        return devices;
+    }
+
+    private void updateActive(TreeSet<Entry> activeSet, Metadata metadata, boolean active) {
+        Entry entry = mEntries.get(metadata.getAddress());
+        if (entry == null || entry.mMetadata != metadata) {
+            add(metadata);
+            return;
+        }
+        if (active) {
+            activeSet.add(entry);
+        } else {
+            activeSet.remove(entry);
+        }
+    }
+
+    private void insert(Entry entry) {
+        mByRecency.add(entry);
+        if (entry.mMetadata.is_active_a2dp_device) {
+            mActiveA2dp.add(entry);
+        }
+        if (entry.mMetadata.isActiveHfpDevice) {
+            mActiveHfp.add(entry);
+        }
+    }
+
+    private void detach(Entry entry) {
+        mByRecency.remove(entry);
+        mActiveA2dp.remove(entry);
+        mActiveHfp.remove(entry);
+    }
+
+    private static List<Metadata> getMetadata(TreeSet<Entry> entries) {
+        List<Metadata> metadataList = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            metadataList.add(entry.mMetadata);
+        }
+        return metadataList;
+    }
+
+    private static BluetoothDevice getFirstDevice(TreeSet<Entry> entries) {
+        for (Entry entry : entries) {
+            if (entry.mDevice != null) {
+                return entry.mDevice;
+            }
+        }
+        return null;
+    }
+}
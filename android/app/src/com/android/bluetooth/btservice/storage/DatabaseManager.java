@@ -49,7 +49,6 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.google.common.collect.EvictingQueue;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -58,7 +57,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
  * The active device manager is responsible to handle a Room database
@@ -77,6 +75,9 @@ public class DatabaseManager {
 
     @VisibleForTesting
     final Map<String, Metadata> mMetadataCache = new HashMap<>();
+    // Recency order and active devices of mMetadataCache, updated with it
+    @GuardedBy("mMetadataCache")
+    private final ConnectionRecencyIndex mRecencyIndex = new ConnectionRecencyIndex();
     private final Semaphore mSemaphore = new Semaphore(1);
     private static final int METADATA_CHANGED_LOG_MAX_SIZE = 20;
     private final EvictingQueue<String> mMetadataChangedLog;
@@ -211,6 +212,7 @@ public class DatabaseManager {
                 Metadata metadata = mMetadataCache.get(address);
                 if (metadata != null) {
                     mMetadataCache.remove(address);
+                    mRecencyIndex.remove(address);
                     deleteDatabase(metadata);
                 }
             }
@@ -587,6 +589,52 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Set the connection history of the profiles of a device, used to plan its reconnection
+     *
+     * @param device {@link BluetoothDevice} wish to set
+     * @param history the encoded history, or null to clear it
+     */
+    public void setReconnectHistory(BluetoothDevice device, String history) {
+        if (device == null) {
+            Log.e(TAG, "setReconnectHistory: device is null");
+            return;
+        }
+        String address = device.getAddress();
+
+        synchronized (mMetadataCache) {
+            if (!mMetadataCache.containsKey(address)) {
+                Log.d(TAG, "setReconnectHistory: device " + device + " is not in cache");
+                return;
+            }
+            Metadata data = mMetadataCache.get(address);
+            if (Objects.equals(data.reconnectHistory, history)) {
+                return;
+            }
+            data.reconnectHistory = history;
+            updateDatabase(data);
+        }
+    }
+
+    /**
+     * Get the connection history of the profiles of a device
+     *
+     * @param device {@link BluetoothDevice} wish to get
+     * @return the encoded history, or null if the device has none
+     */
+    public String getReconnectHistory(BluetoothDevice device) {
+        if (device == null) {
+            Log.e(TAG, "getReconnectHistory: device is null");
+            return null;
+        }
+        String address = device.getAddress();
+
+        synchronized (mMetadataCache) {
+            Metadata data = mMetadataCache.get(address);
+            return data == null ? null : data.reconnectHistory;
+        }
+    }
+
     @GuardedBy("mMetadataCache")
     private void setConnection(BluetoothDevice device, boolean isActiveA2dp, boolean isActiveHfp) {
         if (device == null) {
@@ -602,16 +650,17 @@ public class DatabaseManager {
         // Updates last_active_time to the current counter value and increments the counter
         Metadata metadata = mMetadataCache.get(address);
         synchronized (MetadataDatabase.class) {
-            metadata.last_active_time = MetadataDatabase.sCurrentConnectionNumber++;
+            mRecencyIndex.setLastActiveTime(
+                    metadata, MetadataDatabase.sCurrentConnectionNumber++);
         }
 
         // Only update is_active_a2dp_device if an a2dp device is connected
         if (isActiveA2dp) {
-            metadata.is_active_a2dp_device = true;
+            mRecencyIndex.setActiveA2dp(metadata, true);
         }
 
         if (isActiveHfp) {
-            metadata.isActiveHfpDevice = true;
+            mRecencyIndex.setActiveHfp(metadata, true);
         }
 
         Log.d(
@@ -692,7 +741,7 @@ public class DatabaseManager {
             Metadata metadata = mMetadataCache.get(address);
 
             if (profileId == BluetoothProfile.A2DP && metadata.is_active_a2dp_device) {
-                metadata.is_active_a2dp_device = false;
+                mRecencyIndex.setActiveA2dp(metadata, false);
                 Log.d(
                         TAG,
                         "setDisconnection: Updating is_active_device to false for device: "
@@ -700,7 +749,7 @@ public class DatabaseManager {
                 updateDatabase(metadata);
             }
             if (profileId == BluetoothProfile.HEADSET && metadata.isActiveHfpDevice) {
-                metadata.isActiveHfpDevice = false;
+                mRecencyIndex.setActiveHfp(metadata, false);
                 Log.d(
                         TAG,
                         "setDisconnection: Updating isActiveHfpDevice to false for device: "
@@ -714,13 +763,10 @@ public class DatabaseManager {
     @GuardedBy("mMetadataCache")
     private void resetActiveA2dpDevice() {
         Log.d(TAG, "resetActiveA2dpDevice()");
-        for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-            Metadata metadata = entry.getValue();
-            if (metadata.is_active_a2dp_device) {
-                Log.d(TAG, "resetActiveA2dpDevice");
-                metadata.is_active_a2dp_device = false;
-                updateDatabase(metadata);
-            }
+        for (Metadata metadata : mRecencyIndex.getActiveA2dpMetadata()) {
+            Log.d(TAG, "resetActiveA2dpDevice");
+            mRecencyIndex.setActiveA2dp(metadata, false);
+            updateDatabase(metadata);
         }
     }
 
@@ -728,13 +774,10 @@ public class DatabaseManager {
     @GuardedBy("mMetadataCache")
     private void resetActiveHfpDevice() {
         Log.d(TAG, "resetActiveHfpDevice()");
-        for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-            Metadata metadata = entry.getValue();
-            if (metadata.isActiveHfpDevice) {
-                Log.d(TAG, "resetActiveHfpDevice");
-                metadata.isActiveHfpDevice = false;
-                updateDatabase(metadata);
-            }
+        for (Metadata metadata : mRecencyIndex.getActiveHfpMetadata()) {
+            Log.d(TAG, "resetActiveHfpDevice");
+            mRecencyIndex.setActiveHfp(metadata, false);
+            updateDatabase(metadata);
         }
     }
 
@@ -746,21 +789,9 @@ public class DatabaseManager {
      * in order of most recently connected
      */
     public List<BluetoothDevice> getMostRecentlyConnectedDevices() {
-        List<BluetoothDevice> mostRecentlyConnectedDevices = new ArrayList<>();
         synchronized (mMetadataCache) {
-            List<Metadata> sortedMetadata = new ArrayList<>(mMetadataCache.values());
-            sortedMetadata.sort((o1, o2) -> Long.compare(o2.last_active_time, o1.last_active_time));
-            for (Metadata metadata : sortedMetadata) {
-                try {
-                    mostRecentlyConnectedDevices.add(BluetoothAdapter.getDefaultAdapter()
-                            .getRemoteDevice(metadata.getAddress()));
-                } catch (IllegalArgumentException ex) {
-                    Log.d(TAG, "getBondedDevicesOrdered: Invalid address for "
-                               + "device " + metadata.getAnonymizedAddress());
-                }
-            }
+            return mRecencyIndex.getDevices();
         }
-        return mostRecentlyConnectedDevices;
     }
 
     /**
@@ -801,20 +832,8 @@ public class DatabaseManager {
      */
     public BluetoothDevice getMostRecentlyConnectedA2dpDevice() {
         synchronized (mMetadataCache) {
-            for (Map.Entry<String, Metadata> entry : mMetadataCache.entrySet()) {
-                Metadata metadata = entry.getValue();
-                if (metadata.is_active_a2dp_device) {
-                    try {
-                        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(
-                                metadata.getAddress());
-                    } catch (IllegalArgumentException ex) {
-                        Log.d(TAG, "getMostRecentlyConnectedA2dpDevice: Invalid address for "
-                                   + "device " + metadata.getAnonymizedAddress());
-                    }
-                }
-            }
+            return mRecencyIndex.getMostRecentActiveA2dpDevice();
         }
-        return null;
     }
 
     /**
@@ -823,40 +842,17 @@ public class DatabaseManager {
      * @return the most recently active HFP device or null if the last hfp device was null
      */
     public BluetoothDevice getMostRecentlyActiveHfpDevice() {
-        Map.Entry<String, Metadata> entry;
         synchronized (mMetadataCache) {
-            entry =
-                    mMetadataCache.entrySet().stream()
-                            .filter(x -> x.getValue().isActiveHfpDevice)
-                            .findFirst()
-                            .orElse(null);
-        }
-        if (entry != null) {
-            try {
-                return BluetoothAdapter.getDefaultAdapter()
-                        .getRemoteDevice(entry.getValue().getAddress());
-            } catch (IllegalArgumentException ex) {
-                Log.d(
-                        TAG,
-                        "getMostRecentlyActiveHfpDevice: Invalid address for "
-                                + "device "
-                                + entry.getValue().getAnonymizedAddress());
-            }
+            return mRecencyIndex.getMostRecentActiveHfpDevice();
         }
-
-        return null;
     }
 
     /**
      * @return the list of device registered as HFP active
      */
     public List<BluetoothDevice> getMostRecentlyActiveHfpDevices() {
-        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
         synchronized (mMetadataCache) {
-            return mMetadataCache.entrySet().stream()
-                    .filter(x -> x.getValue().isActiveHfpDevice)
-                    .map(x -> adapter.getRemoteDevice(x.getValue().getAddress()))
-                    .collect(Collectors.toList());
+            return mRecencyIndex.getActiveHfpDevices();
         }
     }
 
@@ -1080,7 +1076,10 @@ public class DatabaseManager {
             mHandlerThread.quit();
             mHandlerThread = null;
         }
-        mMetadataCache.clear();
+        synchronized (mMetadataCache) {
+            mMetadataCache.clear();
+            mRecencyIndex.clear();
+        }
     }
 
     void createMetadata(String address, boolean isActiveA2dpDevice) {
@@ -1105,6 +1104,7 @@ public class DatabaseManager {
                         + (" isActiveHfpDevice=" + isActiveHfpDevice)
                         + (" isActiveA2dpDevice=" + isActiveA2dpDevice));
         mMetadataCache.put(address, data);
+        mRecencyIndex.add(data);
         updateDatabase(data);
         logMetadataChange(data, "Metadata created");
     }
@@ -1145,6 +1145,7 @@ public class DatabaseManager {
                 String address = data.getAddress();
                 Log.v(TAG, "cacheMetadata: found device " + data.getAnonymizedAddress());
                 mMetadataCache.put(address, data);
+                mRecencyIndex.add(data);
             }
             Log.i(TAG, "cacheMetadata: Database is ready");
         }
@@ -1232,6 +1233,7 @@ public class DatabaseManager {
             data.a2dpSupportsOptionalCodecs = a2dpSupportsOptionalCodec;
             data.a2dpOptionalCodecsEnabled = a2dpOptionalCodecEnabled;
             mMetadataCache.put(address, data);
+            mRecencyIndex.add(data);
             updateDatabase(data);
         }
 
@@ -1239,6 +1241,7 @@ public class DatabaseManager {
         Metadata localData = new Metadata(LOCAL_STORAGE);
         localData.migrated = true;
         mMetadataCache.put(LOCAL_STORAGE, localData);
+        mRecencyIndex.add(localData);
         updateDatabase(localData);
 
         // Reload database after migration is completed
@@ -79,6 +79,12 @@ public class Metadata {
      */
     public int preferred_duplex_profile;
 
+    /**
+     * The connection history of the profiles of the device, used to plan its reconnection. It is
+     * encoded and decoded by the phone policy, and null if the device has no history.
+     */
+    public String reconnectHistory;
+
     Metadata(String address) {
         this(address, false, false);
     }
@@ -472,6 +478,8 @@ public class Metadata {
                 .append(a2dpOptionalCodecsEnabled)
                 .append("), isActiveHfpDevice (")
                 .append(isActiveHfpDevice)
+                .append("), reconnect history(")
+                .append(reconnectHistory)
                 .append("), custom metadata(")
                 .append(publicMetadata)
                 .append("), hfp client audio policy(")
@@ -33,7 +33,7 @@ import java.util.List;
 /** MetadataDatabase is a Room database stores Bluetooth persistence data */
 @Database(
         entities = {Metadata.class},
-        version = 118)
+        version = 119)
 public abstract class MetadataDatabase extends RoomDatabase {
     /** The metadata database file name */
     public static final String DATABASE_NAME = "bluetooth_db";
@@ -68,6 +68,7 @@ public abstract class MetadataDatabase extends RoomDatabase {
                 .addMigrations(MIGRATION_115_116)
                 .addMigrations(MIGRATION_116_117)
                 .addMigrations(MIGRATION_117_118)
+                .addMigrations(MIGRATION_118_119)
                 .allowMainThreadQueries()
                 .build();
     }
@@ -630,4 +631,22 @@ public abstract class MetadataDatabase extends RoomDatabase {
                     }
                 }
             };
+
+    @VisibleForTesting
+    static final Migration MIGRATION_118_119 =
+            new Migration(118, 119) {
+                @Override
+                public void migrate(SupportSQLiteDatabase database) {
+                    try {
+                        database.execSQL(
+                                "ALTER TABLE metadata ADD COLUMN `reconnectHistory` TEXT");
+                    } catch (SQLException ex) {
+                        // Check if user has new schema, but is just missing the version update
+                        Cursor cursor = database.query("SELECT * FROM metadata");
+                        if (cursor == null || cursor.getColumnIndex("reconnectHistory") == -1) {
+                            throw ex;
+                        }
+                    }
+                }
+            };
 }
@@ -30,6 +30,7 @@ import android.os.IBinder;
 import android.os.IInterface;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemProperties;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
@@ -50,14 +51,24 @@ public class AdvertiseManager {
     private static final boolean DBG = GattServiceConfig.DBG;
     private static final String TAG = GattServiceConfig.TAG_PREFIX + "AdvertiseManager";
 
+    private static final String ADVERTISING_MULTIPLEXER_PROPERTY =
+            "bluetooth.le.advertising_multiplexer.enabled";
+
     private final GattService mService;
     private final AdapterService mAdapterService;
     private final AdvertiseManagerNativeInterface mNativeInterface;
     private final AdvertiserMap mAdvertiserMap;
     private Handler mHandler;
+    // Null unless the advertising sets are multiplexed over the controller instances
+    private AdvertisingSetMultiplexer mMultiplexer;
     Map<IBinder, AdvertiserInfo> mAdvertisers = Collections.synchronizedMap(new HashMap<>());
     static int sTempRegistrationId = -1;
 
+    /** @return a new registration id, for an advertising set started before its id is known */
+    static synchronized int newRegistrationId() {
+        return --sTempRegistrationId;
+    }
+
     /** Constructor of {@link AdvertiseManager}. */
     AdvertiseManager(
             GattService service,
@@ -77,6 +88,26 @@ public class AdvertiseManager {
         HandlerThread thread = new HandlerThread("BluetoothAdvertiseManager");
         thread.start();
         mHandler = new Handler(thread.getLooper());
+
+        if (SystemProperties.getBoolean(ADVERTISING_MULTIPLEXER_PROPERTY, false)) {
+            mMultiplexer =
+                    new AdvertisingSetMultiplexer(mNativeInterface, mAdvertiserMap,
+                            this::onMultiplexedSetStartFailed, thread.getLooper());
+        }
+    }
+
+    @VisibleForTesting
+    void setMultiplexer(AdvertisingSetMultiplexer multiplexer) {
+        mMultiplexer = multiplexer;
+    }
+
+    private boolean isMultiplexed(int advertiserId) {
+        return mMultiplexer != null && mMultiplexer.isMultiplexed(advertiserId);
+    }
+
+    // Maps the advertiser id reported by the stack to the one known by the application
+    private int toAdvertiserId(int advertiserId) {
+        return mMultiplexer == null ? advertiserId : mMultiplexer.toAdvertiserId(advertiserId);
     }
 
     void cleanup() {
@@ -84,6 +115,9 @@ public class AdvertiseManager {
             Log.d(TAG, "cleanup()");
         }
         mNativeInterface.cleanup();
+        if (mMultiplexer != null) {
+            mMultiplexer.cleanup();
+        }
         mAdvertisers.clear();
         sTempRegistrationId = -1;
 
@@ -156,6 +190,11 @@ public class AdvertiseManager {
                             + ", status=" + status);
         }
 
+        if (mMultiplexer != null
+                && mMultiplexer.onAdvertisingSetStarted(regId, advertiserId, txPower, status)) {
+            return;
+        }
+
         Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(regId);
 
         if (entry == null) {
@@ -193,6 +232,12 @@ public class AdvertiseManager {
                     + enable + ", status=" + status);
         }
 
+        if (mMultiplexer != null && mMultiplexer.isMultiplexedInstance(advertiserId)) {
+            // The multiplexer reports the state of its sets itself
+            mMultiplexer.onInstanceEnabled(advertiserId, enable, status);
+            return;
+        }
+
         Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
         if (entry == null) {
             Log.i(TAG, "onAdvertisingSetEnable() - no callback found for advertiserId "
@@ -254,7 +299,15 @@ public class AdvertiseManager {
             byte[] periodicDataBytes =
                     AdvertiseHelper.advertiseDataToBytes(periodicData, deviceName);
 
-            int cbId = --sTempRegistrationId;
+            if (mMultiplexer != null
+                    && AdvertisingSetMultiplexer.canMultiplex(
+                            periodicParameters, duration, maxExtAdvEvents, serverIf)) {
+                startMultiplexedAdvertisingSet(parameters, advertiseData, scanResponse,
+                        advDataBytes, scanResponseBytes, binder, deathRecipient, callback);
+                return;
+            }
+
+            int cbId = newRegistrationId();
             mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
 
             if (DBG) {
@@ -287,8 +340,46 @@ public class AdvertiseManager {
         }
     }
 
+    private void startMultiplexedAdvertisingSet(AdvertisingSetParameters parameters,
+            AdvertiseData advertiseData, AdvertiseData scanResponse, byte[] advDataBytes,
+            byte[] scanResponseBytes, IBinder binder, AdvertisingSetDeathRecipient deathRecipient,
+            IAdvertisingSetCallback callback) {
+        int advertiserId = mMultiplexer.newAdvertiserId();
+        mAdvertisers.put(binder, new AdvertiserInfo(advertiserId, deathRecipient, callback));
+
+        if (DBG) {
+            Log.d(TAG, "startAdvertisingSet() - multiplexed advertiserId=" + advertiserId
+                    + ", callback: " + binder);
+        }
+
+        mAdvertiserMap.add(advertiserId, callback, mService);
+        mAdvertiserMap.recordAdvertiseStart(advertiserId, parameters, advertiseData,
+                scanResponse, null, null, 0, 0);
+        // The start is reported by the multiplexer once the set is on air
+        mMultiplexer.addSet(advertiserId, callback, parameters, advDataBytes, scanResponseBytes);
+    }
+
+    // Forgets a multiplexed set whose failure to start was reported by the multiplexer
+    private void onMultiplexedSetStartFailed(int advertiserId) {
+        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
+        if (entry == null) {
+            return;
+        }
+        IBinder binder = entry.getKey();
+        binder.unlinkToDeath(entry.getValue().deathRecipient, 0);
+        mAdvertisers.remove(binder);
+
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
+        if (stats != null) {
+            stats.recordAdvertiseStop();
+        }
+        mAdvertiserMap.removeAppAdvertiseStats(advertiserId);
+        AppAdvertiseStats.recordAdvertiseErrorCount(LE_ADV_ERROR_ON_START_COUNT);
+    }
+
     void onOwnAddressRead(int advertiserId, int addressType, String address)
             throws RemoteException {
+        advertiserId = toAdvertiserId(advertiserId);
         if (DBG) {
             Log.d(TAG, "onOwnAddressRead() advertiserId=" + advertiserId);
         }
@@ -309,6 +400,10 @@ public class AdvertiseManager {
             Log.w(TAG, "getOwnAddress() - bad advertiserId " + advertiserId);
             return;
         }
+        if (isMultiplexed(advertiserId)) {
+            mMultiplexer.getOwnAddress(advertiserId);
+            return;
+        }
         mNativeInterface.getOwnAddress(advertiserId);
     }
 
@@ -333,7 +428,14 @@ public class AdvertiseManager {
             return;
         }
 
-        mNativeInterface.stopAdvertisingSet(advertiserId);
+        if (isMultiplexed(advertiserId)) {
+            mMultiplexer.removeSet(advertiserId);
+        } else {
+            mNativeInterface.stopAdvertisingSet(advertiserId);
+            if (mMultiplexer != null) {
+                mMultiplexer.onInstanceReleased();
+            }
+        }
 
         try {
             callback.onAdvertisingSetStopped(advertiserId);
@@ -350,7 +452,12 @@ public class AdvertiseManager {
             Log.w(TAG, "enableAdvertisingSet() - bad advertiserId " + advertiserId);
             return;
         }
-        mNativeInterface.enableAdvertisingSet(advertiserId, enable, duration, maxExtAdvEvents);
+        if (isMultiplexed(advertiserId)) {
+            mMultiplexer.setEnabled(advertiserId, enable, duration, maxExtAdvEvents);
+        } else {
+            mNativeInterface.enableAdvertisingSet(advertiserId, enable, duration,
+                    maxExtAdvEvents);
+        }
 
         mAdvertiserMap.enableAdvertisingSet(advertiserId,
                 enable, duration, maxExtAdvEvents);
@@ -364,8 +471,12 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            mNativeInterface.setAdvertisingData(
-                    advertiserId, AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+            byte[] advDataBytes = AdvertiseHelper.advertiseDataToBytes(data, deviceName);
+            if (isMultiplexed(advertiserId)) {
+                mMultiplexer.setAdvertisingData(advertiserId, advDataBytes);
+            } else {
+                mNativeInterface.setAdvertisingData(advertiserId, advDataBytes);
+            }
 
             mAdvertiserMap.setAdvertisingData(advertiserId, data);
         } catch (IllegalArgumentException e) {
@@ -386,8 +497,12 @@ public class AdvertiseManager {
         }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
-            mNativeInterface.setScanResponseData(
-                    advertiserId, AdvertiseHelper.advertiseDataToBytes(data, deviceName));
+            byte[] scanResponseBytes = AdvertiseHelper.advertiseDataToBytes(data, deviceName);
+            if (isMultiplexed(advertiserId)) {
+                mMultiplexer.setScanResponseData(advertiserId, scanResponseBytes);
+            } else {
+                mNativeInterface.setScanResponseData(advertiserId, scanResponseBytes);
+            }
 
             mAdvertiserMap.setScanResponseData(advertiserId, data);
         } catch (IllegalArgumentException e) {
@@ -406,7 +521,11 @@ public class AdvertiseManager {
             Log.w(TAG, "setAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
-        mNativeInterface.setAdvertisingParameters(advertiserId, parameters);
+        if (isMultiplexed(advertiserId)) {
+            mMultiplexer.setAdvertisingParameters(advertiserId, parameters);
+        } else {
+            mNativeInterface.setAdvertisingParameters(advertiserId, parameters);
+        }
 
         mAdvertiserMap.setAdvertisingParameters(advertiserId, parameters);
     }
@@ -418,6 +537,16 @@ public class AdvertiseManager {
             Log.w(TAG, "setPeriodicAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
+        if (isMultiplexed(advertiserId)) {
+            Log.w(TAG, "setPeriodicAdvertisingParameters() - not supported by multiplexed sets");
+            try {
+                onPeriodicAdvertisingParametersUpdated(advertiserId,
+                        AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            } catch (Exception exception) {
+                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
+            }
+            return;
+        }
         mNativeInterface.setPeriodicAdvertisingParameters(advertiserId, parameters);
 
         mAdvertiserMap.setPeriodicAdvertisingParameters(advertiserId, parameters);
@@ -429,6 +558,16 @@ public class AdvertiseManager {
             Log.w(TAG, "setPeriodicAdvertisingData() - bad advertiserId " + advertiserId);
             return;
         }
+        if (isMultiplexed(advertiserId)) {
+            Log.w(TAG, "setPeriodicAdvertisingData() - not supported by multiplexed sets");
+            try {
+                onPeriodicAdvertisingDataSet(advertiserId,
+                        AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            } catch (Exception exception) {
+                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
+            }
+            return;
+        }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
             mNativeInterface.setPeriodicAdvertisingData(
@@ -451,10 +590,21 @@ public class AdvertiseManager {
             Log.w(TAG, "setPeriodicAdvertisingEnable() - bad advertiserId " + advertiserId);
             return;
         }
+        if (isMultiplexed(advertiserId)) {
+            Log.w(TAG, "setPeriodicAdvertisingEnable() - not supported by multiplexed sets");
+            try {
+                onPeriodicAdvertisingEnabled(advertiserId, false,
+                        AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            } catch (Exception exception) {
+                Log.e(TAG, "Failed to callback:" + Log.getStackTraceString(exception));
+            }
+            return;
+        }
         mNativeInterface.setPeriodicAdvertisingEnable(advertiserId, enable);
     }
 
     void onAdvertisingDataSet(int advertiserId, int status) throws Exception {
+        advertiserId = toAdvertiserId(advertiserId);
         if (DBG) {
             Log.d(TAG,
                     "onAdvertisingDataSet() advertiserId=" + advertiserId + ", status=" + status);
@@ -471,6 +621,7 @@ public class AdvertiseManager {
     }
 
     void onScanResponseDataSet(int advertiserId, int status) throws Exception {
+        advertiserId = toAdvertiserId(advertiserId);
         if (DBG) {
             Log.d(TAG,
                     "onScanResponseDataSet() advertiserId=" + advertiserId + ", status=" + status);
@@ -488,6 +639,7 @@ public class AdvertiseManager {
 
     void onAdvertisingParametersUpdated(int advertiserId, int txPower, int status)
             throws Exception {
+        advertiserId = toAdvertiserId(advertiserId);
         if (DBG) {
             Log.d(TAG,
                     "onAdvertisingParametersUpdated() advertiserId=" + advertiserId + ", txPower="
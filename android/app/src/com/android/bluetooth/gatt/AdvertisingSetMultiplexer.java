@@ -0,0 +1,579 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.IAdvertisingSetCallback;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.gatt.GattService.AdvertiserMap;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Time slices more advertising sets than the controller has advertising instances.
+ *
+ * <p>Each multiplexed set is a logical set, with an advertiser id of its own starting at {@link
+ * #VIRTUAL_ADVERTISER_ID_BASE}. While the controller has free instances, every logical set holds
+ * one, and nothing changes compared to a regular advertising set. Once the controller reports
+ * that it has no instance left, the logical sets waiting for an instance are rotated through the
+ * instances held by the others: at the end of its slice, a set is stopped and the next waiting
+ * set is started on the freed instance. The start of a logical set is reported once it is first
+ * on air.
+ *
+ * <p>A slice lasts {@link #EVENTS_PER_SLICE} advertising events of the set, so that sets with a
+ * long interval are on air long enough to be seen by scanners, bounded by {@link
+ * #MIN_SLICE_MILLIS} and {@link #MAX_SLICE_MILLIS}. The payloads of each set are kept encoded, so
+ * that a set is restarted without encoding its data again. A limit of advertising events is
+ * converted to a time on air at the interval of the set.
+ *
+ * <p>The time on air of each set is recorded in its {@link AppAdvertiseStats}.
+ */
+class AdvertisingSetMultiplexer {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "AdvertisingSetMultiplexer";
+
+    /** First advertiser id of the logical sets, above the ids used by the controller. */
+    @VisibleForTesting static final int VIRTUAL_ADVERTISER_ID_BASE = 0x1000;
+
+    /** Number of advertising events of a set during its slice. */
+    @VisibleForTesting static final int EVENTS_PER_SLICE = 5;
+
+    @VisibleForTesting static final long MIN_SLICE_MILLIS = 500;
+    @VisibleForTesting static final long MAX_SLICE_MILLIS = 5000;
+
+    // Unit of AdvertisingSetParameters#getInterval(), in microseconds
+    private static final long INTERVAL_UNIT_MICROS = 625;
+
+    private static final int NO_INSTANCE = -1;
+
+    private interface CallbackCall {
+        void run(IAdvertisingSetCallback callback) throws RemoteException;
+    }
+
+    /** Notified when a logical set fails to start, so that its advertiser is forgotten. */
+    interface StartFailureListener {
+        void onStartFailed(int advertiserId);
+    }
+
+    private final class LogicalSet {
+        final int mId;
+        final IAdvertisingSetCallback mCallback;
+        AdvertisingSetParameters mParameters;
+        byte[] mAdvertiseData;
+        byte[] mScanResponse;
+        int mTxPower;
+        boolean mEnabled = true;
+        // Whether the start of the set was reported, once it was first on air
+        boolean mStartReported;
+        // Controller advertiser id while the set is on air
+        int mInstanceId = NO_INSTANCE;
+        // Registration id of the pending start, 0 if none
+        int mRegId;
+        boolean mOwnAddressRequested;
+        // Time on air left for the advertising events requested when enabled, 0 if unlimited
+        long mOnAirBudgetMillis;
+        long mOnAirSinceMillis;
+
+        final Runnable mSliceEnd = () -> onSliceEnd(this);
+        final Runnable mDurationEnd = () -> onDurationEnd(this);
+        final Runnable mEventsEnd = () -> onDurationEnd(this);
+
+        LogicalSet(
+                int id,
+                IAdvertisingSetCallback callback,
+                AdvertisingSetParameters parameters,
+                byte[] advertiseData,
+                byte[] scanResponse) {
+            mId = id;
+            mCallback = callback;
+            mParameters = parameters;
+            mAdvertiseData = advertiseData;
+            mScanResponse = scanResponse;
+            mTxPower = parameters.getTxPowerLevel();
+        }
+    }
+
+    private final AdvertiseManagerNativeInterface mNativeInterface;
+    private final AdvertiserMap mAdvertiserMap;
+    private final StartFailureListener mStartFailureListener;
+    private final Handler mHandler;
+
+    @GuardedBy("this")
+    private final Map<Integer, LogicalSet> mSets = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, LogicalSet> mSetsByInstance = new HashMap<>();
+
+    // Enabled sets without an instance, in rotation order
+    @GuardedBy("this")
+    private final ArrayDeque<LogicalSet> mWaiting = new ArrayDeque<>();
+
+    // Only one set is started at a time, so that a failure is attributed to the right set
+    @GuardedBy("this")
+    private LogicalSet mStarting;
+
+    // Whether the last start failed for lack of instance, and no instance was freed since
+    @GuardedBy("this")
+    private boolean mInstancesExhausted;
+
+    // Whether the sets on air must be rotated with the waiting ones
+    @GuardedBy("this")
+    private boolean mRotating;
+
+    @GuardedBy("this")
+    private int mNextAdvertiserId = VIRTUAL_ADVERTISER_ID_BASE;
+
+    AdvertisingSetMultiplexer(
+            AdvertiseManagerNativeInterface nativeInterface,
+            AdvertiserMap advertiserMap,
+            StartFailureListener startFailureListener,
+            Looper looper) {
+        mNativeInterface = nativeInterface;
+        mAdvertiserMap = advertiserMap;
+        mStartFailureListener = startFailureListener;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Returns whether an advertising set can be multiplexed. Periodic advertising, advertising
+     * limited in time or in number of events, and advertising of an isolated GATT server are left
+     * to the controller.
+     */
+    static boolean canMultiplex(
+            PeriodicAdvertisingParameters periodicParameters,
+            int duration,
+            int maxExtAdvEvents,
+            int serverIf) {
+        return periodicParameters == null && duration == 0 && maxExtAdvEvents == 0 && serverIf == 0;
+    }
+
+    /** @return the advertiser id of the next logical set */
+    synchronized int newAdvertiserId() {
+        return mNextAdvertiserId++;
+    }
+
+    /** @return whether the advertiser id is the one of a logical set */
+    synchronized boolean isMultiplexed(int advertiserId) {
+        return mSets.containsKey(advertiserId);
+    }
+
+    /**
+     * Maps the controller advertiser id of an instance to the advertiser id of the logical set on
+     * air on it.
+     *
+     * @return the id of the logical set, or the given id if no logical set uses the instance
+     */
+    synchronized int toAdvertiserId(int instanceId) {
+        LogicalSet set = mSetsByInstance.get(instanceId);
+        return set == null ? instanceId : set.mId;
+    }
+
+    /** @return whether a logical set is on air on the given controller instance */
+    synchronized boolean isMultiplexedInstance(int instanceId) {
+        return mSetsByInstance.containsKey(instanceId);
+    }
+
+    /**
+     * Adds an enabled logical set. Its start is reported to the callback once it is on air.
+     *
+     * @param advertiserId an id returned by {@link #newAdvertiserId()}
+     * @param advertiseData the encoded advertising data
+     * @param scanResponse the encoded scan response
+     */
+    synchronized void addSet(
+            int advertiserId,
+            IAdvertisingSetCallback callback,
+            AdvertisingSetParameters parameters,
+            byte[] advertiseData,
+            byte[] scanResponse) {
+        LogicalSet set =
+                new LogicalSet(advertiserId, callback, parameters, advertiseData, scanResponse);
+        mSets.put(advertiserId, set);
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
+        if (stats != null) {
+            stats.recordMultiplexedEnabled(true, SystemClock.elapsedRealtime());
+        }
+        mWaiting.add(set);
+        startNextWaitingSet();
+    }
+
+    /** Removes a logical set, stopping it if it is on air. */
+    synchronized void removeSet(int advertiserId) {
+        LogicalSet set = mSets.remove(advertiserId);
+        if (set == null) {
+            return;
+        }
+        mHandler.removeCallbacks(set.mDurationEnd);
+        disable(set);
+    }
+
+    /**
+     * Enables or disables a logical set.
+     *
+     * @param duration the time the set is enabled for, in units of 10ms, 0 if unlimited
+     * @param maxExtAdvEvents the number of advertising events the set is enabled for, 0 if
+     *     unlimited
+     */
+    synchronized void setEnabled(
+            int advertiserId, boolean enable, int duration, int maxExtAdvEvents) {
+        LogicalSet set = mSets.get(advertiserId);
+        if (set == null) {
+            return;
+        }
+        mHandler.removeCallbacks(set.mDurationEnd);
+        if (enable) {
+            enable(set);
+            if (duration > 0) {
+                // In units of 10ms, as for the controller
+                mHandler.postDelayed(set.mDurationEnd, duration * 10L);
+            }
+            // The events are only sent while the set is on air
+            mHandler.removeCallbacks(set.mEventsEnd);
+            set.mOnAirBudgetMillis = maxExtAdvEvents > 0
+                    ? Math.max(maxExtAdvEvents * getIntervalMicros(set.mParameters) / 1000, 1)
+                    : 0;
+            if (set.mInstanceId != NO_INSTANCE) {
+                startOnAirBudget(set);
+            }
+        } else {
+            disable(set);
+        }
+        sendCallback(set, callback -> callback.onAdvertisingEnabled(advertiserId, enable, 0));
+    }
+
+    synchronized void setAdvertisingData(int advertiserId, byte[] data) {
+        LogicalSet set = mSets.get(advertiserId);
+        if (set == null) {
+            return;
+        }
+        set.mAdvertiseData = data;
+        if (set.mInstanceId != NO_INSTANCE) {
+            // The completion is reported by the controller
+            mNativeInterface.setAdvertisingData(set.mInstanceId, data);
+        } else {
+            sendCallback(set, callback -> callback.onAdvertisingDataSet(advertiserId, 0));
+        }
+    }
+
+    synchronized void setScanResponseData(int advertiserId, byte[] data) {
+        LogicalSet set = mSets.get(advertiserId);
+        if (set == null) {
+            return;
+        }
+        set.mScanResponse = data;
+        if (set.mInstanceId != NO_INSTANCE) {
+            mNativeInterface.setScanResponseData(set.mInstanceId, data);
+        } else {
+            sendCallback(set, callback -> callback.onScanResponseDataSet(advertiserId, 0));
+        }
+    }
+
+    synchronized void setAdvertisingParameters(
+            int advertiserId, AdvertisingSetParameters parameters) {
+        LogicalSet set = mSets.get(advertiserId);
+        if (set == null) {
+            return;
+        }
+        set.mParameters = parameters;
+        if (set.mInstanceId != NO_INSTANCE) {
+            mNativeInterface.setAdvertisingParameters(set.mInstanceId, parameters);
+        } else {
+            int txPower = parameters.getTxPowerLevel();
+            set.mTxPower = txPower;
+            sendCallback(set, callback ->
+                    callback.onAdvertisingParametersUpdated(advertiserId, txPower, 0));
+        }
+    }
+
+    /** Reads the address of a logical set, as soon as it is on air. */
+    synchronized void getOwnAddress(int advertiserId) {
+        LogicalSet set = mSets.get(advertiserId);
+        if (set == null) {
+            return;
+        }
+        if (set.mInstanceId != NO_INSTANCE) {
+            mNativeInterface.getOwnAddress(set.mInstanceId);
+        } else {
+            set.mOwnAddressRequested = true;
+        }
+    }
+
+    /**
+     * Handles the start of an advertising set. The first start of a logical set is reported to its
+     * callback, and a logical set failing to start before it was ever on air is removed.
+     *
+     * @return whether the set was started for a logical set
+     */
+    synchronized boolean onAdvertisingSetStarted(
+            int regId, int instanceId, int txPower, int status) {
+        LogicalSet set = mStarting;
+        if (set == null || set.mRegId != regId) {
+            return false;
+        }
+        mStarting = null;
+        set.mRegId = 0;
+        if (!set.mEnabled) {
+            // Disabled or removed while starting
+            if (status == AdvertiseCallback.ADVERTISE_SUCCESS) {
+                mNativeInterface.stopAdvertisingSet(instanceId);
+            }
+            startNextWaitingSet();
+            return true;
+        }
+        if (status == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+            if (DBG) {
+                Log.d(TAG, "No advertising instance left, rotating " + mSets.size() + " sets");
+            }
+            mInstancesExhausted = true;
+            mRotating = true;
+            mWaiting.addFirst(set);
+            for (LogicalSet onAir : mSetsByInstance.values()) {
+                if (!mHandler.hasCallbacks(onAir.mSliceEnd)) {
+                    scheduleSliceEnd(onAir);
+                }
+            }
+            return true;
+        }
+        if (status != AdvertiseCallback.ADVERTISE_SUCCESS) {
+            Log.e(TAG, "Failed to start logical set " + set.mId + ", status=" + status);
+            disable(set);
+            if (set.mStartReported) {
+                sendCallback(set,
+                        callback -> callback.onAdvertisingEnabled(set.mId, false, status));
+                return true;
+            }
+            mSets.remove(set.mId);
+            mHandler.removeCallbacks(set.mDurationEnd);
+            sendCallback(set, callback -> callback.onAdvertisingSetStarted(set.mId, 0, status));
+            mStartFailureListener.onStartFailed(set.mId);
+            return true;
+        }
+
+        set.mInstanceId = instanceId;
+        set.mTxPower = txPower;
+        mSetsByInstance.put(instanceId, set);
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(set.mId);
+        if (stats != null) {
+            stats.recordOnAir(true, SystemClock.elapsedRealtime());
+        }
+        if (!set.mStartReported) {
+            set.mStartReported = true;
+            sendCallback(set, callback -> callback.onAdvertisingSetStarted(set.mId, txPower,
+                    AdvertiseCallback.ADVERTISE_SUCCESS));
+        }
+        startOnAirBudget(set);
+        if (set.mOwnAddressRequested) {
+            set.mOwnAddressRequested = false;
+            mNativeInterface.getOwnAddress(instanceId);
+        }
+        if (mRotating) {
+            scheduleSliceEnd(set);
+            // The set took the instance freed by the rotation
+            mInstancesExhausted = true;
+        }
+        startNextWaitingSet();
+        return true;
+    }
+
+    /**
+     * Handles a change of the state of an instance reported by the controller: a logical set
+     * disabled by the controller once its duration or number of events is reached, or an
+     * instance that failed to be enabled. The instance stays allocated in the stack until it is
+     * stopped, so it is stopped before being reused.
+     */
+    synchronized void onInstanceEnabled(int instanceId, boolean enable, int status) {
+        LogicalSet set = mSetsByInstance.get(instanceId);
+        if (set == null) {
+            return;
+        }
+        if (enable && status == AdvertiseCallback.ADVERTISE_SUCCESS) {
+            // The state of the logical set was reported when it was enabled
+            return;
+        }
+        releaseInstance(set);
+        disable(set);
+        sendCallback(set, callback -> callback.onAdvertisingEnabled(set.mId, enable, status));
+    }
+
+    /** Notifies that an advertising set not multiplexed was stopped, freeing an instance. */
+    synchronized void onInstanceReleased() {
+        mInstancesExhausted = false;
+        startNextWaitingSet();
+    }
+
+    synchronized void cleanup() {
+        mHandler.removeCallbacksAndMessages(null);
+        mSets.clear();
+        mSetsByInstance.clear();
+        mWaiting.clear();
+        mStarting = null;
+        mInstancesExhausted = false;
+        mRotating = false;
+    }
+
+    /** @return how long a set is on air before it is rotated, given its interval */
+    @VisibleForTesting
+    static long getSliceMillis(AdvertisingSetParameters parameters) {
+        long sliceMillis = EVENTS_PER_SLICE * getIntervalMicros(parameters) / 1000;
+        return Math.min(Math.max(sliceMillis, MIN_SLICE_MILLIS), MAX_SLICE_MILLIS);
+    }
+
+    private static long getIntervalMicros(AdvertisingSetParameters parameters) {
+        return parameters.getInterval() * INTERVAL_UNIT_MICROS;
+    }
+
+    @GuardedBy("this")
+    private void enable(LogicalSet set) {
+        if (set.mEnabled) {
+            return;
+        }
+        set.mEnabled = true;
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(set.mId);
+        if (stats != null) {
+            stats.recordMultiplexedEnabled(true, SystemClock.elapsedRealtime());
+        }
+        if (set == mStarting) {
+            // Disabled and enabled again while starting, kept on air once started
+            return;
+        }
+        mWaiting.add(set);
+        startNextWaitingSet();
+    }
+
+    @GuardedBy("this")
+    private void disable(LogicalSet set) {
+        if (!set.mEnabled) {
+            return;
+        }
+        // A pending start is stopped once it completes
+        set.mEnabled = false;
+        mWaiting.remove(set);
+        if (set.mInstanceId != NO_INSTANCE) {
+            releaseInstance(set);
+        }
+        set.mOnAirBudgetMillis = 0;
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(set.mId);
+        if (stats != null) {
+            stats.recordMultiplexedEnabled(false, SystemClock.elapsedRealtime());
+        }
+        startNextWaitingSet();
+    }
+
+    // Stops the instance of a set, freeing it for the sets waiting
+    @GuardedBy("this")
+    private void releaseInstance(LogicalSet set) {
+        mHandler.removeCallbacks(set.mSliceEnd);
+        if (set.mOnAirBudgetMillis > 0) {
+            mHandler.removeCallbacks(set.mEventsEnd);
+            long onAirMillis = SystemClock.uptimeMillis() - set.mOnAirSinceMillis;
+            set.mOnAirBudgetMillis = Math.max(set.mOnAirBudgetMillis - onAirMillis, 1);
+        }
+        mSetsByInstance.remove(set.mInstanceId);
+        mNativeInterface.stopAdvertisingSet(set.mInstanceId);
+        set.mInstanceId = NO_INSTANCE;
+        mInstancesExhausted = false;
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(set.mId);
+        if (stats != null) {
+            stats.recordOnAir(false, SystemClock.elapsedRealtime());
+        }
+    }
+
+    @GuardedBy("this")
+    private void startNextWaitingSet() {
+        if (mWaiting.isEmpty()) {
+            // Every enabled set has an instance
+            mRotating = false;
+            return;
+        }
+        if (mStarting != null || mInstancesExhausted) {
+            return;
+        }
+        LogicalSet set = mWaiting.poll();
+        set.mRegId = AdvertiseManager.newRegistrationId();
+        mStarting = set;
+        if (DBG) {
+            Log.d(TAG, "Starting logical set " + set.mId + ", reg_id=" + set.mRegId);
+        }
+        mNativeInterface.startAdvertisingSet(
+                set.mParameters,
+                set.mAdvertiseData,
+                set.mScanResponse,
+                null,
+                new byte[0],
+                0,
+                0,
+                set.mRegId,
+                0);
+    }
+
+    // Counts the time on air of a set enabled for a number of advertising events
+    @GuardedBy("this")
+    private void startOnAirBudget(LogicalSet set) {
+        if (set.mOnAirBudgetMillis <= 0) {
+            return;
+        }
+        set.mOnAirSinceMillis = SystemClock.uptimeMillis();
+        mHandler.postDelayed(set.mEventsEnd, set.mOnAirBudgetMillis);
+    }
+
+    @GuardedBy("this")
+    private void scheduleSliceEnd(LogicalSet set) {
+        mHandler.removeCallbacks(set.mSliceEnd);
+        mHandler.postDelayed(set.mSliceEnd, getSliceMillis(set.mParameters));
+    }
+
+    private synchronized void onSliceEnd(LogicalSet set) {
+        if (set.mInstanceId == NO_INSTANCE || !mRotating || mWaiting.isEmpty()) {
+            return;
+        }
+        if (DBG) {
+            Log.d(TAG, "End of the slice of logical set " + set.mId);
+        }
+        releaseInstance(set);
+        mWaiting.add(set);
+        startNextWaitingSet();
+    }
+
+    private synchronized void onDurationEnd(LogicalSet set) {
+        if (!mSets.containsKey(set.mId)) {
+            return;
+        }
+        mHandler.removeCallbacks(set.mDurationEnd);
+        mHandler.removeCallbacks(set.mEventsEnd);
+        disable(set);
+        sendCallback(set, callback -> callback.onAdvertisingEnabled(set.mId, false, 0));
+    }
+
+    private static void sendCallback(LogicalSet set, CallbackCall call) {
+        try {
+            call.run(set.mCallback);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to callback logical set " + set.mId, e);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.SparseArray;
 
 import androidx.annotation.VisibleForTesting;
@@ -104,6 +105,14 @@ public class AppAdvertiseStats {
     public ArrayList<AppAdvertiserRecord> mAdvertiserRecords =
             new ArrayList<AppAdvertiserRecord>();
 
+    // Time slicing of a set multiplexed by AdvertisingSetMultiplexer, in the elapsedRealtime base
+    private boolean mMultiplexed = false;
+    private long mMultiplexedEnabledMillis = 0;
+    private long mMultiplexedEnabledSince = -1;
+    private long mOnAirMillis = 0;
+    private long mOnAirSince = -1;
+    private int mSliceCount = 0;
+
     @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
     public AppAdvertiseStats(int appUid, int id, String name, ContextMap map, GattService service) {
         this.mAppUid = appUid;
@@ -296,6 +305,48 @@ public class AppAdvertiseStats {
         this.mId = id;
     }
 
+    /** Records that a multiplexed set was enabled or disabled. */
+    void recordMultiplexedEnabled(boolean enabled, long nowMillis) {
+        mMultiplexed = true;
+        if (enabled && mMultiplexedEnabledSince < 0) {
+            mMultiplexedEnabledSince = nowMillis;
+        } else if (!enabled && mMultiplexedEnabledSince >= 0) {
+            mMultiplexedEnabledMillis += nowMillis - mMultiplexedEnabledSince;
+            mMultiplexedEnabledSince = -1;
+        }
+    }
+
+    /** Records that a multiplexed set got or lost an advertising instance of the controller. */
+    void recordOnAir(boolean onAir, long nowMillis) {
+        if (onAir && mOnAirSince < 0) {
+            mOnAirSince = nowMillis;
+            mSliceCount++;
+        } else if (!onAir && mOnAirSince >= 0) {
+            mOnAirMillis += nowMillis - mOnAirSince;
+            mOnAirSince = -1;
+        }
+    }
+
+    /**
+     * @return the percentage of the time during which a multiplexed set was enabled that it spent
+     *     on air, or -1 if the set is not multiplexed or was never enabled
+     */
+    @VisibleForTesting
+    int getDutyCyclePercent(long nowMillis) {
+        long enabledMillis = mMultiplexedEnabledMillis;
+        if (mMultiplexedEnabledSince >= 0) {
+            enabledMillis += nowMillis - mMultiplexedEnabledSince;
+        }
+        long onAirMillis = mOnAirMillis;
+        if (mOnAirSince >= 0) {
+            onAirMillis += nowMillis - mOnAirSince;
+        }
+        if (!mMultiplexed || enabledMillis <= 0) {
+            return -1;
+        }
+        return (int) Math.min(100, onAirMillis * 100 / enabledMillis);
+    }
+
     private static void recordAdvertiseDurationCount(Duration duration, boolean isConnectable,
             boolean inPeriodic) {
         if (duration.compareTo(Duration.ofMinutes(1)) < 0) {
@@ -467,6 +518,14 @@ public class AppAdvertiseStats {
             dumpAppAdvertiserData(sb, stats.mPeriodicAdvertisingData);
         }
 
+        if (stats.mMultiplexed) {
+            int dutyCycle = stats.getDutyCyclePercent(SystemClock.elapsedRealtime());
+            sb.append("\n      └Multiplexed Duty Cycle(%)                        : "
+                    + (dutyCycle < 0 ? "n/a" : dutyCycle));
+            sb.append("\n        └Slices on air                                  : "
+                    + stats.mSliceCount);
+        }
+
         sb.append("\n");
     }
 
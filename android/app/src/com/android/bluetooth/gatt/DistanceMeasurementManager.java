@@ -25,6 +25,8 @@ import android.bluetooth.le.DistanceMeasurementResult;
 import android.bluetooth.le.IDistanceMeasurementCallback;
 import android.os.HandlerThread;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
@@ -48,11 +50,19 @@ public class DistanceMeasurementManager {
     private static final int RSSI_FREQUENCY_MEDIUM = 1000;
     private static final int RSSI_FREQUENCY_HIGH = 500;
 
+    // Filter of the RSSI based distances: "kalman", "ema", or none by default
+    private static final String RSSI_FILTER_PROPERTY =
+            "bluetooth.distance_measurement.rssi_filter";
+
     private final AdapterService mAdapterService;
     private HandlerThread mHandlerThread;
     DistanceMeasurementNativeInterface mDistanceMeasurementNativeInterface;
     private ConcurrentHashMap<String, HashSet<DistanceMeasurementTracker>> mRssiTrackers =
             new ConcurrentHashMap<>();
+    // Distance estimated for each device, from the RSSI read for all its trackers
+    private ConcurrentHashMap<String, RssiDistanceEstimator> mRssiEstimators =
+            new ConcurrentHashMap<>();
+    @VisibleForTesting int mRssiFilter;
 
     /**
      * Constructor of {@link DistanceMeasurementManager}.
@@ -65,6 +75,8 @@ public class DistanceMeasurementManager {
         mHandlerThread.start();
         mDistanceMeasurementNativeInterface = DistanceMeasurementNativeInterface.getInstance();
         mDistanceMeasurementNativeInterface.init(this);
+        mRssiFilter = RssiDistanceEstimator.parseFilter(
+                SystemProperties.get(RSSI_FILTER_PROPERTY, ""));
     }
 
     void cleanup() {
@@ -117,9 +129,22 @@ public class DistanceMeasurementManager {
             Log.w(TAG, "Already registered");
             return;
         }
+        // The RSSI of the device is read once for all its trackers, as often as the most
+        // frequent one needs
+        int interval = getRssiInterval(set);
+        boolean readLoopStarted = set.stream().anyMatch(t -> t.mStarted);
         set.add(tracker);
-        mDistanceMeasurementNativeInterface.startDistanceMeasurement(tracker.mIdentityAddress,
-                tracker.mFrequency, DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        if (interval == -1) {
+            mRssiEstimators.put(tracker.mIdentityAddress, new RssiDistanceEstimator(mRssiFilter));
+        }
+        if (interval == -1 || tracker.mFrequency < interval) {
+            mDistanceMeasurementNativeInterface.startDistanceMeasurement(tracker.mIdentityAddress,
+                    tracker.mFrequency, DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        }
+        if (readLoopStarted) {
+            // No start event comes for a read loop already running
+            startTracker(tracker);
+        }
     }
 
     int stopDistanceMeasurement(UUID uuid, BluetoothDevice device, int method,
@@ -148,6 +173,7 @@ public class DistanceMeasurementManager {
             return BluetoothStatusCodes.ERROR_DISTANCE_MEASUREMENT_INTERNAL;
         }
 
+        int interval = getRssiInterval(set);
         for (DistanceMeasurementTracker tracker : set) {
             if (tracker.equals(uuid, identityAddress)) {
                 int reason = timeout ? BluetoothStatusCodes.ERROR_TIMEOUT :
@@ -162,12 +188,42 @@ public class DistanceMeasurementManager {
         if (set.isEmpty()) {
             logd("no rssi tracker");
             mRssiTrackers.remove(identityAddress);
+            mRssiEstimators.remove(identityAddress);
             mDistanceMeasurementNativeInterface.stopDistanceMeasurement(identityAddress,
                     DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        } else if (getRssiInterval(set) > interval) {
+            // Read the RSSI no more often than the remaining trackers need
+            mDistanceMeasurementNativeInterface.startDistanceMeasurement(identityAddress,
+                    getRssiInterval(set),
+                    DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
         }
         return BluetoothStatusCodes.SUCCESS;
     }
 
+    /**
+     * Returns the interval in ms at which the RSSI must be read for a set of trackers, or -1 if
+     * the set is empty
+     */
+    private static int getRssiInterval(HashSet<DistanceMeasurementTracker> set) {
+        int interval = -1;
+        for (DistanceMeasurementTracker tracker : set) {
+            if (interval == -1 || tracker.mFrequency < interval) {
+                interval = tracker.mFrequency;
+            }
+        }
+        return interval;
+    }
+
+    private void startTracker(DistanceMeasurementTracker tracker) {
+        try {
+            tracker.mStarted = true;
+            tracker.mCallback.onStarted(tracker.mDevice);
+            tracker.startTimer(mHandlerThread.getLooper());
+        } catch (RemoteException e) {
+            Log.e(TAG, "Exception: " + e);
+        }
+    }
+
     private void invokeStartFail(IDistanceMeasurementCallback callback, BluetoothDevice device,
             int reason) {
         try {
@@ -228,14 +284,8 @@ public class DistanceMeasurementManager {
             return;
         }
         for (DistanceMeasurementTracker tracker : set) {
-            try {
-                if (!tracker.mStarted) {
-                    tracker.mStarted = true;
-                    tracker.mCallback.onStarted(tracker.mDevice);
-                    tracker.startTimer(mHandlerThread.getLooper());
-                }
-            } catch (RemoteException e) {
-                Log.e(TAG, "Exception: " + e);
+            if (!tracker.mStarted) {
+                startTracker(tracker);
             }
         }
     }
@@ -319,9 +369,19 @@ public class DistanceMeasurementManager {
             Log.w(TAG, "Can't find rssi tracker");
             return;
         }
+        RssiDistanceEstimator estimator = mRssiEstimators.get(address);
+        if (estimator != null) {
+            result = estimator.update(result);
+            if (result == null) {
+                logd("handleRssiResult: outlier rejected for "
+                        + BluetoothUtils.toAnonymizedAddress(address));
+                return;
+            }
+        }
+        long nowMillis = SystemClock.elapsedRealtime();
         for (DistanceMeasurementTracker tracker : set) {
             try {
-                if (!tracker.mStarted) {
+                if (!tracker.mStarted || !tracker.shouldReport(nowMillis)) {
                     continue;
                 }
                 tracker.mCallback.onResult(tracker.mDevice, result);
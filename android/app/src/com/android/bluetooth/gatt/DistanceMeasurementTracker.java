@@ -33,6 +33,9 @@ import java.util.UUID;
 class DistanceMeasurementTracker {
     private static final String TAG = "DistanceMeasurementTracker";
 
+    // A result this early, in percent of the report frequency, is still reported
+    private static final int REPORT_JITTER_PERCENT = 10;
+
     final DistanceMeasurementManager mManager;
     final BluetoothDevice mDevice;
     final String mIdentityAddress;
@@ -43,6 +46,8 @@ class DistanceMeasurementTracker {
     final IDistanceMeasurementCallback mCallback;
     boolean mStarted = false;
     private Handler mHandler;
+    // Time the last result was reported at, in ms since boot
+    private long mLastReportMillis = -1;
 
     DistanceMeasurementTracker(DistanceMeasurementManager manager, DistanceMeasurementParams params,
             String identityAddress, UUID uuid, int frequency,
@@ -67,6 +72,19 @@ class DistanceMeasurementTracker {
         }, mDuration * 1000L);
     }
 
+    /**
+     * Returns whether a result can be reported at the given time without going over the report
+     * frequency of the app, and if so records it as reported.
+     */
+    boolean shouldReport(long nowMillis) {
+        if (mLastReportMillis >= 0 && nowMillis - mLastReportMillis
+                < mFrequency * (100 - REPORT_JITTER_PERCENT) / 100) {
+            return false;
+        }
+        mLastReportMillis = nowMillis;
+        return true;
+    }
+
     void cancelTimer() {
         if (mHandler != null) {
             mHandler.removeCallbacksAndMessages(null);
@@ -332,6 +332,10 @@ public class GattService extends ProfileService {
 
     private GattNativeInterface mNativeInterface;
 
+    // Identifies the calls of InProcessGattClient, by reference, see
+    // checkClientPermissionForDataDelivery
+    private AttributionSource mInProcessAttributionSource;
+
     @Override
     protected IProfileServiceBinder initBinder() {
         return new BluetoothGattBinder(this);
@@ -346,6 +350,8 @@ public class GattService extends ProfileService {
         Settings.Global.putInt(
                 getContentResolver(), "bluetooth_sanitized_exposure_notification_supported", 1);
 
+        mInProcessAttributionSource =
+                new AttributionSource.Builder(getAttributionSource()).build();
         mNativeInterface = GattObjectsFactory.getInstance().getNativeInterface();
         mNativeInterface.init(this);
         mAdapterService = AdapterService.getAdapterService();
@@ -2651,7 +2657,8 @@ public class GattService extends ProfileService {
             Log.d(TAG, "onScanFilterEnableDisabled() - clientIf=" + clientIf + ", status=" + status
                     + ", action=" + action);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.callbackDone(
+                ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE, clientIf, status);
     }
 
     void onScanFilterParamsConfigured(int action, int status, int clientIf, int availableSpace) {
@@ -2660,7 +2667,8 @@ public class GattService extends ProfileService {
                     "onScanFilterParamsConfigured() - clientIf=" + clientIf + ", status=" + status
                             + ", action=" + action + ", availableSpace=" + availableSpace);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.callbackDone(
+                ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS, clientIf, status);
     }
 
     void onScanFilterConfig(int action, int status, int clientIf, int filterType,
@@ -2671,7 +2679,8 @@ public class GattService extends ProfileService {
                     + availableSpace);
         }
 
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.callbackDone(
+                ScanCommandQueue.COMPLETION_SCAN_FILTER_CONFIG, clientIf, status);
     }
 
     void onBatchScanStorageConfigured(int status, int clientIf) {
@@ -2679,7 +2688,8 @@ public class GattService extends ProfileService {
             Log.d(TAG,
                     "onBatchScanStorageConfigured() - clientIf=" + clientIf + ", status=" + status);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.callbackDone(
+                ScanCommandQueue.COMPLETION_BATCH_SCAN_STORAGE, clientIf, status);
     }
 
     // TODO: split into two different callbacks : onBatchScanStarted and onBatchScanStopped.
@@ -2688,7 +2698,8 @@ public class GattService extends ProfileService {
             Log.d(TAG, "onBatchScanStartStopped() - clientIf=" + clientIf + ", status=" + status
                     + ", startStopAction=" + startStopAction);
         }
-        mScanManager.callbackDone(clientIf, status);
+        mScanManager.callbackDone(
+                ScanCommandQueue.COMPLETION_BATCH_SCAN_START_STOP, clientIf, status);
     }
 
     ScanClient findBatchScanClientById(int scannerId) {
@@ -2703,7 +2714,12 @@ public class GattService extends ProfileService {
     void onBatchScanReports(int status, int scannerId, int reportType, int numRecords,
             byte[] recordData) throws RemoteException {
         // When in testing mode, ignore all real-world events
-        if (isTestModeEnabled()) return;
+        if (isTestModeEnabled()) {
+            // The read command still completes
+            mScanManager.callbackDone(
+                    ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, scannerId, status);
+            return;
+        }
 
         AppScanStats.recordBatchScanRadioResultCount(numRecords);
         onBatchScanReportsInternal(status, scannerId, reportType, numRecords, recordData);
@@ -2716,6 +2732,17 @@ public class GattService extends ProfileService {
                     + ", reportType=" + reportType + ", numRecords=" + numRecords);
         }
 
+        try {
+            deliverBatchScanReports(scannerId, reportType, numRecords, recordData);
+        } finally {
+            // The read command completes whether or not the reports are delivered
+            mScanManager.callbackDone(
+                    ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, scannerId, status);
+        }
+    }
+
+    private void deliverBatchScanReports(int scannerId, int reportType, int numRecords,
+            byte[] recordData) throws RemoteException {
         Set<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
         if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
             // We only support single client for truncated mode.
@@ -2767,7 +2794,6 @@ public class GattService extends ProfileService {
                 deliverBatchScan(client, results);
             }
         }
-        mScanManager.callbackDone(scannerId, status);
     }
 
     private void sendBatchScanResults(ScannerMap.App app, ScanClient client,
@@ -3608,11 +3634,30 @@ public class GattService extends ProfileService {
      * GATT Service functions - CLIENT
      *************************************************************************/
 
+    /**
+     * Returns the attribution source of the {@link InProcessGattClient} calls: as the profiles of
+     * the Bluetooth process hold the permissions, they are not checked with the system server for
+     * each call.
+     */
+    AttributionSource getInProcessAttributionSource() {
+        return mInProcessAttributionSource;
+    }
+
+    // The in-process attribution source is never unparcelled from a binder call, so it cannot be
+    // forged by an app
+    private boolean checkClientPermissionForDataDelivery(AttributionSource attributionSource,
+            String message) {
+        if (attributionSource != null && attributionSource == mInProcessAttributionSource) {
+            return true;
+        }
+        return Utils.checkConnectPermissionForDataDelivery(this, attributionSource, message);
+    }
+
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void registerClient(UUID uuid, IBluetoothGattCallback callback, boolean eatt_support,
             AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService registerClient")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService registerClient")) {
             return;
         }
 
@@ -3626,8 +3671,8 @@ public class GattService extends ProfileService {
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void unregisterClient(int clientIf, AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService unregisterClient")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService unregisterClient")) {
             return;
         }
 
@@ -3641,8 +3686,8 @@ public class GattService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void clientConnect(int clientIf, String address, int addressType, boolean isDirect,
             int transport, boolean opportunistic, int phy, AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService clientConnect")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService clientConnect")) {
             return;
         }
 
@@ -3664,8 +3709,8 @@ public class GattService extends ProfileService {
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void clientDisconnect(int clientIf, String address, AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService clientDisconnect")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService clientDisconnect")) {
             return;
         }
 
@@ -3774,8 +3819,8 @@ public class GattService extends ProfileService {
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void discoverServices(int clientIf, String address, AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService discoverServices")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService discoverServices")) {
             return;
         }
 
@@ -3811,8 +3856,8 @@ public class GattService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void readCharacteristic(int clientIf, String address, int handle, int authReq,
             AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService readCharacteristic")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService readCharacteristic")) {
             return;
         }
 
@@ -3879,8 +3924,8 @@ public class GattService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     int writeCharacteristic(int clientIf, String address, int handle, int writeType, int authReq,
             byte[] value, AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService writeCharacteristic")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService writeCharacteristic")) {
             return BluetoothStatusCodes.ERROR_MISSING_BLUETOOTH_CONNECT_PERMISSION;
         }
 
@@ -3923,8 +3968,8 @@ public class GattService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void readDescriptor(int clientIf, String address, int handle, int authReq,
             AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService readDescriptor")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService readDescriptor")) {
             return;
         }
 
@@ -3956,8 +4001,8 @@ public class GattService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     int writeDescriptor(int clientIf, String address, int handle, int authReq, byte[] value,
             AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService writeDescriptor")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService writeDescriptor")) {
             return BluetoothStatusCodes.ERROR_MISSING_BLUETOOTH_CONNECT_PERMISSION;
         }
         if (VDBG) {
@@ -4010,8 +4055,8 @@ public class GattService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void registerForNotification(int clientIf, String address, int handle, boolean enable,
             AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService registerForNotification")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService registerForNotification")) {
             return;
         }
 
@@ -4055,8 +4100,8 @@ public class GattService extends ProfileService {
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
     void configureMTU(int clientIf, String address, int mtu, AttributionSource attributionSource) {
-        if (!Utils.checkConnectPermissionForDataDelivery(
-                this, attributionSource, "GattService configureMTU")) {
+        if (!checkClientPermissionForDataDelivery(
+                attributionSource, "GattService configureMTU")) {
             return;
         }
 
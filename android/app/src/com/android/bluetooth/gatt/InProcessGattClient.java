@@ -0,0 +1,633 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+import android.bluetooth.IBluetoothGattCallback;
+import android.os.Handler;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import com.android.bluetooth.btservice.AdapterService;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A GATT client for the profiles running in the Bluetooth process, such as BAS and BASS.
+ *
+ * <p>It has the same semantics as {@link BluetoothGatt}, but calls {@link GattService} directly
+ * instead of going through its binder: there is no {@code SynchronousResultReceiver} per call, and
+ * no permission check with the system server, as the profiles hold the Bluetooth permissions.
+ *
+ * <p>The callbacks are invoked on the given handler, or on the thread of the stack event if it is
+ * null, as for {@link BluetoothGatt}. They are given a null {@link BluetoothGatt}: the profiles
+ * must use this client instead.
+ */
+public class InProcessGattClient {
+    private static final String TAG = "InProcessGattClient";
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final boolean VDBG = GattServiceConfig.VDBG;
+
+    private static final String ENABLED_PROPERTY = "bluetooth.gatt.in_process_client.enabled";
+
+    // Authentication requirements and retries, as in BluetoothGatt
+    private static final int AUTHENTICATION_NONE = 0;
+    private static final int AUTHENTICATION_NO_MITM = 1;
+    private static final int AUTHENTICATION_MITM = 2;
+    private static final int AUTH_RETRY_STATE_IDLE = 0;
+    private static final int AUTH_RETRY_STATE_NO_MITM = 1;
+    private static final int AUTH_RETRY_STATE_MITM = 2;
+    private static final int WRITE_CHARACTERISTIC_MAX_RETRIES = 5;
+    private static final int WRITE_CHARACTERISTIC_TIME_TO_WAIT = 10; // milliseconds
+
+    private final GattService mService;
+    private final BluetoothDevice mDevice;
+    private final boolean mAutoConnect;
+    private final int mTransport;
+    private final boolean mOpportunistic;
+    private final int mPhy;
+    private final Handler mHandler;
+    private final IBluetoothGattCallback mGattCallback = new GattCallback();
+
+    private final Object mStateLock = new Object();
+    @GuardedBy("mStateLock")
+    private BluetoothGattCallback mCallback;
+    private volatile int mClientIf;
+    @GuardedBy("mServices")
+    private final List<BluetoothGattService> mServices = new ArrayList<>();
+
+    private final Object mDeviceBusyLock = new Object();
+    @GuardedBy("mDeviceBusyLock")
+    private boolean mDeviceBusy;
+    private int mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+
+    /** Returns whether the profiles use this client, instead of {@link BluetoothGatt}. */
+    public static boolean isEnabled() {
+        return SystemProperties.getBoolean(ENABLED_PROPERTY, false);
+    }
+
+    /**
+     * Connects to the GATT server of a device, as {@link BluetoothDevice#connectGatt}.
+     *
+     * @return the client, or null if the GATT service is not running
+     */
+    public static InProcessGattClient connect(BluetoothDevice device, boolean autoConnect,
+            int transport, boolean opportunistic, int phy, BluetoothGattCallback callback,
+            Handler handler) {
+        AdapterService adapterService = AdapterService.getAdapterService();
+        GattService service = adapterService == null ? null : adapterService.getGattService();
+        if (service == null || !service.isAvailable()) {
+            Log.e(TAG, "connect() - GATT service not available");
+            return null;
+        }
+        InProcessGattClient client = new InProcessGattClient(service, device, autoConnect,
+                transport, opportunistic, phy, callback, handler);
+        client.registerClient();
+        return client;
+    }
+
+    @VisibleForTesting
+    InProcessGattClient(GattService service, BluetoothDevice device, boolean autoConnect,
+            int transport, boolean opportunistic, int phy, BluetoothGattCallback callback,
+            Handler handler) {
+        mService = service;
+        mDevice = device;
+        mAutoConnect = autoConnect;
+        mTransport = transport;
+        mOpportunistic = opportunistic;
+        mPhy = phy;
+        mCallback = callback;
+        mHandler = handler;
+    }
+
+    @VisibleForTesting
+    IBluetoothGattCallback getGattCallback() {
+        return mGattCallback;
+    }
+
+    private void registerClient() {
+        if (DBG) Log.d(TAG, "registerClient() - device: " + mDevice);
+        mService.registerClient(UUID.randomUUID(), mGattCallback, /*eatt_support=*/false,
+                mService.getInProcessAttributionSource());
+    }
+
+    /** See {@link BluetoothGatt#close()}. */
+    public void close() {
+        if (DBG) Log.d(TAG, "close() - device: " + mDevice);
+        synchronized (mStateLock) {
+            mCallback = null;
+        }
+        // Unregistered once registered otherwise, see onClientRegistered
+        int clientIf = mClientIf;
+        if (clientIf != 0) {
+            mService.unregisterClient(clientIf, mService.getInProcessAttributionSource());
+            mClientIf = 0;
+        }
+    }
+
+    /** See {@link BluetoothGatt#disconnect()}. */
+    public void disconnect() {
+        if (DBG) Log.d(TAG, "disconnect() - device: " + mDevice);
+        if (mClientIf == 0) return;
+        mService.clientDisconnect(mClientIf, mDevice.getAddress(),
+                mService.getInProcessAttributionSource());
+    }
+
+    /** See {@link BluetoothGatt#discoverServices()}. */
+    public boolean discoverServices() {
+        if (DBG) Log.d(TAG, "discoverServices() - device: " + mDevice);
+        if (mClientIf == 0) return false;
+        synchronized (mServices) {
+            mServices.clear();
+        }
+        mService.discoverServices(mClientIf, mDevice.getAddress(),
+                mService.getInProcessAttributionSource());
+        return true;
+    }
+
+    /** See {@link BluetoothGatt#getServices()}. */
+    public List<BluetoothGattService> getServices() {
+        synchronized (mServices) {
+            return new ArrayList<>(mServices);
+        }
+    }
+
+    /** See {@link BluetoothGatt#getService(UUID)}. */
+    public BluetoothGattService getService(UUID uuid) {
+        synchronized (mServices) {
+            for (BluetoothGattService service : mServices) {
+                if (service.getUuid().equals(uuid)) {
+                    return service;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** See {@link BluetoothGatt#readCharacteristic(BluetoothGattCharacteristic)}. */
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
+            return false;
+        }
+        if (VDBG) Log.d(TAG, "readCharacteristic() - uuid: " + characteristic.getUuid());
+        if (mClientIf == 0 || !setDeviceBusy()) return false;
+
+        mService.readCharacteristic(mClientIf, mDevice.getAddress(),
+                characteristic.getInstanceId(), AUTHENTICATION_NONE,
+                mService.getInProcessAttributionSource());
+        return true;
+    }
+
+    /**
+     * See {@link BluetoothGatt#writeCharacteristic(BluetoothGattCharacteristic)}: writes the value
+     * of the characteristic, with its write type.
+     */
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        if (characteristic.getValue() == null) {
+            return false;
+        }
+        return writeCharacteristic(characteristic, characteristic.getValue(),
+                characteristic.getWriteType()) == BluetoothStatusCodes.SUCCESS;
+    }
+
+    /** See {@link BluetoothGatt#writeCharacteristic(BluetoothGattCharacteristic, byte[], int)}. */
+    public int writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value,
+            int writeType) {
+        if (VDBG) Log.d(TAG, "writeCharacteristic() - uuid: " + characteristic.getUuid());
+        if ((characteristic.getProperties() & (BluetoothGattCharacteristic.PROPERTY_WRITE
+                | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) == 0) {
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_NOT_ALLOWED;
+        }
+        if (mClientIf == 0) {
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        }
+        if (!setDeviceBusy()) {
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+        }
+
+        int requestStatus = writeCharacteristic(characteristic.getInstanceId(), writeType,
+                AUTHENTICATION_NONE, value);
+        if (requestStatus != BluetoothStatusCodes.SUCCESS) {
+            clearDeviceBusy();
+        }
+        return requestStatus;
+    }
+
+    private int writeCharacteristic(int handle, int writeType, int authReq, byte[] value) {
+        int requestStatus = BluetoothStatusCodes.ERROR_UNKNOWN;
+        for (int i = 0; i < WRITE_CHARACTERISTIC_MAX_RETRIES; i++) {
+            requestStatus = mService.writeCharacteristic(mClientIf, mDevice.getAddress(), handle,
+                    writeType, authReq, value, mService.getInProcessAttributionSource());
+            if (requestStatus != BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
+                break;
+            }
+            try {
+                Thread.sleep(WRITE_CHARACTERISTIC_TIME_TO_WAIT);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "", e);
+            }
+        }
+        return requestStatus;
+    }
+
+    /** See {@link BluetoothGatt#readDescriptor(BluetoothGattDescriptor)}. */
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        if (VDBG) Log.d(TAG, "readDescriptor() - uuid: " + descriptor.getUuid());
+        if (mClientIf == 0 || !setDeviceBusy()) return false;
+
+        mService.readDescriptor(mClientIf, mDevice.getAddress(), descriptor.getInstanceId(),
+                AUTHENTICATION_NONE, mService.getInProcessAttributionSource());
+        return true;
+    }
+
+    /**
+     * See {@link BluetoothGatt#writeDescriptor(BluetoothGattDescriptor)}: writes the value of the
+     * descriptor.
+     */
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        if (descriptor.getValue() == null) {
+            return false;
+        }
+        return writeDescriptor(descriptor, descriptor.getValue()) == BluetoothStatusCodes.SUCCESS;
+    }
+
+    /** See {@link BluetoothGatt#writeDescriptor(BluetoothGattDescriptor, byte[])}. */
+    public int writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value) {
+        if (VDBG) Log.d(TAG, "writeDescriptor() - uuid: " + descriptor.getUuid());
+        if (mClientIf == 0) {
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        }
+        if (!setDeviceBusy()) {
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+        }
+
+        int requestStatus = mService.writeDescriptor(mClientIf, mDevice.getAddress(),
+                descriptor.getInstanceId(), AUTHENTICATION_NONE, value,
+                mService.getInProcessAttributionSource());
+        if (requestStatus != BluetoothStatusCodes.SUCCESS) {
+            clearDeviceBusy();
+        }
+        return requestStatus;
+    }
+
+    /** See {@link BluetoothGatt#setCharacteristicNotification}. */
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+            boolean enable) {
+        if (DBG) {
+            Log.d(TAG, "setCharacteristicNotification() - uuid: " + characteristic.getUuid()
+                    + " enable: " + enable);
+        }
+        if (mClientIf == 0) return false;
+
+        mService.registerForNotification(mClientIf, mDevice.getAddress(),
+                characteristic.getInstanceId(), enable, mService.getInProcessAttributionSource());
+        return true;
+    }
+
+    /** See {@link BluetoothGatt#requestMtu(int)}. */
+    public boolean requestMtu(int mtu) {
+        if (DBG) Log.d(TAG, "requestMtu() - device: " + mDevice + " mtu: " + mtu);
+        if (mClientIf == 0) return false;
+
+        mService.configureMTU(mClientIf, mDevice.getAddress(), mtu,
+                mService.getInProcessAttributionSource());
+        return true;
+    }
+
+    private boolean setDeviceBusy() {
+        synchronized (mDeviceBusyLock) {
+            if (mDeviceBusy) return false;
+            mDeviceBusy = true;
+            return true;
+        }
+    }
+
+    private void clearDeviceBusy() {
+        synchronized (mDeviceBusyLock) {
+            mDeviceBusy = false;
+        }
+    }
+
+    private BluetoothGattCharacteristic getCharacteristicById(int handle) {
+        synchronized (mServices) {
+            for (BluetoothGattService service : mServices) {
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    if (characteristic.getInstanceId() == handle) {
+                        return characteristic;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private BluetoothGattDescriptor getDescriptorById(int handle) {
+        synchronized (mServices) {
+            for (BluetoothGattService service : mServices) {
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                        if (descriptor.getInstanceId() == handle) {
+                            return descriptor;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Returns the authentication to retry a request with, or AUTHENTICATION_NONE if it must not be
+    // retried, as in BluetoothGatt.
+    private int getAuthRetry(int status) {
+        if ((status != BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION
+                && status != BluetoothGatt.GATT_INSUFFICIENT_ENCRYPTION)
+                || mAuthRetryState == AUTH_RETRY_STATE_MITM) {
+            mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+            return AUTHENTICATION_NONE;
+        }
+        int authReq = mAuthRetryState == AUTH_RETRY_STATE_IDLE
+                ? AUTHENTICATION_NO_MITM : AUTHENTICATION_MITM;
+        mAuthRetryState++;
+        return authReq;
+    }
+
+    private interface CallbackRunnable {
+        void run(BluetoothGattCallback callback);
+    }
+
+    private void runCallback(CallbackRunnable runnable) {
+        Runnable run = () -> {
+            BluetoothGattCallback callback;
+            synchronized (mStateLock) {
+                callback = mCallback;
+            }
+            if (callback != null) {
+                runnable.run(callback);
+            }
+        };
+        if (mHandler != null) {
+            mHandler.post(run);
+        } else {
+            run.run();
+        }
+    }
+
+    // Called directly by GattService, as the client is a local binder
+    private class GattCallback extends IBluetoothGattCallback.Stub {
+        @Override
+        public void onClientRegistered(int status, int clientIf) {
+            if (DBG) {
+                Log.d(TAG, "onClientRegistered() - status=" + status + " clientIf=" + clientIf);
+            }
+            boolean closed;
+            synchronized (mStateLock) {
+                closed = mCallback == null;
+            }
+            if (closed) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    mService.unregisterClient(clientIf, mService.getInProcessAttributionSource());
+                }
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                runCallback(callback -> callback.onConnectionStateChange(null,
+                        BluetoothGatt.GATT_FAILURE, BluetoothProfile.STATE_DISCONNECTED));
+                return;
+            }
+            mClientIf = clientIf;
+            mService.clientConnect(clientIf, mDevice.getAddress(), mDevice.getAddressType(),
+                    !mAutoConnect, mTransport, mOpportunistic, mPhy,
+                    mService.getInProcessAttributionSource());
+        }
+
+        @Override
+        public void onClientConnectionState(int status, int clientIf, boolean connected,
+                String address) {
+            if (DBG) {
+                Log.d(TAG, "onClientConnectionState() - status=" + status + " clientIf="
+                        + clientIf + " device=" + address);
+            }
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            int profileState = connected
+                    ? BluetoothProfile.STATE_CONNECTED : BluetoothProfile.STATE_DISCONNECTED;
+            runCallback(callback -> callback.onConnectionStateChange(null, status, profileState));
+            clearDeviceBusy();
+        }
+
+        @Override
+        public void onPhyUpdate(String address, int txPhy, int rxPhy, int status) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onPhyUpdate(null, txPhy, rxPhy, status));
+        }
+
+        @Override
+        public void onPhyRead(String address, int txPhy, int rxPhy, int status) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onPhyRead(null, txPhy, rxPhy, status));
+        }
+
+        @Override
+        public void onSearchComplete(String address, List<BluetoothGattService> services,
+                int status) {
+            if (DBG) Log.d(TAG, "onSearchComplete() - device=" + address + " status=" + status);
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            synchronized (mServices) {
+                mServices.addAll(services);
+            }
+            runCallback(callback -> callback.onServicesDiscovered(null, status));
+        }
+
+        @Override
+        public void onCharacteristicRead(String address, int status, int handle, byte[] value) {
+            if (VDBG) Log.d(TAG, "onCharacteristicRead() - handle=" + handle + " status=" + status);
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            int authReq = getAuthRetry(status);
+            if (authReq != AUTHENTICATION_NONE) {
+                mService.readCharacteristic(mClientIf, address, handle, authReq,
+                        mService.getInProcessAttributionSource());
+                return;
+            }
+            clearDeviceBusy();
+            BluetoothGattCharacteristic characteristic = getCharacteristicById(handle);
+            if (characteristic == null) {
+                Log.w(TAG, "onCharacteristicRead() - failed to find characteristic!");
+                return;
+            }
+            runCallback(callback -> {
+                if (status == BluetoothGatt.GATT_SUCCESS) characteristic.setValue(value);
+                callback.onCharacteristicRead(null, characteristic, value, status);
+            });
+        }
+
+        @Override
+        public void onCharacteristicWrite(String address, int status, int handle, byte[] value) {
+            if (VDBG) {
+                Log.d(TAG, "onCharacteristicWrite() - handle=" + handle + " status=" + status);
+            }
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            BluetoothGattCharacteristic characteristic = getCharacteristicById(handle);
+            if (characteristic == null) {
+                clearDeviceBusy();
+                return;
+            }
+            int authReq = getAuthRetry(status);
+            if (authReq != AUTHENTICATION_NONE && writeCharacteristic(handle,
+                    characteristic.getWriteType(), authReq, value)
+                    == BluetoothStatusCodes.SUCCESS) {
+                return;
+            }
+            clearDeviceBusy();
+            runCallback(callback -> callback.onCharacteristicWrite(null, characteristic, status));
+        }
+
+        @Override
+        public void onExecuteWrite(String address, int status) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            clearDeviceBusy();
+            runCallback(callback -> callback.onReliableWriteCompleted(null, status));
+        }
+
+        @Override
+        public void onDescriptorRead(String address, int status, int handle, byte[] value) {
+            if (VDBG) Log.d(TAG, "onDescriptorRead() - handle=" + handle + " status=" + status);
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            int authReq = getAuthRetry(status);
+            if (authReq != AUTHENTICATION_NONE) {
+                mService.readDescriptor(mClientIf, address, handle, authReq,
+                        mService.getInProcessAttributionSource());
+                return;
+            }
+            clearDeviceBusy();
+            BluetoothGattDescriptor descriptor = getDescriptorById(handle);
+            if (descriptor == null) {
+                return;
+            }
+            runCallback(callback -> {
+                if (status == BluetoothGatt.GATT_SUCCESS) descriptor.setValue(value);
+                callback.onDescriptorRead(null, descriptor, status, value);
+            });
+        }
+
+        @Override
+        public void onDescriptorWrite(String address, int status, int handle, byte[] value) {
+            if (VDBG) Log.d(TAG, "onDescriptorWrite() - handle=" + handle + " status=" + status);
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            int authReq = getAuthRetry(status);
+            if (authReq != AUTHENTICATION_NONE && mService.writeDescriptor(mClientIf, address,
+                    handle, authReq, value, mService.getInProcessAttributionSource())
+                    == BluetoothStatusCodes.SUCCESS) {
+                return;
+            }
+            clearDeviceBusy();
+            BluetoothGattDescriptor descriptor = getDescriptorById(handle);
+            if (descriptor == null) {
+                return;
+            }
+            runCallback(callback -> callback.onDescriptorWrite(null, descriptor, status));
+        }
+
+        @Override
+        public void onNotify(String address, int handle, byte[] value) {
+            if (VDBG) Log.d(TAG, "onNotify() - handle=" + handle);
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            BluetoothGattCharacteristic characteristic = getCharacteristicById(handle);
+            if (characteristic == null) {
+                return;
+            }
+            runCallback(callback -> {
+                characteristic.setValue(value);
+                callback.onCharacteristicChanged(null, characteristic, value);
+            });
+        }
+
+        @Override
+        public void onReadRemoteRssi(String address, int rssi, int status) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onReadRemoteRssi(null, rssi, status));
+        }
+
+        @Override
+        public void onConfigureMTU(String address, int mtu, int status) {
+            if (DBG) Log.d(TAG, "onConfigureMTU() - mtu=" + mtu + " status=" + status);
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onMtuChanged(null, mtu, status));
+        }
+
+        @Override
+        public void onConnectionUpdated(String address, int interval, int latency, int timeout,
+                int status) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onConnectionUpdated(null, interval, latency, timeout,
+                    status));
+        }
+
+        @Override
+        public void onServiceChanged(String address) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onServiceChanged(null));
+        }
+
+        @Override
+        public void onSubrateChange(String address, int subrateFactor, int latency, int contNum,
+                int timeout, int status) {
+            if (!address.equals(mDevice.getAddress())) {
+                return;
+            }
+            runCallback(callback -> callback.onSubrateChange(null, subrateFactor, latency,
+                    contNum, timeout, status));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.DistanceMeasurementResult;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Estimates the distance of a device from its successive RSSI based measurements, shared by all
+ * the trackers of the device.
+ *
+ * <p>The measurements are smoothed with a one dimensional Kalman filter, or with an exponential
+ * moving average, and the ones too far from the estimate are rejected as outliers. A run of
+ * {@link #MAX_CONSECUTIVE_OUTLIERS} outliers is taken as an actual move of the device, and
+ * restarts the estimation from the last measurement.
+ *
+ * <p>Not thread safe.
+ */
+class RssiDistanceEstimator {
+    static final int FILTER_NONE = 0;
+    static final int FILTER_EMA = 1;
+    static final int FILTER_KALMAN = 2;
+
+    @VisibleForTesting static final int MAX_CONSECUTIVE_OUTLIERS = 3;
+
+    // Weight of the last measurement in the moving average
+    private static final double EMA_ALPHA = 0.3;
+    // Variance added to the estimate between two measurements, in m^2
+    private static final double KALMAN_PROCESS_NOISE = 0.05;
+    // Measurements further than this many standard deviations from the estimate are outliers
+    private static final double OUTLIER_GATE = 3.0;
+    // Used when the measurement has no error, in meters
+    private static final double DEFAULT_ERROR_METERS = 1.0;
+
+    private final int mFilter;
+    private boolean mHasEstimate = false;
+    private double mMeters;
+    // Variance of the estimate, in m^2
+    private double mVariance;
+    private int mConsecutiveOutliers = 0;
+
+    RssiDistanceEstimator(int filter) {
+        mFilter = filter;
+    }
+
+    /**
+     * Parses the name of a filter, as set in the system properties.
+     *
+     * @return the filter, or {@link #FILTER_NONE} if the name is unknown
+     */
+    static int parseFilter(String name) {
+        switch (name) {
+            case "ema":
+                return FILTER_EMA;
+            case "kalman":
+                return FILTER_KALMAN;
+            default:
+                return FILTER_NONE;
+        }
+    }
+
+    /**
+     * Updates the estimate with a measurement.
+     *
+     * @return the new estimate, or null if the measurement is rejected as an outlier
+     */
+    DistanceMeasurementResult update(DistanceMeasurementResult measurement) {
+        if (mFilter == FILTER_NONE) {
+            return measurement;
+        }
+        double meters = measurement.getResultMeters();
+        double errorMeters = measurement.getErrorMeters();
+        if (Double.isNaN(errorMeters) || errorMeters <= 0) {
+            errorMeters = DEFAULT_ERROR_METERS;
+        }
+        double measurementVariance = errorMeters * errorMeters;
+
+        if (!mHasEstimate) {
+            return reset(meters, measurementVariance);
+        }
+
+        if (mFilter == FILTER_KALMAN) {
+            mVariance += KALMAN_PROCESS_NOISE;
+        }
+        double innovation = meters - mMeters;
+        if (Math.abs(innovation) > OUTLIER_GATE * Math.sqrt(mVariance + measurementVariance)) {
+            if (++mConsecutiveOutliers < MAX_CONSECUTIVE_OUTLIERS) {
+                return null;
+            }
+            return reset(meters, measurementVariance);
+        }
+        mConsecutiveOutliers = 0;
+
+        if (mFilter == FILTER_KALMAN) {
+            double gain = mVariance / (mVariance + measurementVariance);
+            mMeters += gain * innovation;
+            mVariance *= 1 - gain;
+        } else {
+            mMeters += EMA_ALPHA * innovation;
+            mVariance += EMA_ALPHA * (measurementVariance - mVariance);
+        }
+        return buildResult();
+    }
+
+    private DistanceMeasurementResult reset(double meters, double variance) {
+        mHasEstimate = true;
+        mMeters = meters;
+        mVariance = variance;
+        mConsecutiveOutliers = 0;
+        return buildResult();
+    }
+
+    private DistanceMeasurementResult buildResult() {
+        return new DistanceMeasurementResult.Builder(mMeters, Math.sqrt(mVariance)).build();
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+
+/**
+ * Sends the scan commands of {@link ScanManager} to the controller without blocking the scan
+ * thread.
+ *
+ * <p>Scan filter and batch scan commands complete asynchronously: the stack reports exactly one
+ * completion per command, in the order in which the commands were sent, from the callback of the
+ * command with the scanner ID it was sent for. Up to {@link #MAX_OUTSTANDING_COMMANDS} commands
+ * are sent back to back, and each completion is matched with the oldest outstanding command,
+ * provided that it was reported by the callback and for the scanner of that command. A command
+ * that is not completed within the timeout is considered done, as the completion may never come;
+ * its completion, if it comes later, is not credited to the next command.
+ *
+ * <p>Work that must happen after the commands, like starting the scan once the filters of a
+ * client are programmed, is queued as a continuation with {@link #runAfterPendingCommands}.
+ *
+ * <p>All the methods but {@link #onCommandComplete} and {@link #clear} must be called on the
+ * thread of the looper.
+ */
+class ScanCommandQueue {
+    private static final boolean DBG = GattServiceConfig.DBG;
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanCommandQueue";
+
+    /** Maximum number of commands sent to the controller and not completed yet. */
+    @VisibleForTesting static final int MAX_OUTSTANDING_COMMANDS = 16;
+
+    /** The callbacks of the stack reporting the completion of the commands. */
+    static final int COMPLETION_SCAN_FILTER_ENABLE = 0;
+    static final int COMPLETION_SCAN_FILTER_PARAMS = 1;
+    static final int COMPLETION_SCAN_FILTER_CONFIG = 2;
+    static final int COMPLETION_BATCH_SCAN_STORAGE = 3;
+    static final int COMPLETION_BATCH_SCAN_START_STOP = 4;
+    static final int COMPLETION_BATCH_SCAN_REPORTS = 5;
+
+    private static final int MSG_COMMAND_COMPLETE = 0;
+    private static final int MSG_COMMAND_TIMEOUT = 1;
+
+    private static final class Entry {
+        final long mSequence;
+        final String mName;
+        final Runnable mAction;
+        // Continuations are run locally and do not wait for a completion
+        final boolean mIsContinuation;
+        // The callback and scanner ID completing the command
+        final int mCompletion;
+        final int mScannerId;
+        long mSentTimeMillis;
+
+        Entry(long sequence, String name, Runnable action, boolean isContinuation,
+                int completion, int scannerId) {
+            mSequence = sequence;
+            mName = name;
+            mAction = action;
+            mIsContinuation = isContinuation;
+            mCompletion = completion;
+            mScannerId = scannerId;
+        }
+
+        boolean isCompletedBy(int completion, int scannerId) {
+            return mCompletion == completion && mScannerId == scannerId;
+        }
+
+        @Override
+        public String toString() {
+            return mName + "#" + mSequence;
+        }
+    }
+
+    private final Handler mHandler;
+    private final long mTimeoutMillis;
+
+    private final ArrayDeque<Entry> mPending = new ArrayDeque<>();
+    private final ArrayDeque<Entry> mOutstanding = new ArrayDeque<>();
+    // Commands timed out, whose completions may still come before the ones of mOutstanding
+    private final ArrayDeque<Entry> mTimedOut = new ArrayDeque<>();
+    private long mNextSequence;
+
+    // Thread running the queued work, to handle the completions reported synchronously
+    private volatile Thread mDispatchingThread;
+    private boolean mDispatching;
+
+    ScanCommandQueue(Looper looper, long timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+        mHandler =
+                new Handler(looper) {
+                    @Override
+                    public void handleMessage(Message msg) {
+                        switch (msg.what) {
+                            case MSG_COMMAND_COMPLETE:
+                                handleCommandComplete(msg.arg1, msg.arg2, (int) msg.obj);
+                                break;
+                            case MSG_COMMAND_TIMEOUT:
+                                handleCommandTimeout();
+                                break;
+                            default:
+                                Log.e(TAG, "received an unknown message : " + msg.what);
+                        }
+                    }
+                };
+    }
+
+    /**
+     * Queues a command that is completed by a call to {@link #onCommandComplete}.
+     *
+     * @param name the name of the command, for logging
+     * @param completion the callback completing the command, one of the COMPLETION_* constants
+     * @param scannerId the scanner ID the command is sent for
+     * @param command sends the command to the stack
+     */
+    void enqueueCommand(String name, int completion, int scannerId, Runnable command) {
+        mPending.add(new Entry(mNextSequence++, name, command, false, completion, scannerId));
+        dispatch();
+    }
+
+    /**
+     * Runs some work once all the commands queued before it are completed. The work is run
+     * immediately when there is no such command.
+     */
+    void runAfterPendingCommands(Runnable continuation) {
+        mPending.add(new Entry(mNextSequence++, "continuation", continuation, true, -1, -1));
+        dispatch();
+    }
+
+    /**
+     * Reports the completion of the oldest outstanding command. May be called from any thread.
+     *
+     * @param completion the callback reporting the completion, one of the COMPLETION_* constants
+     * @param scannerId the scanner ID reported by the callback
+     * @param status the status reported by the stack, 0 on success
+     */
+    void onCommandComplete(int completion, int scannerId, int status) {
+        if (Thread.currentThread() == mDispatchingThread) {
+            // The command completed while it was sent
+            handleCommandComplete(completion, scannerId, status);
+        } else {
+            mHandler.obtainMessage(MSG_COMMAND_COMPLETE, completion, scannerId, status)
+                    .sendToTarget();
+        }
+    }
+
+    /** @return whether no command is outstanding and no work is queued */
+    boolean isIdle() {
+        return mPending.isEmpty() && mOutstanding.isEmpty();
+    }
+
+    @VisibleForTesting
+    int getOutstandingCommandCount() {
+        return mOutstanding.size();
+    }
+
+    /**
+     * Drops all the outstanding and queued work. May be called from any thread: the work is
+     * dropped on the thread of the looper, before the messages already queued are handled.
+     */
+    void clear() {
+        if (mHandler.getLooper().isCurrentThread()) {
+            clearInternal();
+        } else {
+            mHandler.postAtFrontOfQueue(this::clearInternal);
+        }
+    }
+
+    private void clearInternal() {
+        mHandler.removeCallbacksAndMessages(null);
+        mPending.clear();
+        mOutstanding.clear();
+        mTimedOut.clear();
+    }
+
+    private void handleCommandComplete(int completion, int scannerId, int status) {
+        // The completions come in the order of the commands: the completion of a command that
+        // timed out comes before the ones of the outstanding commands, if it ever comes
+        while (!mTimedOut.isEmpty()) {
+            Entry timedOut = mTimedOut.poll();
+            if (timedOut.isCompletedBy(completion, scannerId)) {
+                Log.w(TAG, "Command " + timedOut + " completed after its timeout, status="
+                        + status);
+                return;
+            }
+        }
+        Entry entry = mOutstanding.peek();
+        if (entry == null || !entry.isCompletedBy(completion, scannerId)) {
+            // Not credited to the outstanding command, which completes or times out later
+            Log.w(TAG, "Unexpected command completion " + completion + " for scanner "
+                    + scannerId + ", status=" + status + ", outstanding command " + entry);
+            return;
+        }
+        mOutstanding.poll();
+        if (status != 0) {
+            Log.w(TAG, "Command " + entry + " failed, status=" + status);
+        } else if (DBG) {
+            Log.d(TAG, "Command " + entry + " completed");
+        }
+        onOutstandingCommandRemoved();
+    }
+
+    private void handleCommandTimeout() {
+        Entry entry = mOutstanding.poll();
+        if (entry == null) {
+            return;
+        }
+        Log.e(TAG, "Command " + entry + " timed out after " + mTimeoutMillis + "ms");
+        mTimedOut.add(entry);
+        if (mTimedOut.size() > MAX_OUTSTANDING_COMMANDS) {
+            // The oldest command will not complete anymore
+            mTimedOut.poll();
+        }
+        onOutstandingCommandRemoved();
+    }
+
+    private void onOutstandingCommandRemoved() {
+        mHandler.removeMessages(MSG_COMMAND_TIMEOUT);
+        scheduleTimeout();
+        dispatch();
+    }
+
+    private void scheduleTimeout() {
+        Entry oldest = mOutstanding.peek();
+        if (oldest != null && !mHandler.hasMessages(MSG_COMMAND_TIMEOUT)) {
+            mHandler.sendEmptyMessageAtTime(
+                    MSG_COMMAND_TIMEOUT, oldest.mSentTimeMillis + mTimeoutMillis);
+        }
+    }
+
+    private void dispatch() {
+        if (mDispatching) {
+            // Work queued by a command or a continuation is run by the outer loop
+            return;
+        }
+        mDispatching = true;
+        mDispatchingThread = Thread.currentThread();
+        try {
+            while (!mPending.isEmpty()) {
+                Entry entry = mPending.peek();
+                if (entry.mIsContinuation) {
+                    if (!mOutstanding.isEmpty()) {
+                        break;
+                    }
+                    mPending.poll();
+                    entry.mAction.run();
+                } else {
+                    if (mOutstanding.size() >= MAX_OUTSTANDING_COMMANDS) {
+                        break;
+                    }
+                    mPending.poll();
+                    entry.mSentTimeMillis = SystemClock.uptimeMillis();
+                    mOutstanding.add(entry);
+                    scheduleTimeout();
+                    if (DBG) {
+                        Log.d(TAG, "Sending command " + entry);
+                    }
+                    entry.mAction.run();
+                }
+            }
+        } finally {
+            mDispatchingThread = null;
+            mDispatching = false;
+        }
+    }
+}
@@ -207,6 +207,39 @@ import java.util.UUID;
         return mEntries.toArray(new ScanFilterQueue.Entry[mEntries.size()]);
     }
 
+    /**
+     * Returns a canonical description of each entry. Queues built from equivalent filters have the
+     * same set of keys, whatever the order in which the entries were added.
+     */
+    Set<String> getEntryKeys() {
+        Set<String> keys = new HashSet<String>();
+        for (Entry entry : mEntries) {
+            keys.add(getEntryKey(entry));
+        }
+        return keys;
+    }
+
+    private static String getEntryKey(Entry entry) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(entry.type).append('|');
+        sb.append(entry.address).append('|').append(entry.addr_type).append('|');
+        sb.append(Arrays.toString(entry.irk)).append('|');
+        sb.append(entry.uuid).append('|').append(entry.uuid_mask).append('|');
+        // Prefixed by its length, as a name may contain the separator
+        if (entry.name != null) {
+            sb.append(entry.name.length()).append(':').append(entry.name);
+        }
+        sb.append('|');
+        sb.append(entry.company).append('|').append(entry.company_mask).append('|');
+        sb.append(entry.ad_type).append('|');
+        sb.append(Arrays.toString(entry.data)).append('|');
+        sb.append(Arrays.toString(entry.data_mask)).append('|');
+        sb.append(entry.org_id).append('|');
+        sb.append(entry.tds_flags).append('|').append(entry.tds_flags_mask).append('|');
+        sb.append(entry.meta_data_type).append('|').append(Arrays.toString(entry.meta_data));
+        return sb.toString();
+    }
+
     /**
      * Add ScanFilter to scan filter queue.
      */
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps track of the scan filters programmed in the controller, so that the scan clients using
+ * equivalent filters share a single filter slot.
+ *
+ * <p>A shared filter is identified by a {@link Key}: its canonical entries and its delivery mode.
+ * Each filter slot is reference counted, and is only freed when its last client stops scanning.
+ * The controller reports the results of a shared filter once, and {@link GattService} dispatches
+ * them to every client whose own filters match.
+ *
+ * <p>Filters that must not be shared, like the onfound/onlost ones whose results are reported to
+ * a single client, are registered without a key. The truncated batch results carry no advertising
+ * data to match in software, so the filters of truncated batch clients are only shared with
+ * equivalent filters, and neither cover nor are covered by another filter.
+ *
+ * <p>Not thread safe, only used from the scan thread.
+ */
+class ScanFilterRegistry {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "ScanFilterRegistry";
+
+    /** Identifies the controller filters that report the same advertisements. */
+    static final class Key {
+        private final int mDeliveryMode;
+        private final boolean mTruncated;
+        private final Set<String> mEntryKeys;
+
+        /**
+         * @param truncated whether the results of the filter are reported as truncated batch
+         *     results, without advertising data
+         */
+        Key(int deliveryMode, boolean truncated, Set<String> entryKeys) {
+            mDeliveryMode = deliveryMode;
+            mTruncated = truncated;
+            mEntryKeys = Collections.unmodifiableSet(new HashSet<>(entryKeys));
+        }
+
+        /**
+         * @return whether a filter with this key reports all the advertisements reported by a
+         *     filter with the other key, every condition of this filter being a condition of the
+         *     other one, and the results of the other filter are matched in software
+         */
+        boolean covers(Key other) {
+            return !mTruncated && !other.mTruncated
+                    && mDeliveryMode == other.mDeliveryMode
+                    && other.mEntryKeys.containsAll(mEntryKeys);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mDeliveryMode == other.mDeliveryMode && mTruncated == other.mTruncated
+                    && mEntryKeys.equals(other.mEntryKeys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mDeliveryMode, mTruncated, mEntryKeys);
+        }
+    }
+
+    private static final class Slot {
+        final int mFilterIndex;
+        final Key mKey;
+        int mRefCount = 1;
+
+        Slot(int filterIndex, Key key) {
+            mFilterIndex = filterIndex;
+            mKey = key;
+        }
+    }
+
+    private final Map<Integer, Slot> mSlots = new HashMap<>();
+    private final Map<Key, Slot> mSharedSlots = new HashMap<>();
+
+    /**
+     * @return the index of a programmed filter with the same key, or -1 if there is none
+     */
+    int findEquivalent(Key key) {
+        Slot slot = mSharedSlots.get(key);
+        return slot == null ? -1 : slot.mFilterIndex;
+    }
+
+    /**
+     * Finds a programmed filter reporting a superset of the advertisements reported by a filter
+     * with the given key. When there are several of them, the most specific one is returned, to
+     * limit the number of results filtered out in software.
+     *
+     * @return the index of the filter, or -1 if there is none
+     */
+    int findCovering(Key key) {
+        Slot best = null;
+        for (Slot slot : mSharedSlots.values()) {
+            if (!slot.mKey.covers(key)) {
+                continue;
+            }
+            if (best == null || slot.mKey.mEntryKeys.size() > best.mKey.mEntryKeys.size()) {
+                best = slot;
+            }
+        }
+        return best == null ? -1 : best.mFilterIndex;
+    }
+
+    /**
+     * Registers a newly programmed filter, with one reference.
+     *
+     * @param key the key of the filter, or null if the filter must not be shared
+     */
+    void add(int filterIndex, Key key) {
+        Slot slot = new Slot(filterIndex, key);
+        if (mSlots.put(filterIndex, slot) != null) {
+            Log.w(TAG, "Filter index " + filterIndex + " was already registered");
+        }
+        if (key != null) {
+            mSharedSlots.put(key, slot);
+        }
+    }
+
+    /** Adds a reference to a programmed filter. */
+    void acquire(int filterIndex) {
+        Slot slot = mSlots.get(filterIndex);
+        if (slot == null) {
+            Log.e(TAG, "acquire: unknown filter index " + filterIndex);
+            return;
+        }
+        slot.mRefCount++;
+    }
+
+    /**
+     * Removes a reference to a programmed filter.
+     *
+     * @return whether the last reference was removed, in which case the filter must be deleted
+     *     from the controller and its index can be reused
+     */
+    boolean release(int filterIndex) {
+        Slot slot = mSlots.get(filterIndex);
+        if (slot == null) {
+            Log.e(TAG, "release: unknown filter index " + filterIndex);
+            return false;
+        }
+        if (--slot.mRefCount > 0) {
+            return false;
+        }
+        mSlots.remove(filterIndex);
+        if (slot.mKey != null) {
+            mSharedSlots.remove(slot.mKey);
+        }
+        return true;
+    }
+
+    /** @return the number of references to a filter, 0 if it is not programmed */
+    int getReferenceCount(int filterIndex) {
+        Slot slot = mSlots.get(filterIndex);
+        return slot == null ? 0 : slot.mRefCount;
+    }
+
+    /** @return the number of programmed filters */
+    int size() {
+        return mSlots.size();
+    }
+}
@@ -49,11 +49,13 @@ import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -121,6 +123,7 @@ public class ScanManager {
     private BroadcastReceiver mBatchAlarmReceiver;
     private boolean mBatchAlarmReceiverRegistered;
     private ScanNative mScanNative;
+    private final ScanCommandQueue mCommandQueue;
     private volatile ClientHandler mHandler;
     private BluetoothAdapterProxy mBluetoothAdapterProxy;
 
@@ -168,6 +171,7 @@ public class ScanManager {
                 Collections.newSetFromMap(new ConcurrentHashMap<ScanClient, Boolean>());
         mService = service;
         mAdapterService = adapterService;
+        mCommandQueue = new ScanCommandQueue(looper, OPERATION_TIME_OUT_MILLIS);
         mScanNative = new ScanNative();
         mDm = mService.getSystemService(DisplayManager.class);
         mActivityManager = mService.getSystemService(ActivityManager.class);
@@ -205,6 +209,7 @@ public class ScanManager {
         mBatchClients.clear();
         mSuspendedScanClients.clear();
         mScanNative.cleanup();
+        mCommandQueue.clear();
 
         if (mActivityManager != null) {
             try {
@@ -302,8 +307,14 @@ public class ScanManager {
         sendMessage(MSG_FLUSH_BATCH_RESULTS, client);
     }
 
-    void callbackDone(int scannerId, int status) {
-        mScanNative.callbackDone(scannerId, status);
+    /**
+     * Reports the completion of a scan command by the stack.
+     *
+     * @param completion the callback reporting it, one of the ScanCommandQueue.COMPLETION_*
+     *     constants
+     */
+    void callbackDone(int completion, int scannerId, int status) {
+        mScanNative.callbackDone(completion, scannerId, status);
     }
 
     private void sendMessage(int what, ScanClient client) {
@@ -503,10 +514,15 @@ public class ScanManager {
                 if (!mScanNative.isOpportunisticScanClient(client)) {
                     mScanNative.configureRegularScanParams();
                 }
+            } else if (isAutoBatchScanClientEnabled(client) && mBatchClients.contains(client)) {
+                handleFlushBatchResults(client);
+                // Keep the client until the flushed results are delivered to it
+                mCommandQueue.runAfterPendingCommands(() -> {
+                    if (mBatchClients.contains(client)) {
+                        mScanNative.stopBatchScan(client);
+                    }
+                });
             } else {
-                if (isAutoBatchScanClientEnabled(client)) {
-                    handleFlushBatchResults(client);
-                }
                 mScanNative.stopBatchScan(client);
             }
             if (client.appDied) {
@@ -997,6 +1013,8 @@ public class ScanManager {
         private final Deque<Integer> mFilterIndexStack;
         // Map of scannerId and Filter indices used by client.
         private final Map<Integer, Deque<Integer>> mClientFilterIndexMap;
+        // Reference counts of the filters programmed in the controller, shared between clients.
+        private final ScanFilterRegistry mFilterRegistry = new ScanFilterRegistry();
         // Keep track of the clients that uses ALL_PASS filters.
         private final Set<Integer> mAllPassRegularClients = new HashSet<>();
         private final Set<Integer> mAllPassBatchClients = new HashSet<>();
@@ -1038,22 +1056,12 @@ public class ScanManager {
             mBatchAlarmReceiverRegistered = true;
         }
 
-        private void callbackDone(int scannerId, int status) {
+        private void callbackDone(int completion, int scannerId, int status) {
             if (DBG) {
                 Log.d(TAG, "callback done for scannerId - " + scannerId + " status - " + status);
             }
-            if (status == 0) {
-                mNativeInterface.callbackDone();
-            }
             // TODO: add a callback for scan failure.
-        }
-
-        private void resetCountDownLatch() {
-            mNativeInterface.resetCountDownLatch();
-        }
-
-        private boolean waitForCallback() {
-            return mNativeInterface.waitForCallback(OPERATION_TIME_OUT_MILLIS);
+            mCommandQueue.onCommandComplete(completion, scannerId, status);
         }
 
         void configureRegularScanParams() {
@@ -1075,7 +1083,6 @@ public class ScanManager {
                     // convert scanWindow and scanInterval from ms to LE scan units(0.625ms)
                     int scanWindow = Utils.millsToUnit(scanWindowMs);
                     int scanInterval = Utils.millsToUnit(scanIntervalMs);
-                    mNativeInterface.gattClientScan(false);
                     if (!AppScanStats.recordScanRadioStop()) {
                         Log.w(TAG, "There is no scan radio to stop");
                     }
@@ -1087,9 +1094,13 @@ public class ScanManager {
                                 + ", in scan unit: " + scanInterval + " / " + scanWindow + " )"
                                 + client);
                     }
-                    mNativeInterface.gattSetScanParameters(client.scannerId, scanInterval,
-                            scanWindow);
-                    mNativeInterface.gattClientScan(true);
+                    int scannerId = client.scannerId;
+                    mCommandQueue.runAfterPendingCommands(() -> {
+                        mNativeInterface.gattClientScan(false);
+                        mNativeInterface.gattSetScanParameters(scannerId, scanInterval,
+                                scanWindow);
+                        mNativeInterface.gattClientScan(true);
+                    });
                     if (!AppScanStats.recordScanRadioStart(curScanSetting)) {
                         Log.w(TAG, "Scan radio already started");
                     }
@@ -1131,7 +1142,8 @@ public class ScanManager {
                 if (DBG) {
                     Log.d(TAG, "start gattClientScanNative from startRegularScan()");
                 }
-                mNativeInterface.gattClientScan(true);
+                // Start the scan once the filters of the client are programmed
+                mCommandQueue.runAfterPendingCommands(() -> mNativeInterface.gattClientScan(true));
                 if (!AppScanStats.recordScanRadioStart(client.settings.getScanMode())) {
                     Log.w(TAG, "Scan radio already started");
                 }
@@ -1206,9 +1218,9 @@ public class ScanManager {
                 if (DBG) {
                     Log.d(TAG, "stopping BLe Batch");
                 }
-                resetCountDownLatch();
-                mNativeInterface.gattClientStopBatchScan(scannerId);
-                waitForCallback();
+                mCommandQueue.enqueueCommand("stopBatchScan",
+                        ScanCommandQueue.COMPLETION_BATCH_SCAN_START_STOP, scannerId,
+                        () -> mNativeInterface.gattClientStopBatchScan(scannerId));
                 // Clear pending results as it's illegal to config storage if there are still
                 // pending results.
                 flushBatchResults(scannerId);
@@ -1221,21 +1233,21 @@ public class ScanManager {
                 }
                 int resultType = getResultType(batchScanParams);
                 int fullScanPercent = getFullScanStoragePercent(resultType);
-                resetCountDownLatch();
                 if (DBG) {
                     Log.d(TAG, "configuring batch scan storage, appIf " + client.scannerId);
                 }
-                mNativeInterface.gattClientConfigBatchScanStorage(client.scannerId, fullScanPercent,
-                        100 - fullScanPercent, notifyThreshold);
-                waitForCallback();
-                resetCountDownLatch();
+                mCommandQueue.enqueueCommand("configBatchScanStorage",
+                        ScanCommandQueue.COMPLETION_BATCH_SCAN_STORAGE, scannerId,
+                        () -> mNativeInterface.gattClientConfigBatchScanStorage(scannerId,
+                                fullScanPercent, 100 - fullScanPercent, notifyThreshold));
                 int scanInterval =
                         Utils.millsToUnit(getBatchScanIntervalMillis(batchScanParams.scanMode));
                 int scanWindow =
                         Utils.millsToUnit(getBatchScanWindowMillis(batchScanParams.scanMode));
-                mNativeInterface.gattClientStartBatchScan(scannerId, resultType, scanInterval,
-                        scanWindow, 0, DISCARD_OLDEST_WHEN_BUFFER_FULL);
-                waitForCallback();
+                mCommandQueue.enqueueCommand("startBatchScan",
+                        ScanCommandQueue.COMPLETION_BATCH_SCAN_START_STOP, scannerId,
+                        () -> mNativeInterface.gattClientStartBatchScan(scannerId, resultType,
+                                scanInterval, scanWindow, 0, DISCARD_OLDEST_WHEN_BUFFER_FULL));
             }
             mBatchScanParms = batchScanParams;
             setBatchAlarm();
@@ -1357,7 +1369,7 @@ public class ScanManager {
                 if (DBG) {
                     Log.d(TAG, "stop gattClientScanNative");
                 }
-                mNativeInterface.gattClientScan(false);
+                mCommandQueue.runAfterPendingCommands(() -> mNativeInterface.gattClientScan(false));
                 if (!AppScanStats.recordScanRadioStop()) {
                     Log.w(TAG, "There is no scan radio to stop");
                 }
@@ -1397,7 +1409,7 @@ public class ScanManager {
                 if (DBG) {
                     Log.d(TAG, "stop gattClientScanNative");
                 }
-                mNativeInterface.gattClientScan(false);
+                mCommandQueue.runAfterPendingCommands(() -> mNativeInterface.gattClientScan(false));
                 if (!AppScanStats.recordScanRadioStop()) {
                     Log.w(TAG, "There is no scan radio to stop");
                 }
@@ -1448,17 +1460,19 @@ public class ScanManager {
             if (DBG) {
                 Log.d(TAG, "flushPendingBatchResults - scannerId = " + scannerId);
             }
-            if (mBatchScanParms.fullScanscannerId != -1) {
-                resetCountDownLatch();
-                mNativeInterface.gattClientReadScanReports(mBatchScanParms.fullScanscannerId,
-                        SCAN_RESULT_TYPE_FULL);
-                waitForCallback();
+            int fullScanScannerId = mBatchScanParms.fullScanscannerId;
+            if (fullScanScannerId != -1) {
+                mCommandQueue.enqueueCommand("readScanReports",
+                        ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, fullScanScannerId,
+                        () -> mNativeInterface.gattClientReadScanReports(fullScanScannerId,
+                                SCAN_RESULT_TYPE_FULL));
             }
-            if (mBatchScanParms.truncatedScanscannerId != -1) {
-                resetCountDownLatch();
-                mNativeInterface.gattClientReadScanReports(mBatchScanParms.truncatedScanscannerId,
-                        SCAN_RESULT_TYPE_TRUNCATED);
-                waitForCallback();
+            int truncatedScanScannerId = mBatchScanParms.truncatedScanscannerId;
+            if (truncatedScanScannerId != -1) {
+                mCommandQueue.enqueueCommand("readScanReports",
+                        ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, truncatedScanScannerId,
+                        () -> mNativeInterface.gattClientReadScanReports(truncatedScanScannerId,
+                                SCAN_RESULT_TYPE_TRUNCATED));
             }
             setBatchAlarm();
         }
@@ -1500,33 +1514,41 @@ public class ScanManager {
                 return;
             }
 
-            resetCountDownLatch();
-            mNativeInterface.gattClientScanFilterEnable(scannerId, true);
-            waitForCallback();
+            // The commands are sent back to back, the controller processes them in order
+            mCommandQueue.enqueueCommand("scanFilterEnable",
+                    ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE, scannerId,
+                    () -> mNativeInterface.gattClientScanFilterEnable(scannerId, true));
 
             if (shouldUseAllPassFilter(client)) {
                 int filterIndex =
                         (deliveryMode == DELIVERY_MODE_BATCH) ? ALL_PASS_FILTER_INDEX_BATCH_SCAN
                                 : ALL_PASS_FILTER_INDEX_REGULAR_SCAN;
-                resetCountDownLatch();
                 // Don't allow Onfound/onlost with all pass
                 configureFilterParamter(scannerId, client, ALL_PASS_FILTER_SELECTION, filterIndex,
                         0);
-                waitForCallback();
             } else {
                 Deque<Integer> clientFilterIndices = new ArrayDeque<Integer>();
-                for (ScanFilter filter : client.filters) {
-                    ScanFilterQueue queue = new ScanFilterQueue();
-                    queue.addScanFilter(filter);
-                    int featureSelection = queue.getFeatureSelection();
+                for (HwFilterPlan plan : planHwFilters(client)) {
+                    int sharedFilterIndex = plan.mFilterIndex;
+                    if (sharedFilterIndex < 0 && plan.mKey != null) {
+                        // Added for a previous filter of the same client
+                        sharedFilterIndex = mFilterRegistry.findEquivalent(plan.mKey);
+                    }
+                    if (sharedFilterIndex >= 0) {
+                        mFilterRegistry.acquire(sharedFilterIndex);
+                        clientFilterIndices.add(sharedFilterIndex);
+                        continue;
+                    }
+                    int featureSelection = plan.mQueue.getFeatureSelection();
                     int filterIndex = mFilterIndexStack.pop();
+                    mFilterRegistry.add(filterIndex, plan.mKey);
 
-                    resetCountDownLatch();
-                    mNativeInterface.gattClientScanFilterAdd(scannerId, queue.toArray(),
-                            filterIndex);
-                    waitForCallback();
+                    ScanFilterQueue.Entry[] entries = plan.mQueue.toArray();
+                    mCommandQueue.enqueueCommand("scanFilterAdd",
+                            ScanCommandQueue.COMPLETION_SCAN_FILTER_CONFIG, scannerId,
+                            () -> mNativeInterface.gattClientScanFilterAdd(scannerId, entries,
+                                    filterIndex));
 
-                    resetCountDownLatch();
                     if (deliveryMode == DELIVERY_MODE_ON_FOUND_LOST) {
                         trackEntries = getNumOfTrackingAdvertisements(client.settings);
                         if (!manageAllocationOfTrackingAdvertisement(trackEntries, true)) {
@@ -1543,7 +1565,6 @@ public class ScanManager {
                     }
                     configureFilterParamter(scannerId, client, featureSelection, filterIndex,
                             trackEntries);
-                    waitForCallback();
                     clientFilterIndices.add(filterIndex);
                 }
                 mClientFilterIndexMap.put(scannerId, clientFilterIndices);
@@ -1570,11 +1591,16 @@ public class ScanManager {
         private void removeScanFilters(int scannerId) {
             Deque<Integer> filterIndices = mClientFilterIndexMap.remove(scannerId);
             if (filterIndices != null) {
-                mFilterIndexStack.addAll(filterIndices);
                 for (Integer filterIndex : filterIndices) {
-                    resetCountDownLatch();
-                    mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                    waitForCallback();
+                    // Shared filters are kept until their last client is removed
+                    if (!mFilterRegistry.release(filterIndex)) {
+                        continue;
+                    }
+                    mFilterIndexStack.add(filterIndex);
+                    mCommandQueue.enqueueCommand("scanFilterParamDelete",
+                            ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS, scannerId,
+                            () -> mNativeInterface.gattClientScanFilterParamDelete(scannerId,
+                                    filterIndex));
                 }
             }
             // Remove if ALL_PASS filters are used.
@@ -1591,9 +1617,10 @@ public class ScanManager {
             clients.remove(scannerId);
             // Remove ALL_PASS filter iff no app is using it.
             if (clients.isEmpty()) {
-                resetCountDownLatch();
-                mNativeInterface.gattClientScanFilterParamDelete(scannerId, filterIndex);
-                waitForCallback();
+                mCommandQueue.enqueueCommand("scanFilterParamDelete",
+                        ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS, scannerId,
+                        () -> mNativeInterface.gattClientScanFilterParamDelete(scannerId,
+                                filterIndex));
             }
         }
 
@@ -1630,13 +1657,78 @@ public class ScanManager {
             if (client.filters == null || client.filters.isEmpty()) {
                 return true;
             }
-            if (client.filters.size() > mFilterIndexStack.size()) {
+            if (planHwFilters(client) == null) {
                 client.stats.recordHwFilterNotAvailableCountMetrics();
                 return true;
             }
             return false;
         }
 
+        // A filter of a client, and the programmed filter it shares, if any.
+        private class HwFilterPlan {
+            final ScanFilterQueue mQueue;
+            // Null if the filter must not be shared
+            final ScanFilterRegistry.Key mKey;
+            int mFilterIndex = -1;
+
+            HwFilterPlan(ScanFilterQueue queue, ScanFilterRegistry.Key key) {
+                mQueue = queue;
+                mKey = key;
+            }
+        }
+
+        // Maps each filter of the client to a programmed filter reporting the same advertisements,
+        // if there is one, or to a new filter otherwise. When there are not enough free filter
+        // slots, the new filters may use a programmed filter that reports a superset of their
+        // advertisements, as the results are matched again against the filters of each client,
+        // except the truncated batch results.
+        // Returns null if the filters still do not fit.
+        private List<HwFilterPlan> planHwFilters(ScanClient client) {
+            int deliveryMode = getDeliveryMode(client);
+            // Onfound/onlost events are only reported to the client owning the filter
+            boolean shareable = deliveryMode != DELIVERY_MODE_ON_FOUND_LOST;
+            // Truncated batch results cannot be matched against the filters of each client
+            boolean truncated = deliveryMode == DELIVERY_MODE_BATCH
+                    && client.settings.getScanResultType() != ScanSettings.SCAN_RESULT_TYPE_FULL;
+            List<HwFilterPlan> plans = new ArrayList<>(client.filters.size());
+            for (ScanFilter filter : client.filters) {
+                ScanFilterQueue queue = new ScanFilterQueue();
+                queue.addScanFilter(filter);
+                ScanFilterRegistry.Key key = shareable
+                        ? new ScanFilterRegistry.Key(deliveryMode, truncated,
+                                queue.getEntryKeys())
+                        : null;
+                HwFilterPlan plan = new HwFilterPlan(queue, key);
+                if (key != null) {
+                    plan.mFilterIndex = mFilterRegistry.findEquivalent(key);
+                }
+                plans.add(plan);
+            }
+            if (countNewHwFilters(plans) <= mFilterIndexStack.size()) {
+                return plans;
+            }
+            for (HwFilterPlan plan : plans) {
+                if (plan.mFilterIndex < 0 && plan.mKey != null) {
+                    plan.mFilterIndex = mFilterRegistry.findCovering(plan.mKey);
+                }
+            }
+            if (countNewHwFilters(plans) <= mFilterIndexStack.size()) {
+                return plans;
+            }
+            return null;
+        }
+
+        private int countNewHwFilters(List<HwFilterPlan> plans) {
+            Set<ScanFilterRegistry.Key> newKeys = new HashSet<>();
+            int count = 0;
+            for (HwFilterPlan plan : plans) {
+                if (plan.mFilterIndex < 0 && (plan.mKey == null || newKeys.add(plan.mKey))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
         private void initFilterIndexStack() {
             int maxFiltersSupported =
                     AdapterService.getAdapterService().getNumOfOffloadedScanFilterSupported();
@@ -1668,7 +1760,9 @@ public class ScanManager {
                     new FilterParams(scannerId, filterIndex, featureSelection, LIST_LOGIC_TYPE,
                             FILTER_LOGIC_TYPE, rssiThreshold, rssiThreshold, deliveryMode,
                             onFoundTimeout, onLostTimeout, onFoundCount, numOfTrackingEntries);
-            mNativeInterface.gattClientScanFilterParamAdd(filtValue);
+            mCommandQueue.enqueueCommand("scanFilterParamAdd",
+                    ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS, scannerId,
+                    () -> mNativeInterface.gattClientScanFilterParamAdd(filtValue));
         }
 
         // Get delivery mode based on scan settings.
@@ -16,9 +16,6 @@
 
 package com.android.bluetooth.gatt;
 
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-
 /**
  * BLE Scan Native Interface to/from JNI.
  */
@@ -28,8 +25,6 @@ public class ScanNativeInterface {
     private static ScanNativeInterface sInterface;
     private static final Object INSTANCE_LOCK = new Object();
 
-    private CountDownLatch mLatch;
-
     private ScanNativeInterface() {}
 
     /**
@@ -175,21 +170,4 @@ public class ScanNativeInterface {
     public void gattClientReadScanReports(int clientIf, int scanType) {
         gattClientReadScanReportsNative(clientIf, scanType);
     }
-
-    void callbackDone() {
-        mLatch.countDown();
-    }
-
-    void resetCountDownLatch() {
-        mLatch = new CountDownLatch(1);
-    }
-
-    // Returns true if mLatch reaches 0, false if timeout or interrupted.
-    boolean waitForCallback(int timeoutMs) {
-        try {
-            return mLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            return false;
-        }
-    }
 }
@@ -44,6 +44,7 @@ import android.os.RemoteException;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
+import com.android.bluetooth.GroupOperationCoalescer;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.ActiveDeviceManager;
 import com.android.bluetooth.btservice.AdapterService;
@@ -76,6 +77,8 @@ public class HapClientService extends ProfileService {
     // Upper limit of all HearingAccess devices: Bonded or Connected
     private static final int MAX_HEARING_ACCESS_STATE_MACHINES = 10;
     private static final int SM_THREAD_JOIN_TIMEOUT_MS = 1000;
+    // Time a group preset selection is waited for before the next one is sent, as in the stack
+    private static final int GROUP_PRESET_TIMEOUT_MS = 10000;
     private static HapClientService sHapClient;
     private final Map<BluetoothDevice, HapClientStateMachine> mStateMachines =
             new HashMap<>();
@@ -91,6 +94,9 @@ public class HapClientService extends ProfileService {
     private final Map<BluetoothDevice, List<BluetoothHapPresetInfo>> mPresetsMap =
             new HashMap<>();
     private final FeatureFlags mFeatureFlags;
+    // Sends only the latest group preset while one is being selected, null if not enabled
+    @VisibleForTesting
+    GroupOperationCoalescer<Integer> mGroupPresetCoalescer;
 
     @VisibleForTesting
     RemoteCallbackList<IBluetoothHapClientCallback> mCallbacks;
@@ -176,6 +182,10 @@ public class HapClientService extends ProfileService {
         mStateMachinesThread.start();
 
         mCallbacks = new RemoteCallbackList<IBluetoothHapClientCallback>();
+        if (GroupOperationCoalescer.isEnabled()) {
+            mGroupPresetCoalescer = new GroupOperationCoalescer<>("Group preset",
+                    Looper.getMainLooper(), GROUP_PRESET_TIMEOUT_MS, this::sendGroupPreset);
+        }
 
         // Initialize native interface
         mHapClientNativeInterface.init();
@@ -224,6 +234,11 @@ public class HapClientService extends ProfileService {
             mHandler = null;
         }
 
+        if (mGroupPresetCoalescer != null) {
+            mGroupPresetCoalescer.clear();
+            mGroupPresetCoalescer = null;
+        }
+
         // Cleanup GATT interface
         mHapClientNativeInterface.cleanup();
         mHapClientNativeInterface = null;
@@ -657,7 +672,18 @@ public class HapClientService extends ProfileService {
             return;
         }
 
-        mHapClientNativeInterface.groupSelectActivePreset(groupId, presetIndex);
+        if (mGroupPresetCoalescer != null) {
+            mGroupPresetCoalescer.request(groupId, presetIndex);
+        } else {
+            mHapClientNativeInterface.groupSelectActivePreset(groupId, presetIndex);
+        }
+    }
+
+    private void sendGroupPreset(int groupId, int presetIndex) {
+        HapClientNativeInterface nativeInterface = mHapClientNativeInterface;
+        if (nativeInterface != null) {
+            nativeInterface.groupSelectActivePreset(groupId, presetIndex);
+        }
     }
 
     /**
@@ -787,10 +813,26 @@ public class HapClientService extends ProfileService {
     }
 
     private void notifyPresetInfoForGroupChanged(int groupId, int infoReason) {
+        if (mCallbacks == null) return;
+
+        // All the group devices are notified at once, with the presets they have now
         List<BluetoothDevice> all_group_devices = getGroupDevices(groupId);
-        for (BluetoothDevice dev : all_group_devices) {
-            notifyPresetInfoChanged(dev, infoReason);
+        int reason = stackEventPresetInfoReasonToProfileStatus(infoReason);
+        int n = mCallbacks.beginBroadcast();
+        for (int i = 0; i < n; i++) {
+            IBluetoothHapClientCallback callback = mCallbacks.getBroadcastItem(i);
+            try {
+                for (BluetoothDevice dev : all_group_devices) {
+                    List current_presets = mPresetsMap.get(dev);
+                    if (current_presets != null) {
+                        callback.onPresetInfoChanged(dev, current_presets, reason);
+                    }
+                }
+            } catch (RemoteException e) {
+                continue;
+            }
         }
+        mCallbacks.finishBroadcast();
     }
 
     private void notifyFeaturesAvailable(BluetoothDevice device, int features) {
@@ -814,10 +856,21 @@ public class HapClientService extends ProfileService {
     }
 
     private void notifyActivePresetChangedForGroup(int groupId, int presetIndex, int reasonCode) {
+        if (mCallbacks == null) return;
+
         List<BluetoothDevice> all_group_devices = getGroupDevices(groupId);
-        for (BluetoothDevice dev : all_group_devices) {
-            notifyActivePresetChanged(dev, presetIndex, reasonCode);
+        int n = mCallbacks.beginBroadcast();
+        for (int i = 0; i < n; i++) {
+            IBluetoothHapClientCallback callback = mCallbacks.getBroadcastItem(i);
+            try {
+                for (BluetoothDevice dev : all_group_devices) {
+                    callback.onPresetSelected(dev, presetIndex, reasonCode);
+                }
+            } catch (RemoteException e) {
+                continue;
+            }
         }
+        mCallbacks.finishBroadcast();
     }
 
     private int stackEventStatusToProfileStatus(int statusCode) {
@@ -1006,6 +1059,9 @@ public class HapClientService extends ProfileService {
         for (HapClientStateMachine sm : mStateMachines.values()) {
             sm.dump(sb);
         }
+        if (mGroupPresetCoalescer != null) {
+            mGroupPresetCoalescer.dump(sb);
+        }
     }
 
     private boolean isPresetCoordinationSupported(BluetoothDevice device) {
@@ -1126,6 +1182,14 @@ public class HapClientService extends ProfileService {
                     for (BluetoothDevice dev : all_group_devices) {
                         mDeviceCurrentPresetMap.put(dev, currentPresetIndex);
                     }
+                    // A newer preset requested meanwhile is now being selected: this
+                    // intermediate one is not reported
+                    if (mGroupPresetCoalescer != null
+                            && mGroupPresetCoalescer.onAcknowledged(groupId)) {
+                        Log.i(TAG, "Group " + groupId + " preset " + currentPresetIndex
+                                + " superseded");
+                        return;
+                    }
                     // FIXME: Add app request queueing to support other reasons
                     int reasonCode = BluetoothStatusCodes.REASON_LOCAL_STACK_REQUEST;
                     notifyActivePresetChangedForGroup(groupId, currentPresetIndex, reasonCode);
@@ -1139,6 +1203,11 @@ public class HapClientService extends ProfileService {
                 if (device != null) {
                     notifySelectActivePresetFailed(device, statusCode);
                 } else if (groupId != BluetoothCsipSetCoordinator.GROUP_ID_INVALID) {
+                    if (mGroupPresetCoalescer != null
+                            && mGroupPresetCoalescer.onAcknowledged(groupId)) {
+                        Log.i(TAG, "Group " + groupId + " preset selection failed, superseded");
+                        return;
+                    }
                     notifySelectActivePresetForGroupFailed(groupId, statusCode);
                 }
             } break;
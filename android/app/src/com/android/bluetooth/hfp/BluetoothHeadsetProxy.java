@@ -60,6 +60,45 @@ public class BluetoothHeadsetProxy {
                 name);
     }
 
+    /**
+     * Sends the whole list of current calls followed by the end marker. When the headset service
+     * runs in this process, the list is handed to it in one call, instead of one binder
+     * transaction per call.
+     *
+     * @param clccList the current calls, without the end marker
+     */
+    public void clccResponseList(List<HeadsetClccResponse> clccList) {
+        HeadsetService service = HeadsetService.getHeadsetService();
+        if (service != null) {
+            service.clccResponseList(clccList);
+            return;
+        }
+        for (HeadsetClccResponse clcc : clccList) {
+            clccResponse(clcc.mIndex, clcc.mDirection, clcc.mStatus, clcc.mMode, clcc.mMpty,
+                    clcc.mNumber, clcc.mType);
+        }
+        clccResponse(0 /* index */, 0, 0, 0, false, null, 0);
+    }
+
+    /**
+     * Same as {@link #phoneStateChanged(int, int, int, String, int, String)}, with the result of
+     * the comparison of the call state with the last one sent.
+     *
+     * @param stateChanged whether the call state changed since the last update. When it did not,
+     *     the headset service running in this process only sends it to the devices that do not
+     *     have it yet.
+     */
+    public void phoneStateChanged(int numActive, int numHeld, int callState, String number,
+            int type, String name, boolean stateChanged) {
+        HeadsetService service = HeadsetService.getHeadsetService();
+        if (service != null) {
+            service.phoneStateChanged(numActive, numHeld, callState, number, type, name,
+                    false /* isVirtualCall */, !stateChanged /* isRefresh */);
+            return;
+        }
+        phoneStateChanged(numActive, numHeld, callState, number, type, name);
+    }
+
     public List<BluetoothDevice> getConnectedDevices() {
         return mBluetoothHeadset.getConnectedDevices();
     }
@@ -22,7 +22,7 @@ package com.android.bluetooth.hfp;
  *   AT+CLCC
  *   +CLCC:[index],[direction],[status],[mode],[mpty][,[number],[type]]
  */
-class HeadsetClccResponse extends HeadsetMessageObject {
+public class HeadsetClccResponse extends HeadsetMessageObject {
     /**
      * Index of the call, starting with 1, by the sequence of setup or receiving the calls
      */
@@ -64,8 +64,8 @@ class HeadsetClccResponse extends HeadsetMessageObject {
      */
     int mType;
 
-    HeadsetClccResponse(int index, int direction, int status, int mode, boolean mpty, String number,
-            int type) {
+    public HeadsetClccResponse(int index, int direction, int status, int mode, boolean mpty,
+            String number, int type) {
         mIndex = index;
         mDirection = direction;
         mStatus = status;
@@ -68,6 +68,7 @@ import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -1818,6 +1819,20 @@ public class HeadsetService extends ProfileService {
     @RequiresPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
     void phoneStateChanged(int numActive, int numHeld, int callState, String number,
             int type, String name, boolean isVirtualCall) {
+        phoneStateChanged(numActive, numHeld, callState, number, type, name, isVirtualCall,
+                false /* isRefresh */);
+    }
+
+    /**
+     * Updates the call state of the connected devices.
+     *
+     * @param isRefresh whether the caller found that the call state did not change since its last
+     *     update, and only sends it again for the devices that did not get it yet. The devices
+     *     already having this call state do not get it again.
+     */
+    @RequiresPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
+    void phoneStateChanged(int numActive, int numHeld, int callState, String number,
+            int type, String name, boolean isVirtualCall, boolean isRefresh) {
         enforceCallingOrSelfPermission(MODIFY_PHONE_STATE, "Need MODIFY_PHONE_STATE permission");
         synchronized (mStateMachines) {
             // Should stop all other audio mode in this case
@@ -1864,9 +1879,18 @@ public class HeadsetService extends ProfileService {
                 }
             }
         });
-        doForEachConnectedStateMachine(
-                stateMachine -> stateMachine.sendMessage(HeadsetStateMachine.CALL_STATE_CHANGED,
-                        new HeadsetCallState(numActive, numHeld, callState, number, type, name)));
+        final HeadsetCallState headsetCallState =
+                new HeadsetCallState(numActive, numHeld, callState, number, type, name);
+        if (isRefresh) {
+            doForEachConnectedStateMachine(
+                    stateMachine -> stateMachine.sendMessage(
+                            HeadsetStateMachine.CALL_STATE_CHANGED,
+                            HeadsetStateMachine.CALL_STATE_REFRESH, 0, headsetCallState));
+        } else {
+            doForEachConnectedStateMachine(
+                    stateMachine -> stateMachine.sendMessage(
+                            HeadsetStateMachine.CALL_STATE_CHANGED, headsetCallState));
+        }
         getStateMachinesThreadHandler().post(() -> {
             if (callState == HeadsetHalConstants.CALL_STATE_IDLE
                     && mSystemInterface.isCallIdle() && !isAudioOn()) {
@@ -1911,6 +1935,25 @@ public class HeadsetService extends ProfileService {
         }
     }
 
+    /**
+     * Sends the whole list of current calls at once, instead of one {@link #clccResponse} per
+     * call. The end marker is added after the calls, and each connected device gets the list in
+     * a single message.
+     *
+     * @param clccList the current calls, without the end marker
+     */
+    @RequiresPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
+    void clccResponseList(List<HeadsetClccResponse> clccList) {
+        enforceCallingOrSelfPermission(MODIFY_PHONE_STATE, "Need MODIFY_PHONE_STATE permission");
+        List<HeadsetClccResponse> list = new ArrayList<>(clccList.size() + 1);
+        list.addAll(clccList);
+        list.add(new HeadsetClccResponse(CLCC_END_MARK_INDEX, 0, 0, 0, false, null, 0));
+        final List<HeadsetClccResponse> responses = Collections.unmodifiableList(list);
+        doForEachConnectedStateMachine(
+                stateMachine -> stateMachine.sendMessage(
+                        HeadsetStateMachine.SEND_CLCC_RESPONSE_LIST, responses));
+    }
+
     private boolean sendVendorSpecificResultCode(BluetoothDevice device, String command,
             String arg) {
         synchronized (mStateMachines) {
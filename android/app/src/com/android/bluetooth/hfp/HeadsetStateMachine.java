@@ -58,6 +58,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
@@ -105,6 +106,12 @@ public class HeadsetStateMachine extends StateMachine {
     static final int SEND_BSIR = 13;
     static final int DIALING_OUT_RESULT = 14;
     static final int VOICE_RECOGNITION_RESULT = 15;
+    // message.obj is the list of HeadsetClccResponse, ended by the end marker
+    static final int SEND_CLCC_RESPONSE_LIST = 16;
+
+    // CALL_STATE_CHANGED message.arg1 when the call state is only sent again to update newly
+    // connected devices, and does not need to be sent to the devices that already have it
+    static final int CALL_STATE_REFRESH = 1;
 
     static final int STACK_EVENT = 101;
     private static final int CLCC_RSP_TIMEOUT = 104;
@@ -163,6 +170,8 @@ public class HeadsetStateMachine extends StateMachine {
     private boolean mNeedDialingOutReply;
     // Audio disconnect timeout retry count
     private int mAudioDisconnectRetry = 0;
+    // Last call state sent to the remote device, null until one is sent on this connection
+    private HeadsetCallState mLastCallState;
 
     private BluetoothSinkAudioPolicy mHsClientAudioPolicy;
 
@@ -498,6 +507,7 @@ public class HeadsetStateMachine extends StateMachine {
             mPhonebook.resetAtState();
             updateAgIndicatorEnableState(null);
             mNeedDialingOutReply = false;
+            mLastCallState = null;
             mHasWbsEnabled = false;
             mHasSwbLc3Enabled = false;
             mHasNrecEnabled = false;
@@ -943,10 +953,15 @@ public class HeadsetStateMachine extends StateMachine {
                 }
                 case CALL_STATE_CHANGED: {
                     HeadsetCallState callState = (HeadsetCallState) message.obj;
+                    if (message.arg1 == CALL_STATE_REFRESH && callState.equals(mLastCallState)) {
+                        stateLogD("processCallState: call state already up to date");
+                        break;
+                    }
                     if (!mNativeInterface.phoneStateChange(mDevice, callState)) {
                         stateLogW("processCallState: failed to update call state " + callState);
                         break;
                     }
+                    mLastCallState = callState;
                     break;
                 }
                 case DEVICE_STATE_CHANGED:
@@ -960,6 +975,12 @@ public class HeadsetStateMachine extends StateMachine {
                 case SEND_CLCC_RESPONSE:
                     processSendClccResponse((HeadsetClccResponse) message.obj);
                     break;
+                case SEND_CLCC_RESPONSE_LIST: {
+                    @SuppressWarnings("unchecked")
+                    List<HeadsetClccResponse> clccList = (List<HeadsetClccResponse>) message.obj;
+                    processSendClccResponseList(clccList);
+                    break;
+                }
                 case CLCC_RSP_TIMEOUT: {
                     BluetoothDevice device = (BluetoothDevice) message.obj;
                     if (!mDevice.equals(device)) {
@@ -2439,6 +2460,13 @@ public class HeadsetStateMachine extends StateMachine {
                 clcc.mMode, clcc.mMpty, clcc.mNumber, clcc.mType);
     }
 
+    @VisibleForTesting
+    void processSendClccResponseList(List<HeadsetClccResponse> clccList) {
+        for (HeadsetClccResponse clcc : clccList) {
+            processSendClccResponse(clcc);
+        }
+    }
+
     @VisibleForTesting
     void processSendVendorSpecificResultCode(HeadsetVendorSpecificResultCode resultCode) {
         String stringToSend = resultCode.mCommand + ": ";
@@ -2573,6 +2601,8 @@ public class HeadsetStateMachine extends StateMachine {
                 return "DEVICE_STATE_CHANGED";
             case SEND_CLCC_RESPONSE:
                 return "SEND_CLCC_RESPONSE";
+            case SEND_CLCC_RESPONSE_LIST:
+                return "SEND_CLCC_RESPONSE_LIST";
             case SEND_VENDOR_SPECIFIC_RESULT_CODE:
                 return "SEND_VENDOR_SPECIFIC_RESULT_CODE";
             case STACK_EVENT:
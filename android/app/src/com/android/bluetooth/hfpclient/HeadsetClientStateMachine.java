@@ -190,6 +190,13 @@ public class HeadsetClientStateMachine extends StateMachine {
     private boolean mAudioRouteAllowed;
 
     private final boolean mClccPollDuringCall;
+    // Whether the polling interval doubles while the calls do not change, the stack events of
+    // the AG triggering a poll right away on a change
+    private final boolean mClccAdaptivePoll;
+    private final long mClccMaxPollIntervalMillis;
+    // Number of consecutive CLCC responses without any change to the calls
+    @VisibleForTesting
+    int mClccStableResponses;
 
     public int mAudioPolicyRemoteSupported;
     private BluetoothSinkAudioPolicy mHsClientAudioPolicy;
@@ -529,6 +536,9 @@ public class HeadsetClientStateMachine extends StateMachine {
                 + " callAddedIds " + callAddedIds + " callRemovedIds " + callRemovedIds
                 + " callRetainedIds " + callRetainedIds);
 
+        boolean callsChanged = hfOriginatedAssoc != -1 || !callRemovedIds.isEmpty()
+                || !callAddedIds.isEmpty();
+
         // Terminate & remove the calls that are done.
         for (Integer idx : callRemovedIds) {
             HfpClientCall c = mCalls.remove(idx);
@@ -560,9 +570,12 @@ public class HeadsetClientStateMachine extends StateMachine {
 
                 // Send update with original object (UUID, idx).
                 sendCallChangedIntent(cOrig);
+                callsChanged = true;
             }
         }
 
+        mClccStableResponses = callsChanged ? 0 : mClccStableResponses + 1;
+
         if (mCalls.size() > 0) {
             // Continue polling even if not enabled until the new outgoing call is associated with
             // a valid call on the phone. The polling would at most continue until
@@ -570,13 +583,14 @@ public class HeadsetClientStateMachine extends StateMachine {
             // and terminates a call before the first QUERY_CURRENT_CALLS completes.
             if (mClccPollDuringCall
                     || (mCalls.containsKey(HF_ORIGINATED_CALL_ID))) {
-                sendMessageDelayed(QUERY_CURRENT_CALLS,
+                sendMessageDelayed(QUERY_CURRENT_CALLS, getClccPollIntervalMillis(
                         mService.getResources().getInteger(
-                        R.integer.hfp_clcc_poll_interval_during_call));
+                        R.integer.hfp_clcc_poll_interval_during_call)));
             } else {
                 if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
                     logD("Still have incoming call; polling");
-                    sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_CURRENT_CALLS_WAIT_MILLIS);
+                    sendMessageDelayed(QUERY_CURRENT_CALLS,
+                            getClccPollIntervalMillis(QUERY_CURRENT_CALLS_WAIT_MILLIS));
                 } else {
                     removeMessages(QUERY_CURRENT_CALLS);
                 }
@@ -586,6 +600,30 @@ public class HeadsetClientStateMachine extends StateMachine {
         mCallsUpdate.clear();
     }
 
+    // Returns the delay until the next CLCC poll, backing off while the calls do not change.
+    private long getClccPollIntervalMillis(long baseIntervalMillis) {
+        // Associate an outgoing call from the HF with a call of the AG as soon as possible
+        if (!mClccAdaptivePoll || mCalls.containsKey(HF_ORIGINATED_CALL_ID)) {
+            return baseIntervalMillis;
+        }
+        return getClccPollIntervalMillis(baseIntervalMillis, mClccStableResponses,
+                mClccMaxPollIntervalMillis);
+    }
+
+    /**
+     * Returns the delay until the next CLCC poll: the base interval doubled for each response
+     * without change, up to the maximum interval.
+     */
+    @VisibleForTesting
+    static long getClccPollIntervalMillis(long baseIntervalMillis, int stableResponses,
+            long maxIntervalMillis) {
+        long intervalMillis = baseIntervalMillis;
+        for (int i = 0; i < stableResponses && intervalMillis < maxIntervalMillis; i++) {
+            intervalMillis *= 2;
+        }
+        return Math.max(baseIntervalMillis, Math.min(intervalMillis, maxIntervalMillis));
+    }
+
     private void queryCallsUpdate(int id, int state, String number, boolean multiParty,
             boolean outgoing) {
         logD("queryCallsUpdate: " + id);
@@ -909,6 +947,13 @@ public class HeadsetClientStateMachine extends StateMachine {
         mClccPollDuringCall = SystemProperties.getBoolean(
             "bluetooth.hfp.clcc_poll_during_call.enabled",
             mService.getResources().getBoolean(R.bool.hfp_clcc_poll_during_call));
+        mClccAdaptivePoll = SystemProperties.getBoolean(
+            "bluetooth.hfp.clcc_adaptive_poll.enabled",
+            mService.getResources().getBoolean(R.bool.hfp_clcc_adaptive_poll));
+        mClccMaxPollIntervalMillis = mClccAdaptivePoll
+                ? mService.getResources().getInteger(
+                        R.integer.hfp_clcc_max_poll_interval_during_call)
+                : 0;
 
         mHsClientAudioPolicy = new BluetoothSinkAudioPolicy.Builder().build();
         mConnectingTimePolicyProperty = getAudioPolicySystemProp(
@@ -1533,12 +1578,12 @@ public class HeadsetClientStateMachine extends StateMachine {
                     // If there are ongoing calls periodically check their status.
                     if (mCalls.size() > 1
                             && mClccPollDuringCall) {
-                        sendMessageDelayed(QUERY_CURRENT_CALLS,
+                        sendMessageDelayed(QUERY_CURRENT_CALLS, getClccPollIntervalMillis(
                                 mService.getResources().getInteger(
-                                R.integer.hfp_clcc_poll_interval_during_call));
+                                R.integer.hfp_clcc_poll_interval_during_call)));
                     } else if (mCalls.size() > 0) {
                         sendMessageDelayed(QUERY_CURRENT_CALLS,
-                                QUERY_CURRENT_CALLS_WAIT_MILLIS);
+                                getClccPollIntervalMillis(QUERY_CURRENT_CALLS_WAIT_MILLIS));
                     }
                     queryCallsStart();
                     break;
@@ -1643,6 +1688,8 @@ public class HeadsetClientStateMachine extends StateMachine {
                         case StackEvent.EVENT_TYPE_RESP_AND_HOLD:
                         case StackEvent.EVENT_TYPE_CLIP:
                         case StackEvent.EVENT_TYPE_CALL_WAITING:
+                            // The calls are changing, poll right away and often again
+                            mClccStableResponses = 0;
                             sendMessage(QUERY_CURRENT_CALLS);
                             break;
                         case StackEvent.EVENT_TYPE_CURRENT_CALLS:
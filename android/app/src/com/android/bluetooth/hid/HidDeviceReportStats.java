@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hid;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Latency distribution of the HID device reports sent on the interrupt channel.
+ *
+ * <p>The latency of a report is measured from the moment the request enters {@link
+ * HidDeviceService} until the native stack accepted it, so that for a batch the reports queued
+ * behind the first one account for the time spent waiting for it. Samples are kept in a fixed
+ * histogram so that recording does not allocate. Not thread safe; callers synchronize on {@link
+ * HidDeviceService}.
+ */
+class HidDeviceReportStats {
+    /** Upper bounds, in microseconds, of every histogram bucket but the last one. */
+    @VisibleForTesting
+    static final long[] BUCKET_BOUNDS_US = {50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
+
+    private final long[] mBuckets = new long[BUCKET_BOUNDS_US.length + 1];
+    private long mReportCount;
+    private long mBatchCount;
+    private long mCoalescedCount;
+    private long mFailedCount;
+    private long mMaxLatencyUs;
+
+    void recordReport(long latencyUs, boolean success) {
+        if (!success) {
+            mFailedCount++;
+            return;
+        }
+        mReportCount++;
+        mMaxLatencyUs = Math.max(mMaxLatencyUs, latencyUs);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_US.length && latencyUs >= BUCKET_BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mBuckets[bucket]++;
+    }
+
+    void recordBatch(int coalesced) {
+        mBatchCount++;
+        mCoalescedCount += coalesced;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound, in microseconds, of the bucket holding the given percentile, or
+     *     the maximum latency seen if it falls in the last bucket
+     */
+    @VisibleForTesting
+    long getPercentileUs(int percentile) {
+        if (mReportCount == 0) {
+            return 0;
+        }
+        long rank = (mReportCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_US.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS_US[i], mMaxLatencyUs);
+            }
+        }
+        return mMaxLatencyUs;
+    }
+
+    @VisibleForTesting
+    long getReportCount() {
+        return mReportCount;
+    }
+
+    @VisibleForTesting
+    long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    void reset() {
+        Arrays.fill(mBuckets, 0);
+        mReportCount = 0;
+        mBatchCount = 0;
+        mCoalescedCount = 0;
+        mFailedCount = 0;
+        mMaxLatencyUs = 0;
+    }
+
+    void dump(StringBuilder sb) {
+        sb.append("  Reports: sent=").append(mReportCount)
+                .append(" failed=").append(mFailedCount)
+                .append(" batches=").append(mBatchCount)
+                .append(" coalesced=").append(mCoalescedCount)
+                .append("\n");
+        sb.append("  Report latency (us): p50=").append(getPercentileUs(50))
+                .append(" p90=").append(getPercentileUs(90))
+                .append(" p99=").append(getPercentileUs(99))
+                .append(" max=").append(mMaxLatencyUs)
+                .append("\n");
+        sb.append("  Report latency histogram (us):");
+        for (int i = 0; i < BUCKET_BOUNDS_US.length; i++) {
+            sb.append(" <").append(BUCKET_BOUNDS_US[i]).append(":").append(mBuckets[i]);
+        }
+        sb.append(" >=").append(BUCKET_BOUNDS_US[BUCKET_BOUNDS_US.length - 1])
+                .append(":").append(mBuckets[BUCKET_BOUNDS_US.length]);
+        sb.append("\n");
+    }
+}
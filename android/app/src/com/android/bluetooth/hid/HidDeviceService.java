@@ -37,6 +37,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
@@ -82,6 +83,7 @@ public class HidDeviceService extends ProfileService {
     private BluetoothDevice mHidDevice;
     private int mHidDeviceState = BluetoothHidDevice.STATE_DISCONNECTED;
     private int mUserUid = 0;
+    private final HidDeviceReportStats mReportStats = new HidDeviceReportStats();
     private IBluetoothHidDeviceCallback mCallback;
     private BluetoothHidDeviceDeathRecipient mDeathRcpt;
     private ActivityManager mActivityManager;
@@ -330,6 +332,19 @@ public class HidDeviceService extends ProfileService {
             return mService;
         }
 
+        /*
+         * Batches of reports come at a high rate from the registered app, whose permissions and
+         * user were checked by getService() when it registered: only check that the caller is
+         * still the registered app, instead of noting its permissions for every batch.
+         */
+        private HidDeviceService getServiceForReports(AttributionSource source) {
+            HidDeviceService service = mService;
+            if (service != null && service.isAvailable() && service.isRegisteredAppCaller()) {
+                return service;
+            }
+            return getService(source);
+        }
+
         @Override
         public void registerApp(BluetoothHidDeviceAppSdpSettings sdp,
                 BluetoothHidDeviceAppQosSettings inQos, BluetoothHidDeviceAppQosSettings outQos,
@@ -383,6 +398,23 @@ public class HidDeviceService extends ProfileService {
             }
         }
 
+        @Override
+        public void sendReports(BluetoothDevice device, int[] ids, byte[] data, int[] lengths,
+                boolean coalesce, AttributionSource source, SynchronousResultReceiver receiver) {
+            try {
+                if (DBG) Log.d(TAG, "sendReports(): device=" + device + " count=" + ids.length);
+                int defaultValue = 0;
+
+                HidDeviceService service = getServiceForReports(source);
+                if (service != null) {
+                    defaultValue = service.sendReports(device, ids, data, lengths, coalesce);
+                }
+                receiver.send(defaultValue);
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+
         @Override
         public void replyReport(BluetoothDevice device, byte type, byte id, byte[] data,
                 AttributionSource source, SynchronousResultReceiver receiver) {
@@ -569,6 +601,15 @@ public class HidDeviceService extends ProfileService {
         return true;
     }
 
+    /**
+     * Whether the binder caller is the registered app. The checks done when the app registered
+     * hold for as long as it stays registered: revoking a runtime permission kills the app, which
+     * unregisters it, and switching users restarts Bluetooth.
+     */
+    synchronized boolean isRegisteredAppCaller() {
+        return mUserUid != 0 && Binder.getCallingUid() == mUserUid;
+    }
+
     synchronized boolean registerApp(BluetoothHidDeviceAppSdpSettings sdp,
             BluetoothHidDeviceAppQosSettings inQos, BluetoothHidDeviceAppQosSettings outQos,
             IBluetoothHidDeviceCallback callback) {
@@ -646,8 +687,96 @@ public class HidDeviceService extends ProfileService {
             Log.d(TAG, "sendReport(): device=" + device + " id=" + id);
         }
 
-        return checkDevice(device) && checkCallingUid()
-                && mHidDeviceNativeInterface.sendReport(id, data);
+        if (!checkDevice(device) || !checkCallingUid()) {
+            return false;
+        }
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        boolean result = mHidDeviceNativeInterface.sendReport(id, data);
+        mReportStats.recordReport(
+                (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000, result);
+        return result;
+    }
+
+    /**
+     * Sends several reports on the interrupt channel, validating the caller only once.
+     *
+     * @param ids report ID of each report
+     * @param data the data of all the reports, concatenated
+     * @param lengths length of each report within {@code data}
+     * @param coalesce if true, only the last report of each report ID is sent
+     * @return the number of reports sent, stopping at the first failure, plus the number of
+     *     reports skipped for a later report of their ID that was sent
+     */
+    synchronized int sendReports(BluetoothDevice device, int[] ids, byte[] data, int[] lengths,
+            boolean coalesce) {
+        if (DBG) {
+            Log.d(TAG, "sendReports(): device=" + device + " count=" + ids.length
+                    + " coalesce=" + coalesce);
+        }
+
+        if (ids.length != lengths.length) {
+            Log.w(TAG, "sendReports(): ids and lengths mismatch");
+            return 0;
+        }
+        if (!checkDevice(device) || !checkCallingUid()) {
+            return 0;
+        }
+
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        int[] offsets = new int[ids.length];
+        int offset = 0;
+        for (int i = 0; i < ids.length; i++) {
+            offsets[i] = offset;
+            offset += lengths[i];
+            if (lengths[i] < 0 || offset > data.length) {
+                Log.w(TAG, "sendReports(): report " + i + " exceeds data");
+                return 0;
+            }
+        }
+
+        int sent = 0;
+        int failed = ids.length;
+        for (int i = 0; i < ids.length; i++) {
+            if (coalesce && lastIndexOfReport(ids, i) != i) {
+                continue;
+            }
+            byte[] report = Arrays.copyOfRange(data, offsets[i], offsets[i] + lengths[i]);
+            boolean result = mHidDeviceNativeInterface.sendReport(ids[i], report);
+            mReportStats.recordReport(
+                    (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000, result);
+            if (!result) {
+                failed = i;
+                break;
+            }
+            sent++;
+        }
+        // A skipped report is only coalesced once the report superseding it has been sent
+        int coalesced = 0;
+        if (coalesce) {
+            for (int i = 0; i < failed; i++) {
+                int last = lastIndexOfReport(ids, i);
+                if (last != i && last < failed) {
+                    coalesced++;
+                }
+            }
+        }
+        mReportStats.recordBatch(coalesced);
+        return sent + coalesced;
+    }
+
+    /* Index of the last report of the batch with the same report ID as the given one */
+    private static int lastIndexOfReport(int[] ids, int index) {
+        for (int i = ids.length - 1; i > index; i--) {
+            if (ids[i] == ids[index]) {
+                return i;
+            }
+        }
+        return index;
+    }
+
+    @VisibleForTesting
+    HidDeviceReportStats getReportStats() {
+        return mReportStats;
     }
 
     synchronized boolean replyReport(BluetoothDevice device, byte type, byte id, byte[] data) {
@@ -814,6 +943,16 @@ public class HidDeviceService extends ProfileService {
         return true;
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        println(sb, "mHidDevice: " + mHidDevice);
+        println(sb, "mUserUid: " + mUserUid);
+        synchronized (this) {
+            mReportStats.dump(sb);
+        }
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         Log.d(TAG, "Need to unregister app");
@@ -29,6 +29,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 public abstract class BluetoothMapbMessage {
@@ -55,6 +56,9 @@ public abstract class BluetoothMapbMessage {
 
     private int mBMsgLength = INVALID_VALUE;
 
+    /* Upper bound of the buffer preallocated from the untrusted LENGTH property */
+    private static final int MAX_INITIAL_BODY_CAPACITY = 64 * 1024;
+
     private ArrayList<VCard> mOriginator = null;
     private ArrayList<VCard> mRecipient = null;
 
@@ -244,143 +248,153 @@ public abstract class BluetoothMapbMessage {
             ArrayList<String> emailAddresses = null;
             ArrayList<String> btUids = null;
             ArrayList<String> btUcis = null;
-            String[] parts;
-            String line = reader.getLineEnforce();
+            String value;
+            BluetoothMapbMessageTokenizer tokenizer = reader.nextLineEnforce();
 
-            while (!line.contains("END:VCARD")) {
-                line = line.trim();
+            while (!tokenizer.lineContains("END:VCARD")) {
+                String line = tokenizer.getLine().trim();
                 if (line.startsWith("N:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
-                    if (parts.length == 2) {
-                        name = parts[1];
-                    } else {
-                        name = "";
-                    }
+                    value = getPropertyValue(line);
+                    name = (value != null) ? value : "";
                 } else if (line.startsWith("FN:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
-                    if (parts.length == 2) {
-                        formattedName = parts[1];
-                    } else {
-                        formattedName = "";
-                    }
+                    value = getPropertyValue(line);
+                    formattedName = (value != null) ? value : "";
                 } else if (line.startsWith("TEL:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    value = getPropertyValue(line);
+                    if (value != null) {
                         if (phoneNumbers == null) {
                             phoneNumbers = new ArrayList<String>(1);
                         }
                         // only keep actual phone number
-                        phoneNumbers.add(subParts[subParts.length - 1]);
+                        phoneNumbers.add(getLastPart(value, ';'));
                     }
                     // Empty phone number - ignore
                 } else if (line.startsWith("EMAIL:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" :
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    value = getPropertyValue(line);
+                    if (value != null) {
                         if (emailAddresses == null) {
                             emailAddresses = new ArrayList<String>(1);
                         }
                         // only keep actual email address
-                        emailAddresses.add(subParts[subParts.length - 1]);
+                        emailAddresses.add(getLastPart(value, ';'));
                     }
                     // Empty email address entry - ignore
                 } else if (line.startsWith("X-BT-UCI:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" :
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    value = getPropertyValue(line);
+                    if (value != null) {
                         if (btUcis == null) {
                             btUcis = new ArrayList<String>(1);
                         }
-                        btUcis.add(subParts[subParts.length - 1]); // only keep actual UCI
+                        btUcis.add(getLastPart(value, ';')); // only keep actual UCI
                     }
                     // Empty UCIentry - ignore
                 } else if (line.startsWith("X-BT-UID:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" :
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    value = getPropertyValue(line);
+                    if (value != null) {
                         if (btUids == null) {
                             btUids = new ArrayList<String>(1);
                         }
-                        btUids.add(subParts[subParts.length - 1]); // only keep actual UID
+                        btUids.add(getLastPart(value, ';')); // only keep actual UID
                     }
                     // Empty UID entry - ignore
                 }
 
-
-                line = reader.getLineEnforce();
+                reader.nextLineEnforce();
             }
             return new VCard(name, formattedName, phoneNumbers == null ? null
                     : phoneNumbers.toArray(new String[phoneNumbers.size()]),
                     emailAddresses == null ? null
                             : emailAddresses.toArray(new String[emailAddresses.size()]), envLevel);
         }
+
+        /**
+         * Get the value of a vCard property line, that is the text following the first
+         * un-escaped ':'.
+         * @return the value, or null if it is empty or holds another un-escaped ':'
+         */
+        @VisibleForTesting
+        static String getPropertyValue(String line) {
+            int colon = indexOfUnescaped(line, ':', 1);
+            if (colon < 0 || colon == line.length() - 1) {
+                return null;
+            }
+            if (indexOfUnescaped(line, ':', colon + 2) >= 0) {
+                return null;
+            }
+            return line.substring(colon + 1);
+        }
+
+        /**
+         * Get the last part of a value made of parts separated by an un-escaped separator.
+         * Trailing empty parts are ignored.
+         */
+        @VisibleForTesting
+        static String getLastPart(String value, char separator) {
+            int end = value.length();
+            while (end > 1 && value.charAt(end - 1) == separator
+                    && value.charAt(end - 2) != '\\') {
+                end--;
+            }
+            for (int i = end - 1; i >= 1; i--) {
+                if (value.charAt(i) == separator && value.charAt(i - 1) != '\\') {
+                    return value.substring(i + 1, end);
+                }
+            }
+            return value.substring(0, end);
+        }
+
+        /* Index of the first occurrence of c at or after from, that is not preceded by '\' */
+        private static int indexOfUnescaped(String str, char c, int from) {
+            for (int i = Math.max(from, 1); i < str.length(); i++) {
+                if (str.charAt(i) == c && str.charAt(i - 1) != '\\') {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
     ;
 
     @VisibleForTesting
     static class BMsgReader {
-        InputStream mInStream;
+        final BluetoothMapbMessageTokenizer mTokenizer;
 
         BMsgReader(InputStream is) {
-            this.mInStream = is;
+            mTokenizer = new BluetoothMapbMessageTokenizer(is);
         }
 
-        private byte[] getLineAsBytes() {
-            int readByte;
-
-            /* TODO: Actually the vCard spec. allows to break lines by using a newLine
-             * followed by a white space character(space or tab). Not sure this is a good idea to
-             * implement as the Bluetooth MAP spec. illustrates vCards using tab alignment,
-             * hence actually showing an invalid vCard format...
-             * If we read such a folded line, the folded part will be skipped in the parser
-             * UPDATE: Check if we actually do unfold before parsing the input stream
-             */
-
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
+        /**
+         * Advance to the next line of the BMessage.
+         * @return false at end of file, or if an I/O error occurred.
+         */
+        private boolean nextLine() {
             try {
-                while ((readByte = mInStream.read()) != -1) {
-                    if (readByte == '\r') {
-                        if ((readByte = mInStream.read()) != -1 && readByte == '\n') {
-                            if (output.size() == 0) {
-                                continue; /* Skip empty lines */
-                            } else {
-                                break;
-                            }
-                        } else {
-                            output.write('\r');
-                        }
-                    } else if (readByte == '\n' && output.size() == 0) {
-                        /* Empty line - skip */
-                        continue;
-                    }
-
-                    output.write(readByte);
-                }
+                return mTokenizer.nextLine();
             } catch (IOException e) {
                 Log.w(TAG, e);
-                return null;
+                return false;
             }
-            return output.toByteArray();
+        }
+
+        /**
+         * same as nextLine(), but throws an exception, if we run out of lines.
+         * Use this function when ever more lines are needed for the bMessage to be complete.
+         * @return the tokenizer, positioned on the next line
+         */
+        BluetoothMapbMessageTokenizer nextLineEnforce() {
+            if (!nextLine()) {
+                throw new IllegalArgumentException("Bmessage too short");
+            }
+            return mTokenizer;
         }
 
         /**
          * Read a line of text from the BMessage.
-         * @return the next line of text, or null at end of file, or if UTF-8 is not supported.
+         * @return the next line of text, or null at end of file.
          */
         public String getLine() {
-            try {
-                byte[] line = getLineAsBytes();
-                if (line.length == 0) {
-                    return null;
-                } else {
-                    return new String(line, "UTF-8");
-                }
-            } catch (UnsupportedEncodingException e) {
-                Log.w(TAG, e);
-                return null;
-            }
+            return nextLine() ? mTokenizer.getLine() : null;
         }
 
         /**
@@ -389,15 +403,9 @@ public abstract class BluetoothMapbMessage {
          * @return the next line
          */
         public String getLineEnforce() {
-            String line = getLine();
-            if (line == null) {
-                throw new IllegalArgumentException("Bmessage too short");
-            }
-
-            return line;
+            return nextLineEnforce().getLine();
         }
 
-
         /**
          * Reads a line from the InputStream, and examines if the subString
          * matches the line read.
@@ -408,12 +416,11 @@ public abstract class BluetoothMapbMessage {
          *
          */
         public void expect(String subString) throws IllegalArgumentException {
-            String line = getLine();
-            if (line == null || subString == null) {
+            if (!nextLine() || subString == null) {
                 throw new IllegalArgumentException("Line or substring is null");
-            } else if (!line.toUpperCase().contains(subString.toUpperCase())) {
+            } else if (!mTokenizer.lineContainsIgnoreCase(subString)) {
                 throw new IllegalArgumentException(
-                        "Expected \"" + subString + "\" in: \"" + line + "\"");
+                        "Expected \"" + subString + "\" in: \"" + mTokenizer.getLine() + "\"");
             }
         }
 
@@ -423,14 +430,16 @@ public abstract class BluetoothMapbMessage {
          * @throws IllegalArgumentException If one of the strings are not found.
          */
         public void expect(String subString, String subString2) throws IllegalArgumentException {
-            String line = getLine();
-            if (!line.toUpperCase().contains(subString.toUpperCase())) {
+            if (!nextLine()) {
+                throw new IllegalArgumentException("Line is null");
+            }
+            if (!mTokenizer.lineContainsIgnoreCase(subString)) {
                 throw new IllegalArgumentException(
-                        "Expected \"" + subString + "\" in: \"" + line + "\"");
+                        "Expected \"" + subString + "\" in: \"" + mTokenizer.getLine() + "\"");
             }
-            if (!line.toUpperCase().contains(subString2.toUpperCase())) {
+            if (!mTokenizer.lineContainsIgnoreCase(subString2)) {
                 throw new IllegalArgumentException(
-                        "Expected \"" + subString + "\" in: \"" + line + "\"");
+                        "Expected \"" + subString + "\" in: \"" + mTokenizer.getLine() + "\"");
             }
         }
 
@@ -441,22 +450,12 @@ public abstract class BluetoothMapbMessage {
          * reached before length bytes have been read.
          */
         public byte[] getDataBytes(int length) {
-            byte[] data = new byte[length];
             try {
-                int bytesRead;
-                int offset = 0;
-                while ((bytesRead = mInStream.read(data, offset, length - offset)) != (length
-                        - offset)) {
-                    if (bytesRead == -1) {
-                        return null;
-                    }
-                    offset += bytesRead;
-                }
+                return mTokenizer.readBytes(length);
             } catch (IOException e) {
                 Log.w(TAG, e);
                 return null;
             }
-            return data;
         }
     }
 
@@ -769,20 +768,22 @@ public abstract class BluetoothMapbMessage {
                  * content, it is now safe to use the END:MSG tag as terminator, and simply ignore
                  * the length field.*/
 
-                // Read until we receive END:MSG as some carkits send bad message lengths
-                String data = "";
-                String messageLine = "";
-                while (!messageLine.equals("END:MSG")) {
-                    data += messageLine;
-                    messageLine = reader.getLineEnforce();
-                }
-
+                // Read until we receive END:MSG as some carkits send bad message lengths.
                 // The MAP spec says that all END:MSG strings in the body
                 // of the message must be escaped upon encoding and the
-                // escape removed upon decoding
-                data = data.replaceAll("([/]*)/END\\:MSG", "$1END:MSG").trim();
+                // escape removed upon decoding, which the tokenizer does.
+                ByteArrayOutputStream data = new ByteArrayOutputStream(
+                        Math.min(Math.max(mBMsgLength, 0), MAX_INITIAL_BODY_CAPACITY));
+                try {
+                    if (!reader.mTokenizer.readMessageContent(data)) {
+                        throw new IllegalArgumentException("Bmessage too short");
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, e);
+                    throw new IllegalArgumentException("Bmessage too short");
+                }
 
-                parseMsgPart(data);
+                parseMsgPart(data.toString(StandardCharsets.UTF_8).trim());
             }
             line = reader.getLineEnforce();
         }
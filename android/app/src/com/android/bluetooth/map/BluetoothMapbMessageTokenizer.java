@@ -0,0 +1,397 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Single pass, regex free tokenizer for bMessage objects (MAP v1.4 section 3.1.3), shared by
+ * the MAP server ({@link BluetoothMapbMessage}) and the MAP client.
+ *
+ * <p>The tokenizer works on raw bytes, either read from an {@link InputStream} through an
+ * internal buffer, or directly over a caller owned array without copying it. Lines are
+ * terminated by CRLF and empty lines are skipped. The current line is kept as a slice of the
+ * buffer, and is only decoded to a {@link String} when asked for, so that property names can be
+ * matched without allocating.
+ *
+ * <p>Body content can be read as raw bytes, or, when the tokenizer is array backed, decoded or
+ * streamed straight from the underlying array, so that large message bodies are never copied
+ * line by line.
+ */
+public final class BluetoothMapbMessageTokenizer {
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final byte[] END_MSG = {'E', 'N', 'D', ':', 'M', 'S', 'G'};
+
+    private final InputStream mInStream;
+    private final int mArrayOffset;
+
+    private byte[] mBuffer;
+    private int mLimit;
+    private int mPos;
+
+    /* Number of stream bytes discarded from the front of mBuffer */
+    private long mDiscarded;
+
+    private int mLineStart = -1;
+    private int mLineEnd = -1;
+
+    /** Creates a tokenizer reading from a stream through an internal buffer. */
+    public BluetoothMapbMessageTokenizer(InputStream inStream) {
+        mInStream = inStream;
+        mArrayOffset = 0;
+        mBuffer = new byte[BUFFER_SIZE];
+    }
+
+    /** Creates a tokenizer over a part of an array. The array is used in place. */
+    public BluetoothMapbMessageTokenizer(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        mInStream = null;
+        mArrayOffset = offset;
+        mBuffer = data;
+        mPos = offset;
+        mLimit = offset + length;
+    }
+
+    /** @return whether the tokenizer works in place over an array */
+    public boolean isArrayBacked() {
+        return mInStream == null;
+    }
+
+    /**
+     * Advances to the next non empty line.
+     *
+     * @return false if the end of the data has been reached
+     */
+    public boolean nextLine() throws IOException {
+        // Skip empty lines, and stray LFs at the start of a line
+        while (true) {
+            if (!ensureAvailable(1)) {
+                mLineStart = mLineEnd = -1;
+                return false;
+            }
+            byte b = mBuffer[mPos];
+            if (b == '\n') {
+                mPos++;
+            } else if (b == '\r') {
+                if (!ensureAvailable(2)) {
+                    break;
+                }
+                if (mBuffer[mPos + 1] != '\n') {
+                    break;
+                }
+                mPos += 2;
+            } else {
+                break;
+            }
+        }
+
+        int scan = mPos;
+        while (true) {
+            if (scan + 1 >= mLimit) {
+                int consumed = scan - mPos;
+                if (!fill()) {
+                    // Last line, without a terminating CRLF
+                    mLineStart = mPos;
+                    mLineEnd = mLimit;
+                    mPos = mLimit;
+                    return true;
+                }
+                scan = mPos + consumed;
+                continue;
+            }
+            if (mBuffer[scan] == '\r' && mBuffer[scan + 1] == '\n') {
+                mLineStart = mPos;
+                mLineEnd = scan;
+                mPos = scan + 2;
+                return true;
+            }
+            scan++;
+        }
+    }
+
+    /** @return whether there is a current line */
+    public boolean hasLine() {
+        return mLineStart >= 0;
+    }
+
+    /** @return the length in bytes of the current line */
+    public int lineLength() {
+        return mLineEnd - mLineStart;
+    }
+
+    /** @return whether the current line starts with the given ASCII text */
+    public boolean lineStartsWith(String prefix) {
+        return regionMatches(mLineStart, prefix, false);
+    }
+
+    /** @return whether the current line is exactly the given ASCII text */
+    public boolean lineEquals(String text) {
+        return lineLength() == text.length() && regionMatches(mLineStart, text, false);
+    }
+
+    /** @return whether the current line contains the given ASCII text */
+    public boolean lineContains(String text) {
+        return indexOf(text, false) >= 0;
+    }
+
+    /** @return whether the current line contains the given ASCII text, ignoring case */
+    public boolean lineContainsIgnoreCase(String text) {
+        return indexOf(text, true) >= 0;
+    }
+
+    /** @return the current line, decoded as UTF-8 */
+    public String getLine() {
+        return new String(mBuffer, mLineStart, lineLength(), StandardCharsets.UTF_8);
+    }
+
+    /** @return the offset within the current line of its first ':', or -1 if there is none */
+    public int indexOfColon() {
+        for (int i = mLineStart; i < mLineEnd; i++) {
+            if (mBuffer[i] == ':') {
+                return i - mLineStart;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the part of the current line before its first ':', or null if there is none */
+    public String getName() {
+        int colon = indexOfColon();
+        if (colon < 0) {
+            return null;
+        }
+        return new String(mBuffer, mLineStart, colon, StandardCharsets.UTF_8);
+    }
+
+    /** @return the part of the current line after its first ':', or null if there is none */
+    public String getValue() {
+        int colon = indexOfColon();
+        if (colon < 0) {
+            return null;
+        }
+        return new String(mBuffer, mLineStart + colon + 1, lineLength() - colon - 1,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the position of the start of the current line, counted in bytes from the start of
+     *     the data
+     */
+    public long getLinePosition() {
+        return mDiscarded + mLineStart - mArrayOffset;
+    }
+
+    /** @return the position of the next unread byte, counted from the start of the data */
+    public long getPosition() {
+        return mDiscarded + mPos - mArrayOffset;
+    }
+
+    /**
+     * Moves the read position of an array backed tokenizer. The current line is invalidated.
+     *
+     * @param position the new position, counted from the start of the data
+     */
+    public void seek(int position) {
+        if (!isArrayBacked()) {
+            throw new IllegalStateException("Cannot seek a stream backed tokenizer");
+        }
+        if (position < 0 || mArrayOffset + position > mLimit) {
+            throw new IndexOutOfBoundsException("Invalid position " + position);
+        }
+        mPos = mArrayOffset + position;
+        mLineStart = mLineEnd = -1;
+    }
+
+    /** @return the number of bytes left to read, for array backed tokenizers */
+    public int remaining() {
+        if (!isArrayBacked()) {
+            throw new IllegalStateException("Unknown length of a stream backed tokenizer");
+        }
+        return mLimit - mPos;
+    }
+
+    /**
+     * Returns a stream over part of an array backed tokenizer, without copying the bytes and
+     * without moving the read position.
+     *
+     * @param position the start of the part, counted from the start of the data
+     * @param length the number of bytes
+     */
+    public InputStream openStream(int position, int length) {
+        checkRange(position, length);
+        return new ByteArrayInputStream(mBuffer, mArrayOffset + position, length);
+    }
+
+    /**
+     * Decodes part of an array backed tokenizer, without moving the read position.
+     *
+     * @param position the start of the text, counted from the start of the data
+     * @param length the number of bytes
+     */
+    public String decode(int position, int length) {
+        checkRange(position, length);
+        return new String(mBuffer, mArrayOffset + position, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads raw bytes.
+     *
+     * @param length the number of bytes to read
+     * @return the bytes, or null if the end of the data is reached before length bytes are read
+     */
+    public byte[] readBytes(int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        int copied = Math.min(length, mLimit - mPos);
+        System.arraycopy(mBuffer, mPos, data, 0, copied);
+        mPos += copied;
+        mLineStart = mLineEnd = -1;
+        if (copied == length) {
+            return data;
+        }
+        if (isArrayBacked()) {
+            return null;
+        }
+        while (copied < length) {
+            int read = mInStream.read(data, copied, length - copied);
+            if (read < 0) {
+                return null;
+            }
+            copied += read;
+            mDiscarded += read;
+        }
+        return data;
+    }
+
+    /**
+     * Reads the lines of a 'message' up to, and excluding, the "END:MSG" line. Lines are
+     * concatenated without their CRLF, and the escaping of "END:MSG" inside the content (MAP
+     * errata 5.8.12) is removed.
+     *
+     * @param out where the content is written
+     * @return false if the end of the data is reached before "END:MSG"
+     */
+    public boolean readMessageContent(ByteArrayOutputStream out) throws IOException {
+        while (nextLine()) {
+            if (lineEquals("END:MSG")) {
+                return true;
+            }
+            int start = mLineStart;
+            for (int i = mLineStart; i + END_MSG.length < mLineEnd; i++) {
+                if (mBuffer[i] == '/' && matchesEndMsg(i + 1)) {
+                    // Drop the escaping '/'
+                    out.write(mBuffer, start, i - start);
+                    start = i + 1;
+                    i += END_MSG.length;
+                }
+            }
+            out.write(mBuffer, start, mLineEnd - start);
+        }
+        return false;
+    }
+
+    private void checkRange(int position, int length) {
+        if (!isArrayBacked()) {
+            throw new IllegalStateException("Not an array backed tokenizer");
+        }
+        if (position < 0 || length < 0 || mArrayOffset + position + length > mLimit) {
+            throw new IndexOutOfBoundsException("Invalid range " + position + "+" + length);
+        }
+    }
+
+    private boolean matchesEndMsg(int index) {
+        for (int j = 0; j < END_MSG.length; j++) {
+            if (mBuffer[index + j] != END_MSG[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(String text, boolean ignoreCase) {
+        if (mLineStart < 0) {
+            return -1;
+        }
+        for (int i = mLineStart; i + text.length() <= mLineEnd; i++) {
+            if (regionMatches(i, text, ignoreCase)) {
+                return i - mLineStart;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(int index, String text, boolean ignoreCase) {
+        if (mLineStart < 0 || index + text.length() > mLineEnd) {
+            return false;
+        }
+        for (int j = 0; j < text.length(); j++) {
+            int b = mBuffer[index + j];
+            int c = text.charAt(j);
+            if (b != c && (!ignoreCase || toUpperAscii(b) != toUpperAscii(c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toUpperAscii(int c) {
+        return (c >= 'a' && c <= 'z') ? c - ('a' - 'A') : c;
+    }
+
+    private boolean ensureAvailable(int count) throws IOException {
+        while (mLimit - mPos < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Reads more data at the end of the buffer, keeping the bytes from mPos on */
+    private boolean fill() throws IOException {
+        if (isArrayBacked()) {
+            return false;
+        }
+        if (mPos > 0) {
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+            mDiscarded += mPos;
+            mLimit -= mPos;
+            mPos = 0;
+            mLineStart = mLineEnd = -1;
+        }
+        if (mLimit == mBuffer.length) {
+            // A single line is larger than the buffer
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        }
+        int read = mInStream.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read <= 0) {
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+}
@@ -28,7 +28,6 @@ import com.android.vcard.VCardParser_V30;
 import com.android.vcard.exception.VCardException;
 import com.android.vcard.exception.VCardVersionException;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
@@ -38,8 +37,6 @@ class BmessageParser {
     private static final String TAG = "BmessageParser";
     private static final boolean DBG = MapClientService.DBG;
 
-    private static final String CRLF = "\r\n";
-
     private static final Property BEGIN_BMSG = new Property("BEGIN", "BMSG");
     private static final Property END_BMSG = new Property("END", "BMSG");
 
@@ -64,20 +61,29 @@ class BmessageParser {
     private static final int MSG_CONTAINER_LEN = 22;
     private final Bmessage mBmsg;
     private BmsgTokenizer mParser;
+    private int mVcardEnd;
 
     private BmessageParser() {
         mBmsg = new Bmessage();
     }
 
     public static Bmessage createBmessage(String str) {
+        return createBmessage(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a bMessage in place. The attributes are all UTF-8 encoded; the message body is
+     * decoded once, straight from the given array.
+     */
+    public static Bmessage createBmessage(byte[] data) {
         BmessageParser p = new BmessageParser();
 
         if (DBG) {
-            Log.d(TAG, "actual wired contents: " + str);
+            Log.d(TAG, "actual wired contents: " + new String(data, StandardCharsets.UTF_8));
         }
 
         try {
-            p.parse(str);
+            p.parse(data);
         } catch (IOException e) {
             Log.e(TAG, "I/O exception when parsing bMessage", e);
             return null;
@@ -101,17 +107,17 @@ class BmessageParser {
             first = false;
         }
 
-        return new ParseException("Expected: " + sb.toString(), mParser.pos());
+        return new ParseException("Expected: " + sb.toString(), mParser.linePos());
     }
 
-    private void parse(String str) throws IOException, ParseException {
+    private void parse(byte[] data) throws IOException, ParseException {
         Property prop;
 
         /*
          * <bmessage-object>::= { "BEGIN:BMSG" <CRLF> <bmessage-property>
          * [<bmessage-originator>]* <bmessage-envelope> "END:BMSG" <CRLF> }
          */
-        mParser = new BmsgTokenizer(str + CRLF);
+        mParser = new BmsgTokenizer(data);
 
         prop = mParser.next();
         if (!prop.equals(BEGIN_BMSG)) {
@@ -123,10 +129,10 @@ class BmessageParser {
         while (prop.equals(BEGIN_VCARD)) {
             /* <bmessage-originator>::= <vcard> <CRLF> */
 
-            StringBuilder vcard = new StringBuilder();
-            prop = extractVcard(vcard);
+            int vcardStart = mParser.linePos();
+            prop = extractVcard();
 
-            VCardEntry entry = parseVcard(vcard.toString());
+            VCardEntry entry = parseVcard(vcardStart);
             mBmsg.mOriginators.add(entry);
         }
 
@@ -214,11 +220,11 @@ class BmessageParser {
 
             /* <bmessage-originator>::= <vcard> <CRLF> */
 
-            StringBuilder vcard = new StringBuilder();
-            prop = extractVcard(vcard);
+            int vcardStart = mParser.linePos();
+            prop = extractVcard();
 
             if (level == 1) {
-                VCardEntry entry = parseVcard(vcard.toString());
+                VCardEntry entry = parseVcard(vcardStart);
                 mBmsg.mRecipients.add(entry);
             }
         }
@@ -304,32 +310,28 @@ class BmessageParser {
 
         int messageLen = mBmsg.mBbodyLength - MSG_CONTAINER_LEN;
         int offset = messageLen + CRLF_LEN;
-        int restartPos = mParser.pos() + offset;
+        int messageStart = mParser.pos();
         /*
-         * length is specified in bytes so we need to convert from unicode
-         * string back to bytes array
+         * length is specified in bytes, which is how the bMessage is parsed, so the message can
+         * be located without decoding the remaining data
          */
-        String remng = mParser.remaining();
-        byte[] data = remng.getBytes();
+        int remaining = mParser.remaining();
 
-        if (offset < 0 || offset > data.length) {
+        if (offset < 0 || offset > remaining) {
             /* Handle possible exception for incorrect LENGTH value
              * from MSE while parsing end of props */
             throw new ParseException("Invalid LENGTH value", mParser.pos());
         }
 
         /* restart parsing from after 'message'<CRLF> */
-        mParser = new BmsgTokenizer(new String(data, offset, data.length - offset), restartPos);
+        mParser.seek(messageStart + offset);
 
         prop = mParser.next(true);
 
         if (prop != null) {
-            if (prop.equals(END_MSG)) {
-                if ("UTF-8".equals(mBmsg.mBbodyCharset)) {
-                    mBmsg.mMessage = new String(data, 0, messageLen, StandardCharsets.UTF_8);
-                } else {
-                    mBmsg.mMessage = new String(data, 0, messageLen);
-                }
+            if (prop.equals(END_MSG) && isOnlyEmptyLines(messageStart + offset)) {
+                /* other charsets used to be decoded with the platform default, UTF-8 too */
+                mBmsg.mMessage = mParser.decode(messageStart, messageLen);
             } else {
                 /* Handle possible exception for incorrect LENGTH value
                  * from MSE while parsing  GET Message response */
@@ -338,13 +340,13 @@ class BmessageParser {
                 throw expected(END_MSG);
             }
         } else {
-            data = null;
-
             /*
              * now we check if bMessage can be parsed if LENGTH is handled as
              * number of characters instead of number of bytes
              */
-            if (offset < 0 || offset > remng.length()) {
+            String remng = mParser.decode(messageStart, remaining);
+
+            if (offset > remng.length()) {
                 /* Handle possible exception for incorrect LENGTH value
                  * from MSE while parsing  GET Message response */
                 throw new ParseException("Invalid LENGTH value", mParser.pos());
@@ -352,7 +354,8 @@ class BmessageParser {
 
             Log.w(TAG, "byte LENGTH seems to be invalid, trying with char length");
 
-            mParser = new BmsgTokenizer(remng.substring(offset));
+            mParser.seek(messageStart
+                    + remng.substring(0, offset).getBytes(StandardCharsets.UTF_8).length);
 
             prop = mParser.next();
 
@@ -376,21 +379,33 @@ class BmessageParser {
         return mParser.next();
     }
 
-    private Property extractVcard(StringBuilder out) throws IOException, ParseException {
-        Property prop;
+    /* Whether only empty lines were skipped from the given position to the current property */
+    private boolean isOnlyEmptyLines(int position) {
+        String skipped = mParser.decode(position, mParser.linePos() - position);
+        for (int i = 0; i < skipped.length(); i += CRLF_LEN) {
+            if (!skipped.startsWith("\r\n", i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        out.append(BEGIN_VCARD).append(CRLF);
+    /* Skips a vCard, whose BEGIN:VCARD line has just been read, up to its END:VCARD<CRLF> */
+    private Property extractVcard() throws IOException, ParseException {
+        Property prop;
 
         do {
             prop = mParser.next();
-            out.append(prop).append(CRLF);
         } while (!prop.equals(END_VCARD));
 
+        mVcardEnd = mParser.pos();
         return mParser.next();
     }
 
-    private VCardEntry parseVcard(String str) throws IOException, ParseException {
+    /* Parses the vCard extracted last, straight from the bMessage */
+    private VCardEntry parseVcard(int start) throws IOException, ParseException {
         VCardEntry vcard = null;
+        int length = mVcardEnd - start;
 
         try {
             VCardParser p = new VCardParser_V21();
@@ -398,7 +413,7 @@ class BmessageParser {
             VcardHandler handler = new VcardHandler();
             c.addEntryHandler(handler);
             p.addInterpreter(c);
-            p.parse(new ByteArrayInputStream(str.getBytes()));
+            p.parse(mParser.openStream(start, length));
 
             vcard = handler.vcard;
 
@@ -409,7 +424,7 @@ class BmessageParser {
                 VcardHandler handler = new VcardHandler();
                 c.addEntryHandler(handler);
                 p.addInterpreter(c);
-                p.parse(new ByteArrayInputStream(str.getBytes()));
+                p.parse(mParser.openStream(start, length));
 
                 vcard = handler.vcard;
 
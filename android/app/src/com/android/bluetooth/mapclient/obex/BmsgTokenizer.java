@@ -18,65 +18,79 @@ package com.android.bluetooth.mapclient;
 
 import android.util.Log;
 
+import com.android.bluetooth.map.BluetoothMapbMessageTokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Splits a bMessage into "name:value" properties, on top of the {@link
+ * BluetoothMapbMessageTokenizer} shared with the MAP server. The bMessage is parsed in place,
+ * without being decoded to a {@link String} first.
+ */
 public final class BmsgTokenizer {
     private static final String TAG = "BmsgTokenizer";
     private static final boolean VDBG = MapClientService.VDBG;
 
-    private final String mStr;
-
-    private final Matcher mMatcher;
-    private final int mOffset;
-    private int mPos = 0;
+    private final BluetoothMapbMessageTokenizer mTokenizer;
 
-    public BmsgTokenizer(String str) {
-        this(str, 0);
-    }
-
-    public BmsgTokenizer(String str, int offset) {
-        mStr = str;
-        mOffset = offset;
-        mMatcher = Pattern.compile("(([^:]*):(.*))?\r\n").matcher(str);
-        mPos = mMatcher.regionStart();
+    public BmsgTokenizer(byte[] data) {
+        mTokenizer = new BluetoothMapbMessageTokenizer(data, 0, data.length);
     }
 
     public Property next(boolean alwaysReturn) throws ParseException {
-        boolean found = false;
-
-        do {
-            mMatcher.region(mPos, mMatcher.regionEnd());
-
-            if (!mMatcher.lookingAt()) {
-                if (alwaysReturn) {
-                    return null;
-                }
+        boolean found;
+        try {
+            found = mTokenizer.nextLine() && mTokenizer.indexOfColon() >= 0;
+        } catch (IOException e) {
+            // Not thrown by array backed tokenizers
+            found = false;
+        }
 
-                throw new ParseException("Property or empty line expected", pos());
+        if (!found) {
+            if (alwaysReturn) {
+                return null;
             }
 
-            mPos = mMatcher.end();
-
-            if (mMatcher.group(1) != null) {
-                found = true;
-            }
-        } while (!found);
+            throw new ParseException("Property or empty line expected", linePos());
+        }
 
-        return new Property(mMatcher.group(2), mMatcher.group(3));
+        return new Property(mTokenizer.getName(), mTokenizer.getValue());
     }
 
     public Property next() throws ParseException {
         return next(false);
     }
 
-    public String remaining() {
-        return mStr.substring(mPos);
+    /** @return the position of the next unread byte */
+    public int pos() {
+        return (int) mTokenizer.getPosition();
     }
 
-    public int pos() {
-        return mPos + mOffset;
+    /** @return the position of the start of the last property returned */
+    public int linePos() {
+        return mTokenizer.hasLine() ? (int) mTokenizer.getLinePosition() : pos();
+    }
+
+    /** @return the number of bytes left */
+    public int remaining() {
+        return mTokenizer.remaining();
+    }
+
+    /** Moves the read position; see {@link BluetoothMapbMessageTokenizer#seek}. */
+    public void seek(int position) {
+        mTokenizer.seek(position);
+    }
+
+    /** Decodes part of the bMessage as UTF-8, without moving the read position. */
+    public String decode(int position, int length) {
+        return mTokenizer.decode(position, length);
+    }
+
+    /** Returns a stream over part of the bMessage, without copying it. */
+    public InputStream openStream(int position, int length) {
+        return mTokenizer.openStream(position, length);
     }
 
     public static class Property {
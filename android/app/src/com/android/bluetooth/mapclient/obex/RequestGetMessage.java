@@ -32,8 +32,6 @@ import com.android.obex.ResponseCodes;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 
 class RequestGetMessage extends Request {
 
@@ -74,19 +72,10 @@ class RequestGetMessage extends Request {
             Log.e(TAG, "I/O exception while reading response", e);
         }
 
-        // Convert the input stream using UTF-8 since the attributes in the payload are all encoded
-        // according to it. The actual message body may need to be transcoded depending on
+        // The attributes in the payload are all encoded using UTF-8, and the parser decodes them
+        // in place. The actual message body may need to be transcoded depending on
         // charset/encoding defined for body-content.
-        String bmsg;
-        try {
-            bmsg = baos.toString(StandardCharsets.UTF_8.name());
-        } catch (UnsupportedEncodingException ex) {
-            Log.e(TAG,
-                    "Coudn't decode the bmessage with UTF-8. Something must be really messed up.");
-            return;
-        }
-
-        mBmessage = BmessageParser.createBmessage(bmsg);
+        mBmessage = BmessageParser.createBmessage(baos.toByteArray());
 
         if (mBmessage == null) {
             mResponseCode = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mcp;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Paces the notifications of a GATT server to each device to the {@code onNotificationSent}
+ * callbacks of the device.
+ *
+ * <p>One notification per device is sent to the stack at a time. The characteristics changed while
+ * one is outstanding are queued once each, in the order they first changed, and notified with
+ * their value at the time they are sent: a characteristic changed many times in a row, such as the
+ * track position while seeking, is notified once with its latest value. The characteristics whose
+ * notifications are one-shot results, such as those of the control points, are never coalesced:
+ * each notification is queued with a snapshot of its value. As the GATT service holds
+ * the {@code onNotificationSent} callbacks back while the connection is congested, nothing more is
+ * sent to a congested device.
+ */
+class GattNotificationQueue {
+    private static final String TAG = "GattNotificationQueue";
+
+    private static final String ENABLED_PROPERTY = "bluetooth.mcp.notification_coalescing.enabled";
+
+    /** Sends a notification to the stack. */
+    interface Sender {
+        /** Returns whether the notification has been sent. */
+        boolean notify(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                byte[] value);
+    }
+
+    // A characteristic to notify, with the value to notify or null for its value when sent
+    private static class Entry {
+        final BluetoothGattCharacteristic mCharacteristic;
+        final byte[] mValue;
+
+        Entry(BluetoothGattCharacteristic characteristic, byte[] value) {
+            mCharacteristic = characteristic;
+            mValue = value;
+        }
+    }
+
+    // The notifications to send to a device once the outstanding notification is sent, by UUID
+    // for the coalesced characteristics and by a key of their own for the others
+    private static class DeviceQueue {
+        final LinkedHashMap<Object, Entry> mPending = new LinkedHashMap<>();
+    }
+
+    /** Returns whether the notifications of the media control service are coalesced. */
+    static boolean isEnabled() {
+        return SystemProperties.getBoolean(ENABLED_PROPERTY, false);
+    }
+
+    private final Handler mHandler;
+    private final long mTimeoutMillis;
+    private final Set<UUID> mUncoalescedUuids;
+    private final Sender mSender;
+
+    // Devices with an outstanding notification
+    @GuardedBy("mQueues")
+    private final Map<BluetoothDevice, DeviceQueue> mQueues = new HashMap<>();
+    @GuardedBy("mQueues")
+    private int mSentCount;
+    @GuardedBy("mQueues")
+    private int mCoalescedCount;
+
+    /**
+     * @param looper the looper the timeouts are handled on
+     * @param timeoutMillis the time an {@code onNotificationSent} callback is waited for before the
+     *     next notification is sent
+     * @param uncoalescedUuids the characteristics each notification of which is sent
+     */
+    GattNotificationQueue(Looper looper, long timeoutMillis, Set<UUID> uncoalescedUuids,
+            Sender sender) {
+        mHandler = new Handler(looper);
+        mTimeoutMillis = timeoutMillis;
+        mUncoalescedUuids = uncoalescedUuids;
+        mSender = sender;
+    }
+
+    /**
+     * Sends a notification of a characteristic to a device, or queues it until the outstanding
+     * notification is sent.
+     */
+    void notify(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        synchronized (mQueues) {
+            DeviceQueue queue = mQueues.get(device);
+            if (queue != null) {
+                if (mUncoalescedUuids.contains(characteristic.getUuid())) {
+                    byte[] value = characteristic.getValue();
+                    queue.mPending.put(new Object(), new Entry(characteristic,
+                            value == null ? null : value.clone()));
+                } else if (queue.mPending.putIfAbsent(characteristic.getUuid(),
+                        new Entry(characteristic, null)) != null) {
+                    mCoalescedCount++;
+                }
+                return;
+            }
+            queue = new DeviceQueue();
+            mQueues.put(device, queue);
+            if (send(device, queue, new Entry(characteristic, null))) {
+                return;
+            }
+            mQueues.remove(device);
+        }
+    }
+
+    /** Called when the outstanding notification to a device is sent, successfully or not. */
+    void onNotificationSent(BluetoothDevice device) {
+        synchronized (mQueues) {
+            DeviceQueue queue = mQueues.get(device);
+            if (queue == null) {
+                return;
+            }
+            mHandler.removeCallbacksAndMessages(queue);
+            Iterator<Entry> it = queue.mPending.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                it.remove();
+                if (send(device, queue, entry)) {
+                    return;
+                }
+            }
+            mQueues.remove(device);
+        }
+    }
+
+    /** Forgets the notifications queued for a device, when it disconnects. */
+    void remove(BluetoothDevice device) {
+        synchronized (mQueues) {
+            DeviceQueue queue = mQueues.remove(device);
+            if (queue != null) {
+                mHandler.removeCallbacksAndMessages(queue);
+            }
+        }
+    }
+
+    /** Forgets the notifications queued for all the devices. */
+    void clear() {
+        synchronized (mQueues) {
+            for (DeviceQueue queue : mQueues.values()) {
+                mHandler.removeCallbacksAndMessages(queue);
+            }
+            mQueues.clear();
+        }
+    }
+
+    @GuardedBy("mQueues")
+    private boolean send(BluetoothDevice device, DeviceQueue queue, Entry entry) {
+        BluetoothGattCharacteristic characteristic = entry.mCharacteristic;
+        byte[] value = entry.mValue != null ? entry.mValue : characteristic.getValue();
+        if (!mSender.notify(device, characteristic, value)) {
+            Log.w(TAG, "Notification of " + characteristic.getUuid() + " not sent");
+            return false;
+        }
+        mSentCount++;
+        mHandler.postDelayed(() -> {
+            Log.w(TAG, "No onNotificationSent from " + device);
+            onNotificationSent(device);
+        }, queue, mTimeoutMillis);
+        return true;
+    }
+
+    /** Prints the number of notifications sent and coalesced. */
+    void dump(StringBuilder sb) {
+        synchronized (mQueues) {
+            sb.append("\n\t\tNotifications: sent " + mSentCount + ", coalesced "
+                    + mCoalescedCount + ", outstanding: " + mQueues.size() + " devices");
+        }
+    }
+}
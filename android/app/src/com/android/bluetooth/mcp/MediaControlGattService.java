@@ -36,6 +36,7 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
@@ -59,6 +60,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -129,6 +131,8 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
     private static final int INTERVAL_UNAVAILABLE = 0xFFFFFFFF;
 
+    private static final long NOTIFICATION_TIMEOUT_MS = 1000;
+
     private final int mCcid;
     private Map<String, Map<UUID, Short>> mCccDescriptorValues = new HashMap<>();
     private long mFeatures;
@@ -140,6 +144,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
     private Map<Integer, BluetoothGattCharacteristic> mCharacteristics = new HashMap<>();
     private MediaState mCurrentMediaState = MediaState.INACTIVE;
     private Map<BluetoothDevice, List<GattOpContext>> mPendingGattOperations = new HashMap<>();
+    @VisibleForTesting GattNotificationQueue mNotificationQueue;
     private McpService mMcpService;
     private LeAudioService mLeAudioService;
     private AdapterService mAdapterService;
@@ -832,6 +837,20 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             }
             if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 ClearUnauthorizedGattOperations(device);
+                if (mNotificationQueue != null) {
+                    mNotificationQueue.remove(device);
+                }
+            }
+        }
+
+        @Override
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            super.onNotificationSent(device, status);
+            if (VDBG) {
+                Log.d(TAG, "BluetoothGattServerCallback: onNotificationSent status= " + status);
+            }
+            if (mNotificationQueue != null) {
+                mNotificationQueue.onNotificationSent(device);
             }
         }
 
@@ -1084,6 +1103,12 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                     device, characteristic, confirm);
         }
 
+        public int notifyCharacteristicChanged(BluetoothDevice device,
+                BluetoothGattCharacteristic characteristic, boolean confirm, byte[] value) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(
+                    device, characteristic, confirm, value);
+        }
+
         public List<BluetoothDevice> getConnectedDevices() {
             return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
         }
@@ -1110,6 +1135,17 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         mEventLogger =
                 new BluetoothEventLogger(
                         LOG_NB_EVENTS, TAG + " instance (CCID= " + ccid + ") event log");
+
+        if (GattNotificationQueue.isEnabled()) {
+            // The control point results are one-shot per request
+            mNotificationQueue = new GattNotificationQueue(mHandler.getLooper(),
+                    NOTIFICATION_TIMEOUT_MS,
+                    Set.of(UUID_MEDIA_CONTROL_POINT, UUID_SEARCH_CONTROL_POINT),
+                    (device, characteristic, value) -> value != null
+                            && mBluetoothGattServer.notifyCharacteristicChanged(
+                                    device, characteristic, false, value)
+                                    == BluetoothStatusCodes.SUCCESS);
+        }
     }
 
     protected boolean init(UUID scvUuid) {
@@ -1638,6 +1674,10 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
         mAdapterService.unregisterBluetoothStateCallback(mBluetoothStateChangeCallback);
 
+        if (mNotificationQueue != null) {
+            mNotificationQueue.clear();
+        }
+
         if (mBluetoothGattServer == null) {
             return;
         }
@@ -1693,6 +1733,11 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         }
         if (!Arrays.equals(ccc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) return;
 
+        if (mNotificationQueue != null) {
+            mNotificationQueue.notify(device, characteristic);
+            return;
+        }
+
         if (VDBG) Log.d(TAG, "notifyCharacteristic: sending notification");
         mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
     }
@@ -2276,6 +2321,10 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             }
         }
 
+        if (mNotificationQueue != null) {
+            mNotificationQueue.dump(sb);
+        }
+
         sb.append("\n\n");
         mEventLogger.dump(sb);
     }
@@ -29,14 +29,17 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
+import android.os.SystemProperties;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AbstractionLayer;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class SdpManager {
     private static final String TAG = SdpManager.class.getSimpleName();
@@ -53,12 +56,18 @@ public class SdpManager {
     public static final byte PBAP_REPO_FAVORITES = 0x01 << 3;
 
     /* Variables to keep track of ongoing and queued search requests.
-     * mTrackerLock must be held, when using/changing sSdpSearchTracker
-     * and mSearchInProgress. */
+     * mTrackerLock must be held, when using/changing sSdpSearchTracker,
+     * mSearchInProgress and sRecordCache. */
     static SdpSearchTracker sSdpSearchTracker;
     static boolean sSearchInProgress = false;
+    static SdpRecordCache sRecordCache;
     static final Object TRACKER_LOCK = new Object();
 
+    /* Successful results of bonded devices are served from cache for this long. 0 disables. */
+    @VisibleForTesting
+    static final String RECORD_CACHE_TTL_PROPERTY = "bluetooth.sdp.record_cache_ttl_ms";
+    private static final long DEFAULT_RECORD_CACHE_TTL_MS = 10 * 60 * 1000;
+
     /* The timeout to wait for reply from native. Should never fire. */
     private static final int SDP_INTENT_DELAY = 11000;
     private static final int MESSAGE_SDP_INTENT = 2;
@@ -79,6 +88,7 @@ public class SdpManager {
         private final ParcelUuid mUuid;
         private int mStatus = 0;
         private boolean mSearching;
+        private final ArrayList<Parcelable> mRecords = new ArrayList<Parcelable>();
 
         /* TODO: If we change the API to use another mechanism than intents for
          *       delivering the results, this would be the place to keep a list
@@ -122,6 +132,14 @@ public class SdpManager {
         public boolean isSearching() {
             return mSearching;
         }
+
+        void addRecord(Parcelable record) {
+            mRecords.add(record);
+        }
+
+        List<Parcelable> getRecords() {
+            return mRecords;
+        }
     }
 
 
@@ -181,6 +199,9 @@ public class SdpManager {
 
     private SdpManager(AdapterService adapterService) {
         sSdpSearchTracker = new SdpSearchTracker();
+        sSearchInProgress = false;
+        sRecordCache = new SdpRecordCache(SystemProperties.getLong(
+                RECORD_CACHE_TTL_PROPERTY, DEFAULT_RECORD_CACHE_TTL_MS));
         sAdapterService = adapterService;
         mNativeInterface.init(this);
         sNativeAvailable = true;
@@ -200,6 +221,8 @@ public class SdpManager {
         if (sSdpSearchTracker != null) {
             synchronized (TRACKER_LOCK) {
                 sSdpSearchTracker.clear();
+                sSearchInProgress = false;
+                sRecordCache.clear();
             }
         }
 
@@ -414,6 +437,23 @@ public class SdpManager {
                 return;
             }
 
+            List<Parcelable> cachedRecords = sRecordCache.get(
+                    sAdapterService.getIdentityAddress(device.getAddress()), uuid);
+            if (cachedRecords != null) {
+                if (D) {
+                    Log.d(TAG, "sdpSearch: serving " + cachedRecords.size()
+                            + " cached record(s) for UUID: " + uuid);
+                }
+                /* Deliver asynchronously, as a real search would */
+                mHandler.post(() -> {
+                    for (int i = 0; i < cachedRecords.size(); i++) {
+                        sendSdpRecord(device, AbstractionLayer.BT_STATUS_SUCCESS,
+                                cachedRecords.get(i), uuid);
+                    }
+                });
+                return;
+            }
+
             SdpSearchInstance inst = new SdpSearchInstance(0, device, uuid);
             sSdpSearchTracker.add(inst); // Queue the request
 
@@ -422,6 +462,21 @@ public class SdpManager {
 
     }
 
+    /**
+     * Drops the cached SDP records of a device whose bond state changed, so that a re-paired or
+     * unpaired device is always searched again.
+     */
+    public void handleBondStateChanged(BluetoothDevice device, int fromState, int toState) {
+        invalidateCache(device);
+    }
+
+    /** Drops the cached SDP records of a device, e.g. when its service UUIDs changed. */
+    public void invalidateCache(BluetoothDevice device) {
+        synchronized (TRACKER_LOCK) {
+            sRecordCache.invalidate(sAdapterService.getIdentityAddress(device.getAddress()));
+        }
+    }
+
     /* Caller must hold the mTrackerLock */
     private void startSearch() {
 
@@ -451,30 +506,46 @@ public class SdpManager {
 
         inst.stopSearch();
 
-        sAdapterService.sendSdpSearchRecord(
-                inst.getDevice(), inst.getStatus(), record, inst.getUuid());
+        sendSdpRecord(inst.getDevice(), inst.getStatus(), record, inst.getUuid());
+
+        if (inst.getStatus() == AbstractionLayer.BT_STATUS_SUCCESS && record != null) {
+            inst.addRecord(record);
+        }
+
+        if (!moreResults) {
+            /* A timed out search completes with a null record, never cache it */
+            if (inst.getStatus() == AbstractionLayer.BT_STATUS_SUCCESS && record != null
+                    && sAdapterService.getBondState(inst.getDevice())
+                            == BluetoothDevice.BOND_BONDED) {
+                sRecordCache.put(
+                        sAdapterService.getIdentityAddress(inst.getDevice().getAddress()),
+                        inst.getUuid(), inst.getRecords());
+            }
+            //Remove the outstanding UUID request
+            sSdpSearchTracker.remove(inst);
+            sSearchInProgress = false;
+            startSearch();
+        }
+    }
+
+    private void sendSdpRecord(BluetoothDevice device, int status, Parcelable record,
+            ParcelUuid uuid) {
+        sAdapterService.sendSdpSearchRecord(device, status, record, uuid);
 
         Intent intent = new Intent(BluetoothDevice.ACTION_SDP_RECORD);
 
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, inst.getDevice());
-        intent.putExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, inst.getStatus());
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(BluetoothDevice.EXTRA_SDP_SEARCH_STATUS, status);
         if (record != null) {
             intent.putExtra(BluetoothDevice.EXTRA_SDP_RECORD, record);
         }
-        intent.putExtra(BluetoothDevice.EXTRA_UUID, inst.getUuid());
+        intent.putExtra(BluetoothDevice.EXTRA_UUID, uuid);
         /* TODO:  BLUETOOTH_ADMIN_PERM was private... change to callback interface.
          * Keep in mind that the MAP client needs to use this as well,
          * hence to make it call-backs, the MAP client profile needs to be
          * part of the Bluetooth APK. */
         Utils.sendBroadcast(sAdapterService, intent, BLUETOOTH_CONNECT,
                 Utils.getTempAllowlistBroadcastOptions());
-
-        if (!moreResults) {
-            //Remove the outstanding UUID request
-            sSdpSearchTracker.remove(inst);
-            sSearchInProgress = false;
-            startSearch();
-        }
     }
 
     private final Handler mHandler = new Handler() {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.sdp;
+
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Cache of successful SDP search results, keyed by the remote identity address and the searched
+ * UUID.
+ *
+ * <p>Entries expire after a fixed time to live and are dropped as a whole when the bond with the
+ * remote device changes, so that only records of a bonded, unchanged device are ever served.
+ * This class is not thread safe; {@link SdpManager} guards it with its tracker lock.
+ */
+class SdpRecordCache {
+    private final long mTtlMs;
+    private final HashMap<Key, Entry> mEntries = new HashMap<>();
+
+    private static final class Key {
+        final String mAddress;
+        final ParcelUuid mUuid;
+
+        Key(String address, ParcelUuid uuid) {
+            mAddress = address;
+            mUuid = uuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mAddress.equals(other.mAddress) && mUuid.equals(other.mUuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAddress, mUuid);
+        }
+    }
+
+    private static final class Entry {
+        final long mCreatedMs;
+        final List<Parcelable> mRecords;
+
+        Entry(long createdMs, List<Parcelable> records) {
+            mCreatedMs = createdMs;
+            mRecords = records;
+        }
+    }
+
+    /**
+     * @param ttlMs time to live of an entry, in milliseconds. A value of 0 disables the cache.
+     */
+    SdpRecordCache(long ttlMs) {
+        mTtlMs = ttlMs;
+    }
+
+    boolean isEnabled() {
+        return mTtlMs > 0;
+    }
+
+    /**
+     * @return the records of the last successful search, or null if there is no fresh entry
+     */
+    List<Parcelable> get(String address, ParcelUuid uuid) {
+        return get(address, uuid, SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    List<Parcelable> get(String address, ParcelUuid uuid, long nowMs) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Key key = new Key(address, uuid);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (nowMs - entry.mCreatedMs >= mTtlMs) {
+            mEntries.remove(key);
+            return null;
+        }
+        return entry.mRecords;
+    }
+
+    /** Stores the records returned by one complete search. */
+    void put(String address, ParcelUuid uuid, List<Parcelable> records) {
+        put(address, uuid, records, SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    void put(String address, ParcelUuid uuid, List<Parcelable> records, long nowMs) {
+        if (!isEnabled() || records.isEmpty()) {
+            return;
+        }
+        mEntries.put(new Key(address, uuid),
+                new Entry(nowMs, Collections.unmodifiableList(new ArrayList<>(records))));
+    }
+
+    /** Drops every entry of the given remote device. */
+    void invalidate(String address) {
+        Iterator<Key> iterator = mEntries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mAddress.equals(address)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mEntries.size();
+    }
+}
@@ -49,6 +49,7 @@ import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.bluetooth.hfp.BluetoothHeadsetProxy;
+import com.android.bluetooth.hfp.HeadsetClccResponse;
 import com.android.bluetooth.tbs.BluetoothLeCallControlProxy;
 
 import java.util.ArrayDeque;
@@ -161,7 +162,7 @@ public class BluetoothInCallService extends InCallService {
                         if (profile == BluetoothProfile.HEADSET) {
                             setBluetoothHeadset(
                                     new BluetoothHeadsetProxy((BluetoothHeadset) proxy));
-                            updateHeadsetWithCallState(true /* force */);
+                            refreshHeadsetCallState();
                         } else {
                             setBluetoothLeCallControl(
                                     new BluetoothLeCallControlProxy(
@@ -547,7 +548,7 @@ public class BluetoothInCallService extends InCallService {
         synchronized (LOCK) {
             enforceModifyPermission();
             Log.i(TAG, "queryPhoneState");
-            updateHeadsetWithCallState(true);
+            refreshHeadsetCallState();
             return true;
         }
     }
@@ -772,7 +773,7 @@ public class BluetoothInCallService extends InCallService {
             }
         }
         if (conferenceCallChildrenNotReady != null) {
-            SortedMap<Integer, Object[]> clccResponseMap = new TreeMap<>();
+            SortedMap<Integer, HeadsetClccResponse> clccResponseMap = new TreeMap<>();
             for (BluetoothCall inferredCall : mBluetoothConferenceCallInference.values()) {
                 if (inferredCall.isCallNull() || inferredCall.getHandle() == null) {
                     Log.w(TAG, "inferredCall does not have handle");
@@ -825,41 +826,28 @@ public class BluetoothInCallService extends InCallService {
                     address = PhoneNumberUtils.stripSeparators(address);
                 }
                 int addressType = address == null ? -1 : PhoneNumberUtils.toaFromString(address);
-                clccResponseMap.put(
-                        index,
-                        new Object[] {
-                            index, direction, state, 0, isPartOfConference, address, addressType
-                        });
-            }
-            // sort CLCC response based on index
-            for (Object[] response : clccResponseMap.values()) {
-                if (response.length < 7) {
-                    Log.e(TAG, "clccResponseMap entry too short");
-                    continue;
-                }
                 Log.i(
                         TAG,
                         String.format(
                                 "sending inferred clcc for BluetoothCall: index %d, direction"
                                         + " %d, state %d, isPartOfConference %b, addressType %d",
-                                (int) response[0],
-                                (int) response[1],
-                                (int) response[2],
-                                (boolean) response[4],
-                                (int) response[6]));
-                mBluetoothHeadset.clccResponse(
-                        (int) response[0],
-                        (int) response[1],
-                        (int) response[2],
-                        (int) response[3],
-                        (boolean) response[4],
-                        (String) response[5],
-                        (int) response[6]);
-            }
-            sendClccEndMarker();
+                                index,
+                                direction,
+                                state,
+                                isPartOfConference,
+                                addressType));
+                clccResponseMap.put(
+                        index,
+                        new HeadsetClccResponse(
+                                index, direction, state, 0, isPartOfConference, address,
+                                addressType));
+            }
+            // CLCC responses are sorted by index
+            sendClccResponses(new ArrayList<>(clccResponseMap.values()));
             return;
         }
 
+        List<HeadsetClccResponse> clccResponses = new ArrayList<>(calls.size());
         for (BluetoothCall call : calls) {
             // We don't send the parent conference BluetoothCall to the bluetooth device.
             // We do, however want to send conferences that have no children to the bluetooth
@@ -872,30 +860,40 @@ public class BluetoothInCallService extends InCallService {
                             + ", call.getChildrenIds() size "
                             + call.getChildrenIds().size());
             if (!call.isConference() || isConferenceWithNoChildren) {
-                sendClccForCall(call, shouldLog);
+                HeadsetClccResponse clccResponse = getClccResponseForCall(call, shouldLog);
+                if (clccResponse != null) {
+                    clccResponses.add(clccResponse);
+                }
             }
         }
-        sendClccEndMarker();
+        sendClccResponses(clccResponses);
     }
 
-    private void sendClccEndMarker() {
-        // End marker is recognized with an index value of 0. All other parameters are ignored.
-        if (mBluetoothHeadset != null) {
-            mBluetoothHeadset.clccResponse(0 /* index */, 0, 0, 0, false, null, 0);
+    /**
+     * Sends the clcc (C* List Current Calls) responses of all the calls to the headset service at
+     * once. The end marker, recognized with an index value of 0, is sent after them.
+     */
+    private void sendClccResponses(List<HeadsetClccResponse> clccResponses) {
+        if (mBluetoothHeadset == null) {
+            Log.w(TAG, "mBluetoothHeadset is null when sending " + clccResponses.size()
+                    + " clcc responses");
+            return;
         }
+        mBluetoothHeadset.clccResponseList(clccResponses);
     }
 
     /**
-     * Sends a single clcc (C* List Current Calls) event for the specified call.
+     * Returns the clcc (C* List Current Calls) response for the specified call, or null if the
+     * call is idle.
      */
-    private void sendClccForCall(BluetoothCall call, boolean shouldLog) {
+    private HeadsetClccResponse getClccResponseForCall(BluetoothCall call, boolean shouldLog) {
         boolean isForeground = mCallInfo.getForegroundCall() == call;
         int state = getBtCallState(call, isForeground);
         boolean isPartOfConference = false;
         boolean isConferenceWithNoChildren = isConferenceWithNoChildren(call);
 
         if (state == CALL_STATE_IDLE) {
-            return;
+            return null;
         }
 
         BluetoothCall conferenceCall = getBluetoothCallById(call.getParentId());
@@ -975,17 +973,8 @@ public class BluetoothInCallService extends InCallService {
                             + addressType);
         }
 
-        if (mBluetoothHeadset == null) {
-            Log.w(TAG, "mBluetoothHeasdset is null when sending clcc for BluetoothCall "
-                    + index + ", "
-                    + direction + ", "
-                    + state + ", "
-                    + isPartOfConference + ", "
-                    + addressType);
-        } else {
-            mBluetoothHeadset.clccResponse(
-                    index, direction, state, 0, isPartOfConference, address, addressType);
-        }
+        return new HeadsetClccResponse(
+                index, direction, state, 0, isPartOfConference, address, addressType);
     }
 
     private String getClccMapKey(BluetoothCall call) {
@@ -1138,6 +1127,18 @@ public class BluetoothInCallService extends InCallService {
      * has changed.
      */
     private void updateHeadsetWithCallState(boolean force) {
+        updateHeadsetWithCallState(force, false /* refresh */);
+    }
+
+    /**
+     * Sends the current BluetoothCall state to the headsets that do not have it yet, such as the
+     * newly connected ones. It is only sent to all of them if it has changed.
+     */
+    private void refreshHeadsetCallState() {
+        updateHeadsetWithCallState(true /* force */, true /* refresh */);
+    }
+
+    private void updateHeadsetWithCallState(boolean force, boolean refresh) {
         BluetoothCall activeCall = mCallInfo.getActiveCall();
         BluetoothCall ringingCall = mCallInfo.getRingingOrSimulatedRingingCall();
         BluetoothCall heldCall = mCallInfo.getHeldCall();
@@ -1197,16 +1198,18 @@ public class BluetoothInCallService extends InCallService {
             }
         }
 
-        if (mBluetoothHeadset != null
-                && (force
-                    || (!callsPendingSwitch
-                        && (numActiveCalls != mNumActiveCalls
-                            || numChildrenOfActiveCall != mNumChildrenOfActiveCall
-                            || numHeldCalls != mNumHeldCalls
-                            || bluetoothCallState != mBluetoothCallState
-                            || !TextUtils.equals(ringingAddress, mRingingAddress)
-                            || ringingAddressType != mRingingAddressType
-                            || (heldCall != mOldHeldCall && !ignoreHeldCallChange))))) {
+        boolean stateChanged = !callsPendingSwitch
+                && (numActiveCalls != mNumActiveCalls
+                    || numChildrenOfActiveCall != mNumChildrenOfActiveCall
+                    || numHeldCalls != mNumHeldCalls
+                    || bluetoothCallState != mBluetoothCallState
+                    || !TextUtils.equals(ringingAddress, mRingingAddress)
+                    || ringingAddressType != mRingingAddressType
+                    || (heldCall != mOldHeldCall && !ignoreHeldCallChange));
+
+        if (mBluetoothHeadset != null && (force || stateChanged)) {
+            // A refresh of an unchanged state is only needed by the headsets not having it yet
+            boolean sendToAllHeadsets = stateChanged || !refresh;
 
             // If the BluetoothCall is transitioning into the alerting state, send DIALING first.
             // Some devices expect to see a DIALING state prior to seeing an ALERTING state
@@ -1235,7 +1238,8 @@ public class BluetoothInCallService extends InCallService {
                         CALL_STATE_DIALING,
                         mRingingAddress,
                         mRingingAddressType,
-                        ringingName);
+                        ringingName,
+                        sendToAllHeadsets);
             }
 
             Log.i(TAG, "updateHeadsetWithCallState "
@@ -1250,7 +1254,8 @@ public class BluetoothInCallService extends InCallService {
                     mBluetoothCallState,
                     mRingingAddress,
                     mRingingAddressType,
-                    ringingName);
+                    ringingName,
+                    sendToAllHeadsets);
 
             mHeadsetUpdatedRecently = true;
         }
@@ -42,6 +42,7 @@ import android.os.RemoteException;
 import android.sysprop.BluetoothProperties;
 import android.util.Log;
 
+import com.android.bluetooth.GroupOperationCoalescer;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ProfileService;
@@ -57,6 +58,7 @@ import com.android.modules.utils.SynchronousResultReceiver;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -73,6 +75,8 @@ public class VolumeControlService extends ProfileService {
     private static final int MAX_VC_STATE_MACHINES = 10;
     private static final int LE_AUDIO_MAX_VOL = 255;
     private static final int LE_AUDIO_MIN_VOL = 0;
+    // Time a group volume change is waited for before the next one is sent
+    private static final int GROUP_VOLUME_TIMEOUT_MS = 1000;
 
     private static VolumeControlService sVolumeControlService;
 
@@ -214,6 +218,9 @@ public class VolumeControlService extends ProfileService {
     private final Map<Integer, Integer> mGroupVolumeCache = new HashMap<>();
     private final Map<Integer, Boolean> mGroupMuteCache = new HashMap<>();
     private final Map<BluetoothDevice, Integer> mDeviceVolumeCache = new HashMap<>();
+    // Sends only the latest group volume while one is being set, null if not enabled
+    @VisibleForTesting
+    GroupOperationCoalescer<Integer> mGroupVolumeCoalescer;
 
     @VisibleForTesting
     ServiceFactory mFactory = new ServiceFactory();
@@ -271,6 +278,10 @@ public class VolumeControlService extends ProfileService {
         mGroupMuteCache.clear();
         mDeviceVolumeCache.clear();
         mCallbacks = new RemoteCallbackList<IBluetoothVolumeControlCallback>();
+        if (GroupOperationCoalescer.isEnabled()) {
+            mGroupVolumeCoalescer = new GroupOperationCoalescer<>("Group volume",
+                    Looper.getMainLooper(), GROUP_VOLUME_TIMEOUT_MS, this::sendGroupVolume);
+        }
 
         // Mark service as started
         setVolumeControlService(this);
@@ -319,6 +330,11 @@ public class VolumeControlService extends ProfileService {
             mHandler = null;
         }
 
+        if (mGroupVolumeCoalescer != null) {
+            mGroupVolumeCoalescer.clear();
+            mGroupVolumeCoalescer = null;
+        }
+
         // Cleanup native interface
         mVolumeControlNativeInterface.cleanup();
         mVolumeControlNativeInterface = null;
@@ -651,7 +667,11 @@ public class VolumeControlService extends ProfileService {
         }
 
         mGroupVolumeCache.put(groupId, volume);
-        mVolumeControlNativeInterface.setGroupVolume(groupId, volume);
+        if (mGroupVolumeCoalescer != null) {
+            mGroupVolumeCoalescer.request(groupId, volume);
+        } else {
+            mVolumeControlNativeInterface.setGroupVolume(groupId, volume);
+        }
 
         // We only receive the volume change and mute state needs to be acquired manually
         Boolean isGroupMute = mGroupMuteCache.getOrDefault(groupId, false);
@@ -680,6 +700,13 @@ public class VolumeControlService extends ProfileService {
         }
     }
 
+    private void sendGroupVolume(int groupId, int volume) {
+        VolumeControlNativeInterface nativeInterface = mVolumeControlNativeInterface;
+        if (nativeInterface != null) {
+            nativeInterface.setGroupVolume(groupId, volume);
+        }
+    }
+
     /**
      * {@hide}
      * @param groupId
@@ -932,6 +959,15 @@ public class VolumeControlService extends ProfileService {
             return;
         }
 
+        // The volume of a group operation was set on all the group devices. If a newer volume was
+        // requested meanwhile, it is now being set: this intermediate one is not reported.
+        if (device == null && !isAutonomous && mGroupVolumeCoalescer != null
+                && mGroupVolumeCoalescer.onAcknowledged(groupId)) {
+            Log.i(TAG, "Group " + groupId + " volume " + volume + " superseded by "
+                    + getGroupVolume(groupId));
+            return;
+        }
+
         int groupVolume = getGroupVolume(groupId);
         Boolean groupMute = getGroupMute(groupId);
 
@@ -1246,35 +1282,39 @@ public class VolumeControlService extends ProfileService {
             return;
         }
 
+        // Update all the devices first, so that the callbacks see a consistent group
+        Map<BluetoothDevice, Integer> deviceVolumes = new LinkedHashMap<>();
         for (BluetoothDevice dev : devices) {
-            int cachedVolume = IBluetoothVolumeControl.VOLUME_CONTROL_UNKNOWN_VOLUME;
-            if (!volume.isPresent()) {
-                int groupId = leAudioService.getGroupId(dev);
-                if (groupId == IBluetoothLeAudio.LE_AUDIO_GROUP_ID_INVALID) {
-                    Log.e(TAG, "Device not a part of a group");
-                    continue;
-                }
-                // if device volume is available, notify with device volume, otherwise group volume
-                cachedVolume = getDeviceVolume(dev);
-                if (cachedVolume == IBluetoothVolumeControl.VOLUME_CONTROL_UNKNOWN_VOLUME) {
-                    cachedVolume = getGroupVolume(groupId);
-                }
+            if (volume.isPresent()) {
+                mDeviceVolumeCache.put(dev, volume.get());
+                deviceVolumes.put(dev, volume.get());
+                continue;
             }
-            int n = mCallbacks.beginBroadcast();
-            for (int i = 0; i < n; i++) {
-                try {
-                    if (!volume.isPresent()) {
-                        mCallbacks.getBroadcastItem(i).onDeviceVolumeChanged(dev, cachedVolume);
-                    } else {
-                        mDeviceVolumeCache.put(dev, volume.get());
-                        mCallbacks.getBroadcastItem(i).onDeviceVolumeChanged(dev, volume.get());
-                    }
-                } catch (RemoteException e) {
-                    continue;
+            int groupId = leAudioService.getGroupId(dev);
+            if (groupId == IBluetoothLeAudio.LE_AUDIO_GROUP_ID_INVALID) {
+                Log.e(TAG, "Device not a part of a group");
+                continue;
+            }
+            // if device volume is available, notify with device volume, otherwise group volume
+            int cachedVolume = getDeviceVolume(dev);
+            if (cachedVolume == IBluetoothVolumeControl.VOLUME_CONTROL_UNKNOWN_VOLUME) {
+                cachedVolume = getGroupVolume(groupId);
+            }
+            deviceVolumes.put(dev, cachedVolume);
+        }
+
+        int n = mCallbacks.beginBroadcast();
+        for (int i = 0; i < n; i++) {
+            IBluetoothVolumeControlCallback callback = mCallbacks.getBroadcastItem(i);
+            try {
+                for (Map.Entry<BluetoothDevice, Integer> entry : deviceVolumes.entrySet()) {
+                    callback.onDeviceVolumeChanged(entry.getKey(), entry.getValue());
                 }
+            } catch (RemoteException e) {
+                continue;
             }
-            mCallbacks.finishBroadcast();
         }
+        mCallbacks.finishBroadcast();
     }
 
     /** Process a change in the bonding state for a device */
@@ -1812,5 +1852,8 @@ public class VolumeControlService extends ProfileService {
             ProfileService.println(sb, "    GroupId: " + entry.getKey() + " volume: "
                             + entry.getValue() + ", mute: " + isMute);
         }
+        if (mGroupVolumeCoalescer != null) {
+            mGroupVolumeCoalescer.dump(sb);
+        }
     }
 }
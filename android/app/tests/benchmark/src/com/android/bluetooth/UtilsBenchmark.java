@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class UtilsBenchmark {
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+    private static final byte[] ADDRESS_BYTES = Utils.getBytesFromAddress(ADDRESS);
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void getBytesFromAddress() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(Utils.getBytesFromAddress(ADDRESS));
+        }
+    }
+
+    @Test
+    public void getAddressStringFromByte() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(Utils.getAddressStringFromByte(ADDRESS_BYTES));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BaseDataBenchmark {
+    /* BASE with one LC3 subgroup holding two BISes, one per channel */
+    private static final byte[] BASE = {
+        // LEVEL 1
+        (byte) 0x40, (byte) 0x9C, (byte) 0x00, // presentationDelay
+        (byte) 0x01, // numSubGroups
+        // LEVEL 2
+        (byte) 0x02, // numBis
+        (byte) 0x06, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, // LC3
+        (byte) 0x0A, // codecConfigLength
+        (byte) 0x02, (byte) 0x01, (byte) 0x08, // sampling frequency
+        (byte) 0x02, (byte) 0x02, (byte) 0x01, // frame duration
+        (byte) 0x03, (byte) 0x04, (byte) 0x78, (byte) 0x00, // octets per frame
+        (byte) 0x04, // metaDataLength
+        (byte) 0x03, (byte) 0x02, (byte) 0x04, (byte) 0x00, // streaming audio contexts
+        // LEVEL 3
+        (byte) 0x01, // index
+        (byte) 0x06, // codecConfigLength
+        (byte) 0x05, (byte) 0x03, (byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x02, // index
+        (byte) 0x06, // codecConfigLength
+        (byte) 0x05, (byte) 0x03, (byte) 0x02, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+    };
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void parseBaseData() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(BaseData.parseBaseData(BASE));
+        }
+    }
+
+    @Test
+    public void parseBaseData_uncached() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            BaseData.clearParsedBases();
+            Blackhole.consume(BaseData.parseBaseData(BASE));
+        }
+    }
+}
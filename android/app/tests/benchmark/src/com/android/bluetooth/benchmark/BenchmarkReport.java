@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Machine readable benchmark results.
+ *
+ * <p>The results of each benchmark class are written to {@code <class name>.json} in the
+ * directory given by the {@code bluetooth.benchmark.output_dir} system property, or the temporary
+ * directory by default. The file follows the JMH JSON result format (mode {@code avgt}, unit
+ * {@code ns/op}), so that the existing JMH tooling can be used to track regressions. The file is
+ * rewritten after each benchmark, so that the results of a partial run are kept.
+ */
+final class BenchmarkReport {
+    private static final String OUTPUT_DIR_PROPERTY = "bluetooth.benchmark.output_dir";
+
+    /* Two sided Student t quantiles for a 99.9% confidence, indexed by degrees of freedom */
+    private static final double[] T_QUANTILES = {
+        Double.NaN, 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+        4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85,
+    };
+    private static final double T_QUANTILE_LARGE_DF = 3.65;
+
+    private static final HashMap<String, List<Result>> sResults = new HashMap<>();
+
+    static final class Result {
+        final String mBenchmark;
+        final List<Double> mSamples;
+        final long mBatchSize;
+        final double mMean;
+        final double mError;
+
+        Result(String benchmark, List<Double> samples, long batchSize) {
+            mBenchmark = benchmark;
+            mSamples = new ArrayList<>(samples);
+            mBatchSize = batchSize;
+            double sum = 0;
+            for (double sample : mSamples) {
+                sum += sample;
+            }
+            mMean = sum / mSamples.size();
+            double squares = 0;
+            for (double sample : mSamples) {
+                squares += (sample - mMean) * (sample - mMean);
+            }
+            int df = mSamples.size() - 1;
+            double stddev = Math.sqrt(squares / df);
+            double t = df < T_QUANTILES.length ? T_QUANTILES[df] : T_QUANTILE_LARGE_DF;
+            mError = t * stddev / Math.sqrt(mSamples.size());
+        }
+
+        double getPercentile(double percentile) {
+            List<Double> sorted = new ArrayList<>(mSamples);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+
+        void toJson(StringBuilder sb) {
+            sb.append("  {\n");
+            sb.append("    \"benchmark\": \"").append(mBenchmark).append("\",\n");
+            sb.append("    \"mode\": \"avgt\",\n");
+            sb.append("    \"threads\": 1,\n");
+            sb.append("    \"measurementIterations\": ").append(mSamples.size()).append(",\n");
+            sb.append("    \"measurementBatchSize\": ").append(mBatchSize).append(",\n");
+            sb.append("    \"primaryMetric\": {\n");
+            sb.append("      \"score\": ").append(format(mMean)).append(",\n");
+            sb.append("      \"scoreError\": ").append(format(mError)).append(",\n");
+            sb.append("      \"scoreConfidence\": [").append(format(mMean - mError))
+                    .append(", ").append(format(mMean + mError)).append("],\n");
+            sb.append("      \"scorePercentiles\": {");
+            double[] percentiles = {0.0, 50.0, 90.0, 100.0};
+            for (int i = 0; i < percentiles.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append('"').append(percentiles[i]).append("\": ")
+                        .append(format(getPercentile(percentiles[i])));
+            }
+            sb.append("},\n");
+            sb.append("      \"scoreUnit\": \"ns/op\",\n");
+            sb.append("      \"rawData\": [[");
+            for (int i = 0; i < mSamples.size(); i++) {
+                sb.append(i == 0 ? "" : ", ").append(format(mSamples.get(i)));
+            }
+            sb.append("]]\n");
+            sb.append("    }\n");
+            sb.append("  }");
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.3f +- %.3f ns/op", mBenchmark, mMean,
+                    mError);
+        }
+    }
+
+    private BenchmarkReport() {}
+
+    /** Records the result of a benchmark, and rewrites the report of its class. */
+    static synchronized Result add(String className, String methodName, BenchmarkState state)
+            throws IOException {
+        Result result = new Result(className + "." + methodName, state.getSamples(),
+                state.getBatchSize());
+        List<Result> results = sResults.computeIfAbsent(className, k -> new ArrayList<>());
+        results.add(result);
+        System.out.println("BluetoothBenchmark " + result);
+
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            results.get(i).toJson(sb);
+        }
+        sb.append("\n]\n");
+
+        File dir = new File(System.getProperty(OUTPUT_DIR_PROPERTY,
+                System.getProperty("java.io.tmpdir")));
+        dir.mkdirs();
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, className + ".json")),
+                StandardCharsets.UTF_8)) {
+            writer.write(sb.toString());
+        }
+        return result;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.benchmark;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * JUnit rule running each test of a class as a benchmark, and reporting its result.
+ *
+ * <pre>
+ *     &#64;Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+ *
+ *     &#64;Test
+ *     public void codeUnderTest() {
+ *         BenchmarkState state = mBenchmarkRule.getState();
+ *         while (state.keepRunning()) {
+ *             Blackhole.consume(codeUnderTest());
+ *         }
+ *     }
+ * </pre>
+ *
+ * <p>Benchmarks run on the host with {@code atest BluetoothHostBenchmarks}. See {@link
+ * BenchmarkState} for the measurement loop, and {@link BenchmarkReport} for the results.
+ */
+public final class BenchmarkRule implements TestRule {
+    private BenchmarkState mState;
+
+    /** @return the state driving the measurement loop of the running test */
+    public BenchmarkState getState() {
+        if (mState == null) {
+            throw new IllegalStateException("getState() must be called from a test method");
+        }
+        return mState;
+    }
+
+    @Override
+    public Statement apply(Statement base, Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                mState = new BenchmarkState();
+                try {
+                    base.evaluate();
+                    if (!mState.isFinished()) {
+                        throw new IllegalStateException(description.getMethodName()
+                                + " did not run its loop until keepRunning() returned false");
+                    }
+                    BenchmarkReport.add(description.getClassName(), description.getMethodName(),
+                            mState);
+                } finally {
+                    mState = null;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drives the measurement loop of one benchmark.
+ *
+ * <pre>
+ *     BenchmarkState state = mBenchmarkRule.getState();
+ *     while (state.keepRunning()) {
+ *         Blackhole.consume(codeUnderTest());
+ *     }
+ * </pre>
+ *
+ * <p>The loop first runs for a warm up period, long enough for the JIT to compile the code
+ * under test, while doubling the number of operations per batch. The batch size is then fixed so
+ * that a batch lasts about one iteration, and a fixed number of iterations is measured. The clock
+ * is only read at batch boundaries, so that its cost is not attributed to the operation.
+ *
+ * <p>The durations can be changed with the {@code bluetooth.benchmark.warmup_ms}, {@code
+ * bluetooth.benchmark.iteration_ms} and {@code bluetooth.benchmark.iterations} system properties.
+ */
+public final class BenchmarkState {
+    static final long DEFAULT_WARMUP_MS = 1000;
+    static final long DEFAULT_ITERATION_MS = 200;
+    static final int DEFAULT_ITERATIONS = 10;
+
+    private static final int STATE_WARMUP = 0;
+    private static final int STATE_MEASURE = 1;
+    private static final int STATE_FINISHED = 2;
+
+    private final long mWarmupNanos;
+    private final long mIterationNanos;
+    private final int mIterations;
+
+    private int mState = STATE_WARMUP;
+    private long mBatchSize = 1;
+    private long mRemaining = 0;
+    private long mBatchStartNanos;
+    private long mWarmupStartNanos;
+    private final List<Double> mSamples = new ArrayList<>();
+
+    BenchmarkState() {
+        this(Long.getLong("bluetooth.benchmark.warmup_ms", DEFAULT_WARMUP_MS),
+                Long.getLong("bluetooth.benchmark.iteration_ms", DEFAULT_ITERATION_MS),
+                Integer.getInteger("bluetooth.benchmark.iterations", DEFAULT_ITERATIONS));
+    }
+
+    BenchmarkState(long warmupMs, long iterationMs, int iterations) {
+        if (iterationMs <= 0 || iterations < 2) {
+            throw new IllegalArgumentException("Invalid benchmark configuration");
+        }
+        mWarmupNanos = warmupMs * 1_000_000;
+        mIterationNanos = iterationMs * 1_000_000;
+        mIterations = iterations;
+    }
+
+    /** @return whether the operation must be run one more time */
+    public boolean keepRunning() {
+        if (mRemaining > 0) {
+            mRemaining--;
+            return true;
+        }
+        return nextBatch();
+    }
+
+    private boolean nextBatch() {
+        long now = System.nanoTime();
+        switch (mState) {
+            case STATE_WARMUP:
+                if (mWarmupStartNanos == 0) {
+                    mWarmupStartNanos = now;
+                } else {
+                    long batchNanos = now - mBatchStartNanos;
+                    if (now - mWarmupStartNanos >= mWarmupNanos) {
+                        double nanosPerOp = (double) batchNanos / mBatchSize;
+                        mBatchSize = Math.max(1, (long) (mIterationNanos / nanosPerOp));
+                        mState = STATE_MEASURE;
+                    } else if (batchNanos < mIterationNanos) {
+                        mBatchSize *= 2;
+                    }
+                }
+                break;
+            case STATE_MEASURE:
+                mSamples.add((double) (now - mBatchStartNanos) / mBatchSize);
+                if (mSamples.size() == mIterations) {
+                    mState = STATE_FINISHED;
+                    return false;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Benchmark already finished");
+        }
+        mRemaining = mBatchSize - 1;
+        // Read the clock last, so that the bookkeeping above is not measured
+        mBatchStartNanos = System.nanoTime();
+        return true;
+    }
+
+    boolean isFinished() {
+        return mState == STATE_FINISHED;
+    }
+
+    long getBatchSize() {
+        return mBatchSize;
+    }
+
+    /** @return the measured duration of one operation in each iteration, in nanoseconds */
+    List<Double> getSamples() {
+        return Collections.unmodifiableList(mSamples);
+    }
+}
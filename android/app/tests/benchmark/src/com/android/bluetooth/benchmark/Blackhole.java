@@ -0,0 +1,40 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.benchmark;
+
+/**
+ * Sink for the results of the code under test, so that the JIT cannot eliminate a computation
+ * whose result is otherwise unused.
+ */
+public final class Blackhole {
+    private static volatile Object sObject;
+    private static volatile long sLong;
+
+    private Blackhole() {}
+
+    public static void consume(Object value) {
+        sObject = value;
+    }
+
+    public static void consume(long value) {
+        sLong = value;
+    }
+
+    public static void consume(boolean value) {
+        sLong = value ? 1 : 0;
+    }
+}
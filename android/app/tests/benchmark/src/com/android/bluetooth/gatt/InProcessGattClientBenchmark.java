@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.IBluetoothGattCallback;
+import android.os.Parcel;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Dispatch of a battery level notification to a profile of the Bluetooth process, by the
+ * in-process GATT client, and with the marshalling of the binder transaction it replaces. The
+ * binder driver round trip itself can only be measured on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InProcessGattClientBenchmark {
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+    private static final UUID BATTERY_SERVICE_UUID =
+            UUID.fromString("0000180F-0000-1000-8000-00805F9B34FB");
+    private static final UUID BATTERY_LEVEL_UUID =
+            UUID.fromString("00002A19-0000-1000-8000-00805F9B34FB");
+    private static final int BATTERY_LEVEL_HANDLE = 3;
+    private static final byte[] VALUE = {0x50};
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private IBluetoothGattCallback mGattCallback;
+
+    @Before
+    public void setUp() throws Exception {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        BluetoothGattCallback callback = new BluetoothGattCallback() {
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt,
+                    BluetoothGattCharacteristic characteristic, byte[] value) {
+                Blackhole.consume(value);
+            }
+        };
+        // The GATT service is not called to dispatch notifications
+        InProcessGattClient client = new InProcessGattClient(null, device, false,
+                BluetoothDevice.TRANSPORT_LE, true, BluetoothDevice.PHY_LE_1M_MASK, callback,
+                null);
+        BluetoothGattService service = new BluetoothGattService(BATTERY_SERVICE_UUID, 1,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        service.addCharacteristic(new BluetoothGattCharacteristic(BATTERY_LEVEL_UUID,
+                BATTERY_LEVEL_HANDLE, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0));
+        mGattCallback = client.getGattCallback();
+        mGattCallback.onSearchComplete(ADDRESS, List.of(service), BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Test
+    public void onNotify_inProcess() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mGattCallback.onNotify(ADDRESS, BATTERY_LEVEL_HANDLE, VALUE);
+        }
+    }
+
+    @Test
+    public void onNotify_marshalled() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Parcel data = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(IBluetoothGattCallback.DESCRIPTOR);
+                data.writeString(ADDRESS);
+                data.writeInt(BATTERY_LEVEL_HANDLE);
+                data.writeByteArray(VALUE);
+                data.setDataPosition(0);
+                data.enforceInterface(IBluetoothGattCallback.DESCRIPTOR);
+                mGattCallback.onNotify(data.readString(), data.readInt(),
+                        data.createByteArray());
+            } finally {
+                data.recycle();
+            }
+        }
+    }
+}
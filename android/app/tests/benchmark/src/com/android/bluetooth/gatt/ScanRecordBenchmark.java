@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanRecordBenchmark {
+    /* Flags, 16 bit service UUIDs, complete local name, manufacturer data and service data */
+    private static final byte[] ADVERTISEMENT = {
+        0x02, 0x01, 0x06,
+        0x05, 0x03, 0x0F, 0x18, 0x0A, 0x18,
+        0x09, 0x09, 'B', 'e', 'n', 'c', 'h', 'm', 'a', 'r',
+        0x07, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01, 0x02, 0x03, 0x04,
+        0x05, 0x16, 0x0F, 0x18, 0x50, 0x64,
+    };
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private ScanResult mScanResult;
+
+    @Before
+    public void setUp() {
+        BluetoothDevice device =
+                BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:AA:BB:CC");
+        mScanResult = new ScanResult(device, ScanRecord.parseFromBytes(ADVERTISEMENT), -60, 0);
+    }
+
+    @Test
+    public void parseFromBytes() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(ScanRecord.parseFromBytes(ADVERTISEMENT));
+        }
+    }
+
+    @Test
+    public void scanFilterMatches_serviceUuid() {
+        ScanFilter filter = new ScanFilter.Builder()
+                .setServiceUuid(ParcelUuid.fromString("0000180F-0000-1000-8000-00805F9B34FB"))
+                .build();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(filter.matches(mScanResult));
+        }
+    }
+
+    @Test
+    public void scanFilterMatches_manufacturerDataWithMask() {
+        ScanFilter filter = new ScanFilter.Builder()
+                .setDeviceName("Benchmar")
+                .setManufacturerData(0x00E0, new byte[] {0x01, 0x00, 0x03},
+                        new byte[] {(byte) 0xFF, 0x00, (byte) 0xFF})
+                .build();
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(filter.matches(mScanResult));
+        }
+    }
+}
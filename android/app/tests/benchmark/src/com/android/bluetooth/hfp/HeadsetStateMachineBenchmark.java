@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hfp;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class HeadsetStateMachineBenchmark {
+    /* Arguments of a typical AT+XAPL / AT+IPHONEACCEV style vendor command */
+    private static final String ARGS = "2,1,8,2,1,\"ABCD-1234-0100\",10";
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void generateArgs() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(HeadsetStateMachine.generateArgs(ARGS));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.bluetooth.BluetoothAdapter;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.Field;
+
+@RunWith(RobolectricTestRunner.class)
+public class BluetoothMapMessageListingBenchmark {
+    private static final int LISTING_SIZE = 100;
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final BluetoothMapMessageListing mListing = new BluetoothMapMessageListing();
+
+    @Before
+    public void setUp() throws Exception {
+        // encode() checks the remote device for carkit workarounds
+        Field field = BluetoothMapService.class.getDeclaredField("sRemoteDevice");
+        field.setAccessible(true);
+        field.set(null, BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:AA:BB:CC"));
+
+        for (int i = 0; i < LISTING_SIZE; i++) {
+            BluetoothMapMessageListingElement element = new BluetoothMapMessageListingElement();
+            element.setHandle(0x1000 + i);
+            element.setSubject("Subject of the message number " + i);
+            element.setDateTime(1_600_000_000_000L + i * 60_000L);
+            element.setSenderName("Sender " + i);
+            element.setSenderAddressing("+1555000" + i);
+            element.setRecipientAddressing("+15551234567");
+            element.setType(BluetoothMapUtils.TYPE.SMS_GSM, true);
+            element.setSize(160);
+            element.setReceptionStatus("complete");
+            element.setAttachmentSize(0);
+            element.setRead(i % 2 == 0, true);
+            element.setSent("no");
+            element.setProtect("no");
+            mListing.add(element);
+        }
+    }
+
+    @Test
+    public void encode() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(mListing.encode(false, BluetoothMapUtils.MAP_V11_STR));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(RobolectricTestRunner.class)
+public class BluetoothMapbMessageBenchmark {
+    private static final byte[] SMALL_EMAIL = createEmail(256);
+    private static final byte[] LARGE_EMAIL = createEmail(1024 * 1024);
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private static byte[] createEmail(int bodySize) {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < bodySize) {
+            body.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit\r\n");
+        }
+        String bmsg = "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:UNREAD\r\nTYPE:EMAIL\r\n"
+                + "FOLDER:telecom/msg/outbox\r\n"
+                + "BEGIN:VCARD\r\nVERSION:3.0\r\nFN:Sender\r\nN:Sender\r\n"
+                + "EMAIL:sender@example.com\r\nEND:VCARD\r\n"
+                + "BEGIN:BENV\r\n"
+                + "BEGIN:VCARD\r\nVERSION:3.0\r\nFN:Recipient\r\nN:Recipient\r\n"
+                + "EMAIL:INTERNET;recipient@example.com\r\nEND:VCARD\r\n"
+                + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\nLENGTH:" + (body.length() + 22) + "\r\n"
+                + "BEGIN:MSG\r\n" + body + "END:MSG\r\nEND:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+        return bmsg.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void parse_smallEmail() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(BluetoothMapbMessage.parse(new ByteArrayInputStream(SMALL_EMAIL),
+                    BluetoothMapAppParams.CHARSET_UTF8));
+        }
+    }
+
+    @Test
+    public void parse_largeEmail() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(BluetoothMapbMessage.parse(new ByteArrayInputStream(LARGE_EMAIL),
+                    BluetoothMapAppParams.CHARSET_UTF8));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+
+@RunWith(RobolectricTestRunner.class)
+public class BmessageParserBenchmark {
+    private static final byte[] SMALL_EMAIL = createEmail(256);
+    private static final byte[] LARGE_EMAIL = createEmail(2 * 1024 * 1024);
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private static byte[] createEmail(int bodySize) {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < bodySize) {
+            body.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit\r\n");
+        }
+        String bmsg = "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:EMAIL\r\n"
+                + "FOLDER:null\r\nBEGIN:BENV\r\n"
+                + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\nLENGTH:" + (body.length() + 22) + "\r\n"
+                + "BEGIN:MSG\r\n" + body + "\r\nEND:MSG\r\nEND:BBODY\r\nEND:BENV\r\n"
+                + "END:BMSG\r\n";
+        return bmsg.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void createBmessage_smallEmail() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(BmessageParser.createBmessage(SMALL_EMAIL));
+        }
+    }
+
+    @Test
+    public void createBmessage_largeEmail() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(BmessageParser.createBmessage(LARGE_EMAIL));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import android.accounts.Account;
+
+import com.android.bluetooth.benchmark.BenchmarkRule;
+import com.android.bluetooth.benchmark.BenchmarkState;
+import com.android.bluetooth.benchmark.Blackhole;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(RobolectricTestRunner.class)
+public class BluetoothPbapVcardListBenchmark {
+    private static final int PHONEBOOK_SIZE = 200;
+    private static final Account ACCOUNT = new Account("00:11:22:AA:BB:CC",
+            "com.android.bluetooth.pbapclient.account");
+
+    private static final byte[] PHONEBOOK_21 = createPhonebook("2.1");
+    private static final byte[] PHONEBOOK_30 = createPhonebook("3.0");
+
+    @Rule public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private static byte[] createPhonebook(String version) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PHONEBOOK_SIZE; i++) {
+            sb.append("BEGIN:VCARD\r\n")
+                    .append("VERSION:").append(version).append("\r\n")
+                    .append("N:Last").append(i).append(";First").append(i).append(";;;\r\n")
+                    .append("FN:First").append(i).append(" Last").append(i).append("\r\n")
+                    .append("TEL;TYPE=CELL:+1555000").append(i).append("\r\n")
+                    .append("TEL;TYPE=WORK:+1555100").append(i).append("\r\n")
+                    .append("EMAIL;TYPE=INTERNET:first").append(i).append("@example.com\r\n")
+                    .append("END:VCARD\r\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void parse_v21() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(new BluetoothPbapVcardList(ACCOUNT,
+                    new ByteArrayInputStream(PHONEBOOK_21),
+                    PbapClientConnectionHandler.VCARD_TYPE_21));
+        }
+    }
+
+    @Test
+    public void parse_v30() throws Exception {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Blackhole.consume(new BluetoothPbapVcardList(ACCOUNT,
+                    new ByteArrayInputStream(PHONEBOOK_30),
+                    PbapClientConnectionHandler.VCARD_TYPE_30));
+        }
+    }
+}
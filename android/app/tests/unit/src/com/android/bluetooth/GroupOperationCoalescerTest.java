@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GroupOperationCoalescerTest {
+    private static final int TIMEOUT_MS = 1000;
+    private static final int GROUP_ID = 1;
+    private static final int OTHER_GROUP_ID = 2;
+
+    private TestLooper mLooper;
+    private List<String> mSent;
+    private GroupOperationCoalescer<Integer> mCoalescer;
+
+    @Before
+    public void setUp() {
+        mLooper = new TestLooper();
+        mSent = new ArrayList<>();
+        mCoalescer = new GroupOperationCoalescer<>("Test", mLooper.getLooper(), TIMEOUT_MS,
+                (groupId, value) -> mSent.add(groupId + ":" + value));
+    }
+
+    @Test
+    public void request_sentOnePerGroupAtATime() {
+        mCoalescer.request(GROUP_ID, 10);
+        mCoalescer.request(GROUP_ID, 11);
+        mCoalescer.request(OTHER_GROUP_ID, 20);
+
+        assertThat(mSent).containsExactly("1:10", "2:20").inOrder();
+        assertThat(mCoalescer.isInFlight(GROUP_ID)).isTrue();
+    }
+
+    @Test
+    public void onAcknowledged_latestValueSent() {
+        mCoalescer.request(GROUP_ID, 10);
+        mCoalescer.request(GROUP_ID, 11);
+        mCoalescer.request(GROUP_ID, 12);
+
+        assertThat(mCoalescer.onAcknowledged(GROUP_ID)).isTrue();
+        assertThat(mSent).containsExactly("1:10", "1:12").inOrder();
+
+        assertThat(mCoalescer.onAcknowledged(GROUP_ID)).isFalse();
+        assertThat(mCoalescer.isInFlight(GROUP_ID)).isFalse();
+
+        mCoalescer.request(GROUP_ID, 13);
+        assertThat(mSent).containsExactly("1:10", "1:12", "1:13").inOrder();
+    }
+
+    @Test
+    public void onAcknowledged_nothingInFlight_notSuperseded() {
+        assertThat(mCoalescer.onAcknowledged(GROUP_ID)).isFalse();
+        assertThat(mSent).isEmpty();
+    }
+
+    @Test
+    public void timeout_latestValueSent() {
+        mCoalescer.request(GROUP_ID, 10);
+        mCoalescer.request(GROUP_ID, 11);
+
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+        assertThat(mSent).containsExactly("1:10", "1:11").inOrder();
+
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+        assertThat(mCoalescer.isInFlight(GROUP_ID)).isFalse();
+    }
+
+    @Test
+    public void clear_nothingSent() {
+        mCoalescer.request(GROUP_ID, 10);
+        mCoalescer.request(GROUP_ID, 11);
+
+        mCoalescer.clear();
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+
+        assertThat(mSent).containsExactly("1:10");
+        assertThat(mCoalescer.isInFlight(GROUP_ID)).isFalse();
+    }
+}
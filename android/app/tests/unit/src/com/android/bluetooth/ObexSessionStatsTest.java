@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ObexSessionStatsTest {
+
+    @After
+    public void tearDown() {
+        ObexSessionStats.clearRecentSessions();
+    }
+
+    private static String dump() {
+        StringWriter out = new StringWriter();
+        ObexSessionStats.dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void streams_bytesCounted() throws Exception {
+        ObexSessionStats stats = new ObexSessionStats("L2CAP", 0);
+        InputStream in = stats.countReceived(new ByteArrayInputStream(new byte[10]));
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = stats.countSent(sink);
+
+        in.read();
+        in.read(new byte[20]);
+        out.write(new byte[6], 1, 4);
+        out.write(1);
+
+        assertThat(stats.getBytesReceived()).isEqualTo(10);
+        assertThat(stats.getBytesSent()).isEqualTo(5);
+        assertThat(sink.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void onClosed_recordedOnceWithThroughput() throws Exception {
+        ObexSessionStats stats = new ObexSessionStats("L2CAP", 1000);
+        stats.countSent(new ByteArrayOutputStream()).write(new byte[4000]);
+
+        stats.onClosed(3000, true, 4096, 4096);
+        stats.onClosed(4000, true, 4096, 4096);
+
+        String dump = dump();
+        assertThat(dump)
+                .contains("L2CAP: 2000 ms, rx 0 B (0 B/s), tx 4000 B (2000 B/s), srm=true, "
+                        + "max packet tx/rx=4096/4096");
+        assertThat(dump.indexOf("L2CAP")).isEqualTo(dump.lastIndexOf("L2CAP"));
+    }
+
+    @Test
+    public void recentSessions_oldestEvicted() {
+        for (int i = 0; i <= ObexSessionStats.MAX_RECENT_SESSIONS; i++) {
+            new ObexSessionStats("session" + i + ",", 0).onClosed(1, false, -1, -1);
+        }
+
+        String dump = dump();
+        assertThat(dump).doesNotContain("session0,");
+        assertThat(dump).contains("session1,");
+        assertThat(dump).contains("session" + ObexSessionStats.MAX_RECENT_SESSIONS + ",");
+    }
+}
@@ -53,6 +53,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -268,6 +269,40 @@ public class AvrcpControllerServiceTest {
         assertThat(result.getStatus()).isEqualTo(BrowseResult.SUCCESS);
     }
 
+    /**
+     * Pre-conditions: Node for specified media ID was restored from the browse cache
+     * Test: Call AvrcpControllerService.getContents()
+     * Expected Output: BrowseResult object with status SUCCESS; verify that the node is fetched
+     * again to validate the restored contents
+     */
+    @Test
+    public void getContentsNodeRestored_returnsSuccessStatusAndRefreshes() {
+        String parentMediaId = "test_parent_media_id";
+        BrowseTree.BrowseNode node = mock(BrowseTree.BrowseNode.class);
+        when(mStateMachine.findNode(parentMediaId)).thenReturn(node);
+        when(node.getContents()).thenReturn(new ArrayList(0));
+        when(node.isCached()).thenReturn(true);
+        when(node.isRestored()).thenReturn(true);
+        when(node.getDevice()).thenReturn(mRemoteDevice);
+
+        BrowseResult result = mService.getContents(parentMediaId);
+
+        verify(mStateMachine).requestContents(eq(node));
+        assertThat(result.getStatus()).isEqualTo(BrowseResult.SUCCESS);
+    }
+
+    @Test
+    public void handleBondStateChanged_bondRemoved_browseCacheDeleted() throws Exception {
+        File cacheFile = BrowseTreeCache.getFile(mService.getFilesDir(), mRemoteDevice);
+        assertThat(cacheFile.createNewFile() || cacheFile.exists()).isTrue();
+
+        mService.handleBondStateChanged(
+                mRemoteDevice, BluetoothDevice.BOND_BONDED, BluetoothDevice.BOND_NONE);
+
+        verify(mStateMachine).onBondRemoved();
+        assertThat(cacheFile.exists()).isFalse();
+    }
+
     @Test
     public void handleChangeFolderRsp() {
         int count = 1;
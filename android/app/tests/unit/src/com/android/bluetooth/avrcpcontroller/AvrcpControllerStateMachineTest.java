@@ -35,6 +35,7 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.SparseArray;
 
+import androidx.test.InstrumentationRegistry;
 import androidx.test.filters.FlakyTest;
 import androidx.test.filters.MediumTest;
 import androidx.test.rule.ServiceTestRule;
@@ -58,8 +59,11 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @MediumTest
@@ -755,6 +759,197 @@ public class AvrcpControllerStateMachineTest {
                 .getFolderList(eq(mTestAddress), eq(0), eq(4));
     }
 
+    /**
+     * Test that the page size grows while the remote answers quickly, and shrinks when it is slow
+     */
+    @Test
+    public void testNextPageSize() {
+        Assert.assertEquals(2 * AvrcpControllerStateMachine.ITEM_PAGE_SIZE,
+                AvrcpControllerStateMachine.nextPageSize(
+                        AvrcpControllerStateMachine.ITEM_PAGE_SIZE, 100));
+        Assert.assertEquals(AvrcpControllerStateMachine.MAX_ITEM_PAGE_SIZE,
+                AvrcpControllerStateMachine.nextPageSize(
+                        AvrcpControllerStateMachine.MAX_ITEM_PAGE_SIZE, 100));
+        Assert.assertEquals(AvrcpControllerStateMachine.ITEM_PAGE_SIZE,
+                AvrcpControllerStateMachine.nextPageSize(
+                        AvrcpControllerStateMachine.ITEM_PAGE_SIZE, 1000));
+        Assert.assertEquals(AvrcpControllerStateMachine.ITEM_PAGE_SIZE / 2,
+                AvrcpControllerStateMachine.nextPageSize(
+                        AvrcpControllerStateMachine.ITEM_PAGE_SIZE, 3000));
+        Assert.assertEquals(AvrcpControllerStateMachine.MIN_ITEM_PAGE_SIZE,
+                AvrcpControllerStateMachine.nextPageSize(
+                        AvrcpControllerStateMachine.MIN_ITEM_PAGE_SIZE, 3000));
+    }
+
+    /**
+     * Test that with adaptive browsing, the child folders of a folder browsed to are prefetched
+     * once its contents are fetched
+     */
+    @Test
+    public void testAdaptiveBrowsing_childFoldersPrefetched() {
+        when(mMockResources.getBoolean(R.bool.avrcp_controller_adaptive_browsing))
+                .thenReturn(true);
+        mAvrcpStateMachine.quitNow();
+        mAvrcpStateMachine = makeStateMachine(mTestDevice);
+        setActiveDevice(mTestDevice);
+        setUpConnectedState(true, true);
+        final String rootName = "__ROOT__" + mTestDevice.getAddress().toString();
+
+        // Get a browsable player
+        BrowseTree.BrowseNode root = mAvrcpStateMachine.findNode(rootName);
+        mAvrcpStateMachine.requestContents(root);
+        byte[] playerFeatures =
+                new byte[]{0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0a, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "Player 1", 1, playerFeatures, 1));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS,
+                testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        // Browse to the player, holding two folders
+        BrowseTree.BrowseNode player = root.getChildren().get(0);
+        mAvrcpStateMachine.requestContents(player);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .setBrowsedPlayer(eq(mTestAddress), eq(1));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_FOLDER_PATH, 2);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .getFolderList(eq(mTestAddress), eq(0), eq(1));
+        List<AvrcpItem> folders = new ArrayList<AvrcpItem>();
+        folders.add(makeFolder(10, "Folder 1"));
+        folders.add(makeFolder(11, "Folder 2"));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS,
+                folders);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        Assert.assertTrue(player.isCached());
+
+        // The first folder is prefetched without being requested
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .changeFolderPath(eq(mTestAddress),
+                        eq(AvrcpControllerService.FOLDER_NAVIGATION_DIRECTION_DOWN), eq(10L));
+    }
+
+    /**
+     * Test that the browsed contents of a player cached on disk are served on reconnection, and
+     * dropped once the remote reports a different number of items in the root of the player
+     */
+    @Test
+    public void testPersistentBrowseCache_restoredThenDroppedWhenOutdated() {
+        File cacheDir = InstrumentationRegistry.getTargetContext().getCacheDir();
+        File cacheFile = BrowseTreeCache.getFile(cacheDir, mTestDevice);
+        // UID persistency advertised, in bit 66
+        byte[] playerFeatures =
+                new byte[]{0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0e, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "Player 1", 1, playerFeatures, 1));
+        writeBrowseCache(cacheFile, testPlayers);
+        setUpPersistentBrowseCache(cacheDir);
+        final String rootName = "__ROOT__" + mTestDevice.getAddress().toString();
+
+        // The contents of the player are served as soon as the player is received
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS,
+                testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        BrowseTree.BrowseNode player = mAvrcpStateMachine.findNode(rootName).getChild(0);
+        Assert.assertTrue(player.isCached());
+        Assert.assertTrue(player.isRestored());
+        Assert.assertEquals(1, player.getChildrenCount());
+
+        // Then validated, and dropped as the root of the player changed
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .setBrowsedPlayer(eq(mTestAddress), eq(1));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_SET_BROWSED_PLAYER, 2, 0);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        Assert.assertFalse(player.isCached());
+        Assert.assertEquals(0, player.getChildrenCount());
+        cacheFile.delete();
+    }
+
+    /**
+     * Test that the cached contents of a player are not restored when the player doesn't keep its
+     * UIDs across connections
+     */
+    @Test
+    public void testPersistentBrowseCache_playerWithoutUidPersistency_notRestored() {
+        File cacheDir = InstrumentationRegistry.getTargetContext().getCacheDir();
+        File cacheFile = BrowseTreeCache.getFile(cacheDir, mTestDevice);
+        byte[] playerFeatures =
+                new byte[]{0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0a, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "Player 1", 1, playerFeatures, 1));
+        writeBrowseCache(cacheFile, testPlayers);
+        setUpPersistentBrowseCache(cacheDir);
+        final String rootName = "__ROOT__" + mTestDevice.getAddress().toString();
+
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS,
+                testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        BrowseTree.BrowseNode player = mAvrcpStateMachine.findNode(rootName).getChild(0);
+        Assert.assertFalse(player.isCached());
+        Assert.assertEquals(0, player.getChildrenCount());
+        verify(mNativeInterface, never()).setBrowsedPlayer(eq(mTestAddress), anyInt());
+        cacheFile.delete();
+    }
+
+    /**
+     * Test that the browsed contents are not written back to disk on disconnection once the bond
+     * of the device was removed
+     */
+    @Test
+    public void testPersistentBrowseCache_bondRemoved_notWrittenOnDisconnection() {
+        File cacheDir = InstrumentationRegistry.getTargetContext().getCacheDir();
+        File cacheFile = BrowseTreeCache.getFile(cacheDir, mTestDevice);
+        byte[] playerFeatures =
+                new byte[]{0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0e, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "Player 1", 1, playerFeatures, 1));
+        writeBrowseCache(cacheFile, testPlayers);
+        setUpPersistentBrowseCache(cacheDir);
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS,
+                testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+        cacheFile.delete();
+
+        mAvrcpStateMachine.onBondRemoved();
+        mAvrcpStateMachine.onBrowsingDisconnected();
+
+        Assert.assertFalse(cacheFile.exists());
+    }
+
+    private void writeBrowseCache(File cacheFile, List<AvrcpPlayer> players) {
+        BrowseTree cachedTree = new BrowseTree(mTestDevice);
+        cachedTree.mRootNode.addChildren(players);
+        BrowseTree.BrowseNode cachedPlayer = cachedTree.mRootNode.getChild(0);
+        List<AvrcpItem> folders = new ArrayList<AvrcpItem>();
+        folders.add(makeFolder(10, "Folder 1"));
+        cachedPlayer.addChildren(folders);
+        cachedPlayer.setCached(true);
+        Map<String, Integer> rootItemCounts = new HashMap<String, Integer>();
+        rootItemCounts.put(cachedPlayer.getID(), 1);
+        BrowseTreeCache.write(cacheFile, cachedTree, rootItemCounts);
+    }
+
+    private void setUpPersistentBrowseCache(File cacheDir) {
+        when(mMockResources.getBoolean(R.bool.avrcp_controller_persistent_browse_cache))
+                .thenReturn(true);
+        doReturn(cacheDir).when(mAvrcpControllerService).getFilesDir();
+        mAvrcpStateMachine.quitNow();
+        mAvrcpStateMachine = makeStateMachine(mTestDevice);
+        setActiveDevice(mTestDevice);
+        setUpConnectedState(true, true);
+    }
+
+    private AvrcpItem makeFolder(long uid, String name) {
+        AvrcpItem.Builder aib = new AvrcpItem.Builder();
+        aib.setDevice(mTestDevice);
+        aib.setItemType(AvrcpItem.TYPE_FOLDER);
+        aib.setTitle(name);
+        aib.setUid(uid);
+        aib.setUuid(UUID.randomUUID().toString());
+        aib.setBrowsable(true);
+        return aib.build();
+    }
+
     /**
      * Test our reaction to an available players changed event
      *
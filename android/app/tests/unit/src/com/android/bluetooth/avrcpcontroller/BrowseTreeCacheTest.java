@@ -0,0 +1,198 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcpcontroller;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.avrcpcontroller.BrowseTree.BrowseNode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BrowseTreeCacheTest {
+    private static final int TEST_PLAYER_ID = 1;
+    private static final String TEST_PLAYER_NAME = "Player 1";
+    private static final int TEST_ROOT_ITEM_COUNT = 7;
+
+    private final byte[] mTestAddress = new byte[]{01, 01, 01, 01, 01, 01};
+    private BluetoothDevice mTestDevice;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mTestDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(mTestAddress);
+        mFile = BrowseTreeCache.getFile(
+                InstrumentationRegistry.getTargetContext().getCacheDir(), mTestDevice);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private BrowseNode addPlayer(BrowseTree browseTree, int playerId, String name) {
+        List<AvrcpPlayer> players = new ArrayList<AvrcpPlayer>();
+        players.add(new AvrcpPlayer.Builder().setDevice(mTestDevice).setPlayerId(playerId)
+                .setName(name).build());
+        browseTree.mRootNode.addChildren(players);
+        return browseTree.mRootNode.getChild(browseTree.mRootNode.getChildrenCount() - 1);
+    }
+
+    private AvrcpItem makeItem(long uid, String title, boolean browsable) {
+        return new AvrcpItem.Builder().setDevice(mTestDevice)
+                .setItemType(browsable ? AvrcpItem.TYPE_FOLDER : AvrcpItem.TYPE_MEDIA)
+                .setUid(uid).setUuid("uuid" + uid).setTitle(title).setArtistName("Artist")
+                .setPlayingTime(1000).setBrowsable(browsable).setPlayable(!browsable).build();
+    }
+
+    // Player 1 -> Folder 1 -> Song 1, and Folder 2 not cached
+    private BrowseTree makeBrowseTree() {
+        BrowseTree browseTree = new BrowseTree(mTestDevice);
+        BrowseNode player = addPlayer(browseTree, TEST_PLAYER_ID, TEST_PLAYER_NAME);
+        List<AvrcpItem> folders = new ArrayList<AvrcpItem>();
+        folders.add(makeItem(10, "Folder 1", true));
+        folders.add(makeItem(11, "Folder 2", true));
+        player.addChildren(folders);
+        player.setCached(true);
+        BrowseNode folder = player.getChild(0);
+        List<AvrcpItem> songs = new ArrayList<AvrcpItem>();
+        songs.add(makeItem(20, "Song 1", false));
+        folder.addChildren(songs);
+        folder.setCached(true);
+        return browseTree;
+    }
+
+    private Map<String, Integer> rootItemCounts(BrowseTree browseTree) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put(browseTree.mRootNode.getChild(0).getID(), TEST_ROOT_ITEM_COUNT);
+        return counts;
+    }
+
+    @Test
+    public void read_noFile_null() {
+        assertThat(BrowseTreeCache.read(mFile, mTestDevice)).isNull();
+    }
+
+    @Test
+    public void read_invalidCount_nullAndFileDeleted() throws Exception {
+        for (int count : new int[] {-2, Integer.MAX_VALUE}) {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+                out.writeInt(1); // Version
+                out.writeInt(1); // Number of players
+                out.writeInt(TEST_PLAYER_ID);
+                out.writeBoolean(false); // No name
+                out.writeInt(TEST_ROOT_ITEM_COUNT);
+                out.writeInt(count); // Number of children
+            }
+
+            assertThat(BrowseTreeCache.read(mFile, mTestDevice)).isNull();
+            assertThat(mFile.exists()).isFalse();
+        }
+    }
+
+    @Test
+    public void read_truncatedFile_null() throws Exception {
+        BrowseTree browseTree = makeBrowseTree();
+        BrowseTreeCache.write(mFile, browseTree, rootItemCounts(browseTree));
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+
+        assertThat(BrowseTreeCache.read(mFile, mTestDevice)).isNull();
+    }
+
+    @Test
+    public void writeThenRestore_sameContents() {
+        BrowseTree browseTree = makeBrowseTree();
+        BrowseTreeCache.write(mFile, browseTree, rootItemCounts(browseTree));
+
+        BrowseTree restoredTree = new BrowseTree(mTestDevice);
+        BrowseNode player = addPlayer(restoredTree, TEST_PLAYER_ID, TEST_PLAYER_NAME);
+        BrowseTreeCache cache = BrowseTreeCache.read(mFile, mTestDevice);
+
+        assertThat(cache.restorePlayer(restoredTree, player)).isEqualTo(TEST_ROOT_ITEM_COUNT);
+        assertThat(player.isCached()).isTrue();
+        assertThat(player.getChildrenCount()).isEqualTo(2);
+        BrowseNode folder = player.getChild(0);
+        assertThat(folder.isCached()).isTrue();
+        assertThat(folder.isRestored()).isTrue();
+        assertThat(folder.getBluetoothID()).isEqualTo(10);
+        assertThat(restoredTree.findBrowseNodeByID(folder.getID())).isEqualTo(folder);
+        assertThat(folder.getChild(0).mItem).isEqualTo(makeItem(20, "Song 1", false));
+        assertThat(player.getChild(1).isCached()).isFalse();
+        assertThat(player.getChild(1).isRestored()).isFalse();
+    }
+
+    @Test
+    public void restoredFolder_fetchedAgain_noLongerRestored() {
+        BrowseTree browseTree = makeBrowseTree();
+        BrowseTreeCache.write(mFile, browseTree, rootItemCounts(browseTree));
+        BrowseTree restoredTree = new BrowseTree(mTestDevice);
+        BrowseNode player = addPlayer(restoredTree, TEST_PLAYER_ID, TEST_PLAYER_NAME);
+        BrowseTreeCache.read(mFile, mTestDevice).restorePlayer(restoredTree, player);
+        BrowseNode folder = player.getChild(0);
+
+        folder.setCached(false);
+        folder.setCached(true);
+
+        assertThat(folder.isRestored()).isFalse();
+    }
+
+    @Test
+    public void restore_otherPlayer_nothingRestored() {
+        BrowseTree browseTree = makeBrowseTree();
+        BrowseTreeCache.write(mFile, browseTree, rootItemCounts(browseTree));
+
+        BrowseTree restoredTree = new BrowseTree(mTestDevice);
+        BrowseNode player = addPlayer(restoredTree, TEST_PLAYER_ID, "Player 2");
+        BrowseTreeCache cache = BrowseTreeCache.read(mFile, mTestDevice);
+
+        assertThat(cache.restorePlayer(restoredTree, player)).isEqualTo(-1);
+        assertThat(player.getChildrenCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void write_noRootItemCount_fileDeleted() {
+        BrowseTree browseTree = makeBrowseTree();
+        BrowseTreeCache.write(mFile, browseTree, rootItemCounts(browseTree));
+
+        BrowseTreeCache.write(mFile, browseTree, new HashMap<String, Integer>());
+
+        assertThat(mFile.exists()).isFalse();
+    }
+}
@@ -117,6 +117,56 @@ public class BrowseTreeTest {
         assertThat(browseTree.getCurrentBrowsedFolder()).isEqualTo(browseTree.mNowPlayingNode);
     }
 
+    @Test
+    public void evictCachedFolders_leastRecentlyViewedEvicted() {
+        BrowseTree browseTree = new BrowseTree(mTestDevice);
+        BrowseNode folderA = addFolder(browseTree, browseTree.mRootNode, "folder_a");
+        BrowseNode folderB = addFolder(browseTree, browseTree.mRootNode, "folder_b");
+        addFolder(browseTree, folderA, "item_a");
+        addFolder(browseTree, folderB, "item_b");
+        browseTree.trackCachedFolder(folderA);
+        browseTree.trackCachedFolder(folderB);
+
+        folderA.getContents();
+
+        assertThat(browseTree.evictCachedFolders(1)).isEqualTo(1);
+        assertThat(folderA.getChildrenCount()).isEqualTo(1);
+        assertThat(folderB.getChildrenCount()).isEqualTo(0);
+        assertThat(folderB.isCached()).isFalse();
+        assertThat(browseTree.mBrowseMap).containsKey("item_a");
+        assertThat(browseTree.mBrowseMap).doesNotContainKey("item_b");
+        assertThat(browseTree.getCachedFolderCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void evictCachedFolders_currentFolderAndAncestorsKept() {
+        BrowseTree browseTree = new BrowseTree(mTestDevice);
+        BrowseNode folder = addFolder(browseTree, browseTree.mRootNode, "folder");
+        BrowseNode subFolder = addFolder(browseTree, folder, "sub_folder");
+        addFolder(browseTree, subFolder, "item");
+        browseTree.trackCachedFolder(folder);
+        browseTree.trackCachedFolder(subFolder);
+        browseTree.setCurrentBrowsedFolder("sub_folder");
+
+        assertThat(browseTree.evictCachedFolders(0)).isEqualTo(0);
+        assertThat(subFolder.getChildrenCount()).isEqualTo(1);
+
+        // The descendants of an evicted folder are evicted with it
+        browseTree.setCurrentBrowsedFolder(browseTree.mRootNode.getID());
+        assertThat(browseTree.evictCachedFolders(0)).isEqualTo(1);
+        assertThat(folder.getChildrenCount()).isEqualTo(0);
+        assertThat(browseTree.mBrowseMap).doesNotContainKey("item");
+        assertThat(browseTree.getCachedFolderCount()).isEqualTo(0);
+    }
+
+    private static BrowseNode addFolder(BrowseTree browseTree, BrowseNode parent, String id) {
+        BrowseNode node = browseTree.new BrowseNode(new AvrcpItem.Builder()
+                .setUuid(id).setTitle(id).setBrowsable(true).build());
+        parent.addChild(node);
+        parent.setCached(true);
+        return node;
+    }
+
     @Test
     public void setAndGetCurrentBrowsedPlayer() {
         BrowseTree browseTree = new BrowseTree(mTestDevice);
@@ -114,4 +114,46 @@ public class BaseDataTest {
         assertThat(level.index).isEqualTo(4);
         assertThat(level.codecConfigLength).isEqualTo(3);
     }
+
+    @Test
+    public void parseBaseData_sameContent_parsedOnce() {
+        byte[] serviceData =
+                new byte[] {
+                    // LEVEL 1
+                    (byte) 0x01,
+                    (byte) 0x02,
+                    (byte) 0x03, // presentationDelay
+                    (byte) 0x01, // numSubGroups
+                    // LEVEL 2
+                    (byte) 0x01, // numSubGroups
+                    (byte) 0x00,
+                    (byte) 0x00,
+                    (byte) 0x00,
+                    (byte) 0x00,
+                    (byte) 0x00, // UNKNOWN_CODEC
+                    (byte) 0x02, // codecConfigLength
+                    (byte) 0x01,
+                    (byte) 'A', // codecConfigInfo
+                    (byte) 0x03, // metaDataLength
+                    (byte) 0x06,
+                    (byte) 0x07,
+                    (byte) 0x08, // metaData
+                    // LEVEL 3
+                    (byte) 0x04, // index
+                    (byte) 0x03, // codecConfigLength
+                    (byte) 0x02,
+                    (byte) 'B',
+                    (byte) 'C' // codecConfigInfo
+                };
+        BaseData.clearParsedBases();
+
+        BaseData data = BaseData.parseBaseData(serviceData);
+        assertThat(BaseData.parseBaseData(serviceData.clone())).isSameInstanceAs(data);
+
+        serviceData[17] = (byte) 0x05;
+        BaseData other = BaseData.parseBaseData(serviceData);
+        assertThat(other).isNotSameInstanceAs(data);
+        assertThat(other.getLevelThree().get(0).index).isEqualTo(5);
+        assertThat(data.getLevelThree().get(0).index).isEqualTo(4);
+    }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BroadcastSourceRegistryTest {
+    private static final int SYNC_HANDLE = 1;
+    private static final int OTHER_SYNC_HANDLE = 2;
+    private static final int BROADCAST_ID = 0x123456;
+    private static final int OTHER_BROADCAST_ID = 0x654321;
+
+    private BroadcastSourceRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = new BroadcastSourceRegistry();
+    }
+
+    private static BluetoothDevice getDevice(int index) {
+        return BluetoothAdapter.getDefaultAdapter()
+                .getRemoteDevice(String.format("00:01:02:03:%02X:%02X", index >> 8, index & 0xFF));
+    }
+
+    private static ScanResult createScanResult() {
+        return new ScanResult(getDevice(0), 0, 0, 0, 0, 0, 0, 0, null, 0);
+    }
+
+    private static PeriodicAdvertisementResult createResult(BluetoothDevice device,
+            int broadcastId) {
+        return new PeriodicAdvertisementResult(device, BassConstants.INVALID_ADV_ADDRESS_TYPE,
+                BassConstants.INVALID_SYNC_HANDLE, BassConstants.INVALID_ADV_SID,
+                BassConstants.INVALID_ADV_INTERVAL, broadcastId, null, null);
+    }
+
+    @Test
+    public void putBroadcastIdForSyncHandle_lookupsBothWays() {
+        mRegistry.putBroadcastIdForSyncHandle(SYNC_HANDLE, BROADCAST_ID);
+
+        assertThat(mRegistry.getSyncHandleForBroadcastId(BROADCAST_ID)).isEqualTo(SYNC_HANDLE);
+        assertThat(mRegistry.getBroadcastIdForSyncHandle(SYNC_HANDLE)).isEqualTo(BROADCAST_ID);
+        assertThat(mRegistry.getSyncHandleForBroadcastId(OTHER_BROADCAST_ID))
+                .isEqualTo(BassConstants.INVALID_SYNC_HANDLE);
+        assertThat(mRegistry.getBroadcastIdForSyncHandle(OTHER_SYNC_HANDLE))
+                .isEqualTo(BassConstants.INVALID_BROADCAST_ID);
+    }
+
+    @Test
+    public void putBroadcastIdForSyncHandle_syncHandleReused_formerBroadcastForgotten() {
+        mRegistry.putBroadcastIdForSyncHandle(SYNC_HANDLE, BROADCAST_ID);
+        mRegistry.putBroadcastIdForSyncHandle(SYNC_HANDLE, OTHER_BROADCAST_ID);
+
+        assertThat(mRegistry.getSyncHandleForBroadcastId(BROADCAST_ID))
+                .isEqualTo(BassConstants.INVALID_SYNC_HANDLE);
+        assertThat(mRegistry.getSyncHandleForBroadcastId(OTHER_BROADCAST_ID))
+                .isEqualTo(SYNC_HANDLE);
+    }
+
+    @Test
+    public void putBroadcastIdForSyncHandle_broadcastResynced_formerSyncHandleForgotten() {
+        mRegistry.putBroadcastIdForSyncHandle(SYNC_HANDLE, BROADCAST_ID);
+        mRegistry.putBroadcastIdForSyncHandle(OTHER_SYNC_HANDLE, BROADCAST_ID);
+
+        assertThat(mRegistry.getBroadcastIdForSyncHandle(SYNC_HANDLE))
+                .isEqualTo(BassConstants.INVALID_BROADCAST_ID);
+        assertThat(mRegistry.getSyncHandleForBroadcastId(BROADCAST_ID))
+                .isEqualTo(OTHER_SYNC_HANDLE);
+    }
+
+    @Test
+    public void putCachedBroadcast_leastRecentlyUsedEvicted() {
+        ScanResult first = createScanResult();
+        mRegistry.putCachedBroadcast(0, first);
+        for (int i = 1; i <= BroadcastSourceRegistry.MAX_SOURCES; i++) {
+            if (i == BroadcastSourceRegistry.MAX_SOURCES) {
+                // Found again before the last source
+                assertThat(mRegistry.getCachedBroadcast(0)).isSameInstanceAs(first);
+            }
+            mRegistry.putCachedBroadcast(i, createScanResult());
+        }
+
+        assertThat(mRegistry.getCachedBroadcast(0)).isSameInstanceAs(first);
+        assertThat(mRegistry.getCachedBroadcast(1)).isNull();
+        assertThat(mRegistry.getCachedBroadcast(BroadcastSourceRegistry.MAX_SOURCES)).isNotNull();
+    }
+
+    @Test
+    public void putCachedBroadcastIfNew_evictedSource_notNewUntilSearchRestarted() {
+        for (int i = 0; i <= BroadcastSourceRegistry.MAX_SOURCES; i++) {
+            assertThat(mRegistry.putCachedBroadcastIfNew(i, createScanResult())).isTrue();
+        }
+        assertThat(mRegistry.getCachedBroadcast(0)).isNull();
+
+        // Found again in the same search, past the cap
+        assertThat(mRegistry.putCachedBroadcastIfNew(0, createScanResult())).isFalse();
+        assertThat(mRegistry.putCachedBroadcastIfNew(2, createScanResult())).isFalse();
+        assertThat(mRegistry.getCachedBroadcast(2)).isNotNull();
+
+        mRegistry.clearCachedBroadcasts();
+
+        assertThat(mRegistry.putCachedBroadcastIfNew(0, createScanResult())).isTrue();
+    }
+
+    @Test
+    public void putCachedBroadcastIfNew_evictedSourceFoundAgain_cached() {
+        ScanResult evicted = createScanResult();
+        mRegistry.putCachedBroadcastIfNew(0, evicted);
+        for (int i = 1; i <= BroadcastSourceRegistry.MAX_SOURCES; i++) {
+            mRegistry.putCachedBroadcastIfNew(i, createScanResult());
+        }
+        assertThat(mRegistry.getCachedBroadcast(0)).isNull();
+
+        ScanResult foundAgain = createScanResult();
+        mRegistry.putCachedBroadcastIfNew(0, foundAgain);
+
+        // Available to sync with the source, without selecting it again
+        assertThat(mRegistry.getCachedBroadcast(0)).isSameInstanceAs(foundAgain);
+    }
+
+    @Test
+    public void putPeriodicAdvertisementResult_syncedAdvertiserKept() {
+        BluetoothDevice synced = getDevice(0);
+        mRegistry.putDeviceForSyncHandle(SYNC_HANDLE, synced);
+        mRegistry.putPeriodicAdvertisementResult(synced, 0, createResult(synced, 0));
+        for (int i = 1; i <= BroadcastSourceRegistry.MAX_SOURCES; i++) {
+            BluetoothDevice device = getDevice(i);
+            mRegistry.putPeriodicAdvertisementResult(device, i, createResult(device, i));
+        }
+
+        assertThat(mRegistry.getPeriodicAdvertisementResult(synced, 0)).isNotNull();
+        assertThat(mRegistry.getPeriodicAdvertisementResult(getDevice(1), 1)).isNull();
+        assertThat(mRegistry.getAllPeriodicAdvertisementResults())
+                .hasSize(BroadcastSourceRegistry.MAX_SOURCES);
+    }
+
+    @Test
+    public void clear_allForgotten() {
+        BluetoothDevice device = getDevice(0);
+        mRegistry.putCachedBroadcast(BROADCAST_ID, createScanResult());
+        mRegistry.putDeviceForSyncHandle(SYNC_HANDLE, device);
+        mRegistry.putBroadcastIdForSyncHandle(SYNC_HANDLE, BROADCAST_ID);
+        mRegistry.putPeriodicAdvertisementResult(device, BROADCAST_ID,
+                createResult(device, BROADCAST_ID));
+
+        mRegistry.clear();
+
+        assertThat(mRegistry.getCachedBroadcast(BROADCAST_ID)).isNull();
+        assertThat(mRegistry.getDeviceForSyncHandle(SYNC_HANDLE)).isNull();
+        assertThat(mRegistry.getSyncHandleForBroadcastId(BROADCAST_ID))
+                .isEqualTo(BassConstants.INVALID_SYNC_HANDLE);
+        assertThat(mRegistry.getAllPeriodicAdvertisementResults()).isEmpty();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DiscoveryResultAggregatorTest {
+    private static final int COD = BluetoothClass.Device.AUDIO_VIDEO_HEADPHONES;
+    private static final String PACKAGE = "com.android.test";
+    private static final String OTHER_PACKAGE = "com.android.test.other";
+
+    private final BluetoothDevice mDevice1 =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+    private final BluetoothDevice mDevice2 =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:06");
+
+    private DiscoveryResultAggregator mAggregator;
+
+    @Before
+    public void setUp() {
+        mAggregator = new DiscoveryResultAggregator();
+        mAggregator.onDiscoveryStarted();
+    }
+
+    private boolean onDeviceFound(String packageName, BluetoothDevice device, String name,
+            int bluetoothClass, short rssi, boolean isCoordinatedSetMember) {
+        return mAggregator.onDeviceFound(packageName, new DiscoveryResultAggregator.Result(
+                device, name, bluetoothClass, rssi, isCoordinatedSetMember));
+    }
+
+    @Test
+    public void onDeviceFound_sameResult_deliveredOncePerSession() {
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, (short) -60, false)).isTrue();
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, (short) -60, false)).isFalse();
+        assertThat(onDeviceFound(PACKAGE, mDevice2, "name", COD, (short) -60, false)).isTrue();
+
+        mAggregator.onDiscoveryStopped();
+        mAggregator.onDiscoveryStarted();
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, (short) -60, false)).isTrue();
+    }
+
+    @Test
+    public void onDeviceFound_packageJoinedMidSession_devicesSeenBeforeDelivered() {
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, (short) -60, false)).isTrue();
+
+        assertThat(onDeviceFound(OTHER_PACKAGE, mDevice1, "name", COD, (short) -60, false))
+                .isTrue();
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, (short) -60, false)).isFalse();
+        assertThat(onDeviceFound(OTHER_PACKAGE, mDevice1, "name", COD, (short) -60, false))
+                .isFalse();
+    }
+
+    @Test
+    public void onDeviceFound_materialChange_redelivered() {
+        assertThat(onDeviceFound(PACKAGE, mDevice1, null, COD, (short) -60, false)).isTrue();
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, (short) -60, false)).isTrue();
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", 0, (short) -60, false)).isTrue();
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", 0, (short) -60, true)).isTrue();
+    }
+
+    @Test
+    public void onDeviceFound_smallRssiChange_suppressed() {
+        short rssi = -60;
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, rssi, false)).isTrue();
+
+        short smallChange = (short) (rssi + DiscoveryResultAggregator.RSSI_DELTA_THRESHOLD_DBM - 1);
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, smallChange, false)).isFalse();
+
+        short largeChange = (short) (rssi - DiscoveryResultAggregator.RSSI_DELTA_THRESHOLD_DBM);
+        assertThat(onDeviceFound(PACKAGE, mDevice1, "name", COD, largeChange, false)).isTrue();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.android.bluetooth.btservice.LinkQualityAnalytics.METRIC_FLUSHED_BYTES;
+import static com.android.bluetooth.btservice.LinkQualityAnalytics.METRIC_GLITCHES;
+import static com.android.bluetooth.btservice.LinkQualityAnalytics.METRIC_RETRANSMISSIONS;
+import static com.android.bluetooth.btservice.LinkQualityAnalytics.METRIC_RSSI;
+import static com.android.bluetooth.btservice.LinkQualityAnalytics.METRIC_SNR;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.bluetooth.BluetoothQualityReport;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LinkQualityAnalyticsTest {
+    private static final String ADDRESS_1 = "00:01:02:03:04:05";
+    private static final String ADDRESS_2 = "00:01:02:03:04:06";
+
+    private static final int MONITOR = BluetoothQualityReport.QUALITY_REPORT_ID_MONITOR;
+    private static final int A2DP_CHOPPY = BluetoothQualityReport.QUALITY_REPORT_ID_A2DP_CHOPPY;
+    private static final int SCO_CHOPPY = BluetoothQualityReport.QUALITY_REPORT_ID_SCO_CHOPPY;
+
+    private LinkQualityAnalytics mAnalytics;
+
+    @Before
+    public void setUp() {
+        mAnalytics = new LinkQualityAnalytics();
+    }
+
+    private void addMonitorReport(String address, int rssi, long timestampMs) {
+        mAnalytics.addReport(address, MONITOR, rssi, 20, 0, 0, 0, 0, -1, timestampMs);
+    }
+
+    @Test
+    public void getSnapshot_unknownDevice_returnsNull() {
+        assertThat(mAnalytics.getSnapshot(ADDRESS_1, 0)).isNull();
+    }
+
+    @Test
+    public void getPercentile_nearestRank() {
+        for (int rssi = -100; rssi < 0; rssi++) {
+            addMonitorReport(ADDRESS_1, rssi, 0);
+        }
+
+        LinkQualityAnalytics.Snapshot snapshot = mAnalytics.getSnapshot(ADDRESS_1, 0);
+
+        assertThat(snapshot.getReportCount()).isEqualTo(100);
+        assertThat(snapshot.getSampleCount(METRIC_RSSI)).isEqualTo(100);
+        assertThat(snapshot.getPercentile(METRIC_RSSI, 0)).isEqualTo(-100);
+        assertThat(snapshot.getPercentile(METRIC_RSSI, 10)).isEqualTo(-91);
+        assertThat(snapshot.getPercentile(METRIC_RSSI, 50)).isEqualTo(-51);
+        assertThat(snapshot.getPercentile(METRIC_RSSI, 100)).isEqualTo(-1);
+        assertThat(snapshot.getPercentile(METRIC_SNR, 50)).isEqualTo(20);
+        // Only choppy reports carry a glitch count
+        assertThat(snapshot.getSampleCount(METRIC_GLITCHES)).isEqualTo(0);
+        assertThrows(IllegalStateException.class,
+                () -> snapshot.getPercentile(METRIC_GLITCHES, 50));
+    }
+
+    @Test
+    public void addReport_windowFull_oldestValuesDropped() {
+        for (int i = 0; i < LinkQualityAnalytics.WINDOW_SIZE; i++) {
+            addMonitorReport(ADDRESS_1, -90, 0);
+        }
+        for (int i = 0; i < LinkQualityAnalytics.WINDOW_SIZE; i++) {
+            addMonitorReport(ADDRESS_1, -40, 0);
+        }
+
+        LinkQualityAnalytics.Snapshot snapshot = mAnalytics.getSnapshot(ADDRESS_1, 0);
+
+        assertThat(snapshot.getReportCount()).isEqualTo(2 * LinkQualityAnalytics.WINDOW_SIZE);
+        assertThat(snapshot.getSampleCount(METRIC_RSSI))
+                .isEqualTo(LinkQualityAnalytics.WINDOW_SIZE);
+        assertThat(snapshot.getPercentile(METRIC_RSSI, 0)).isEqualTo(-40);
+    }
+
+    @Test
+    public void addReport_countersClampedToInt() {
+        mAnalytics.addReport(ADDRESS_1, MONITOR, -50, 20, 1L << 40, 0, 0, 7, -1, 0);
+
+        LinkQualityAnalytics.Snapshot snapshot = mAnalytics.getSnapshot(ADDRESS_1, 0);
+
+        assertThat(snapshot.getPercentile(METRIC_RETRANSMISSIONS, 50))
+                .isEqualTo(Integer.MAX_VALUE);
+        assertThat(snapshot.getPercentile(METRIC_FLUSHED_BYTES, 50)).isEqualTo(7);
+    }
+
+    @Test
+    public void choppyReports_countedInWindow() {
+        long now = 100 * LinkQualityAnalytics.CHOPPY_WINDOW_MS;
+        mAnalytics.addReport(ADDRESS_1, A2DP_CHOPPY, -60, 10, 5, 1, 1, 0, 3,
+                now - LinkQualityAnalytics.CHOPPY_WINDOW_MS - 1);
+        mAnalytics.addReport(ADDRESS_1, A2DP_CHOPPY, -60, 10, 5, 1, 1, 0, 4, now - 1000);
+        mAnalytics.addReport(ADDRESS_1, SCO_CHOPPY, -60, 10, 5, 1, 1, 0, 8, now);
+
+        LinkQualityAnalytics.Snapshot snapshot = mAnalytics.getSnapshot(ADDRESS_1, now);
+
+        assertThat(snapshot.getA2dpChoppyCount()).isEqualTo(1);
+        assertThat(snapshot.getScoChoppyCount()).isEqualTo(1);
+        assertThat(snapshot.getSampleCount(METRIC_GLITCHES)).isEqualTo(3);
+        assertThat(snapshot.getPercentile(METRIC_GLITCHES, 100)).isEqualTo(8);
+    }
+
+    @Test
+    public void addReport_tooManyDevices_leastRecentlyReportedEvicted() {
+        addMonitorReport(ADDRESS_1, -50, 0);
+        addMonitorReport(ADDRESS_2, -50, 0);
+        for (int i = 0; i < LinkQualityAnalytics.MAX_DEVICES - 2; i++) {
+            addMonitorReport(String.format("00:00:00:00:01:%02X", i), -50, 0);
+        }
+        // ADDRESS_2 is the least recently reported device once ADDRESS_1 reports again
+        addMonitorReport(ADDRESS_1, -50, 0);
+        addMonitorReport("00:00:00:00:02:00", -50, 0);
+
+        assertThat(mAnalytics.getSnapshot(ADDRESS_1, 0)).isNotNull();
+        assertThat(mAnalytics.getSnapshot(ADDRESS_2, 0)).isNull();
+    }
+
+    @Test
+    public void getSnapshot_tooManyDevices_readDeviceStillEvicted() {
+        addMonitorReport(ADDRESS_1, -50, 0);
+        addMonitorReport(ADDRESS_2, -50, 0);
+        for (int i = 0; i < LinkQualityAnalytics.MAX_DEVICES - 2; i++) {
+            addMonitorReport(String.format("00:00:00:00:01:%02X", i), -50, 0);
+        }
+        // Reading ADDRESS_1 does not make it more recent than the devices reporting
+        assertThat(mAnalytics.getSnapshot(ADDRESS_1, 0)).isNotNull();
+        addMonitorReport("00:00:00:00:02:00", -50, 0);
+
+        assertThat(mAnalytics.getSnapshot(ADDRESS_1, 0)).isNull();
+        assertThat(mAnalytics.getSnapshot(ADDRESS_2, 0)).isNotNull();
+    }
+
+    @Test
+    public void dump_printsPercentiles() {
+        addMonitorReport(ADDRESS_1, -50, 0);
+        StringWriter out = new StringWriter();
+
+        mAnalytics.dump(new PrintWriter(out), 0);
+
+        assertThat(out.toString()).contains(ADDRESS_1 + ": reports=1");
+        assertThat(out.toString()).contains("rssi p10/p50/p90/p99: -50/-50/-50/-50");
+    }
+}
@@ -1139,6 +1139,159 @@ public class PhonePolicyTest {
                 .connect(eq(bondedDevices[1]));
     }
 
+    @Test
+    public void autoConnect_withReconnectHistory_connectsPlannedProfiles() {
+        mPhonePolicy.mLearnedReconnectPlanEnabled = true;
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapterService).getState();
+        doReturn(false).when(mAdapterService).isQuietModeEnabled();
+
+        BluetoothDevice device = getTestDevice(mAdapter, 0);
+        doReturn(device).when(mDatabaseManager).getMostRecentlyConnectedA2dpDevice();
+        // HFP and LE Audio connected before, A2DP always failed
+        doReturn("1:400:0;2:-1:3;22:200:0").when(mDatabaseManager).getReconnectHistory(device);
+        when(mHeadsetService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        when(mA2dpService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        when(mLeAudioService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+
+        mPhonePolicy.autoConnect();
+
+        verify(mHeadsetService).connect(device);
+        verify(mLeAudioService).connect(device);
+        verify(mA2dpService, never()).connect(device);
+    }
+
+    @Test
+    public void autoConnect_withoutReconnectHistory_connectsHeadsetAndA2dp() {
+        mPhonePolicy.mLearnedReconnectPlanEnabled = true;
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapterService).getState();
+        doReturn(false).when(mAdapterService).isQuietModeEnabled();
+
+        BluetoothDevice device = getTestDevice(mAdapter, 0);
+        doReturn(device).when(mDatabaseManager).getMostRecentlyConnectedA2dpDevice();
+        when(mHeadsetService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        when(mA2dpService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+
+        mPhonePolicy.autoConnect();
+
+        verify(mHeadsetService).connect(device);
+        verify(mA2dpService).connect(device);
+        verify(mLeAudioService, never()).connect(device);
+    }
+
+    @Test
+    public void profileConnectionStateChanged_reconnectHistoryRecorded() {
+        mPhonePolicy.mLearnedReconnectPlanEnabled = true;
+        BluetoothDevice device = getTestDevice(mAdapter, 0);
+
+        updateProfileConnectionStateHelper(device, BluetoothProfile.HEADSET,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_DISCONNECTED);
+        updateProfileConnectionStateHelper(device, BluetoothProfile.HEADSET,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.STATE_CONNECTING);
+        waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        verify(mDatabaseManager).setReconnectHistory(eq(device), startsWith("1:"));
+
+        updateProfileConnectionStateHelper(device, BluetoothProfile.A2DP,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_DISCONNECTED);
+        updateProfileConnectionStateHelper(device, BluetoothProfile.A2DP,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTING);
+        waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        verify(mDatabaseManager).setReconnectHistory(device, "2:-1:1");
+    }
+
+    // Keeps the reconnect history of the device set by the policy
+    private void storeReconnectHistory(BluetoothDevice device) {
+        String[] history = new String[1];
+        doAnswer(invocation -> {
+            history[0] = invocation.getArgument(1);
+            return null;
+        }).when(mDatabaseManager).setReconnectHistory(eq(device), any());
+        doAnswer(invocation -> history[0]).when(mDatabaseManager).getReconnectHistory(device);
+    }
+
+    private void failConnection(BluetoothDevice device, int profileId) {
+        updateProfileConnectionStateHelper(device, profileId,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_DISCONNECTED);
+        updateProfileConnectionStateHelper(device, profileId,
+                BluetoothProfile.STATE_DISCONNECTED, BluetoothProfile.STATE_CONNECTING);
+    }
+
+    @Test
+    public void autoConnect_afterThreeBootsOutOfRange_headsetAndA2dpReconnected() {
+        mPhonePolicy.mLearnedReconnectPlanEnabled = true;
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapterService).getState();
+        doReturn(false).when(mAdapterService).isQuietModeEnabled();
+
+        BluetoothDevice device = getTestDevice(mAdapter, 0);
+        doReturn(device).when(mDatabaseManager).getMostRecentlyConnectedA2dpDevice();
+        storeReconnectHistory(device);
+        when(mHeadsetService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        when(mA2dpService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+
+        for (int boot = 1; boot <= 3; boot++) {
+            mPhonePolicy.onBluetoothStateChange(BluetoothAdapter.STATE_OFF,
+                    BluetoothAdapter.STATE_ON);
+            // Page timeouts, the device is out of range
+            failConnection(device, BluetoothProfile.HEADSET);
+            failConnection(device, BluetoothProfile.A2DP);
+            waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        }
+        verify(mDatabaseManager, never()).setReconnectHistory(eq(device), any());
+
+        mPhonePolicy.onBluetoothStateChange(BluetoothAdapter.STATE_OFF,
+                BluetoothAdapter.STATE_ON);
+
+        verify(mHeadsetService, times(4)).connect(device);
+        verify(mA2dpService, times(4)).connect(device);
+    }
+
+    @Test
+    public void autoConnect_headsetAndA2dpSkipped_connectedWithoutPlan() {
+        mPhonePolicy.mLearnedReconnectPlanEnabled = true;
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapterService).getState();
+        doReturn(false).when(mAdapterService).isQuietModeEnabled();
+
+        BluetoothDevice device = getTestDevice(mAdapter, 0);
+        doReturn(device).when(mDatabaseManager).getMostRecentlyConnectedA2dpDevice();
+        doReturn("1:400:3;2:-1:3").when(mDatabaseManager).getReconnectHistory(device);
+        when(mHeadsetService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        when(mA2dpService.getConnectionPolicy(device))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+
+        mPhonePolicy.autoConnect();
+
+        verify(mHeadsetService).connect(device);
+        verify(mA2dpService).connect(device);
+    }
+
+    @Test
+    public void profileConnectionStateChanged_failureRecordedOnceOtherProfileConnects() {
+        mPhonePolicy.mLearnedReconnectPlanEnabled = true;
+        BluetoothDevice device = getTestDevice(mAdapter, 0);
+        storeReconnectHistory(device);
+
+        failConnection(device, BluetoothProfile.A2DP);
+        waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mDatabaseManager, never()).setReconnectHistory(eq(device), any());
+
+        updateProfileConnectionStateHelper(device, BluetoothProfile.HEADSET,
+                BluetoothProfile.STATE_CONNECTING, BluetoothProfile.STATE_DISCONNECTED);
+        updateProfileConnectionStateHelper(device, BluetoothProfile.HEADSET,
+                BluetoothProfile.STATE_CONNECTED, BluetoothProfile.STATE_CONNECTING);
+        waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        verify(mDatabaseManager).setReconnectHistory(eq(device), endsWith(";2:-1:1"));
+    }
+
     /**
      * Test that a device with no supported uuids is initialized properly and does not crash the
      * stack
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothProfile;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProfileConnectionHistoryTest {
+
+    @Test
+    public void parse_noHistory_empty() {
+        assertThat(ProfileConnectionHistory.parse(null).isEmpty()).isTrue();
+        assertThat(ProfileConnectionHistory.parse("").encode()).isNull();
+    }
+
+    @Test
+    public void encode_parsedBack() {
+        ProfileConnectionHistory history = new ProfileConnectionHistory();
+        history.onConnected(BluetoothProfile.A2DP, 800);
+        history.onConnected(BluetoothProfile.HEADSET, 400);
+        history.onConnectionFailed(BluetoothProfile.LE_AUDIO);
+
+        String encoded = history.encode();
+        assertThat(encoded).isEqualTo("1:400:0;2:800:0;22:-1:1");
+        assertThat(ProfileConnectionHistory.parse(encoded).encode()).isEqualTo(encoded);
+    }
+
+    @Test
+    public void parse_malformedRecords_dropped() {
+        ProfileConnectionHistory history = ProfileConnectionHistory.parse("1:400:0;2:x:0;3:1");
+
+        assertThat(history.encode()).isEqualTo("1:400:0");
+    }
+
+    @Test
+    public void getPlan_fastestFirst() {
+        ProfileConnectionHistory history = new ProfileConnectionHistory();
+        history.onConnected(BluetoothProfile.A2DP, 800);
+        history.onConnected(BluetoothProfile.HEADSET, 400);
+        // Moved half way from the previous latency
+        history.onConnected(BluetoothProfile.HEADSET, 1600);
+        // Never connected
+        history.onConnectionFailed(BluetoothProfile.LE_AUDIO);
+
+        assertThat(history.getPlan())
+                .containsExactly(BluetoothProfile.A2DP, BluetoothProfile.HEADSET)
+                .inOrder();
+    }
+
+    @Test
+    public void consecutiveFailures_skippedUntilConnected() {
+        ProfileConnectionHistory history = new ProfileConnectionHistory();
+        history.onConnected(BluetoothProfile.HEADSET, 400);
+        for (int i = 0; i < ProfileConnectionHistory.MAX_CONSECUTIVE_FAILURES - 1; i++) {
+            history.onConnectionFailed(BluetoothProfile.HEADSET);
+        }
+        assertThat(history.shouldSkip(BluetoothProfile.HEADSET)).isFalse();
+
+        history.onConnectionFailed(BluetoothProfile.HEADSET);
+        assertThat(history.shouldSkip(BluetoothProfile.HEADSET)).isTrue();
+        assertThat(history.getPlan()).isEmpty();
+
+        history.onConnected(BluetoothProfile.HEADSET, 400);
+        assertThat(history.shouldSkip(BluetoothProfile.HEADSET)).isFalse();
+        assertThat(history.getPlan()).containsExactly(BluetoothProfile.HEADSET);
+    }
+}
@@ -6,6 +6,7 @@ import static org.mockito.Mockito.*;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothAssignedNumbers;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothManager;
@@ -38,6 +39,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @MediumTest
 @RunWith(AndroidJUnit4.class)
@@ -742,6 +747,85 @@ public class RemoteDevicesTest {
         Assert.assertFalse(deviceProp.isCoordinatedSetMember());
     }
 
+    @Test
+    public void testDevicePropertyChangedCallback_concurrentReadersDuring500DeviceDiscovery()
+            throws Exception {
+        final int numDevices = 500;
+        final int numReaders = 4;
+        doReturn(new BluetoothDevice[0]).when(mAdapterService).getBondedDevices();
+
+        final byte[][] addresses = new byte[numDevices][];
+        for (int i = 0; i < numDevices; i++) {
+            addresses[i] = new byte[] {0x00, 0x11, 0x22, 0x33, (byte) (i >> 8), (byte) i};
+        }
+
+        final AtomicBoolean discovering = new AtomicBoolean(true);
+        final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        final List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < numReaders; r++) {
+            Thread reader = new Thread(() -> {
+                int i = 0;
+                while (discovering.get()) {
+                    int index = i++ % numDevices;
+                    BluetoothDevice device = mRemoteDevices.getDevice(addresses[index]);
+                    if (device != null) {
+                        DeviceProperties prop = mRemoteDevices.getDeviceProperties(device);
+                        if (prop != null) {
+                            // Each property is either not reported yet, or the reported value
+                            String name = prop.getName();
+                            if (name != null && !name.equals("Device " + index)) {
+                                errors.add("name of device " + index + ": " + name);
+                            }
+                            int bluetoothClass = prop.getBluetoothClass();
+                            if (bluetoothClass != BluetoothClass.Device.Major.UNCATEGORIZED
+                                    && bluetoothClass != 0x240404) {
+                                errors.add("class of device " + index + ": " + bluetoothClass);
+                            }
+                            short rssi = prop.getRssi();
+                            if (rssi != 0 && rssi != -(index % 100)) {
+                                errors.add("rssi of device " + index + ": " + rssi);
+                            }
+                        }
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        final int[] types = new int[] {
+                AbstractionLayer.BT_PROPERTY_BDNAME,
+                AbstractionLayer.BT_PROPERTY_CLASS_OF_DEVICE,
+                AbstractionLayer.BT_PROPERTY_REMOTE_RSSI,
+                AbstractionLayer.BT_PROPERTY_TYPE_OF_DEVICE};
+        for (int i = 0; i < numDevices; i++) {
+            byte[][] values = new byte[][] {
+                    ("Device " + i).getBytes(),
+                    Utils.intToByteArray(0x240404),
+                    new byte[] {(byte) -(i % 100)},
+                    Utils.intToByteArray(BluetoothDevice.DEVICE_TYPE_CLASSIC)};
+            mRemoteDevices.devicePropertyChangedCallback(addresses[i], types, values);
+        }
+        discovering.set(false);
+        for (Thread reader : readers) {
+            reader.join(TimeUnit.SECONDS.toMillis(5));
+            Assert.assertFalse(reader.isAlive());
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+
+        // Only the most recently discovered devices are kept in the property map
+        for (int i = numDevices - 200; i < numDevices; i++) {
+            BluetoothDevice device = mRemoteDevices.getDevice(addresses[i]);
+            Assert.assertNotNull(device);
+            DeviceProperties prop = mRemoteDevices.getDeviceProperties(device);
+            Assert.assertEquals("Device " + i, prop.getName());
+            Assert.assertEquals(0x240404, prop.getBluetoothClass());
+            Assert.assertEquals(-(i % 100), prop.getRssi());
+            Assert.assertEquals(BluetoothDevice.DEVICE_TYPE_CLASSIC, prop.getDeviceType());
+        }
+        Assert.assertNull(mRemoteDevices.getDevice(addresses[0]));
+    }
+
     private static void verifyBatteryLevelChangedIntent(BluetoothDevice device, int batteryLevel,
             ArgumentCaptor<Intent> intentArgument) {
         verifyBatteryLevelChangedIntent(device, batteryLevel, intentArgument.getValue());
@@ -262,6 +262,42 @@ public final class BluetoothKeystoreServiceTest {
                 mBluetoothKeystoreService.getNameDecryptKey()));
     }
 
+    @Test
+    public void testDecrypt_lazyDecryption() {
+        // create an encrypted key list and save it.
+        testEncrypt();
+        mBluetoothKeystoreService.saveEncryptedKey();
+        mBluetoothKeystoreService.stopThread();
+
+        mBluetoothKeystoreService = new BluetoothKeystoreService(mMockNativeInterface, true, true);
+        Assert.assertTrue(loadEncryptionFile(CONFIG_FILE_ENCRYPTION_PATH, true));
+        // keys not decrypted yet are decrypted on demand.
+        for (Map.Entry<String, String> entry : mNameDecryptKeyResult.entrySet()) {
+            Assert.assertEquals(entry.getValue(),
+                    mBluetoothKeystoreService.getKey(entry.getKey()));
+        }
+        // Wait for decryption to complete
+        mBluetoothKeystoreService.stopThread();
+
+        Assert.assertTrue(doCompareMap(mNameDecryptKeyResult,
+                mBluetoothKeystoreService.getNameDecryptKey()));
+    }
+
+    @Test
+    public void testSortByRecency() {
+        Map<String, Long> timestamps = new HashMap<>();
+        timestamps.put("aa:bb:cc:dd:ee:ff", 100L);
+        timestamps.put("11:22:33:44:55:66", 200L);
+
+        List<String> prefixes = BluetoothKeystoreService.sortByRecency(
+                List.of("aa:bb:cc:dd:ee:ff-LinkKey", "00:00:00:00:00:00-LinkKey",
+                        "11:22:33:44:55:66-LinkKey", "11:22:33:44:55:66-LE_KEY_PENC"),
+                timestamps);
+
+        Assert.assertEquals(List.of("11:22:33:44:55:66-LinkKey", "11:22:33:44:55:66-LE_KEY_PENC",
+                "aa:bb:cc:dd:ee:ff-LinkKey", "00:00:00:00:00:00-LinkKey"), prefixes);
+    }
+
     @Test
     public void testCompareHashFile() {
         // save config checksum.
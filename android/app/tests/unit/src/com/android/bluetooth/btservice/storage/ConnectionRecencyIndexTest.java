@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ConnectionRecencyIndexTest {
+    private static final String ADDRESS_1 = "00:01:02:03:04:05";
+    private static final String ADDRESS_2 = "00:01:02:03:04:06";
+    private static final String ADDRESS_3 = "00:01:02:03:04:07";
+
+    private final BluetoothAdapter mAdapter = BluetoothAdapter.getDefaultAdapter();
+    private ConnectionRecencyIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new ConnectionRecencyIndex();
+    }
+
+    private Metadata addMetadata(String address, long lastActiveTime) {
+        Metadata metadata = new Metadata(address);
+        metadata.last_active_time = lastActiveTime;
+        mIndex.add(metadata);
+        return metadata;
+    }
+
+    private BluetoothDevice device(String address) {
+        return mAdapter.getRemoteDevice(address);
+    }
+
+    @Test
+    public void getDevices_mostRecentFirst() {
+        addMetadata(ADDRESS_1, 3);
+        Metadata metadata2 = addMetadata(ADDRESS_2, 1);
+        addMetadata(ADDRESS_3, 2);
+        // Local storage is not a device
+        addMetadata("LocalStorage", 4);
+
+        assertThat(mIndex.getDevices())
+                .containsExactly(device(ADDRESS_1), device(ADDRESS_3), device(ADDRESS_2))
+                .inOrder();
+
+        mIndex.setLastActiveTime(metadata2, 5);
+
+        assertThat(metadata2.last_active_time).isEqualTo(5);
+        assertThat(mIndex.getDevices())
+                .containsExactly(device(ADDRESS_2), device(ADDRESS_1), device(ADDRESS_3))
+                .inOrder();
+    }
+
+    @Test
+    public void add_sameAddress_replacesMetadata() {
+        addMetadata(ADDRESS_1, 3);
+        addMetadata(ADDRESS_2, 2);
+        Metadata replacement = addMetadata(ADDRESS_1, 1);
+        mIndex.setActiveA2dp(replacement, true);
+
+        assertThat(mIndex.getDevices())
+                .containsExactly(device(ADDRESS_2), device(ADDRESS_1))
+                .inOrder();
+        assertThat(mIndex.getActiveA2dpMetadata()).containsExactly(replacement);
+
+        mIndex.remove(ADDRESS_1);
+
+        assertThat(mIndex.getDevices()).containsExactly(device(ADDRESS_2));
+        assertThat(mIndex.getMostRecentActiveA2dpDevice()).isNull();
+    }
+
+    @Test
+    public void activeDevices_trackedPerProfile() {
+        Metadata metadata1 = addMetadata(ADDRESS_1, 1);
+        Metadata metadata2 = addMetadata(ADDRESS_2, 2);
+
+        mIndex.setActiveHfp(metadata1, true);
+        mIndex.setActiveHfp(metadata2, true);
+        mIndex.setActiveA2dp(metadata1, true);
+
+        assertThat(metadata1.isActiveHfpDevice).isTrue();
+        assertThat(mIndex.getMostRecentActiveHfpDevice()).isEqualTo(device(ADDRESS_2));
+        assertThat(mIndex.getActiveHfpDevices())
+                .containsExactly(device(ADDRESS_2), device(ADDRESS_1))
+                .inOrder();
+        assertThat(mIndex.getMostRecentActiveA2dpDevice()).isEqualTo(device(ADDRESS_1));
+
+        // Reconnection keeps the active state
+        mIndex.setLastActiveTime(metadata1, 3);
+        assertThat(mIndex.getMostRecentActiveHfpDevice()).isEqualTo(device(ADDRESS_1));
+
+        mIndex.setActiveHfp(metadata1, false);
+        assertThat(metadata1.isActiveHfpDevice).isFalse();
+        assertThat(mIndex.getActiveHfpMetadata()).containsExactly(metadata2);
+        assertThat(mIndex.getMostRecentActiveA2dpDevice()).isEqualTo(device(ADDRESS_1));
+
+        mIndex.clear();
+        assertThat(mIndex.getDevices()).isEmpty();
+        assertThat(mIndex.getMostRecentActiveHfpDevice()).isNull();
+    }
+
+    @Test
+    public void setLastActiveTime_metadataNotAdded_added() {
+        Metadata metadata = new Metadata(ADDRESS_1);
+        metadata.is_active_a2dp_device = true;
+
+        mIndex.setLastActiveTime(metadata, 7);
+
+        assertThat(mIndex.getDevices()).containsExactly(device(ADDRESS_1));
+        assertThat(mIndex.getMostRecentActiveA2dpDevice()).isEqualTo(device(ADDRESS_1));
+    }
+}
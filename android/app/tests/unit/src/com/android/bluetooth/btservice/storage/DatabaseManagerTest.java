@@ -720,6 +720,28 @@ public final class DatabaseManagerTest {
         TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
     }
 
+    @Test
+    public void testSetGetReconnectHistory() {
+        // Not stored, the history is not kept
+        mDatabaseManager.setReconnectHistory(mTestDevice, "1:500:0");
+        Assert.assertNull(mDatabaseManager.getReconnectHistory(mTestDevice));
+
+        Metadata data = new Metadata(TEST_BT_ADDR);
+        mDatabaseManager.mMetadataCache.put(TEST_BT_ADDR, data);
+
+        mDatabaseManager.setReconnectHistory(mTestDevice, "1:500:0");
+        Assert.assertEquals("1:500:0", mDatabaseManager.getReconnectHistory(mTestDevice));
+        Assert.assertEquals("1:500:0", data.reconnectHistory);
+
+        mDatabaseManager.setReconnectHistory(mTestDevice, null);
+        Assert.assertNull(mDatabaseManager.getReconnectHistory(mTestDevice));
+
+        mDatabaseManager.factoryReset();
+        mDatabaseManager.mMetadataCache.clear();
+        // Wait for clear database
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+    }
+
     @Test
     public void testSetGetPreferredAudioProfiles() {
         Bundle preferences = new Bundle();
@@ -1427,6 +1449,32 @@ public final class DatabaseManagerTest {
         }
     }
 
+    @Test
+    public void testDatabaseMigration_118_119() throws IOException {
+        // Create a database with version 118
+        SupportSQLiteDatabase db = testHelper.createDatabase(DB_NAME, 118);
+        // insert a device to the database
+        ContentValues device = new ContentValues();
+        device.put("address", TEST_BT_ADDR);
+        device.put("migrated", false);
+        assertThat(
+                db.insert("metadata", SQLiteDatabase.CONFLICT_IGNORE, device),
+                CoreMatchers.not(-1));
+        // Migrate database from 118 to 119
+        db.close();
+        db =
+                testHelper.runMigrationsAndValidate(
+                        DB_NAME, 119, true, MetadataDatabase.MIGRATION_118_119);
+        Cursor cursor = db.query("SELECT * FROM metadata");
+        assertHasColumn(cursor, "reconnectHistory", true);
+        while (cursor.moveToNext()) {
+            // Check the new column was added without history
+            assertThat(
+                    cursor.isNull(cursor.getColumnIndex("reconnectHistory")),
+                    CoreMatchers.is(true));
+        }
+    }
+
     /**
      * Helper function to check whether the database has the expected column
      */
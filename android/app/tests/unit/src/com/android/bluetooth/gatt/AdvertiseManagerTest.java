@@ -18,9 +18,12 @@ package com.android.bluetooth.gatt;
 
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import android.bluetooth.le.AdvertiseData;
@@ -28,6 +31,7 @@ import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.IAdvertisingSetCallback;
 import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.os.IBinder;
+import android.os.test.TestLooper;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
@@ -158,4 +162,29 @@ public class AdvertiseManagerTest {
 
         verify(mAdvertiserMap).setPeriodicAdvertisingData(mAdvertiserId, periodicData);
     }
+
+    @Test
+    public void startAdvertisingSet_multiplexed_virtualAdvertiserIdReported() throws Exception {
+        TestLooper looper = new TestLooper();
+        mAdvertiseManager.setMultiplexer(new AdvertisingSetMultiplexer(
+                mNativeInterface, mAdvertiserMap, advertiserId -> {}, looper.getLooper()));
+        IAdvertisingSetCallback callback = mock(IAdvertisingSetCallback.class);
+        doReturn(mock(IBinder.class)).when(callback).asBinder();
+        AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder().build();
+
+        mAdvertiseManager.startAdvertisingSet(parameters, null, null, null, null, 0, 0, 0,
+                callback);
+
+        int advertiserId = AdvertisingSetMultiplexer.VIRTUAL_ADVERTISER_ID_BASE;
+        verify(mAdvertiserMap).add(advertiserId, callback, mService);
+        // Reported once on air
+        verify(callback, never()).onAdvertisingSetStarted(anyInt(), anyInt(), anyInt());
+        mAdvertiseManager.onAdvertisingSetStarted(AdvertiseManager.sTempRegistrationId, 3, -7, 0);
+        verify(callback).onAdvertisingSetStarted(advertiserId, -7, 0);
+
+        mAdvertiseManager.stopAdvertisingSet(callback);
+
+        verify(callback).onAdvertisingSetStopped(advertiserId);
+        verify(mAdvertiserMap).recordAdvertiseStop(advertiserId);
+    }
 }
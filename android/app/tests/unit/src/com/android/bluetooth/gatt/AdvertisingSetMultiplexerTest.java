@@ -0,0 +1,323 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.IAdvertisingSetCallback;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdvertisingSetMultiplexerTest {
+    private static final int FIRST_ID = AdvertisingSetMultiplexer.VIRTUAL_ADVERTISER_ID_BASE;
+    private static final byte[] DATA = new byte[] {0x02, 0x01, 0x06};
+    private static final byte[] SCAN_RESPONSE = new byte[0];
+
+    @Mock private AdvertiseManagerNativeInterface mNativeInterface;
+    @Mock private GattService.AdvertiserMap mAdvertiserMap;
+    @Mock private IAdvertisingSetCallback mCallback;
+    @Mock private AdvertisingSetMultiplexer.StartFailureListener mStartFailureListener;
+
+    private TestLooper mLooper;
+    private AdvertisingSetMultiplexer mMultiplexer;
+    private final AdvertisingSetParameters mParameters =
+            new AdvertisingSetParameters.Builder()
+                    .setLegacyMode(true)
+                    .setInterval(AdvertisingSetParameters.INTERVAL_LOW)
+                    .build();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mLooper = new TestLooper();
+        mMultiplexer = new AdvertisingSetMultiplexer(
+                mNativeInterface, mAdvertiserMap, mStartFailureListener, mLooper.getLooper());
+    }
+
+    private int addSet() {
+        int advertiserId = mMultiplexer.newAdvertiserId();
+        mMultiplexer.addSet(advertiserId, mCallback, mParameters, DATA, SCAN_RESPONSE);
+        return advertiserId;
+    }
+
+    private List<Integer> captureStartRegIds(int count) {
+        ArgumentCaptor<Integer> regId = ArgumentCaptor.forClass(Integer.class);
+        verify(mNativeInterface, times(count)).startAdvertisingSet(eq(mParameters), eq(DATA),
+                eq(SCAN_RESPONSE), any(), any(), eq(0), eq(0), regId.capture(), eq(0));
+        return regId.getAllValues();
+    }
+
+    @Test
+    public void canMultiplex() {
+        assertThat(AdvertisingSetMultiplexer.canMultiplex(null, 0, 0, 0)).isTrue();
+        assertThat(AdvertisingSetMultiplexer.canMultiplex(null, 100, 0, 0)).isFalse();
+        assertThat(AdvertisingSetMultiplexer.canMultiplex(null, 0, 0, 5)).isFalse();
+    }
+
+    @Test
+    public void getSliceMillis_weightedByInterval() {
+        AdvertisingSetParameters fast = new AdvertisingSetParameters.Builder()
+                .setInterval(AdvertisingSetParameters.INTERVAL_MIN).build();
+        AdvertisingSetParameters slow = new AdvertisingSetParameters.Builder()
+                .setInterval(AdvertisingSetParameters.INTERVAL_HIGH).build();
+        AdvertisingSetParameters max = new AdvertisingSetParameters.Builder()
+                .setInterval(AdvertisingSetParameters.INTERVAL_MAX).build();
+
+        // 1600 * 0.625ms = 1s
+        assertThat(AdvertisingSetMultiplexer.getSliceMillis(slow))
+                .isEqualTo(AdvertisingSetMultiplexer.EVENTS_PER_SLICE * 1000L);
+        assertThat(AdvertisingSetMultiplexer.getSliceMillis(fast))
+                .isEqualTo(AdvertisingSetMultiplexer.MIN_SLICE_MILLIS);
+        assertThat(AdvertisingSetMultiplexer.getSliceMillis(max))
+                .isEqualTo(AdvertisingSetMultiplexer.MAX_SLICE_MILLIS);
+    }
+
+    @Test
+    public void addSet_instanceAvailable_startedWithEncodedPayload() throws Exception {
+        int advertiserId = addSet();
+        int regId = captureStartRegIds(1).get(0);
+        verify(mCallback, never()).onAdvertisingSetStarted(anyInt(), anyInt(), anyInt());
+
+        assertThat(mMultiplexer.onAdvertisingSetStarted(regId, 3, -7, 0)).isTrue();
+        verify(mCallback).onAdvertisingSetStarted(advertiserId, -7,
+                AdvertiseCallback.ADVERTISE_SUCCESS);
+
+        assertThat(mMultiplexer.isMultiplexed(advertiserId)).isTrue();
+        assertThat(mMultiplexer.isMultiplexedInstance(3)).isTrue();
+        assertThat(mMultiplexer.toAdvertiserId(3)).isEqualTo(advertiserId);
+        // Not a start of the multiplexer
+        assertThat(mMultiplexer.onAdvertisingSetStarted(regId - 100, 4, 0, 0)).isFalse();
+
+        // Changes are sent to the instance on air, which reports their completion
+        mMultiplexer.setAdvertisingData(advertiserId, DATA);
+        verify(mNativeInterface).setAdvertisingData(3, DATA);
+        verify(mCallback, never()).onAdvertisingDataSet(anyInt(), anyInt());
+    }
+
+    @Test
+    public void tooManyAdvertisers_setsRotated() throws Exception {
+        int first = addSet();
+        int firstRegId = captureStartRegIds(1).get(0);
+        mMultiplexer.onAdvertisingSetStarted(firstRegId, 3, 0, 0);
+
+        int second = addSet();
+        int secondRegId = captureStartRegIds(2).get(1);
+        mMultiplexer.onAdvertisingSetStarted(secondRegId, 0, 0,
+                AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+        verify(mCallback, never()).onAdvertisingSetStarted(eq(second), anyInt(), anyInt());
+
+        // The second set waits for the end of the slice of the first one
+        mLooper.dispatchAll();
+        verify(mNativeInterface, never()).stopAdvertisingSet(anyInt());
+        mLooper.moveTimeForward(AdvertisingSetMultiplexer.getSliceMillis(mParameters));
+        mLooper.dispatchAll();
+
+        verify(mNativeInterface).stopAdvertisingSet(3);
+        assertThat(mMultiplexer.isMultiplexedInstance(3)).isFalse();
+        int retryRegId = captureStartRegIds(3).get(2);
+        mMultiplexer.onAdvertisingSetStarted(retryRegId, 3, 0, 0);
+        assertThat(mMultiplexer.toAdvertiserId(3)).isEqualTo(second);
+        verify(mCallback).onAdvertisingSetStarted(second, 0, AdvertiseCallback.ADVERTISE_SUCCESS);
+
+        // And the first set gets the instance back at the end of the next slice
+        mLooper.moveTimeForward(AdvertisingSetMultiplexer.getSliceMillis(mParameters));
+        mLooper.dispatchAll();
+        int backRegId = captureStartRegIds(4).get(3);
+        mMultiplexer.onAdvertisingSetStarted(backRegId, 3, 0, 0);
+        assertThat(mMultiplexer.toAdvertiserId(3)).isEqualTo(first);
+        // The start is only reported once
+        verify(mCallback).onAdvertisingSetStarted(first, 0, AdvertiseCallback.ADVERTISE_SUCCESS);
+    }
+
+    @Test
+    public void waitingSet_changesReportedImmediately() throws Exception {
+        addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+        int second = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(2).get(1), 0, 0,
+                AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+
+        mMultiplexer.setAdvertisingData(second, DATA);
+        mMultiplexer.setScanResponseData(second, SCAN_RESPONSE);
+
+        verify(mCallback).onAdvertisingDataSet(second, 0);
+        verify(mCallback).onScanResponseDataSet(second, 0);
+        verify(mNativeInterface, never()).setAdvertisingData(anyInt(), any());
+    }
+
+    @Test
+    public void disable_releasesInstanceForWaitingSet() throws Exception {
+        int first = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+        addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(2).get(1), 0, 0,
+                AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+
+        mMultiplexer.setEnabled(first, false, 0, 0);
+
+        verify(mCallback).onAdvertisingEnabled(first, false, 0);
+        verify(mNativeInterface).stopAdvertisingSet(3);
+        captureStartRegIds(3);
+    }
+
+    @Test
+    public void enable_withDuration_disabledWhenElapsed() throws Exception {
+        int advertiserId = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+        mMultiplexer.setEnabled(advertiserId, false, 0, 0);
+        clearInvocations(mCallback);
+
+        // 100 * 10ms
+        mMultiplexer.setEnabled(advertiserId, true, 100, 0);
+        verify(mCallback).onAdvertisingEnabled(advertiserId, true, 0);
+        mLooper.moveTimeForward(1000);
+        mLooper.dispatchAll();
+
+        verify(mCallback).onAdvertisingEnabled(advertiserId, false, 0);
+    }
+
+    @Test
+    public void enable_withMaxExtAdvEvents_disabledWhenSent() throws Exception {
+        int advertiserId = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+
+        // 10 events at INTERVAL_LOW (160 * 0.625ms = 100ms)
+        mMultiplexer.setEnabled(advertiserId, true, 0, 10);
+        verify(mCallback).onAdvertisingEnabled(advertiserId, true, 0);
+        mLooper.moveTimeForward(900);
+        mLooper.dispatchAll();
+        verify(mCallback, never()).onAdvertisingEnabled(advertiserId, false, 0);
+
+        mLooper.moveTimeForward(100);
+        mLooper.dispatchAll();
+        verify(mCallback).onAdvertisingEnabled(advertiserId, false, 0);
+    }
+
+    @Test
+    public void startFailure_setRemovedAndFailureReported() throws Exception {
+        int advertiserId = addSet();
+
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 0, 0,
+                AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+
+        verify(mCallback).onAdvertisingSetStarted(advertiserId, 0,
+                AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE);
+        verify(mCallback, never()).onAdvertisingEnabled(anyInt(), anyBoolean(), anyInt());
+        verify(mStartFailureListener).onStartFailed(advertiserId);
+        assertThat(mMultiplexer.isMultiplexed(advertiserId)).isFalse();
+        assertThat(advertiserId).isEqualTo(FIRST_ID);
+    }
+
+    @Test
+    public void restartFailure_setDisabled() throws Exception {
+        int advertiserId = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+        mMultiplexer.setEnabled(advertiserId, false, 0, 0);
+        mMultiplexer.setEnabled(advertiserId, true, 0, 0);
+
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(2).get(1), 0, 0,
+                AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+
+        verify(mCallback).onAdvertisingEnabled(advertiserId, false,
+                AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+        verify(mStartFailureListener, never()).onStartFailed(anyInt());
+        assertThat(mMultiplexer.isMultiplexed(advertiserId)).isTrue();
+    }
+
+    @Test
+    public void onInstanceEnabled_disabledByController_instanceStopped() throws Exception {
+        int advertiserId = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+
+        mMultiplexer.onInstanceEnabled(3, false, 0);
+
+        verify(mCallback).onAdvertisingEnabled(advertiserId, false, 0);
+        // The stack keeps the instance allocated until it is stopped
+        verify(mNativeInterface).stopAdvertisingSet(3);
+        assertThat(mMultiplexer.isMultiplexedInstance(3)).isFalse();
+    }
+
+    @Test
+    public void onInstanceEnabled_enableFailed_reported() throws Exception {
+        int advertiserId = addSet();
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+
+        mMultiplexer.onInstanceEnabled(3, true, 0);
+        verify(mCallback, never()).onAdvertisingEnabled(anyInt(), anyBoolean(), anyInt());
+
+        mMultiplexer.onInstanceEnabled(3, true,
+                AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+        verify(mCallback).onAdvertisingEnabled(advertiserId, true,
+                AdvertiseCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+        verify(mNativeInterface).stopAdvertisingSet(3);
+    }
+
+    @Test
+    public void newRegistrationId_sharedWithAdvertiseManager() {
+        addSet();
+        int regId = captureStartRegIds(1).get(0);
+
+        assertThat(AdvertiseManager.newRegistrationId()).isEqualTo(regId - 1);
+    }
+
+    @Test
+    public void removeSet_whileStarting_stoppedOnceStarted() {
+        int advertiserId = addSet();
+
+        mMultiplexer.removeSet(advertiserId);
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+
+        verify(mNativeInterface).stopAdvertisingSet(3);
+        assertThat(mMultiplexer.isMultiplexed(advertiserId)).isFalse();
+        assertThat(mMultiplexer.isMultiplexedInstance(3)).isFalse();
+    }
+
+    @Test
+    public void getOwnAddress_deferredUntilOnAir() {
+        int advertiserId = addSet();
+
+        mMultiplexer.getOwnAddress(advertiserId);
+        verify(mNativeInterface, never()).getOwnAddress(anyInt());
+
+        mMultiplexer.onAdvertisingSetStarted(captureStartRegIds(1).get(0), 3, 0, 0);
+        verify(mNativeInterface).getOwnAddress(3);
+    }
+}
@@ -329,4 +329,25 @@ public class AppAdvertiseStatsTest {
         verify(mMetricsLogger, times(1)).cacheCount(
                 eq(BluetoothProtoEnums.LE_ADV_DURATION_COUNT_PERIODIC_1M), eq((long) 1));
     }
+
+    @Test
+    public void getDutyCyclePercent() {
+        AppAdvertiseStats appAdvertiseStats = new AppAdvertiseStats(0, 1, "name", map, service);
+
+        // Not multiplexed
+        assertThat(appAdvertiseStats.getDutyCyclePercent(0)).isEqualTo(-1);
+
+        appAdvertiseStats.recordMultiplexedEnabled(true, 1000);
+        appAdvertiseStats.recordOnAir(true, 1000);
+        appAdvertiseStats.recordOnAir(false, 1500);
+        appAdvertiseStats.recordOnAir(true, 2500);
+
+        // On air 500ms, then 500ms more out of 2000ms
+        assertThat(appAdvertiseStats.getDutyCyclePercent(3000)).isEqualTo(50);
+
+        appAdvertiseStats.recordOnAir(false, 3000);
+        appAdvertiseStats.recordMultiplexedEnabled(false, 3000);
+        // Time while disabled is not counted
+        assertThat(appAdvertiseStats.getDutyCyclePercent(10000)).isEqualTo(50);
+    }
 }
@@ -19,8 +19,10 @@ package com.android.bluetooth.gatt;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -57,12 +59,14 @@ public class DistanceMeasurementManagerTest {
     @Mock private DistanceMeasurementNativeInterface mDistanceMeasurementNativeInterface;
     @Mock private AdapterService mAdapterService;
     @Mock private IDistanceMeasurementCallback mCallback;
+    @Mock private IDistanceMeasurementCallback mCallback2;
     private DistanceMeasurementManager mDistanceMeasurementManager;
     private UUID mUuid;
     private BluetoothDevice mDevice;
 
     private static final String IDENTITY_ADDRESS = "00:01:02:03:04:05";
     private static final int RSSI_FREQUENCY_LOW = 3000;
+    private static final int RSSI_FREQUENCY_HIGH = 500;
 
     @Before
     public void setUp() throws Exception {
@@ -205,4 +209,60 @@ public class DistanceMeasurementManagerTest {
                 1.00, 1.00).build();
         verify(mCallback, after(100).never()).onResult(mDevice, result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRssiTrackersOfSameDevice_shareReadLoop() throws RemoteException {
+        DistanceMeasurementParams lowParams = new DistanceMeasurementParams.Builder(mDevice)
+                .setDurationSeconds(1000)
+                .setFrequency(DistanceMeasurementParams.REPORT_FREQUENCY_LOW)
+                .setMethodId(DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI)
+                .build();
+        DistanceMeasurementParams highParams = new DistanceMeasurementParams.Builder(mDevice)
+                .setDurationSeconds(1000)
+                .setFrequency(DistanceMeasurementParams.REPORT_FREQUENCY_HIGH)
+                .setMethodId(DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI)
+                .build();
+        UUID uuid2 = UUID.randomUUID();
+        mDistanceMeasurementManager.startDistanceMeasurement(mUuid, lowParams, mCallback);
+        mDistanceMeasurementManager.onDistanceMeasurementStarted(IDENTITY_ADDRESS,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+
+        // The loop already running is made faster, and the tracker started right away
+        mDistanceMeasurementManager.startDistanceMeasurement(uuid2, highParams, mCallback2);
+        verify(mDistanceMeasurementNativeInterface).startDistanceMeasurement(
+                IDENTITY_ADDRESS, RSSI_FREQUENCY_HIGH,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        verify(mCallback2).onStarted(mDevice);
+
+        // And slowed down once the faster tracker stops
+        mDistanceMeasurementManager.stopDistanceMeasurement(uuid2, mDevice,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI, false);
+        verify(mDistanceMeasurementNativeInterface, times(2)).startDistanceMeasurement(
+                IDENTITY_ADDRESS, RSSI_FREQUENCY_LOW,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        verify(mDistanceMeasurementNativeInterface, never()).stopDistanceMeasurement(
+                IDENTITY_ADDRESS, DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+    }
+
+    @Test
+    public void testHandleRssiResult_rateLimitedPerTracker() throws RemoteException {
+        DistanceMeasurementParams params = new DistanceMeasurementParams.Builder(mDevice)
+                .setDurationSeconds(1000)
+                .setFrequency(DistanceMeasurementParams.REPORT_FREQUENCY_LOW)
+                .setMethodId(DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI)
+                .build();
+        mDistanceMeasurementManager.startDistanceMeasurement(mUuid, params, mCallback);
+        mDistanceMeasurementManager.onDistanceMeasurementStarted(IDENTITY_ADDRESS,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+
+        mDistanceMeasurementManager.onDistanceMeasurementResult(IDENTITY_ADDRESS,
+                100, 100, -1, -1, -1, -1,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        mDistanceMeasurementManager.onDistanceMeasurementResult(IDENTITY_ADDRESS,
+                110, 110, -1, -1, -1, -1,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+
+        // The second result comes before the report frequency of the tracker
+        verify(mCallback, times(1)).onResult(eq(mDevice), any());
+    }
+}
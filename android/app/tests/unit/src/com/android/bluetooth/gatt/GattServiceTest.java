@@ -308,7 +308,8 @@ public class GattServiceTest {
         doReturn(mApp).when(mScannerMap).getById(scanClient.scannerId);
 
         mService.onBatchScanReportsInternal(status, scannerId, reportType, numRecords, recordData);
-        verify(mScanManager).callbackDone(scannerId, status);
+        verify(mScanManager).callbackDone(
+                ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, scannerId, status);
 
         reportType = ScanManager.SCAN_RESULT_TYPE_TRUNCATED;
         recordData = new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x02,
@@ -321,6 +322,39 @@ public class GattServiceTest {
         verify(callback).onBatchScanResults(any());
     }
 
+    @Test
+    public void onBatchScanReportsInternal_truncatedUnknownScanner_commandCompleted()
+            throws RemoteException {
+        int status = 0;
+        int scannerId = 3;
+        byte[] recordData = new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x02,
+                0x06, 0x04, 0x02, 0x02, 0x00, 0x00, 0x02};
+        doReturn(null).when(mScannerMap).getById(scannerId);
+
+        mService.onBatchScanReportsInternal(status, scannerId,
+                ScanManager.SCAN_RESULT_TYPE_TRUNCATED, 1, recordData);
+
+        verify(mScanManager).callbackDone(
+                ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, scannerId, status);
+    }
+
+    @Test
+    public void onBatchScanReportsInternal_truncatedUnknownClient_commandCompleted()
+            throws RemoteException {
+        int status = 0;
+        int scannerId = 3;
+        byte[] recordData = new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x02,
+                0x06, 0x04, 0x02, 0x02, 0x00, 0x00, 0x02};
+        doReturn(mApp).when(mScannerMap).getById(scannerId);
+        doReturn(new HashSet<ScanClient>()).when(mScanManager).getBatchScanQueue();
+
+        mService.onBatchScanReportsInternal(status, scannerId,
+                ScanManager.SCAN_RESULT_TYPE_TRUNCATED, 1, recordData);
+
+        verify(mScanManager).callbackDone(
+                ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS, scannerId, status);
+    }
+
     @Test
     public void clientConnect() throws Exception {
         int clientIf = 1;
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.IBluetoothGattCallback;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.UUID;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class InProcessGattClientTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final int CLIENT_IF = 4;
+    private static final int HANDLE = 3;
+    private static final int AUTHENTICATION_NO_MITM = 1;
+
+    private GattService mService;
+    private BluetoothGattCallback mCallback;
+    private BluetoothGattCharacteristic mCharacteristic;
+    private InProcessGattClient mClient;
+    private IBluetoothGattCallback mGattCallback;
+
+    @Before
+    public void setUp() throws Exception {
+        mService = mock(GattService.class);
+        mCallback = mock(BluetoothGattCallback.class);
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        mClient = new InProcessGattClient(mService, device, false, BluetoothDevice.TRANSPORT_LE,
+                false, BluetoothDevice.PHY_LE_1M_MASK, mCallback, null);
+        mGattCallback = mClient.getGattCallback();
+
+        BluetoothGattService service = new BluetoothGattService(UUID.randomUUID(), 1,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        mCharacteristic = new BluetoothGattCharacteristic(UUID.randomUUID(), HANDLE,
+                BluetoothGattCharacteristic.PROPERTY_READ
+                        | BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        service.addCharacteristic(mCharacteristic);
+
+        mGattCallback.onClientRegistered(BluetoothGatt.GATT_SUCCESS, CLIENT_IF);
+        mGattCallback.onSearchComplete(ADDRESS, List.of(service), BluetoothGatt.GATT_SUCCESS);
+    }
+
+    @Test
+    public void onClientRegistered_connects() throws Exception {
+        verify(mService).clientConnect(eq(CLIENT_IF), eq(ADDRESS), anyInt(), eq(true),
+                eq(BluetoothDevice.TRANSPORT_LE), eq(false), eq(BluetoothDevice.PHY_LE_1M_MASK),
+                any());
+
+        mGattCallback.onClientConnectionState(BluetoothGatt.GATT_SUCCESS, CLIENT_IF, true,
+                ADDRESS);
+
+        verify(mCallback).onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS,
+                BluetoothProfile.STATE_CONNECTED);
+    }
+
+    @Test
+    public void readCharacteristic_busyUntilRead() throws Exception {
+        assertThat(mClient.readCharacteristic(mCharacteristic)).isTrue();
+        assertThat(mClient.readCharacteristic(mCharacteristic)).isFalse();
+        verify(mService).readCharacteristic(eq(CLIENT_IF), eq(ADDRESS), eq(HANDLE), eq(0), any());
+
+        byte[] value = {0x50};
+        mGattCallback.onCharacteristicRead(ADDRESS, BluetoothGatt.GATT_SUCCESS, HANDLE, value);
+
+        verify(mCallback).onCharacteristicRead(null, mCharacteristic, value,
+                BluetoothGatt.GATT_SUCCESS);
+        assertThat(mClient.readCharacteristic(mCharacteristic)).isTrue();
+    }
+
+    @Test
+    public void onCharacteristicRead_insufficientAuthentication_retried() throws Exception {
+        mClient.readCharacteristic(mCharacteristic);
+
+        mGattCallback.onCharacteristicRead(ADDRESS,
+                BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION, HANDLE, new byte[0]);
+
+        verify(mService).readCharacteristic(eq(CLIENT_IF), eq(ADDRESS), eq(HANDLE),
+                eq(AUTHENTICATION_NO_MITM), any());
+        verify(mCallback, never()).onCharacteristicRead(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    public void onNotify_otherDevice_ignored() throws Exception {
+        mGattCallback.onNotify("00:01:02:03:04:06", HANDLE, new byte[] {0x01});
+
+        verify(mCallback, never()).onCharacteristicChanged(any(), any(), any());
+    }
+
+    @Test
+    public void onNotify_characteristicChanged() throws Exception {
+        byte[] value = {0x01};
+        mGattCallback.onNotify(ADDRESS, HANDLE, value);
+
+        verify(mCallback).onCharacteristicChanged(null, mCharacteristic, value);
+        assertThat(mCharacteristic.getValue()).isEqualTo(value);
+    }
+
+    @Test
+    public void close_unregistersAndStopsCallbacks() throws Exception {
+        mClient.close();
+        mGattCallback.onNotify(ADDRESS, HANDLE, new byte[] {0x01});
+
+        verify(mService).unregisterClient(eq(CLIENT_IF), any());
+        verify(mCallback, never()).onCharacteristicChanged(any(), any(), any());
+        assertThat(mClient.discoverServices()).isFalse();
+        verify(mService, never()).discoverServices(anyInt(), anyString(), any());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.DistanceMeasurementResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RssiDistanceEstimatorTest {
+
+    private static DistanceMeasurementResult measurement(double meters, double errorMeters) {
+        return new DistanceMeasurementResult.Builder(meters, errorMeters).build();
+    }
+
+    @Test
+    public void parseFilter() {
+        assertThat(RssiDistanceEstimator.parseFilter("kalman"))
+                .isEqualTo(RssiDistanceEstimator.FILTER_KALMAN);
+        assertThat(RssiDistanceEstimator.parseFilter("ema"))
+                .isEqualTo(RssiDistanceEstimator.FILTER_EMA);
+        assertThat(RssiDistanceEstimator.parseFilter(""))
+                .isEqualTo(RssiDistanceEstimator.FILTER_NONE);
+    }
+
+    @Test
+    public void noFilter_measurementsUnchanged() {
+        RssiDistanceEstimator estimator =
+                new RssiDistanceEstimator(RssiDistanceEstimator.FILTER_NONE);
+        DistanceMeasurementResult measurement = measurement(2.0, 0.5);
+
+        assertThat(estimator.update(measurement)).isSameInstanceAs(measurement);
+    }
+
+    @Test
+    public void kalman_smoothsMeasurements() {
+        RssiDistanceEstimator estimator =
+                new RssiDistanceEstimator(RssiDistanceEstimator.FILTER_KALMAN);
+
+        DistanceMeasurementResult first = estimator.update(measurement(2.0, 1.0));
+        assertThat(first.getResultMeters()).isEqualTo(2.0);
+        assertThat(first.getErrorMeters()).isEqualTo(1.0);
+
+        DistanceMeasurementResult second = estimator.update(measurement(3.0, 1.0));
+        assertThat(second.getResultMeters()).isGreaterThan(2.0);
+        assertThat(second.getResultMeters()).isLessThan(3.0);
+        assertThat(second.getErrorMeters()).isLessThan(1.0);
+    }
+
+    @Test
+    public void ema_smoothsMeasurements() {
+        RssiDistanceEstimator estimator =
+                new RssiDistanceEstimator(RssiDistanceEstimator.FILTER_EMA);
+        estimator.update(measurement(2.0, 1.0));
+
+        DistanceMeasurementResult result = estimator.update(measurement(3.0, 1.0));
+
+        assertThat(result.getResultMeters()).isWithin(0.001).of(2.3);
+    }
+
+    @Test
+    public void outliers_rejectedUntilConsecutive() {
+        RssiDistanceEstimator estimator =
+                new RssiDistanceEstimator(RssiDistanceEstimator.FILTER_KALMAN);
+        estimator.update(measurement(2.0, 0.1));
+
+        for (int i = 0; i < RssiDistanceEstimator.MAX_CONSECUTIVE_OUTLIERS - 1; i++) {
+            assertThat(estimator.update(measurement(20.0, 0.1))).isNull();
+        }
+        // The device actually moved
+        DistanceMeasurementResult result = estimator.update(measurement(20.0, 0.1));
+        assertThat(result.getResultMeters()).isEqualTo(20.0);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanCommandQueueTest {
+    private static final long TIMEOUT_MS = 500;
+    private static final int SCANNER_ID = 1;
+    private static final int COMPLETION = ScanCommandQueue.COMPLETION_SCAN_FILTER_CONFIG;
+
+    private TestLooper mLooper;
+    private ScanCommandQueue mQueue;
+    private final List<String> mEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mLooper = new TestLooper();
+        mQueue = new ScanCommandQueue(mLooper.getLooper(), TIMEOUT_MS);
+    }
+
+    private void enqueue(String name) {
+        enqueue(name, COMPLETION);
+    }
+
+    private void enqueue(String name, int completion) {
+        mQueue.enqueueCommand(name, completion, SCANNER_ID, () -> mEvents.add(name));
+    }
+
+    private void complete(int status) {
+        mQueue.onCommandComplete(COMPLETION, SCANNER_ID, status);
+    }
+
+    @Test
+    public void enqueueCommand_sentWithoutWaitingForCompletion() {
+        enqueue("enable");
+        enqueue("add");
+        enqueue("params");
+
+        assertThat(mEvents).containsExactly("enable", "add", "params").inOrder();
+        assertThat(mQueue.getOutstandingCommandCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void runAfterPendingCommands_waitsForCompletions() {
+        enqueue("enable");
+        enqueue("add");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+        enqueue("params");
+
+        // Commands queued after a continuation wait for it
+        assertThat(mEvents).containsExactly("enable", "add").inOrder();
+
+        complete(0);
+        mLooper.dispatchAll();
+        assertThat(mEvents).containsExactly("enable", "add").inOrder();
+
+        complete(0);
+        mLooper.dispatchAll();
+        assertThat(mEvents).containsExactly("enable", "add", "start", "params").inOrder();
+    }
+
+    @Test
+    public void runAfterPendingCommands_idle_runsImmediately() {
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        assertThat(mEvents).containsExactly("start");
+        assertThat(mQueue.isIdle()).isTrue();
+    }
+
+    @Test
+    public void onCommandComplete_whileSending_handledInline() {
+        mQueue.enqueueCommand("enable", COMPLETION, SCANNER_ID, () -> complete(0));
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        assertThat(mEvents).containsExactly("start");
+        assertThat(mQueue.isIdle()).isTrue();
+    }
+
+    @Test
+    public void onCommandComplete_failure_nextWorkRuns() {
+        enqueue("add");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        complete(1);
+        mLooper.dispatchAll();
+
+        assertThat(mEvents).containsExactly("add", "start").inOrder();
+    }
+
+    @Test
+    public void enqueueCommand_windowFull_waitsForCompletion() {
+        for (int i = 0; i < ScanCommandQueue.MAX_OUTSTANDING_COMMANDS + 1; i++) {
+            enqueue("add" + i);
+        }
+
+        assertThat(mEvents).hasSize(ScanCommandQueue.MAX_OUTSTANDING_COMMANDS);
+
+        complete(0);
+        mLooper.dispatchAll();
+
+        assertThat(mEvents).hasSize(ScanCommandQueue.MAX_OUTSTANDING_COMMANDS + 1);
+        assertThat(mQueue.getOutstandingCommandCount())
+                .isEqualTo(ScanCommandQueue.MAX_OUTSTANDING_COMMANDS);
+    }
+
+    @Test
+    public void commandTimeout_nextWorkRuns() {
+        enqueue("add");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+
+        assertThat(mEvents).containsExactly("add", "start").inOrder();
+        assertThat(mQueue.isIdle()).isTrue();
+
+        // A late completion is ignored
+        complete(0);
+        mLooper.dispatchAll();
+        assertThat(mQueue.isIdle()).isTrue();
+    }
+
+    @Test
+    public void commandTimeout_lateCompletionNotCreditedToNextCommand() {
+        enqueue("add");
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+        enqueue("params");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        // The completion of the command that timed out comes first
+        complete(0);
+        mLooper.dispatchAll();
+        assertThat(mEvents).containsExactly("add", "params").inOrder();
+        assertThat(mQueue.getOutstandingCommandCount()).isEqualTo(1);
+
+        complete(0);
+        mLooper.dispatchAll();
+        assertThat(mEvents).containsExactly("add", "params", "start").inOrder();
+    }
+
+    @Test
+    public void commandTimeout_neverCompleted_nextCommandCompletes() {
+        enqueue("add");
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+        enqueue("enable", ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE);
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        mQueue.onCommandComplete(ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE, SCANNER_ID, 0);
+        mLooper.dispatchAll();
+
+        assertThat(mEvents).containsExactly("add", "enable", "start").inOrder();
+        assertThat(mQueue.isIdle()).isTrue();
+    }
+
+    @Test
+    public void onCommandComplete_otherCommand_notCredited() {
+        enqueue("add");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        // Another callback, then the same callback for another scanner
+        mQueue.onCommandComplete(ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE, SCANNER_ID, 0);
+        mQueue.onCommandComplete(COMPLETION, SCANNER_ID + 1, 0);
+        mLooper.dispatchAll();
+        assertThat(mEvents).containsExactly("add");
+
+        complete(0);
+        mLooper.dispatchAll();
+        assertThat(mEvents).containsExactly("add", "start").inOrder();
+    }
+
+    @Test
+    public void clear_otherThread_queuedWorkDroppedOnLooper() throws Exception {
+        enqueue("add");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+        complete(0);
+
+        Thread thread = new Thread(mQueue::clear);
+        thread.start();
+        thread.join();
+        // Nothing is dropped until the looper runs, then before the completion is handled
+        assertThat(mQueue.isIdle()).isFalse();
+        mLooper.dispatchAll();
+
+        assertThat(mEvents).containsExactly("add");
+        assertThat(mQueue.isIdle()).isTrue();
+    }
+
+    @Test
+    public void clear_dropsQueuedWork() {
+        enqueue("add");
+        mQueue.runAfterPendingCommands(() -> mEvents.add("start"));
+
+        mQueue.clear();
+        complete(0);
+        mLooper.dispatchAll();
+
+        assertThat(mEvents).containsExactly("add");
+        assertThat(mQueue.isIdle()).isTrue();
+    }
+}
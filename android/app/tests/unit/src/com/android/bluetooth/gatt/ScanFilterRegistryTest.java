@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterRegistryTest {
+    private static final int DELIVERY_MODE_IMMEDIATE = 0;
+    private static final int DELIVERY_MODE_BATCH = 2;
+
+    private static final ParcelUuid UUID =
+            ParcelUuid.fromString("0000FEF3-0000-1000-8000-00805F9B34FB");
+
+    private ScanFilterRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = new ScanFilterRegistry();
+    }
+
+    private static ScanFilterRegistry.Key key(int deliveryMode, ScanFilter filter) {
+        return key(deliveryMode, false, filter);
+    }
+
+    private static ScanFilterRegistry.Key key(int deliveryMode, boolean truncated,
+            ScanFilter filter) {
+        ScanFilterQueue queue = new ScanFilterQueue();
+        queue.addScanFilter(filter);
+        return new ScanFilterRegistry.Key(deliveryMode, truncated, queue.getEntryKeys());
+    }
+
+    @Test
+    public void key_equivalentFilters_equal() {
+        ScanFilter filter1 =
+                new ScanFilter.Builder().setServiceUuid(UUID).setDeviceName("name").build();
+        ScanFilter filter2 =
+                new ScanFilter.Builder().setDeviceName("name").setServiceUuid(UUID).build();
+
+        assertThat(key(DELIVERY_MODE_IMMEDIATE, filter1))
+                .isEqualTo(key(DELIVERY_MODE_IMMEDIATE, filter2));
+        assertThat(key(DELIVERY_MODE_IMMEDIATE, filter1))
+                .isNotEqualTo(key(DELIVERY_MODE_BATCH, filter2));
+        assertThat(key(DELIVERY_MODE_IMMEDIATE, filter1))
+                .isNotEqualTo(key(DELIVERY_MODE_IMMEDIATE,
+                        new ScanFilter.Builder().setDeviceName("other").build()));
+    }
+
+    @Test
+    public void findEquivalent_sharedFilter_refCounted() {
+        ScanFilterRegistry.Key key =
+                key(DELIVERY_MODE_IMMEDIATE, new ScanFilter.Builder().setDeviceName("a").build());
+        mRegistry.add(4, key);
+
+        assertThat(mRegistry.findEquivalent(key)).isEqualTo(4);
+        mRegistry.acquire(4);
+        assertThat(mRegistry.getReferenceCount(4)).isEqualTo(2);
+
+        assertThat(mRegistry.release(4)).isFalse();
+        assertThat(mRegistry.release(4)).isTrue();
+        assertThat(mRegistry.findEquivalent(key)).isEqualTo(-1);
+        assertThat(mRegistry.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void add_withoutKey_notShared() {
+        ScanFilterRegistry.Key key =
+                key(DELIVERY_MODE_IMMEDIATE, new ScanFilter.Builder().setDeviceName("a").build());
+        mRegistry.add(4, null);
+
+        assertThat(mRegistry.findEquivalent(key)).isEqualTo(-1);
+        assertThat(mRegistry.findCovering(key)).isEqualTo(-1);
+        assertThat(mRegistry.release(4)).isTrue();
+    }
+
+    @Test
+    public void findCovering_returnsMostSpecificBroaderFilter() {
+        mRegistry.add(4, key(DELIVERY_MODE_IMMEDIATE, new ScanFilter.Builder().build()));
+        ScanFilter uuidFilter = new ScanFilter.Builder().setServiceUuid(UUID).build();
+        mRegistry.add(5, key(DELIVERY_MODE_IMMEDIATE, uuidFilter));
+        mRegistry.add(6, key(DELIVERY_MODE_BATCH, uuidFilter));
+
+        ScanFilterRegistry.Key narrower = key(DELIVERY_MODE_IMMEDIATE,
+                new ScanFilter.Builder().setServiceUuid(UUID).setDeviceName("name").build());
+        ScanFilterRegistry.Key unrelated = key(DELIVERY_MODE_BATCH,
+                new ScanFilter.Builder().setDeviceName("name").build());
+
+        assertThat(mRegistry.findCovering(narrower)).isEqualTo(5);
+        assertThat(mRegistry.findCovering(unrelated)).isEqualTo(-1);
+    }
+
+    @Test
+    public void findCovering_truncatedBatchClientsWithDisjointFilters_notCovered() {
+        ScanFilter uuidFilter = new ScanFilter.Builder().setServiceUuid(UUID).build();
+        ScanFilter narrowerFilter =
+                new ScanFilter.Builder().setServiceUuid(UUID).setDeviceName("name").build();
+        ScanFilterRegistry.Key truncated = key(DELIVERY_MODE_BATCH, true, uuidFilter);
+        mRegistry.add(4, truncated);
+
+        ScanFilterRegistry.Key otherTruncated = key(DELIVERY_MODE_BATCH, true, narrowerFilter);
+        ScanFilterRegistry.Key full = key(DELIVERY_MODE_BATCH, false, narrowerFilter);
+
+        assertThat(mRegistry.findEquivalent(otherTruncated)).isEqualTo(-1);
+        assertThat(mRegistry.findCovering(otherTruncated)).isEqualTo(-1);
+        assertThat(mRegistry.findCovering(full)).isEqualTo(-1);
+        assertThat(mRegistry.findEquivalent(key(DELIVERY_MODE_BATCH, false, uuidFilter)))
+                .isEqualTo(-1);
+        assertThat(mRegistry.findEquivalent(key(DELIVERY_MODE_BATCH, true, uuidFilter)))
+                .isEqualTo(4);
+
+        mRegistry.add(5, key(DELIVERY_MODE_BATCH, false, uuidFilter));
+        assertThat(mRegistry.findCovering(otherTruncated)).isEqualTo(-1);
+        assertThat(mRegistry.findCovering(full)).isEqualTo(5);
+    }
+}
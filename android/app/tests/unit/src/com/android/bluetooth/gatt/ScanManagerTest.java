@@ -27,9 +27,14 @@ import static android.bluetooth.le.ScanSettings.SCAN_MODE_SCREEN_OFF_BALANCED;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
@@ -81,6 +86,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -175,8 +181,30 @@ public class ScanManagerTest {
         GattObjectsFactory.setInstanceForTesting(mFactory);
         doReturn(mNativeInterface).when(mFactory).getNativeInterface();
         doReturn(mScanNativeInterface).when(mFactory).getScanNativeInterface();
-        // Mock JNI callback in ScanNativeInterface
-        doReturn(true).when(mScanNativeInterface).waitForCallback(anyInt());
+        // Mock JNI callbacks in ScanNativeInterface: each command completes when it is sent
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE))
+                .when(mScanNativeInterface).gattClientScanFilterEnable(anyInt(), anyBoolean());
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_SCAN_FILTER_CONFIG))
+                .when(mScanNativeInterface).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+        doAnswer(invocation -> {
+            FilterParams params = invocation.getArgument(0);
+            mScanManager.callbackDone(ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS,
+                    params.getClientIf(), 0);
+            return null;
+        }).when(mScanNativeInterface).gattClientScanFilterParamAdd(any());
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS))
+                .when(mScanNativeInterface).gattClientScanFilterParamDelete(anyInt(), anyInt());
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_BATCH_SCAN_STORAGE))
+                .when(mScanNativeInterface)
+                .gattClientConfigBatchScanStorage(anyInt(), anyInt(), anyInt(), anyInt());
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_BATCH_SCAN_START_STOP))
+                .when(mScanNativeInterface)
+                .gattClientStartBatchScan(anyInt(), anyInt(), anyInt(), anyInt(), anyInt(),
+                        anyInt());
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_BATCH_SCAN_START_STOP))
+                .when(mScanNativeInterface).gattClientStopBatchScan(anyInt());
+        doAnswer(completeCommand(ScanCommandQueue.COMPLETION_BATCH_SCAN_REPORTS))
+                .when(mScanNativeInterface).gattClientReadScanReports(anyInt(), anyInt());
 
         MetricsLogger.setInstanceForTesting(mMetricsLogger);
 
@@ -211,6 +239,14 @@ public class ScanManagerTest {
         MetricsLogger.getInstance();
     }
 
+    /** Completes a mocked command sent for the scanner ID of its first argument. */
+    private Answer<Void> completeCommand(int completion) {
+        return invocation -> {
+            mScanManager.callbackDone(completion, invocation.getArgument(0), 0);
+            return null;
+        };
+    }
+
     private void testSleep(long millis) {
         try {
             mLatch.await(millis, TimeUnit.MILLISECONDS);
@@ -388,6 +424,51 @@ public class ScanManagerTest {
         }
     }
 
+    @Test
+    public void testStartFilteredScan_scanStartsOnceFiltersAreProgrammed() {
+        // The stack completes the filter commands later
+        doNothing().when(mScanNativeInterface).gattClientScanFilterEnable(anyInt(), anyBoolean());
+        doNothing().when(mScanNativeInterface).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+        doNothing().when(mScanNativeInterface).gattClientScanFilterParamAdd(any());
+        ScanClient client = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client));
+
+        // The filter commands are sent back to back, and the scan is not started yet
+        assertThat(mScanManager.getRegularScanQueue().contains(client)).isTrue();
+        verify(mScanNativeInterface).gattClientScanFilterEnable(0, true);
+        verify(mScanNativeInterface).gattClientScanFilterAdd(eq(0), any(), anyInt());
+        verify(mScanNativeInterface).gattClientScanFilterParamAdd(any());
+        verify(mScanNativeInterface, never()).gattClientScan(true);
+
+        // Filter enable, filter add and filter parameters
+        mScanManager.callbackDone(ScanCommandQueue.COMPLETION_SCAN_FILTER_ENABLE, 0, 0);
+        mScanManager.callbackDone(ScanCommandQueue.COMPLETION_SCAN_FILTER_CONFIG, 0, 0);
+        mScanManager.callbackDone(ScanCommandQueue.COMPLETION_SCAN_FILTER_PARAMS, 0, 0);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandler.getLooper());
+
+        verify(mScanNativeInterface, atLeastOnce()).gattClientScan(true);
+    }
+
+    @Test
+    public void testStartFilteredScan_equivalentFiltersShareControllerFilter() {
+        ScanClient client0 = createScanClient(0, true, SCAN_MODE_LOW_LATENCY);
+        ScanClient client1 = createScanClient(1, true, SCAN_MODE_LOW_LATENCY);
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client0));
+        sendMessageWaitForProcessed(createStartStopScanMessage(true, client1));
+
+        // The second client reuses the filter programmed for the first one
+        verify(mScanNativeInterface).gattClientScanFilterAdd(anyInt(), any(), anyInt());
+        verify(mScanNativeInterface).gattClientScanFilterParamAdd(any());
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(false, client0));
+        verify(mScanNativeInterface, never()).gattClientScanFilterParamDelete(anyInt(), anyInt());
+
+        sendMessageWaitForProcessed(createStartStopScanMessage(false, client1));
+        verify(mScanNativeInterface).gattClientScanFilterParamDelete(eq(1), anyInt());
+    }
+
     @Test
     public void testScreenOffStartEmptyFilterScan() {
         // Set filtered scan flag
@@ -62,6 +62,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
@@ -70,6 +71,7 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -914,6 +916,37 @@ public class HeadsetServiceTest {
                 eq(HeadsetStateMachine.SEND_CLCC_RESPONSE), any(HeadsetClccResponse.class));
     }
 
+    /**
+     * Verifies that a list of CLCC responses is sent to the connected device in one message,
+     * followed by the end mark.
+     */
+    @Test
+    public void testClccResponseList_withOneDevice() {
+        when(mDatabaseManager.getProfileConnectionPolicy(any(BluetoothDevice.class),
+                eq(BluetoothProfile.HEADSET)))
+                .thenReturn(BluetoothProfile.CONNECTION_POLICY_UNKNOWN);
+        mCurrentDevice = TestUtils.getTestDevice(mAdapter, 0);
+        Assert.assertTrue(mHeadsetService.connect(mCurrentDevice));
+        when(mStateMachines.get(mCurrentDevice).getDevice()).thenReturn(mCurrentDevice);
+        when(mStateMachines.get(mCurrentDevice).getConnectionState()).thenReturn(
+                BluetoothProfile.STATE_CONNECTED);
+        HeadsetClccResponse clccResponse =
+                new HeadsetClccResponse(1, 0, 0, 0, false, "8225319000", 0);
+
+        mHeadsetService.clccResponseList(Collections.singletonList(clccResponse));
+
+        ArgumentCaptor<List<HeadsetClccResponse>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mStateMachines.get(mCurrentDevice)).sendMessage(
+                eq(HeadsetStateMachine.SEND_CLCC_RESPONSE_LIST), captor.capture());
+        verify(mStateMachines.get(mCurrentDevice), never()).sendMessage(
+                eq(HeadsetStateMachine.SEND_CLCC_RESPONSE), any(HeadsetClccResponse.class));
+        List<HeadsetClccResponse> responses = captor.getValue();
+        Assert.assertEquals(2, responses.size());
+        Assert.assertSame(clccResponse, responses.get(0));
+        // index 0 is the end mark of CLCC response.
+        Assert.assertEquals(0, responses.get(1).mIndex);
+    }
+
     /**
      * Verifies that all CLCC responses are sent to the connected devices even it is connected in
      * the middle of generating CLCC responses.
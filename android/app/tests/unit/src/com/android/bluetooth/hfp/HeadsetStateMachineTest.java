@@ -69,6 +69,7 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Tests for {@link HeadsetStateMachine}
@@ -1259,6 +1260,55 @@ public class HeadsetStateMachineTest {
         verify(mNativeInterface).clccResponse(mTestDevice, 0, 0, 0, 0, false, "", 0);
     }
 
+    @Test
+    public void testProcessSendClccResponseList_allCallsSentWithEndMarker() {
+        when(mHeadsetService.isVirtualCallStarted()).thenReturn(false);
+        when(mSystemInterface.listCurrentCalls()).thenReturn(true);
+        mHeadsetStateMachine.processAtClcc(mTestDevice);
+
+        List<HeadsetClccResponse> clccList = new ArrayList<>();
+        clccList.add(new HeadsetClccResponse(1, 0, 0, 0, false, "5550000", 129));
+        clccList.add(new HeadsetClccResponse(2, 1, 1, 0, false, "5550001", 129));
+        clccList.add(new HeadsetClccResponse(0, 0, 0, 0, false, null, 0));
+        mHeadsetStateMachine.processSendClccResponseList(clccList);
+
+        verify(mNativeInterface).clccResponse(mTestDevice, 1, 0, 0, 0, false, "5550000", 129);
+        verify(mNativeInterface).clccResponse(mTestDevice, 2, 1, 1, 0, false, "5550001", 129);
+        verify(mNativeInterface).clccResponse(mTestDevice, 0, 0, 0, 0, false, null, 0);
+    }
+
+    /**
+     * A test to verify that a refreshed call state is only sent to a device not having it yet
+     */
+    @Test
+    public void testCallStateRefresh_notSentAgainWhenUnchanged() {
+        setUpConnectedState();
+        doReturn(true).when(mNativeInterface).phoneStateChange(eq(mTestDevice), any());
+        HeadsetCallState callState =
+                new HeadsetCallState(1, 0, HeadsetHalConstants.CALL_STATE_IDLE, "", 129, "");
+        HeadsetCallState heldCallState =
+                new HeadsetCallState(1, 1, HeadsetHalConstants.CALL_STATE_IDLE, "", 129, "");
+
+        mHeadsetStateMachine.sendMessage(HeadsetStateMachine.CALL_STATE_CHANGED,
+                HeadsetStateMachine.CALL_STATE_REFRESH, 0, callState);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS))
+                .phoneStateChange(mTestDevice, callState);
+
+        mHeadsetStateMachine.sendMessage(HeadsetStateMachine.CALL_STATE_CHANGED,
+                HeadsetStateMachine.CALL_STATE_REFRESH, 0,
+                new HeadsetCallState(1, 0, HeadsetHalConstants.CALL_STATE_IDLE, "", 129, ""));
+        mHeadsetStateMachine.sendMessage(HeadsetStateMachine.CALL_STATE_CHANGED,
+                HeadsetStateMachine.CALL_STATE_REFRESH, 0, heldCallState);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS))
+                .phoneStateChange(mTestDevice, heldCallState);
+        verify(mNativeInterface).phoneStateChange(mTestDevice, callState);
+
+        // Updates that are not refreshes are always sent
+        mHeadsetStateMachine.sendMessage(HeadsetStateMachine.CALL_STATE_CHANGED, heldCallState);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2))
+                .phoneStateChange(mTestDevice, heldCallState);
+    }
+
     @Test
     public void testProcessAtCops() {
         ServiceState serviceState = mock(ServiceState.class);
@@ -1508,6 +1508,35 @@ public class HeadsetClientStateMachineTest {
         verify(mNativeInterface).startVoiceRecognition(any(BluetoothDevice.class));
     }
 
+    @Test
+    public void testGetClccPollIntervalMillis() {
+        assertThat(HeadsetClientStateMachine.getClccPollIntervalMillis(2000, 0, 16000))
+                .isEqualTo(2000);
+        assertThat(HeadsetClientStateMachine.getClccPollIntervalMillis(2000, 2, 16000))
+                .isEqualTo(8000);
+        assertThat(HeadsetClientStateMachine.getClccPollIntervalMillis(2000, 100, 16000))
+                .isEqualTo(16000);
+        // The base interval is kept if larger than the maximum interval
+        assertThat(HeadsetClientStateMachine.getClccPollIntervalMillis(2000, 1, 1000))
+                .isEqualTo(2000);
+    }
+
+    @Test
+    public void testProcessCallSetupEvent_resetsClccStableResponses() {
+        initToConnectedState();
+        clearInvocations(mNativeInterface);
+        mHeadsetClientStateMachine.mClccStableResponses = 3;
+
+        StackEvent event = new StackEvent(StackEvent.EVENT_TYPE_CALLSETUP);
+        event.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(
+                mHeadsetClientStateMachine.obtainMessage(StackEvent.STACK_EVENT, event));
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        assertThat(mHeadsetClientStateMachine.mClccStableResponses).isEqualTo(0);
+        verify(mNativeInterface).queryCurrentCalls(mTestDevice);
+    }
+
     @Test
     public void testProcessDisconnectMessage_onAudioOnState() {
         initToAudioOnState();
@@ -106,6 +106,28 @@ public class BluetoothHidDeviceBinderTest {
         verify(mService).sendReport(mTestDevice, id, data);
     }
 
+    @Test
+    public void sendReports() {
+        int[] ids = new int[] { 1, 2 };
+        byte[] data = new byte[] { 0x00, 0x01, 0x02 };
+        int[] lengths = new int[] { 2, 1 };
+        mBinder.sendReports(mTestDevice, ids, data, lengths, true, mAttributionSource,
+                SynchronousResultReceiver.get());
+        verify(mService).sendReports(mTestDevice, ids, data, lengths, true);
+    }
+
+    @Test
+    public void sendReports_registeredAppCaller() {
+        when(mService.isRegisteredAppCaller()).thenReturn(true);
+        int[] ids = new int[] { 1 };
+        byte[] data = new byte[] { 0x00 };
+        int[] lengths = new int[] { 1 };
+        mBinder.sendReports(mTestDevice, ids, data, lengths, false, mAttributionSource,
+                SynchronousResultReceiver.get());
+        verify(mService).isRegisteredAppCaller();
+        verify(mService).sendReports(mTestDevice, ids, data, lengths, false);
+    }
+
     @Test
     public void replyReport() {
         byte type = 0;
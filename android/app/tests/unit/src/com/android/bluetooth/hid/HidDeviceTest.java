@@ -331,6 +331,104 @@ public class HidDeviceTest {
         Assert.assertEquals(true, mHidDeviceService.unregisterApp());
     }
 
+    /**
+     * Test the logic in sendReports(). This should fail when the app is not registered, and
+     * coalesce reports sharing the same report ID when requested.
+     */
+    @Test
+    public void testSendReports() throws Exception {
+        doReturn(true).when(mHidDeviceNativeInterface).sendReport(anyInt(), any(byte[].class));
+        int[] ids = {1, 2, 1};
+        byte[] data = {0x10, 0x11, 0x20, 0x30, 0x31};
+        int[] lengths = {2, 1, 2};
+
+        // sendReports() should fail without app registered
+        Assert.assertEquals(0, mHidDeviceService.sendReports(mTestDevice, ids, data, lengths,
+                false));
+
+        // Register app
+        doReturn(true).when(mHidDeviceNativeInterface)
+                .registerApp(anyString(), anyString(), anyString(), anyByte(), any(byte[].class),
+                        isNull(), isNull());
+        BluetoothHidDeviceCallbackTestHelper helper = new BluetoothHidDeviceCallbackTestHelper();
+        Assert.assertTrue(mHidDeviceService.registerApp(mSettings, null, null, helper));
+
+        // App registered
+        mHidDeviceService.onApplicationStateChangedFromNative(mTestDevice, true);
+
+        // Wait for the app registration callback to complete and verify it
+        verifyCallback(TIMEOUT_MS, CALLBACK_APP_REGISTERED, mCallbackQueue);
+
+        // Mismatching ids and lengths are rejected
+        Assert.assertEquals(0, mHidDeviceService.sendReports(mTestDevice, ids, data,
+                new int[] {2, 1}, false));
+
+        // Every report is sent in order without coalescing
+        Assert.assertEquals(3, mHidDeviceService.sendReports(mTestDevice, ids, data, lengths,
+                false));
+        verify(mHidDeviceNativeInterface).sendReport(eq(1), eq(new byte[] {0x10, 0x11}));
+        verify(mHidDeviceNativeInterface).sendReport(eq(2), eq(new byte[] {0x20}));
+        verify(mHidDeviceNativeInterface).sendReport(eq(1), eq(new byte[] {0x30, 0x31}));
+
+        // Only the last report of each ID is sent when coalescing
+        reset(mHidDeviceNativeInterface);
+        doReturn(true).when(mHidDeviceNativeInterface).sendReport(anyInt(), any(byte[].class));
+        Assert.assertEquals(3, mHidDeviceService.sendReports(mTestDevice, ids, data, lengths,
+                true));
+        verify(mHidDeviceNativeInterface, never()).sendReport(eq(1), eq(new byte[] {0x10, 0x11}));
+        verify(mHidDeviceNativeInterface).sendReport(eq(2), eq(new byte[] {0x20}));
+        verify(mHidDeviceNativeInterface).sendReport(eq(1), eq(new byte[] {0x30, 0x31}));
+        Assert.assertEquals(5, mHidDeviceService.getReportStats().getReportCount());
+        Assert.assertEquals(1, mHidDeviceService.getReportStats().getCoalescedCount());
+
+        // Unregister app
+        doReturn(true).when(mHidDeviceNativeInterface).unregisterApp();
+        Assert.assertEquals(true, mHidDeviceService.unregisterApp());
+    }
+
+    /**
+     * Test that sendReports() stops at the first report that fails, and only counts the reports
+     * coalesced into a report that was sent.
+     */
+    @Test
+    public void testSendReports_sendFails() throws Exception {
+        doReturn(true).when(mHidDeviceNativeInterface)
+                .registerApp(anyString(), anyString(), anyString(), anyByte(), any(byte[].class),
+                        isNull(), isNull());
+        BluetoothHidDeviceCallbackTestHelper helper = new BluetoothHidDeviceCallbackTestHelper();
+        Assert.assertFalse(mHidDeviceService.isRegisteredAppCaller());
+        Assert.assertTrue(mHidDeviceService.registerApp(mSettings, null, null, helper));
+        mHidDeviceService.onApplicationStateChangedFromNative(mTestDevice, true);
+        verifyCallback(TIMEOUT_MS, CALLBACK_APP_REGISTERED, mCallbackQueue);
+        Assert.assertTrue(mHidDeviceService.isRegisteredAppCaller());
+        byte[] data = {0x10, 0x20, 0x30};
+
+        // The report superseding the first one fails: nothing is sent nor coalesced
+        doReturn(false).when(mHidDeviceNativeInterface).sendReport(anyInt(), any(byte[].class));
+        Assert.assertEquals(0, mHidDeviceService.sendReports(mTestDevice, new int[] {1, 1},
+                data, new int[] {1, 1}, true));
+        Assert.assertEquals(0, mHidDeviceService.getReportStats().getCoalescedCount());
+
+        // Sending stops at the failed report, the report it supersedes is not counted
+        doReturn(true).when(mHidDeviceNativeInterface).sendReport(eq(2), any(byte[].class));
+        Assert.assertEquals(1, mHidDeviceService.sendReports(mTestDevice, new int[] {1, 2, 1},
+                data, new int[] {1, 1, 1}, true));
+        Assert.assertEquals(0, mHidDeviceService.getReportStats().getCoalescedCount());
+
+        // Without coalescing, the reports before the failed one are sent
+        reset(mHidDeviceNativeInterface);
+        doReturn(true).doReturn(false).when(mHidDeviceNativeInterface)
+                .sendReport(anyInt(), any(byte[].class));
+        Assert.assertEquals(1, mHidDeviceService.sendReports(mTestDevice, new int[] {1, 1},
+                data, new int[] {1, 1}, false));
+        verify(mHidDeviceNativeInterface, times(2)).sendReport(anyInt(), any(byte[].class));
+
+        // Unregister app
+        doReturn(true).when(mHidDeviceNativeInterface).unregisterApp();
+        Assert.assertEquals(true, mHidDeviceService.unregisterApp());
+        Assert.assertFalse(mHidDeviceService.isRegisteredAppCaller());
+    }
+
     /**
      * Test the logic in replyReport(). This should fail when the app is not registered.
      */
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapbMessageTokenizerTest {
+    private static final String SIMPLE_BMSG = "BEGIN:BMSG\r\nVERSION:1.0\r\n\r\n"
+            + "STATUS:UNREAD\r\nFOLDER:telecom/msg:inbox\r\nEND:BMSG";
+
+    /* Returns at most one byte per read, to exercise the buffer refills */
+    private static class TrickleInputStream extends FilterInputStream {
+        TrickleInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private static BluetoothMapbMessageTokenizer tokenizerOf(String str) {
+        byte[] data = str.getBytes(StandardCharsets.UTF_8);
+        return new BluetoothMapbMessageTokenizer(data, 0, data.length);
+    }
+
+    private static void assertSimpleBmsg(BluetoothMapbMessageTokenizer tokenizer)
+            throws IOException {
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.lineEquals("BEGIN:BMSG")).isTrue();
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.lineStartsWith("VERSION")).isTrue();
+        assertThat(tokenizer.getValue()).isEqualTo("1.0");
+        // The empty line is skipped
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.getName()).isEqualTo("STATUS");
+        assertThat(tokenizer.lineContainsIgnoreCase("unread")).isTrue();
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.getName()).isEqualTo("FOLDER");
+        assertThat(tokenizer.getValue()).isEqualTo("telecom/msg:inbox");
+        // The last line has no CRLF
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.getLine()).isEqualTo("END:BMSG");
+        assertThat(tokenizer.nextLine()).isFalse();
+        assertThat(tokenizer.hasLine()).isFalse();
+    }
+
+    @Test
+    public void nextLine_arrayBacked() throws Exception {
+        assertSimpleBmsg(tokenizerOf(SIMPLE_BMSG));
+    }
+
+    @Test
+    public void nextLine_streamBacked_withPartialReads() throws Exception {
+        assertSimpleBmsg(new BluetoothMapbMessageTokenizer(
+                new TrickleInputStream(SIMPLE_BMSG.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void nextLine_lineLargerThanBuffer() throws Exception {
+        char[] chars = new char[40 * 1024];
+        Arrays.fill(chars, 'A');
+        String longLine = new String(chars);
+        BluetoothMapbMessageTokenizer tokenizer = new BluetoothMapbMessageTokenizer(
+                new ByteArrayInputStream(("BEGIN:MSG\r\n" + longLine + "\r\nEND:MSG\r\n")
+                        .getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.getLine()).isEqualTo(longLine);
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.lineEquals("END:MSG")).isTrue();
+        assertThat(tokenizer.getPosition()).isEqualTo(longLine.length() + 22);
+    }
+
+    @Test
+    public void readMessageContent_removesEndMsgEscaping() throws Exception {
+        BluetoothMapbMessageTokenizer tokenizer =
+                tokenizerOf("first /END:MSG\r\n//END:MSG last\r\nEND:MSG\r\nEND:BBODY\r\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(tokenizer.readMessageContent(out)).isTrue();
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("first END:MSG/END:MSG last");
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.lineEquals("END:BBODY")).isTrue();
+    }
+
+    @Test
+    public void readMessageContent_withoutEndMsg_returnsFalse() throws Exception {
+        BluetoothMapbMessageTokenizer tokenizer = tokenizerOf("text\r\nEND:BBODY\r\n");
+
+        assertThat(tokenizer.readMessageContent(new ByteArrayOutputStream())).isFalse();
+    }
+
+    @Test
+    public void readBytes_streamBacked_readsPastBuffer() throws Exception {
+        byte[] data = new byte[20 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream bmsg = new ByteArrayOutputStream();
+        bmsg.write("LENGTH:20480\r\n".getBytes(StandardCharsets.UTF_8));
+        bmsg.write(data);
+        BluetoothMapbMessageTokenizer tokenizer =
+                new BluetoothMapbMessageTokenizer(new ByteArrayInputStream(bmsg.toByteArray()));
+
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.readBytes(data.length)).isEqualTo(data);
+        assertThat(tokenizer.readBytes(1)).isNull();
+    }
+
+    @Test
+    public void arrayBacked_seekDecodeAndOpenStream() throws Exception {
+        String str = "BEGIN:MSG\r\nhéllo\r\nEND:MSG\r\n";
+        BluetoothMapbMessageTokenizer tokenizer = tokenizerOf(str);
+
+        assertThat(tokenizer.nextLine()).isTrue();
+        int start = (int) tokenizer.getPosition();
+        assertThat(tokenizer.decode(start, 6)).isEqualTo("héllo");
+        InputStream stream = tokenizer.openStream(start, 6);
+        assertThat(stream.available()).isEqualTo(6);
+
+        tokenizer.seek(start + 8);
+        assertThat(tokenizer.nextLine()).isTrue();
+        assertThat(tokenizer.lineEquals("END:MSG")).isTrue();
+        assertThat(tokenizer.getLinePosition()).isEqualTo(start + 8);
+    }
+}
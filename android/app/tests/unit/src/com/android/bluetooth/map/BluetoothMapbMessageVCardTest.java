@@ -116,4 +116,34 @@ public class BluetoothMapbMessageVCardTest {
         assertThat(vcardParsed.getFirstEmail()).isEqualTo(TEST_FIRST_EMAIL);
         assertThat(vcardParsed.getEnvLevel()).isEqualTo(TEST_ENV_LEVEL);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getPropertyValue_splitsOnUnescapedColon() {
+        assertThat(VCard.getPropertyValue("N:Doe;John")).isEqualTo("Doe;John");
+        assertThat(VCard.getPropertyValue("N:a\\:b")).isEqualTo("a\\:b");
+        assertThat(VCard.getPropertyValue("N:a:b")).isNull();
+        assertThat(VCard.getPropertyValue("N:")).isNull();
+        assertThat(VCard.getPropertyValue("N")).isNull();
+    }
+
+    @Test
+    public void getLastPart_splitsOnUnescapedSeparator() {
+        assertThat(VCard.getLastPart("WORK;555-1234", ';')).isEqualTo("555-1234");
+        assertThat(VCard.getLastPart("a\\;b", ';')).isEqualTo("a\\;b");
+        assertThat(VCard.getLastPart("a;b;;", ';')).isEqualTo("b");
+        assertThat(VCard.getLastPart("555-1234", ';')).isEqualTo("555-1234");
+    }
+
+    @Test
+    public void parseVcard_withParameters_keepsOnlyValues() {
+        String vcard = "BEGIN:VCARD\r\nVERSION:2.1\r\nN:Doe;John\r\n\r\n"
+                + "TEL:WORK;555-1234\r\nEMAIL:INTERNET;john@doe.com\r\nEND:VCARD\r\n";
+        InputStream inputStream = new ByteArrayInputStream(vcard.getBytes());
+
+        VCard vcardParsed = VCard.parseVcard(new BMsgReader(inputStream), TEST_ENV_LEVEL);
+
+        assertThat(vcardParsed.getName()).isEqualTo("Doe;John");
+        assertThat(vcardParsed.getFirstPhoneNumber()).isEqualTo("5551234");
+        assertThat(vcardParsed.getFirstEmail()).isEqualTo("john@doe.com");
+    }
+}
@@ -25,6 +25,8 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.nio.charset.StandardCharsets;
+
 @MediumTest
 @RunWith(AndroidJUnit4.class)
 public class BmessageTest {
@@ -63,6 +65,41 @@ public class BmessageTest {
         Assert.assertNotNull(message);
     }
 
+    @Test
+    public void testMultiByteMessage() {
+        String body = "h\u00e9llo \u2603";
+        int length = body.getBytes(StandardCharsets.UTF_8).length + 22;
+        String bmsg = "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\n"
+                + "FOLDER:null\r\nBEGIN:BENV\r\n"
+                + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+                + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\nLENGTH:" + length + "\r\nBEGIN:MSG\r\n"
+                + body + "\r\nEND:MSG\r\nEND:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+
+        Bmessage message = BmessageParser.createBmessage(bmsg.getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals(body, message.getBodyContent());
+        Assert.assertEquals(1, message.getRecipients().size());
+        Assert.assertEquals("555-5555",
+                message.getRecipients().get(0).getPhoneList().get(0).getNumber());
+    }
+
+    @Test
+    public void testCharLengthMessage() {
+        // LENGTH counted in characters instead of bytes
+        String body = "\u00e9\u00e9\u00e9\u00e9 text";
+        String bmsg = "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\n"
+                + "FOLDER:null\r\nBEGIN:BENV\r\n"
+                + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\nLENGTH:" + (body.length() + 22) + "\r\n"
+                + "BEGIN:MSG\r\n" + body + "\r\nEND:MSG\r\nEND:BBODY\r\nEND:BENV\r\n"
+                + "END:BMSG\r\n";
+
+        Bmessage message = BmessageParser.createBmessage(bmsg);
+
+        Assert.assertNotNull(message);
+        Assert.assertEquals(body, message.getBodyContent());
+    }
+
     @Test
     public void testParseWrongLengthMessage() {
         Bmessage message = BmessageParser.createBmessage(WRONG_LENGTH_MESSAGE);
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mcp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattNotificationQueueTest {
+    private static final int TIMEOUT_MS = 1000;
+
+    private TestLooper mLooper;
+    private List<String> mSent;
+    private boolean mSendSucceeds;
+    private BluetoothDevice mDevice;
+    private BluetoothDevice mOtherDevice;
+    private BluetoothGattCharacteristic mPosition;
+    private BluetoothGattCharacteristic mState;
+    private BluetoothGattCharacteristic mControlPoint;
+    private GattNotificationQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mLooper = new TestLooper();
+        mSent = new ArrayList<>();
+        mSendSucceeds = true;
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        mDevice = adapter.getRemoteDevice("00:01:02:03:04:05");
+        mOtherDevice = adapter.getRemoteDevice("00:01:02:03:04:06");
+        mPosition = new BluetoothGattCharacteristic(MediaControlGattService.UUID_TRACK_POSITION,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        mState = new BluetoothGattCharacteristic(MediaControlGattService.UUID_MEDIA_STATE,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        mControlPoint = new BluetoothGattCharacteristic(
+                MediaControlGattService.UUID_MEDIA_CONTROL_POINT,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        mQueue = new GattNotificationQueue(mLooper.getLooper(), TIMEOUT_MS,
+                Set.of(MediaControlGattService.UUID_MEDIA_CONTROL_POINT),
+                (device, characteristic, value) -> {
+                    mSent.add(device.getAddress().substring(15) + ":" + (value[0] & 0xff));
+                    return mSendSucceeds;
+                });
+    }
+
+    private void setValue(BluetoothGattCharacteristic characteristic, int value) {
+        characteristic.setValue(value, BluetoothGattCharacteristic.FORMAT_UINT8, 0);
+    }
+
+    @Test
+    public void notify_oneOutstandingPerDevice() {
+        setValue(mPosition, 1);
+        mQueue.notify(mDevice, mPosition);
+        setValue(mState, 2);
+        mQueue.notify(mDevice, mState);
+        mQueue.notify(mOtherDevice, mState);
+
+        assertThat(mSent).containsExactly("05:1", "06:2").inOrder();
+    }
+
+    @Test
+    public void onNotificationSent_latestValueOfEachCharacteristicSent() {
+        setValue(mPosition, 1);
+        mQueue.notify(mDevice, mPosition);
+        setValue(mPosition, 2);
+        mQueue.notify(mDevice, mPosition);
+        setValue(mState, 10);
+        mQueue.notify(mDevice, mState);
+        setValue(mPosition, 3);
+        mQueue.notify(mDevice, mPosition);
+
+        mQueue.onNotificationSent(mDevice);
+        assertThat(mSent).containsExactly("05:1", "05:3").inOrder();
+
+        mQueue.onNotificationSent(mDevice);
+        mQueue.onNotificationSent(mDevice);
+        assertThat(mSent).containsExactly("05:1", "05:3", "05:10").inOrder();
+
+        mQueue.notify(mDevice, mPosition);
+        assertThat(mSent).containsExactly("05:1", "05:3", "05:10", "05:3").inOrder();
+    }
+
+    @Test
+    public void onNotificationSent_controlPointResultsNotCoalesced() {
+        setValue(mPosition, 1);
+        mQueue.notify(mDevice, mPosition);
+        setValue(mControlPoint, 2);
+        mQueue.notify(mDevice, mControlPoint);
+        setValue(mControlPoint, 3);
+        mQueue.notify(mDevice, mControlPoint);
+
+        mQueue.onNotificationSent(mDevice);
+        mQueue.onNotificationSent(mDevice);
+
+        assertThat(mSent).containsExactly("05:1", "05:2", "05:3").inOrder();
+    }
+
+    @Test
+    public void notify_notSent_nothingOutstanding() {
+        mSendSucceeds = false;
+        setValue(mPosition, 1);
+        mQueue.notify(mDevice, mPosition);
+
+        mSendSucceeds = true;
+        mQueue.notify(mDevice, mPosition);
+
+        assertThat(mSent).containsExactly("05:1", "05:1");
+    }
+
+    @Test
+    public void timeout_nextNotificationSent() {
+        setValue(mPosition, 1);
+        mQueue.notify(mDevice, mPosition);
+        setValue(mPosition, 2);
+        mQueue.notify(mDevice, mPosition);
+
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+
+        assertThat(mSent).containsExactly("05:1", "05:2").inOrder();
+    }
+
+    @Test
+    public void remove_queuedNotificationsDropped() {
+        setValue(mPosition, 1);
+        mQueue.notify(mDevice, mPosition);
+        mQueue.notify(mDevice, mState);
+
+        mQueue.remove(mDevice);
+        mQueue.onNotificationSent(mDevice);
+        mLooper.moveTimeForward(TIMEOUT_MS);
+        mLooper.dispatchAll();
+
+        assertThat(mSent).containsExactly("05:1");
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.sdp;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.SdpDipRecord;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.Utils;
+import com.android.bluetooth.btservice.AbstractionLayer;
+import com.android.bluetooth.btservice.AdapterService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SdpManagerTest {
+    private static final String TEST_ADDRESS = "00:01:02:03:04:05";
+    // DIP uuid in bytes
+    private static final byte[] DIP_UUID =
+            {0, 0, 18, 0, 0, 0, 16, 0, -128, 0, 0, -128, 95, -101, 52, -5};
+
+    private HandlerThread mHandlerThread;
+    private SdpManager mSdpManager;
+    private BluetoothDevice mTestDevice;
+
+    @Mock private AdapterService mAdapterService;
+    @Mock private SdpManagerNativeInterface mNativeInterface;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        SdpManagerNativeInterface.setInstance(mNativeInterface);
+        TestUtils.setAdapterService(mAdapterService);
+        doReturn(TEST_ADDRESS).when(mAdapterService).getIdentityAddress(TEST_ADDRESS);
+        mTestDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(TEST_ADDRESS);
+        doReturn(BluetoothDevice.BOND_BONDED).when(mAdapterService).getBondState(mTestDevice);
+
+        // The cached records are delivered on the looper the manager is created on
+        mHandlerThread = new HandlerThread("SdpManagerTest");
+        mHandlerThread.start();
+        CountDownLatch created = new CountDownLatch(1);
+        new Handler(mHandlerThread.getLooper()).post(() -> {
+            mSdpManager = SdpManager.init(mAdapterService);
+            created.countDown();
+        });
+        created.await(1, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSdpManager.cleanup();
+        mHandlerThread.quitSafely();
+        TestUtils.clearAdapterService(mAdapterService);
+        SdpManagerNativeInterface.setInstance(null);
+    }
+
+    private void completeDipSearch() {
+        mSdpManager.sdpDipRecordFoundCallback(AbstractionLayer.BT_STATUS_SUCCESS,
+                Utils.getByteAddress(mTestDevice), DIP_UUID, 0x0103, 0x18d1, 1, 0x1234, 0x0100,
+                true, false);
+    }
+
+    @Test
+    public void sdpSearch_cachedRecords_servedWithoutNativeSearch() {
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+        verify(mNativeInterface).sdpSearch(any(), any());
+        completeDipSearch();
+        clearInvocations(mNativeInterface, mAdapterService);
+
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+
+        verify(mNativeInterface, never()).sdpSearch(any(), any());
+        verify(mAdapterService).sendSdpSearchRecord(eq(mTestDevice),
+                eq(AbstractionLayer.BT_STATUS_SUCCESS), any(SdpDipRecord.class),
+                eq(BluetoothUuid.DIP));
+    }
+
+    @Test
+    public void sdpSearch_cacheInvalidated_nativeSearchStarted() {
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+        completeDipSearch();
+        clearInvocations(mNativeInterface);
+
+        mSdpManager.handleBondStateChanged(mTestDevice, BluetoothDevice.BOND_BONDED,
+                BluetoothDevice.BOND_NONE);
+        mSdpManager.sdpSearch(mTestDevice, BluetoothUuid.DIP);
+
+        verify(mNativeInterface).sdpSearch(any(), any());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.sdp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothUuid;
+import android.bluetooth.SdpMasRecord;
+import android.os.Parcelable;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SdpRecordCacheTest {
+    private static final String ADDRESS_1 = "00:01:02:03:04:05";
+    private static final String ADDRESS_2 = "00:01:02:03:04:06";
+    private static final long TTL_MS = 1000;
+
+    private static List<Parcelable> createRecords(int count) {
+        List<Parcelable> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new SdpMasRecord(i, 0x1005, 2, 0x0104, 0x7f, 0x0f, "MAS" + i));
+        }
+        return records;
+    }
+
+    @Test
+    public void get_withinTtl_returnsRecords() {
+        SdpRecordCache cache = new SdpRecordCache(TTL_MS);
+        List<Parcelable> records = createRecords(2);
+
+        cache.put(ADDRESS_1, BluetoothUuid.MAS, records, 0);
+
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.MAS, TTL_MS - 1))
+                .containsExactlyElementsIn(records)
+                .inOrder();
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.PBAP_PSE, TTL_MS - 1)).isNull();
+        assertThat(cache.get(ADDRESS_2, BluetoothUuid.MAS, TTL_MS - 1)).isNull();
+    }
+
+    @Test
+    public void get_afterTtl_expiresEntry() {
+        SdpRecordCache cache = new SdpRecordCache(TTL_MS);
+        cache.put(ADDRESS_1, BluetoothUuid.MAS, createRecords(1), 0);
+
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.MAS, TTL_MS)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidate_dropsOnlyEntriesOfDevice() {
+        SdpRecordCache cache = new SdpRecordCache(TTL_MS);
+        cache.put(ADDRESS_1, BluetoothUuid.MAS, createRecords(1), 0);
+        cache.put(ADDRESS_1, BluetoothUuid.PBAP_PSE, createRecords(1), 0);
+        cache.put(ADDRESS_2, BluetoothUuid.MAS, createRecords(1), 0);
+
+        cache.invalidate(ADDRESS_1);
+
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.MAS, 0)).isNull();
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.PBAP_PSE, 0)).isNull();
+        assertThat(cache.get(ADDRESS_2, BluetoothUuid.MAS, 0)).isNotNull();
+    }
+
+    @Test
+    public void put_whenDisabled_cachesNothing() {
+        SdpRecordCache cache = new SdpRecordCache(0);
+        cache.put(ADDRESS_1, BluetoothUuid.MAS, createRecords(1), 0);
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.MAS, 0)).isNull();
+    }
+
+    @Test
+    public void put_storesCopyOfRecords() {
+        SdpRecordCache cache = new SdpRecordCache(TTL_MS);
+        List<Parcelable> records = createRecords(1);
+        cache.put(ADDRESS_1, BluetoothUuid.MAS, records, 0);
+
+        records.clear();
+
+        assertThat(cache.get(ADDRESS_1, BluetoothUuid.MAS, 0)).hasSize(1);
+    }
+}
@@ -50,6 +50,7 @@ import androidx.test.rule.ServiceTestRule;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.hfp.BluetoothHeadsetProxy;
+import com.android.bluetooth.hfp.HeadsetClccResponse;
 import com.android.bluetooth.tbs.BluetoothLeCallControlProxy;
 
 import org.junit.After;
@@ -157,6 +158,10 @@ public class BluetoothInCallServiceTest {
         doReturn(false).when(mMockCallInfo).hasOnlyDisconnectedCalls();
         doReturn(true).when(mMockCallInfo).isNullCall(null);
         doReturn(false).when(mMockCallInfo).isNullCall(notNull());
+        // Without a headset service in this process, the batched updates are sent one by one
+        doCallRealMethod().when(mMockBluetoothHeadset).clccResponseList(any());
+        doCallRealMethod().when(mMockBluetoothHeadset).phoneStateChanged(anyInt(), anyInt(),
+                anyInt(), nullable(String.class), anyInt(), nullable(String.class), anyBoolean());
 
         mBluetoothInCallService = new TestableBluetoothInCallService();
         mBluetoothInCallService.setBluetoothHeadset(mMockBluetoothHeadset);
@@ -963,6 +968,46 @@ public class BluetoothInCallServiceTest {
                 eq("5550000"), eq(PhoneNumberUtils.TOA_Unknown), nullable(String.class));
     }
 
+    @Test
+    public void testQueryPhoneState_unchangedState_sentAsRefresh() throws Exception {
+        BluetoothCall ringingCall = createRingingCall(UUID.randomUUID());
+        when(ringingCall.getHandle()).thenReturn(Uri.parse("tel:5550000"));
+        mBluetoothInCallService.onCallAdded(ringingCall);
+        verify(mMockBluetoothHeadset).phoneStateChanged(eq(0), eq(0), eq(CALL_STATE_INCOMING),
+                eq("5550000"), eq(PhoneNumberUtils.TOA_Unknown), nullable(String.class),
+                eq(true));
+
+        clearInvocations(mMockBluetoothHeadset);
+        mBluetoothInCallService.queryPhoneState();
+
+        verify(mMockBluetoothHeadset).phoneStateChanged(eq(0), eq(0), eq(CALL_STATE_INCOMING),
+                eq("5550000"), eq(PhoneNumberUtils.TOA_Unknown), nullable(String.class),
+                eq(false));
+    }
+
+    @Test
+    public void testListCurrentCalls_sentAsOneList() throws Exception {
+        ArrayList<BluetoothCall> calls = new ArrayList<>();
+        BluetoothCall activeCall = createActiveCall(UUID.randomUUID());
+        BluetoothCall heldCall = createHeldCall(UUID.randomUUID());
+        calls.add(activeCall);
+        calls.add(heldCall);
+        mBluetoothInCallService.onCallAdded(activeCall);
+        mBluetoothInCallService.onCallAdded(heldCall);
+        when(activeCall.getState()).thenReturn(Call.STATE_ACTIVE);
+        when(heldCall.getState()).thenReturn(Call.STATE_HOLDING);
+        when(activeCall.getHandle()).thenReturn(Uri.parse("tel:555-0000"));
+        when(heldCall.getHandle()).thenReturn(Uri.parse("tel:555-0001"));
+        when(mMockCallInfo.getBluetoothCalls()).thenReturn(calls);
+
+        clearInvocations(mMockBluetoothHeadset);
+        mBluetoothInCallService.listCurrentCalls();
+
+        ArgumentCaptor<List<HeadsetClccResponse>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mMockBluetoothHeadset).clccResponseList(captor.capture());
+        Assert.assertEquals(2, captor.getValue().size());
+    }
+
     @Test
     public void testCDMAConferenceQueryState() throws Exception {
         BluetoothCall parentConfCall = createActiveCall(UUID.randomUUID());
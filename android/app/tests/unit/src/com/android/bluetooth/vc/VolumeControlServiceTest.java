@@ -40,6 +40,7 @@ import androidx.test.filters.MediumTest;
 import androidx.test.rule.ServiceTestRule;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.GroupOperationCoalescer;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ServiceFactory;
@@ -807,6 +808,40 @@ public class VolumeControlServiceTest {
         verify(mNativeInterface, times(1)).unmuteGroup(eq(groupId));
     }
 
+    /** Test that only the latest group volume is sent while one is being set. */
+    @Test
+    public void testGroupVolumeCoalesced() throws Exception {
+        int groupId = 1;
+        mService.mGroupVolumeCoalescer = new GroupOperationCoalescer<>("Group volume",
+                Looper.getMainLooper(), 1000,
+                (id, volume) -> mNativeInterface.setGroupVolume(id, volume));
+
+        mService.setGroupVolume(groupId, 10);
+        mService.setGroupVolume(groupId, 11);
+        mService.setGroupVolume(groupId, 12);
+        verify(mNativeInterface).setGroupVolume(eq(groupId), eq(10));
+        verify(mNativeInterface, never()).setGroupVolume(eq(groupId), eq(11));
+        verify(mNativeInterface, never()).setGroupVolume(eq(groupId), eq(12));
+        Assert.assertEquals(12, mService.getGroupVolume(groupId));
+
+        // The intermediate volume is acknowledged: the latest one is sent, nothing else is done
+        VolumeControlStackEvent stackEvent = new VolumeControlStackEvent(
+                VolumeControlStackEvent.EVENT_TYPE_VOLUME_STATE_CHANGED);
+        stackEvent.device = null;
+        stackEvent.valueInt1 = groupId;
+        stackEvent.valueInt2 = 10;
+        stackEvent.valueBool1 = false; /* unmuted */
+        stackEvent.valueBool2 = false; /* not autonomous */
+        mService.messageFromNative(stackEvent);
+        verify(mNativeInterface).setGroupVolume(eq(groupId), eq(12));
+        Assert.assertEquals(12, mService.getGroupVolume(groupId));
+
+        stackEvent.valueInt2 = 12;
+        mService.messageFromNative(stackEvent);
+        Assert.assertFalse(mService.mGroupVolumeCoalescer.isInFlight(groupId));
+        verify(mNativeInterface, never()).setGroupVolume(eq(groupId), eq(11));
+    }
+
     /**
      * Test setting volume for a group member who connects after the volume level
      * for a group was already changed and cached.
@@ -19,6 +19,7 @@ package android.bluetooth;
 import static android.bluetooth.BluetoothUtils.getSyncTimeout;
 
 import android.Manifest;
+import android.annotation.FlaggedApi;
 import android.annotation.NonNull;
 import android.annotation.RequiresPermission;
 import android.annotation.SdkConstant;
@@ -671,6 +672,64 @@ public final class BluetoothHidDevice implements BluetoothProfile {
         return defaultValue;
     }
 
+    /**
+     * Sends several reports to remote host using interrupt channel, in a single call.
+     *
+     * <p>This is intended for applications producing reports at a high rate, such as mice,
+     * gamepads or styluses: the cost of the call is shared by all the reports of the batch.
+     * Reports are sent in order, and sending stops at the first report that could not be sent.
+     *
+     * <p>When {@code coalesce} is true, only the last report of each report ID within the batch
+     * is sent, which lets an application catch up with the latest state after the link was
+     * congested. A skipped report is counted as sent once the last report of its Report Id has
+     * been sent.
+     *
+     * @param ids Report Id of each report, as defined in descriptor. Can be 0 in case Report Id
+     *     are not defined in descriptor.
+     * @param data Report data of each report, not including Report Id. Must be as long as {@code
+     *     ids}.
+     * @param coalesce whether to only send the last report of each Report Id
+     * @return the number of reports sent, or skipped for a report that was sent; 0 if none could
+     *     be sent.
+     */
+    @FlaggedApi("com.android.bluetooth.flags.hid_device_send_reports")
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    public int sendReports(@NonNull BluetoothDevice device, @NonNull int[] ids,
+            @NonNull byte[][] data, boolean coalesce) {
+        if (ids.length != data.length) {
+            throw new IllegalArgumentException("ids and data must have the same length");
+        }
+        final IBluetoothHidDevice service = getService();
+        final int defaultValue = 0;
+        if (service == null) {
+            Log.w(TAG, "Proxy not attached to service");
+            if (DBG) log(Log.getStackTraceString(new Throwable()));
+        } else if (isEnabled()) {
+            int total = 0;
+            int[] lengths = new int[data.length];
+            for (int i = 0; i < data.length; i++) {
+                lengths[i] = data[i].length;
+                total += lengths[i];
+            }
+            byte[] flat = new byte[total];
+            int offset = 0;
+            for (byte[] report : data) {
+                System.arraycopy(report, 0, flat, offset, report.length);
+                offset += report.length;
+            }
+            try {
+                final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
+                service.sendReports(device, ids, flat, lengths, coalesce, mAttributionSource,
+                        recv);
+                return recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(defaultValue);
+            } catch (RemoteException | TimeoutException e) {
+                Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * Sends report to remote host as reply for GET_REPORT request from {@link
      * Callback#onGetReport(BluetoothDevice, byte, byte, int)}.
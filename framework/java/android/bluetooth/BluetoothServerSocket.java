@@ -18,9 +18,13 @@ package android.bluetooth;
 
 import static android.bluetooth.BluetoothUtils.getSyncTimeout;
 
+import android.annotation.FlaggedApi;
+import android.annotation.NonNull;
 import android.annotation.SuppressLint;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.util.Log;
@@ -208,6 +212,41 @@ public final class BluetoothServerSocket implements Closeable {
         }
     }
 
+    /**
+     * Register a listener invoked on the given {@link Looper} when an incoming connection is
+     * pending, instead of blocking a thread in {@link #accept()}.
+     *
+     * <p>Once {@link MessageQueue.OnFileDescriptorEventListener#EVENT_INPUT} is reported, {@link
+     * #accept()} returns the pending connection without waiting for a new one. A single event
+     * loop thread can thereby serve many listening sockets together with the sockets they
+     * accepted, see {@link BluetoothSocket#setOnEventListener}.
+     *
+     * <p>Only one listener can be registered at a time; registering a new one replaces the
+     * previous one. The listener is automatically removed when the socket is closed.
+     *
+     * @param looper the looper whose thread will invoke the listener
+     * @param events the events to listen for, see {@link
+     *     MessageQueue.OnFileDescriptorEventListener}
+     * @param listener the listener to invoke
+     * @throws IOException if the socket is not listening
+     */
+    @FlaggedApi("com.android.bluetooth.flags.socket_event_listener_api")
+    public void setOnEventListener(
+            @NonNull Looper looper,
+            int events,
+            @NonNull MessageQueue.OnFileDescriptorEventListener listener)
+            throws IOException {
+        mSocket.setOnEventListener(looper, events, listener);
+    }
+
+    /**
+     * Remove the listener registered with {@link #setOnEventListener}, if any.
+     */
+    @FlaggedApi("com.android.bluetooth.flags.socket_event_listener_api")
+    public void removeOnEventListener() {
+        mSocket.removeOnEventListener();
+    }
+
     private void logL2capcocServerConnection(
             BluetoothSocket acceptedSocket,
             int timeout,
@@ -18,15 +18,22 @@ package android.bluetooth;
 
 import static android.bluetooth.BluetoothUtils.getSyncTimeout;
 
+import android.annotation.FlaggedApi;
+import android.annotation.NonNull;
 import android.annotation.RequiresNoPermission;
 import android.annotation.RequiresPermission;
 import android.bluetooth.annotations.RequiresBluetoothConnectPermission;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.net.LocalSocket;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import com.android.modules.utils.SynchronousResultReceiver;
@@ -175,6 +182,9 @@ public final class BluetoothSocket implements Closeable {
     private long mSocketCreationTimeMillis = 0;
     private long mSocketCreationLatencyMillis = 0;
 
+    /** the registered event listener, protected by this */
+    private EventListenerRecord mEventListener = null;
+
     private enum SocketState {
         INIT,
         CONNECTED,
@@ -296,6 +306,36 @@ public final class BluetoothSocket implements Closeable {
         return bluetoothSocket;
     }
 
+    /**
+     * Creates a BluetoothSocket from an already connected L2CAP {@link ParcelFileDescriptor}, with
+     * the packet sizes negotiated for the connection.
+     *
+     * @param pfd is the {@link ParcelFileDescriptor} for an already connected L2CAP socket
+     * @param device is the remote {@link BluetoothDevice} that this socket is connected to
+     * @param maxRxPacketSize is the maximum size of the packets received
+     * @param maxTxPacketSize is the maximum size of the packets sent
+     * @throws IOException if socket creation fails.
+     */
+    /*package*/ static BluetoothSocket createL2capSocketFromOpenFd(
+            ParcelFileDescriptor pfd,
+            BluetoothDevice device,
+            int maxRxPacketSize,
+            int maxTxPacketSize)
+            throws IOException {
+        BluetoothSocket bluetoothSocket =
+                new BluetoothSocket(TYPE_L2CAP, true, true, device, -1, null);
+
+        bluetoothSocket.mPfd = pfd;
+        bluetoothSocket.mSocket = new LocalSocket(pfd.getFileDescriptor());
+        bluetoothSocket.mSocketIS = bluetoothSocket.mSocket.getInputStream();
+        bluetoothSocket.mSocketOS = bluetoothSocket.mSocket.getOutputStream();
+        bluetoothSocket.mMaxRxPacketSize = maxRxPacketSize;
+        bluetoothSocket.mMaxTxPacketSize = maxTxPacketSize;
+        bluetoothSocket.mSocketState = SocketState.CONNECTED;
+
+        return bluetoothSocket;
+    }
+
     private BluetoothSocket(BluetoothSocket s) {
         if (VDBG) Log.d(TAG, "Creating new Private BluetoothSocket of type: " + s.mType);
         mUuid = s.mUuid;
@@ -720,6 +760,372 @@ public final class BluetoothSocket implements Closeable {
         return length;
     }
 
+    /**
+     * Read a single L2CAP packet (SDU) from this socket.
+     *
+     * <p>Unlike {@link #getInputStream()}, this method preserves packet boundaries: each call
+     * returns exactly one packet, as sent by the remote device. The packet is read directly from
+     * the underlying socket into the given buffers without intermediate copies, which makes it
+     * suitable for direct {@link ByteBuffer}s. When several buffers are given, the packet is
+     * scattered across them in order, each one being filled up to its limit before moving to the
+     * next one. The position of each buffer is advanced by the number of bytes written to it.
+     *
+     * <p>The total number of bytes remaining in {@code dsts} must be at least {@link
+     * #getMaxReceivePacketSize()}. This call blocks until a packet is available.
+     *
+     * @param dsts the buffers to read the packet into
+     * @return the size of the packet in bytes, or -1 if the end of stream has been reached
+     * @throws IOException on error, for example if the socket has been closed
+     * @throws IllegalArgumentException if the buffers cannot hold a full packet, or one of them is
+     *     read-only
+     * @throws UnsupportedOperationException if this is not an L2CAP socket
+     */
+    @FlaggedApi("com.android.bluetooth.flags.l2cap_packet_socket_api")
+    @RequiresNoPermission
+    public int readPacket(@NonNull ByteBuffer... dsts) throws IOException {
+        checkPacketApiSupported();
+        for (ByteBuffer dst : dsts) {
+            if (dst.isReadOnly()) {
+                throw new IllegalArgumentException("read-only buffer");
+            }
+        }
+        if (totalRemaining(dsts) < mMaxRxPacketSize) {
+            throw new IllegalArgumentException(
+                    "buffers too small to hold a packet of " + mMaxRxPacketSize + " bytes");
+        }
+        int ret;
+        if (mL2capBuffer != null && mL2capBuffer.remaining() > 0) {
+            // Hand over what is left of a packet partially consumed through the stream API
+            ret = mL2capBuffer.remaining();
+            for (ByteBuffer dst : dsts) {
+                int toCopy = Math.min(dst.remaining(), mL2capBuffer.remaining());
+                ByteBuffer slice = mL2capBuffer.slice();
+                slice.limit(toCopy);
+                dst.put(slice);
+                mL2capBuffer.position(mL2capBuffer.position() + toCopy);
+            }
+        } else if (dsts.length == 1) {
+            ret = readPacketInto(dsts[0]);
+        } else {
+            ret = readPacketScattered(dsts);
+        }
+        if (VDBG) Log.d(TAG, "readPacket: " + mSocketIS + " ret: " + ret);
+        return ret;
+    }
+
+    /**
+     * Read all the L2CAP packets (SDUs) queued on this socket, one packet per buffer.
+     *
+     * <p>This call blocks until at least one packet is available, then keeps reading packets
+     * without blocking as long as more are queued and buffers are left. The position of each
+     * filled buffer is advanced by the size of the packet it received.
+     *
+     * <p>Each buffer must have at least {@link #getMaxReceivePacketSize()} bytes remaining.
+     *
+     * @param dsts the buffers to read the packets into
+     * @param sizes receives the size of each packet read; must be at least as long as {@code dsts}
+     * @return the number of packets read, or -1 if the end of stream has been reached before any
+     *     packet could be read
+     * @throws IOException on error, for example if the socket has been closed
+     * @throws IllegalArgumentException if a buffer cannot hold a full packet, or is read-only
+     * @throws UnsupportedOperationException if this is not an L2CAP socket
+     */
+    @FlaggedApi("com.android.bluetooth.flags.l2cap_packet_socket_api")
+    @RequiresNoPermission
+    public int readPackets(@NonNull ByteBuffer[] dsts, @NonNull int[] sizes) throws IOException {
+        checkPacketApiSupported();
+        if (sizes.length < dsts.length) {
+            throw new IllegalArgumentException("sizes is shorter than dsts");
+        }
+        int count = 0;
+        while (count < dsts.length && (count == 0 || available() > 0)) {
+            int ret = readPacket(dsts[count]);
+            if (ret < 0) {
+                return count == 0 ? -1 : count;
+            }
+            sizes[count++] = ret;
+        }
+        return count;
+    }
+
+    /**
+     * Write a single L2CAP packet (SDU) to this socket.
+     *
+     * <p>Unlike {@link #getOutputStream()}, this method never splits the data: the remaining
+     * bytes of all the given buffers are gathered, in order, into exactly one packet. The data is
+     * written directly from the buffers to the underlying socket, which makes it suitable for
+     * direct {@link ByteBuffer}s. The position of each buffer is advanced by the number of bytes
+     * written from it.
+     *
+     * @param srcs the buffers holding the packet
+     * @return the size of the packet written, in bytes
+     * @throws IOException on error, for example if the socket has been closed
+     * @throws IllegalArgumentException if the packet is larger than {@link
+     *     #getMaxTransmitPacketSize()}
+     * @throws UnsupportedOperationException if this is not an L2CAP socket
+     */
+    @FlaggedApi("com.android.bluetooth.flags.l2cap_packet_socket_api")
+    @RequiresNoPermission
+    public int writePacket(@NonNull ByteBuffer... srcs) throws IOException {
+        checkPacketApiSupported();
+        int length = totalRemaining(srcs);
+        if (length > mMaxTxPacketSize) {
+            throw new IllegalArgumentException(
+                    "packet of " + length + " bytes exceeds " + mMaxTxPacketSize + " bytes");
+        }
+        FileDescriptor fd = getPacketFileDescriptor();
+        Object[] buffers = new Object[srcs.length];
+        int[] offsets = new int[srcs.length];
+        int[] counts = new int[srcs.length];
+        for (int i = 0; i < srcs.length; i++) {
+            ByteBuffer src = srcs[i];
+            if (src.isDirect()) {
+                buffers[i] = src;
+                offsets[i] = src.position();
+            } else if (src.hasArray()) {
+                buffers[i] = src.array();
+                offsets[i] = src.arrayOffset() + src.position();
+            } else {
+                // Read-only heap buffer: its backing array is not accessible
+                byte[] copy = new byte[src.remaining()];
+                src.duplicate().get(copy);
+                buffers[i] = copy;
+                offsets[i] = 0;
+            }
+            counts[i] = src.remaining();
+        }
+        int ret;
+        try {
+            ret = Os.writev(fd, buffers, offsets, counts);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        if (ret != length) {
+            throw new IOException("short packet write: " + ret + " of " + length + " bytes");
+        }
+        for (ByteBuffer src : srcs) {
+            src.position(src.limit());
+        }
+        if (VDBG) Log.d(TAG, "writePacket: " + mSocketOS + " length: " + length);
+        return length;
+    }
+
+    /**
+     * Register a listener invoked on the given {@link Looper} whenever this socket becomes ready
+     * for I/O, instead of dedicating a blocking thread to it.
+     *
+     * <p>This allows a single event loop thread to service many connected sockets (and, through
+     * {@link BluetoothServerSocket#setOnEventListener}, many listening sockets). Once {@link
+     * MessageQueue.OnFileDescriptorEventListener#EVENT_INPUT} is reported, at least one byte (or,
+     * for L2CAP, one packet through {@link #readPacket}) can be read without blocking. The
+     * listener keeps being invoked for as long as it returns a non-zero event mask, as described
+     * in {@link MessageQueue.OnFileDescriptorEventListener#onFileDescriptorEvents}.
+     *
+     * <p>Data already received but not yet read, such as the rest of an L2CAP packet partially
+     * read through {@link #getInputStream()}, is reported as {@link
+     * MessageQueue.OnFileDescriptorEventListener#EVENT_INPUT} as well, until it has been read.
+     *
+     * <p>Only one listener can be registered at a time; registering a new one replaces the
+     * previous one. The listener is automatically removed when the socket is closed.
+     *
+     * @param looper the looper whose thread will invoke the listener
+     * @param events the events to listen for, a combination of {@link
+     *     MessageQueue.OnFileDescriptorEventListener#EVENT_INPUT}, {@link
+     *     MessageQueue.OnFileDescriptorEventListener#EVENT_OUTPUT} and {@link
+     *     MessageQueue.OnFileDescriptorEventListener#EVENT_ERROR}
+     * @param listener the listener to invoke
+     * @throws IOException if the socket is not connected or listening
+     */
+    @FlaggedApi("com.android.bluetooth.flags.socket_event_listener_api")
+    @RequiresNoPermission
+    public void setOnEventListener(
+            @NonNull Looper looper,
+            int events,
+            @NonNull MessageQueue.OnFileDescriptorEventListener listener)
+            throws IOException {
+        synchronized (this) {
+            if (mSocketState != SocketState.CONNECTED && mSocketState != SocketState.LISTENING) {
+                throw new IOException("socket is not connected or listening");
+            }
+            removeOnEventListenerLocked();
+            mEventListener =
+                    new EventListenerRecord(looper, mSocket.getFileDescriptor(), events, listener);
+            mEventListener.mQueue.addOnFileDescriptorEventListener(
+                    mEventListener.mFd, events, mEventListener);
+            mEventListener.postBufferedInput();
+        }
+    }
+
+    /**
+     * Remove the listener registered with {@link #setOnEventListener}, if any.
+     */
+    @FlaggedApi("com.android.bluetooth.flags.socket_event_listener_api")
+    @RequiresNoPermission
+    public void removeOnEventListener() {
+        synchronized (this) {
+            removeOnEventListenerLocked();
+        }
+    }
+
+    private void removeOnEventListenerLocked() {
+        if (mEventListener != null) {
+            mEventListener.mQueue.removeOnFileDescriptorEventListener(mEventListener.mFd);
+            mEventListener.mHandler.removeCallbacks(mEventListener);
+            mEventListener = null;
+        }
+    }
+
+    private boolean hasBufferedInput() {
+        ByteBuffer buffer = mL2capBuffer;
+        return buffer != null && buffer.remaining() > 0;
+    }
+
+    /**
+     * Forwards the events of the socket to a registered listener. The data drained from the
+     * socket into mL2capBuffer no longer makes the socket readable: it is reported as input from
+     * a message posted on the looper instead, as long as the listener listens for input.
+     */
+    private final class EventListenerRecord
+            implements MessageQueue.OnFileDescriptorEventListener, Runnable {
+        final MessageQueue mQueue;
+        final Handler mHandler;
+        final FileDescriptor mFd;
+        final MessageQueue.OnFileDescriptorEventListener mListener;
+        /** events listened for, protected by BluetoothSocket.this */
+        int mEvents;
+
+        EventListenerRecord(
+                Looper looper,
+                FileDescriptor fd,
+                int events,
+                MessageQueue.OnFileDescriptorEventListener listener) {
+            mQueue = looper.getQueue();
+            mHandler = new Handler(looper);
+            mFd = fd;
+            mEvents = events;
+            mListener = listener;
+        }
+
+        @Override
+        public int onFileDescriptorEvents(FileDescriptor fd, int events) {
+            int newEvents = mListener.onFileDescriptorEvents(fd, events);
+            synchronized (BluetoothSocket.this) {
+                if (mEventListener != this) {
+                    return newEvents;
+                }
+                if (newEvents == 0) {
+                    // The queue removes the listener once we return
+                    mHandler.removeCallbacks(this);
+                    mEventListener = null;
+                    return 0;
+                }
+                mEvents = newEvents;
+                postBufferedInput();
+            }
+            return newEvents;
+        }
+
+        /** Reports the buffered input. */
+        @Override
+        public void run() {
+            synchronized (BluetoothSocket.this) {
+                if (mEventListener != this || !hasBufferedInput()) {
+                    return;
+                }
+            }
+            int newEvents = mListener.onFileDescriptorEvents(mFd, EVENT_INPUT);
+            synchronized (BluetoothSocket.this) {
+                if (mEventListener != this) {
+                    return;
+                }
+                if (newEvents == 0) {
+                    removeOnEventListenerLocked();
+                    return;
+                }
+                if (newEvents != mEvents) {
+                    mEvents = newEvents;
+                    mQueue.addOnFileDescriptorEventListener(mFd, newEvents, this);
+                }
+                postBufferedInput();
+            }
+        }
+
+        /** Posts a report of the buffered input, if any and listened for. */
+        void postBufferedInput() {
+            if ((mEvents & EVENT_INPUT) != 0
+                    && hasBufferedInput()
+                    && !mHandler.hasCallbacks(this)) {
+                mHandler.post(this);
+            }
+        }
+    }
+
+    private void checkPacketApiSupported() {
+        if ((mType != TYPE_L2CAP) && (mType != TYPE_L2CAP_LE)) {
+            throw new UnsupportedOperationException("packet API is only supported for L2CAP");
+        }
+    }
+
+    private FileDescriptor getPacketFileDescriptor() throws IOException {
+        LocalSocket socket = mSocket;
+        if (mSocketState == SocketState.CLOSED || socket == null) {
+            throw new IOException("socket closed");
+        }
+        return socket.getFileDescriptor();
+    }
+
+    private int readPacketInto(ByteBuffer dst) throws IOException {
+        int ret;
+        try {
+            // Advances the position of dst
+            ret = Os.read(getPacketFileDescriptor(), dst);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        return ret == 0 ? -1 : ret;
+    }
+
+    private int readPacketScattered(ByteBuffer[] dsts) throws IOException {
+        Object[] buffers = new Object[dsts.length];
+        int[] offsets = new int[dsts.length];
+        int[] counts = new int[dsts.length];
+        for (int i = 0; i < dsts.length; i++) {
+            ByteBuffer dst = dsts[i];
+            if (dst.hasArray()) {
+                buffers[i] = dst.array();
+                offsets[i] = dst.arrayOffset() + dst.position();
+            } else {
+                buffers[i] = dst;
+                offsets[i] = dst.position();
+            }
+            counts[i] = dst.remaining();
+        }
+        int ret;
+        try {
+            ret = Os.readv(getPacketFileDescriptor(), buffers, offsets, counts);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        if (ret == 0) {
+            return -1;
+        }
+        int left = ret;
+        for (ByteBuffer dst : dsts) {
+            int filled = Math.min(left, dst.remaining());
+            dst.position(dst.position() + filled);
+            left -= filled;
+        }
+        return ret;
+    }
+
+    private static int totalRemaining(ByteBuffer[] buffers) {
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
     @Override
     public void close() throws IOException {
         Log.d(
@@ -744,6 +1150,7 @@ public final class BluetoothSocket implements Closeable {
                     return;
                 }
                 mSocketState = SocketState.CLOSED;
+                removeOnEventListenerLocked();
                 if (mSocket != null) {
                     if (DBG) Log.d(TAG, "Closing mSocket: " + mSocket);
                     mSocket.shutdownInput();
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static android.os.MessageQueue.OnFileDescriptorEventListener.EVENT_INPUT;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.MessageQueue;
+import android.os.ParcelFileDescriptor;
+import android.os.ParcelUuid;
+import android.os.test.TestLooper;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test cases for the packet API and the event listeners of {@link BluetoothSocket}, over a local
+ * socket pair.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothSocketTest {
+    private static final int MAX_RX_PACKET_SIZE = 8;
+    private static final int MAX_TX_PACKET_SIZE = 6;
+    private static final ParcelUuid SERIAL_PORT =
+            ParcelUuid.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private BluetoothDevice mDevice;
+    private BluetoothSocket mSocket;
+    private ParcelFileDescriptor mPeer;
+    private TestLooper mLooper;
+    private List<Integer> mReadBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:01:02:03:04:05");
+        ParcelFileDescriptor[] pair =
+                ParcelFileDescriptor.createSocketPair(OsConstants.SOCK_SEQPACKET);
+        mSocket =
+                BluetoothSocket.createL2capSocketFromOpenFd(
+                        pair[0], mDevice, MAX_RX_PACKET_SIZE, MAX_TX_PACKET_SIZE);
+        mPeer = pair[1];
+        mLooper = new TestLooper();
+        mReadBytes = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSocket.close();
+        mPeer.close();
+    }
+
+    private void sendFromPeer(byte... packet) throws Exception {
+        Os.write(mPeer.getFileDescriptor(), packet, 0, packet.length);
+    }
+
+    private byte[] receiveOnPeer() throws Exception {
+        byte[] buffer = new byte[MAX_TX_PACKET_SIZE + 1];
+        int size = Os.read(mPeer.getFileDescriptor(), buffer, 0, buffer.length);
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private static byte[] received(ByteBuffer buffer) {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /** Returns a listener reading one byte per event, then returning {@code events}. */
+    private MessageQueue.OnFileDescriptorEventListener readOneByte(int events) {
+        return (fd, reported) -> {
+            assertThat(reported).isEqualTo(EVENT_INPUT);
+            try {
+                mReadBytes.add(mSocket.getInputStream().read());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return events;
+        };
+    }
+
+    @Test
+    public void readPacket_packetBoundariesPreserved() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2, (byte) 3);
+        sendFromPeer((byte) 4, (byte) 5);
+        ByteBuffer first = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        ByteBuffer second = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+
+        assertThat(mSocket.readPacket(first)).isEqualTo(3);
+        assertThat(mSocket.readPacket(second)).isEqualTo(2);
+
+        assertThat(received(first)).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(received(second)).isEqualTo(new byte[] {4, 5});
+    }
+
+    @Test
+    public void readPacket_directBuffer() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2);
+        ByteBuffer dst = ByteBuffer.allocateDirect(MAX_RX_PACKET_SIZE);
+
+        assertThat(mSocket.readPacket(dst)).isEqualTo(2);
+
+        assertThat(dst.position()).isEqualTo(2);
+        assertThat(dst.get(0)).isEqualTo(1);
+        assertThat(dst.get(1)).isEqualTo(2);
+    }
+
+    @Test
+    public void readPacket_scatteredAcrossBuffers() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5, (byte) 6);
+        ByteBuffer first = ByteBuffer.allocate(4);
+        ByteBuffer second = ByteBuffer.allocate(4);
+
+        assertThat(mSocket.readPacket(first, second)).isEqualTo(6);
+
+        assertThat(received(first)).isEqualTo(new byte[] {1, 2, 3, 4});
+        assertThat(received(second)).isEqualTo(new byte[] {5, 6});
+    }
+
+    @Test
+    public void readPacket_partiallyReadThroughStream_restHandedOver() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2, (byte) 3);
+        sendFromPeer((byte) 4);
+        ByteBuffer rest = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        ByteBuffer next = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+
+        assertThat(mSocket.getInputStream().read()).isEqualTo(1);
+        assertThat(mSocket.readPacket(rest)).isEqualTo(2);
+        assertThat(mSocket.readPacket(next)).isEqualTo(1);
+
+        assertThat(received(rest)).isEqualTo(new byte[] {2, 3});
+        assertThat(received(next)).isEqualTo(new byte[] {4});
+    }
+
+    @Test
+    public void readPacket_bufferTooShort_throws() {
+        ByteBuffer dst = ByteBuffer.allocate(MAX_RX_PACKET_SIZE - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.readPacket(dst));
+    }
+
+    @Test
+    public void readPacket_scatteredBuffersTooShort_throws() {
+        ByteBuffer first = ByteBuffer.allocate(MAX_RX_PACKET_SIZE / 2);
+        ByteBuffer second = ByteBuffer.allocate(MAX_RX_PACKET_SIZE / 2 - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.readPacket(first, second));
+    }
+
+    @Test
+    public void readPacket_readOnlyBuffer_throws() throws Exception {
+        sendFromPeer((byte) 1);
+        ByteBuffer dst = ByteBuffer.allocate(MAX_RX_PACKET_SIZE).asReadOnlyBuffer();
+        ByteBuffer writable = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.readPacket(dst));
+        assertThrows(IllegalArgumentException.class, () -> mSocket.readPacket(writable, dst));
+
+        // The packet is left for the next read
+        assertThat(mSocket.readPacket(writable)).isEqualTo(1);
+    }
+
+    @Test
+    public void readPacket_endOfStream_returnsMinusOne() throws Exception {
+        mPeer.close();
+
+        assertThat(mSocket.readPacket(ByteBuffer.allocate(MAX_RX_PACKET_SIZE))).isEqualTo(-1);
+    }
+
+    @Test
+    public void readPackets_allQueuedPacketsRead() throws Exception {
+        sendFromPeer((byte) 1);
+        sendFromPeer((byte) 2, (byte) 3);
+        sendFromPeer((byte) 4, (byte) 5, (byte) 6);
+        ByteBuffer[] dsts = new ByteBuffer[4];
+        for (int i = 0; i < dsts.length; i++) {
+            dsts[i] = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        }
+        int[] sizes = new int[dsts.length];
+
+        assertThat(mSocket.readPackets(dsts, sizes)).isEqualTo(3);
+
+        assertThat(Arrays.copyOf(sizes, 3)).isEqualTo(new int[] {1, 2, 3});
+        assertThat(received(dsts[0])).isEqualTo(new byte[] {1});
+        assertThat(received(dsts[1])).isEqualTo(new byte[] {2, 3});
+        assertThat(received(dsts[2])).isEqualTo(new byte[] {4, 5, 6});
+        assertThat(dsts[3].position()).isEqualTo(0);
+    }
+
+    @Test
+    public void readPackets_moreQueuedThanBuffers_restLeftQueued() throws Exception {
+        sendFromPeer((byte) 1);
+        sendFromPeer((byte) 2);
+        ByteBuffer[] dsts = new ByteBuffer[] {ByteBuffer.allocate(MAX_RX_PACKET_SIZE)};
+        int[] sizes = new int[1];
+
+        assertThat(mSocket.readPackets(dsts, sizes)).isEqualTo(1);
+
+        ByteBuffer next = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        assertThat(mSocket.readPacket(next)).isEqualTo(1);
+        assertThat(received(next)).isEqualTo(new byte[] {2});
+    }
+
+    @Test
+    public void readPackets_endOfStream_returnsMinusOne() throws Exception {
+        mPeer.close();
+        ByteBuffer[] dsts = new ByteBuffer[] {ByteBuffer.allocate(MAX_RX_PACKET_SIZE)};
+
+        assertThat(mSocket.readPackets(dsts, new int[1])).isEqualTo(-1);
+    }
+
+    @Test
+    public void readPackets_sizesTooShort_throws() {
+        ByteBuffer[] dsts =
+                new ByteBuffer[] {
+                    ByteBuffer.allocate(MAX_RX_PACKET_SIZE), ByteBuffer.allocate(MAX_RX_PACKET_SIZE)
+                };
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.readPackets(dsts, new int[1]));
+    }
+
+    @Test
+    public void writePacket_buffersGatheredIntoOnePacket() throws Exception {
+        ByteBuffer first = ByteBuffer.wrap(new byte[] {1, 2});
+        ByteBuffer second = ByteBuffer.allocateDirect(3);
+        second.put(new byte[] {3, 4, 5}).flip();
+        ByteBuffer third = ByteBuffer.wrap(new byte[] {6}).asReadOnlyBuffer();
+
+        assertThat(mSocket.writePacket(first, second, third)).isEqualTo(6);
+
+        assertThat(receiveOnPeer()).isEqualTo(new byte[] {1, 2, 3, 4, 5, 6});
+        assertThat(first.hasRemaining()).isFalse();
+        assertThat(second.hasRemaining()).isFalse();
+        assertThat(third.hasRemaining()).isFalse();
+    }
+
+    @Test
+    public void writePacket_packetBoundariesPreserved() throws Exception {
+        mSocket.writePacket(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        mSocket.writePacket(ByteBuffer.wrap(new byte[] {4}));
+
+        assertThat(receiveOnPeer()).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(receiveOnPeer()).isEqualTo(new byte[] {4});
+    }
+
+    @Test
+    public void writePacket_packetTooLarge_throws() {
+        ByteBuffer src = ByteBuffer.allocate(MAX_TX_PACKET_SIZE + 1);
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.writePacket(src));
+        assertThat(src.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void writePacket_closed_throws() throws Exception {
+        mSocket.close();
+
+        assertThrows(
+                IOException.class, () -> mSocket.writePacket(ByteBuffer.wrap(new byte[] {1})));
+    }
+
+    @Test
+    public void packetApi_rfcommSocket_throws() throws Exception {
+        ParcelFileDescriptor[] pair =
+                ParcelFileDescriptor.createSocketPair(OsConstants.SOCK_STREAM);
+        BluetoothSocket rfcomm =
+                BluetoothSocket.createSocketFromOpenFd(pair[0], mDevice, SERIAL_PORT);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        try {
+            assertThrows(UnsupportedOperationException.class, () -> rfcomm.readPacket(buffer));
+            assertThrows(
+                    UnsupportedOperationException.class,
+                    () -> rfcomm.readPackets(new ByteBuffer[] {buffer}, new int[1]));
+            assertThrows(UnsupportedOperationException.class, () -> rfcomm.writePacket(buffer));
+        } finally {
+            rfcomm.close();
+            pair[1].close();
+        }
+    }
+
+    @Test
+    public void setOnEventListener_bufferedInput_reportedUntilRead() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2, (byte) 3);
+        assertThat(mSocket.getInputStream().read()).isEqualTo(1);
+
+        mSocket.setOnEventListener(mLooper.getLooper(), EVENT_INPUT, readOneByte(EVENT_INPUT));
+        mLooper.dispatchAll();
+
+        assertThat(mReadBytes).containsExactly(2, 3).inOrder();
+    }
+
+    @Test
+    public void setOnEventListener_bufferedInputReadAsPacket_reportedOnce() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2, (byte) 3);
+        assertThat(mSocket.getInputStream().read()).isEqualTo(1);
+        ByteBuffer rest = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        List<Integer> sizes = new ArrayList<>();
+
+        mSocket.setOnEventListener(
+                mLooper.getLooper(),
+                EVENT_INPUT,
+                (fd, events) -> {
+                    try {
+                        sizes.add(mSocket.readPacket(rest));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return EVENT_INPUT;
+                });
+        mLooper.dispatchAll();
+
+        assertThat(sizes).containsExactly(2);
+        assertThat(received(rest)).isEqualTo(new byte[] {2, 3});
+    }
+
+    @Test
+    public void setOnEventListener_listenerReturnsZero_notReportedAgain() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2, (byte) 3);
+        assertThat(mSocket.getInputStream().read()).isEqualTo(1);
+
+        mSocket.setOnEventListener(mLooper.getLooper(), EVENT_INPUT, readOneByte(0));
+        mLooper.dispatchAll();
+        assertThat(mReadBytes).containsExactly(2);
+
+        // Registering again reports what is left
+        mSocket.setOnEventListener(mLooper.getLooper(), EVENT_INPUT, readOneByte(0));
+        mLooper.dispatchAll();
+        assertThat(mReadBytes).containsExactly(2, 3).inOrder();
+    }
+
+    @Test
+    public void setOnEventListener_noBufferedInput_notReported() throws Exception {
+        mSocket.setOnEventListener(mLooper.getLooper(), EVENT_INPUT, readOneByte(EVENT_INPUT));
+
+        assertThat(mLooper.isIdle()).isFalse();
+        assertThat(mReadBytes).isEmpty();
+    }
+
+    @Test
+    public void setOnEventListener_inputNotListenedFor_bufferedInputNotReported()
+            throws Exception {
+        sendFromPeer((byte) 1, (byte) 2);
+        assertThat(mSocket.getInputStream().read()).isEqualTo(1);
+
+        mSocket.setOnEventListener(
+                mLooper.getLooper(),
+                MessageQueue.OnFileDescriptorEventListener.EVENT_ERROR,
+                readOneByte(0));
+
+        assertThat(mLooper.isIdle()).isFalse();
+    }
+
+    @Test
+    public void removeOnEventListener_bufferedInputNotReported() throws Exception {
+        sendFromPeer((byte) 1, (byte) 2);
+        assertThat(mSocket.getInputStream().read()).isEqualTo(1);
+        mSocket.setOnEventListener(mLooper.getLooper(), EVENT_INPUT, readOneByte(EVENT_INPUT));
+
+        mSocket.removeOnEventListener();
+        mLooper.dispatchAll();
+
+        assertThat(mReadBytes).isEmpty();
+    }
+
+    @Test
+    public void setOnEventListener_closed_throws() throws Exception {
+        mSocket.close();
+
+        assertThrows(
+                IOException.class,
+                () ->
+                        mSocket.setOnEventListener(
+                                mLooper.getLooper(), EVENT_INPUT, readOneByte(EVENT_INPUT)));
+    }
+}